@@ -0,0 +1,155 @@
+package com.laytonsmith.benchmarks;
+
+import com.laytonsmith.PureUtilities.ClassDiscovery;
+import com.laytonsmith.PureUtilities.StreamUtils;
+import com.laytonsmith.abstraction.Implementation;
+import com.laytonsmith.abstraction.MCPlayer;
+import com.laytonsmith.abstraction.MCServer;
+import com.laytonsmith.commandhelper.CommandHelperPlugin;
+import com.laytonsmith.core.AliasCore;
+import com.laytonsmith.core.Static;
+import com.laytonsmith.testing.StaticTest;
+import com.sk89q.wepif.PermissionsResolverManager;
+import java.io.File;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.MalformedURLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import static org.mockito.Mockito.mock;
+
+/**
+ * Sets up the same headless server environment the tests use (the TEST implementation,
+ * with StaticTest's convertor and event mixin), so the benchmarks can compile and run
+ * scripts, and fire events, without a Minecraft server.
+ *
+ * Mockito mocks remember every call made on them, which would skew long benchmark runs,
+ * so the objects that are hit on every iteration (the player and the server) are simple
+ * stubs instead.
+ * @author layton
+ */
+public final class BenchmarkEnvironment {
+
+    private BenchmarkEnvironment(){}
+
+    public static final String PLAYER_NAME = "wraithguard01";
+    /**
+     * The names of the scripts in the corpus.
+     */
+    public static final String[] CORPUS = new String[]{"loops", "procs", "closures", "arrays", "strings", "switch"};
+
+    private static MCPlayer player;
+    private static MCServer server;
+
+    /**
+     * Installs the fake server. This may be called multiple times.
+     * @throws Exception
+     */
+    public static synchronized void Install() throws Exception{
+        if(player != null){
+            return;
+        }
+        try {
+            ClassDiscovery.InstallDiscoveryLocation(new File("./target/test-classes").toURI().toURL().toString());
+        } catch (MalformedURLException ex) {
+            throw new RuntimeException(ex);
+        }
+        Implementation.setServerType(Implementation.Type.TEST);
+        Map<String, Object> playerValues = new HashMap<String, Object>();
+        playerValues.put("getName", PLAYER_NAME);
+        playerValues.put("isOnline", true);
+        playerValues.put("isOp", true);
+        playerValues.put("isNewPlayer", false);
+        player = Stub(MCPlayer.class, playerValues);
+
+        Map<String, Object> serverValues = new HashMap<String, Object>();
+        serverValues.put("getPlayer", player);
+        serverValues.put("getOnlinePlayers", new MCPlayer[]{player});
+        server = Stub(MCServer.class, serverValues);
+
+        CommandHelperPlugin.myServer = server;
+        Static.perms = mock(PermissionsResolverManager.class);
+        Static.InjectPlayer(player);
+        SetStatic(StaticTest.TestConvertor.class, "fakeServer", server);
+        StaticTest.FakeServerMixin.fakePlayer = player;
+
+        AliasCore core = mock(AliasCore.class);
+        core.autoIncludes = new ArrayList<File>();
+        SetStatic(CommandHelperPlugin.class, "ac", core);
+    }
+
+    public static MCPlayer GetPlayer(){
+        return player;
+    }
+
+    /**
+     * Returns the contents of the named script in the corpus.
+     * @param name
+     * @return
+     */
+    public static String GetScript(String name){
+        InputStream is = BenchmarkEnvironment.class.getResourceAsStream("corpus/" + name + ".ms");
+        if(is == null){
+            throw new IllegalArgumentException("No such script in the corpus: " + name);
+        }
+        try {
+            return StreamUtils.GetString(is, "UTF-8");
+        } catch (UnsupportedEncodingException ex) {
+            throw new Error(ex);
+        }
+    }
+
+    /**
+     * Creates an object that implements the given interface, which returns the given values
+     * from the methods with the matching names, and defaults (null, false, 0) from everything else.
+     * @param iface
+     * @param values
+     * @return
+     */
+    public static <T> T Stub(Class<T> iface, final Map<String, Object> values){
+        return (T) Proxy.newProxyInstance(iface.getClassLoader(), new Class[]{iface}, new InvocationHandler() {
+
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                if(values.containsKey(method.getName())){
+                    return values.get(method.getName());
+                }
+                if(method.getName().equals("hashCode") && method.getParameterTypes().length == 0){
+                    return System.identityHashCode(proxy);
+                }
+                if(method.getName().equals("equals") && method.getParameterTypes().length == 1){
+                    return proxy == args[0];
+                }
+                Class r = method.getReturnType();
+                if(r == boolean.class){
+                    return false;
+                } else if(r == int.class){
+                    return 0;
+                } else if(r == long.class){
+                    return 0L;
+                } else if(r == double.class){
+                    return 0.0;
+                } else if(r == float.class){
+                    return 0.0f;
+                } else if(r == short.class){
+                    return (short)0;
+                } else if(r == byte.class){
+                    return (byte)0;
+                } else if(r == char.class){
+                    return (char)0;
+                }
+                return null;
+            }
+        });
+    }
+
+    private static void SetStatic(Class c, String name, Object value) throws Exception{
+        Field f = c.getDeclaredField(name);
+        f.setAccessible(true);
+        f.set(null, value);
+    }
+}
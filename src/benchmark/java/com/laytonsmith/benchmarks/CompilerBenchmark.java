@@ -0,0 +1,54 @@
+package com.laytonsmith.benchmarks;
+
+import com.laytonsmith.core.GenericTreeNode;
+import com.laytonsmith.core.MethodScriptCompiler;
+import com.laytonsmith.core.constructs.Construct;
+import com.laytonsmith.core.constructs.Token;
+import com.laytonsmith.core.exceptions.ConfigCompileException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Measures the lexer, and the compiler (which includes the optimizer), on each script
+ * in the corpus.
+ * @author layton
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CompilerBenchmark {
+
+    @Param({"loops", "procs", "closures", "arrays", "strings", "switch"})
+    public String script;
+
+    private String source;
+    private List<Token> tokens;
+
+    @Setup
+    public void setup() throws Exception {
+        BenchmarkEnvironment.Install();
+        source = BenchmarkEnvironment.GetScript(script);
+        tokens = MethodScriptCompiler.lex(source, null);
+    }
+
+    @Benchmark
+    public List<Token> lex() throws ConfigCompileException {
+        return MethodScriptCompiler.lex(source, null);
+    }
+
+    @Benchmark
+    public GenericTreeNode<Construct> compile() throws ConfigCompileException {
+        //compile consumes the token list, so hand it a copy
+        return MethodScriptCompiler.compile(new ArrayList<Token>(tokens));
+    }
+
+    @Benchmark
+    public GenericTreeNode<Construct> lexAndCompile() throws ConfigCompileException {
+        return MethodScriptCompiler.compile(MethodScriptCompiler.lex(source, null));
+    }
+}
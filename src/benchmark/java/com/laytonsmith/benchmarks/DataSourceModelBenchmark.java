@@ -0,0 +1,65 @@
+package com.laytonsmith.benchmarks;
+
+import com.laytonsmith.persistance.DataSourceModel;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Measures the model the file based data sources keep in memory, with a single wide
+ * namespace (players.&lt;name&gt;.name), which is the usual layout for per player data.
+ * @author layton
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DataSourceModelBenchmark {
+
+    @Param({"100", "10000", "100000"})
+    public int children;
+
+    private DataSourceModel model;
+    private String[][] keys;
+    private int next = 0;
+
+    @Setup
+    public void setup() {
+        model = new DataSourceModel((Map<String, Object>)null);
+        keys = new String[children][];
+        for(int i = 0; i < children; i++){
+            keys[i] = new String[]{"players", "player" + i, "name"};
+            model.set(keys[i], "player" + i);
+        }
+    }
+
+    private String[] nextKey(){
+        next = (next + 7919) % children;
+        return keys[next];
+    }
+
+    @Benchmark
+    public String get() {
+        return model.get(nextKey());
+    }
+
+    @Benchmark
+    public void set() {
+        model.set(nextKey(), "changed");
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public List<String[]> keySet() {
+        return model.keySet();
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public Map<String, Object> toMap() {
+        return model.toMap();
+    }
+}
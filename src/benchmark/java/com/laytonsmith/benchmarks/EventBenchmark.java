@@ -0,0 +1,59 @@
+package com.laytonsmith.benchmarks;
+
+import com.laytonsmith.abstraction.events.MCPlayerJoinEvent;
+import com.laytonsmith.core.Env;
+import com.laytonsmith.core.MethodScriptCompiler;
+import com.laytonsmith.core.events.Driver;
+import com.laytonsmith.core.events.EventUtils;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Measures dispatching a single event to a number of bound handlers, some of which
+ * are filtered out by their prefilters.
+ * @author layton
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class EventBenchmark {
+
+    @Param({"1", "10", "100"})
+    public int handlers;
+
+    private MCPlayerJoinEvent event;
+
+    @Setup
+    public void setup() throws Exception {
+        BenchmarkEnvironment.Install();
+        StringBuilder b = new StringBuilder();
+        for(int i = 0; i < handlers; i++){
+            if(i % 2 == 0){
+                b.append("bind(player_join, null, null, @event, assign(@p, @event['player']))\n");
+            } else {
+                b.append("bind(player_join, null, array(player: 'nobody").append(i).append("'), @event, assign(@p, @event['player']))\n");
+            }
+        }
+        Env env = new Env();
+        MethodScriptCompiler.execute(MethodScriptCompiler.compile(MethodScriptCompiler.lex(b.toString(), null)), env, null, null);
+        Map<String, Object> values = new HashMap<String, Object>();
+        values.put("getPlayer", BenchmarkEnvironment.GetPlayer());
+        values.put("getJoinMessage", BenchmarkEnvironment.PLAYER_NAME + " joined the game");
+        event = BenchmarkEnvironment.Stub(MCPlayerJoinEvent.class, values);
+    }
+
+    @TearDown
+    public void tearDown(){
+        EventUtils.UnregisterAll();
+    }
+
+    @Benchmark
+    public void dispatch() {
+        EventUtils.TriggerListener(Driver.PLAYER_JOIN, "player_join", event);
+    }
+}
@@ -0,0 +1,40 @@
+package com.laytonsmith.benchmarks;
+
+import com.laytonsmith.core.Env;
+import com.laytonsmith.core.GenericTreeNode;
+import com.laytonsmith.core.MethodScriptCompiler;
+import com.laytonsmith.core.constructs.Construct;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Measures running each precompiled script in the corpus, as Script.eval would from an
+ * alias or event handler.
+ * @author layton
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class InterpreterBenchmark {
+
+    @Param({"loops", "procs", "closures", "arrays", "strings", "switch"})
+    public String script;
+
+    private GenericTreeNode<Construct> tree;
+
+    @Setup
+    public void setup() throws Exception {
+        BenchmarkEnvironment.Install();
+        tree = MethodScriptCompiler.compile(MethodScriptCompiler.lex(BenchmarkEnvironment.GetScript(script), null));
+    }
+
+    @Benchmark
+    public Construct eval() {
+        Env env = new Env();
+        env.SetPlayer(BenchmarkEnvironment.GetPlayer());
+        return MethodScriptCompiler.execute(tree, env, null, null);
+    }
+}
@@ -0,0 +1,98 @@
+package com.laytonsmith.benchmarks;
+
+import com.laytonsmith.PureUtilities.FileUtility;
+import com.laytonsmith.persistance.DataSource;
+import com.laytonsmith.persistance.DataSourceFactory;
+import com.laytonsmith.persistance.io.ConnectionMixinFactory;
+import java.io.File;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Compares the persistance backends with a large database. The keys are in groups
+ * of 10 (group.key), so a namespace lookup returns 10 keys. The database is filled
+ * once per trial, with writebehind where it's supported, so the setup doesn't take
+ * forever, and then reopened without it, so set measures the normal write path.
+ * @author layton
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PersistanceBenchmark {
+
+    @Param({"ser", "yml", "sqlite"})
+    public String backend;
+
+    @Param({"1000000"})
+    public int keys;
+
+    private File folder;
+    private DataSource ds;
+    private int next = 0;
+    private long counter = 0;
+
+    @Setup
+    public void setup() throws Exception {
+        BenchmarkEnvironment.Install();
+        folder = File.createTempFile("persistance", "");
+        folder.delete();
+        folder.mkdirs();
+        ConnectionMixinFactory.ConnectionMixinOptions options = new ConnectionMixinFactory.ConnectionMixinOptions();
+        options.setWorkingDirectory(folder);
+        options.setWriteBehindInterval(Long.MAX_VALUE / 2);
+        String uri = backend + "://database." + backend;
+        if("ser".equals(backend)){
+            //ser doesn't use the working directory
+            uri = "ser://" + new File(folder, "database.ser").getAbsolutePath();
+        }
+        DataSource fill = DataSourceFactory.GetDataSource(("ser".equals(backend) ? "" : "writebehind:") + uri, options);
+        for(int i = 0; i < keys; i++){
+            fill.set(Key(i), "value" + i);
+        }
+        fill.disconnect();
+        ds = DataSourceFactory.GetDataSource(uri, options);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        ds.disconnect();
+        FileUtility.recursiveDelete(folder);
+    }
+
+    private static String[] Key(int i){
+        return new String[]{"group" + (i / 10), "key" + (i % 10)};
+    }
+
+    /**
+     * Walks through the keys in a scattered order, so the same few keys aren't hit every time.
+     */
+    private int nextIndex(){
+        next = (int)((next + 7919L) % keys);
+        return next;
+    }
+
+    @Benchmark
+    public String get() throws Exception {
+        return ds.get(Key(nextIndex()), false);
+    }
+
+    @Benchmark
+    public boolean set() throws Exception {
+        return ds.set(Key(nextIndex()), "changed" + (counter++));
+    }
+
+    @Benchmark
+    public List<String[]> getNamespace() throws Exception {
+        return ds.getNamespace(new String[]{"group" + (nextIndex() / 10)});
+    }
+
+    @Benchmark
+    public Map<String[], String> getValues() throws Exception {
+        return ds.getValues(new String[]{"group" + (nextIndex() / 10)});
+    }
+}
@@ -0,0 +1,106 @@
+package com.laytonsmith.benchmarks;
+
+import com.laytonsmith.PureUtilities.FileUtility;
+import com.laytonsmith.persistance.PersistanceNetwork;
+import com.laytonsmith.persistance.io.ConnectionMixinFactory;
+import java.io.File;
+import java.net.URI;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Measures a persistance network used from several threads at once, where some of
+ * the keys are in a fast local file, and the rest are in a slow data source (see
+ * {@link SlowDataSource}). The interesting number is fastGet in the mixed group, which
+ * should be close to fastGet on its own, since reading the slow data source shouldn't
+ * hold up keys that aren't in it.
+ * @author layton
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PersistanceContentionBenchmark {
+
+    private static final int KEYS = 1000;
+
+    private File folder;
+    private PersistanceNetwork network;
+    private final AtomicInteger next = new AtomicInteger();
+
+    @Setup
+    public void setup() throws Exception {
+        BenchmarkEnvironment.Install();
+        folder = File.createTempFile("persistance", "");
+        folder.delete();
+        folder.mkdirs();
+        ConnectionMixinFactory.ConnectionMixinOptions options = new ConnectionMixinFactory.ConnectionMixinOptions();
+        options.setWorkingDirectory(folder);
+        network = new PersistanceNetwork("**=ser://" + new File(folder, "local.ser").getAbsolutePath()
+                + "\nremote.**=writebehind:slowini://remote.ini", new URI(""), options);
+        long latency = SlowDataSource.LATENCY;
+        SlowDataSource.LATENCY = 0;
+        for(int i = 0; i < KEYS; i++){
+            network.set(LocalKey(i), "value" + i);
+            network.set(RemoteKey(i), "value" + i);
+        }
+        SlowDataSource.LATENCY = latency;
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        network.disconnect();
+        FileUtility.recursiveDelete(folder);
+    }
+
+    private static String[] LocalKey(int i){
+        return new String[]{"local", "key" + i};
+    }
+
+    private static String[] RemoteKey(int i){
+        return new String[]{"remote", "key" + i};
+    }
+
+    private int nextIndex(){
+        return (next.getAndAdd(7919) & Integer.MAX_VALUE) % KEYS;
+    }
+
+    @Benchmark
+    @Group("local")
+    @GroupThreads(4)
+    public String localOnly() throws Exception {
+        return network.get(LocalKey(nextIndex()));
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(4)
+    public String fastGet() throws Exception {
+        return network.get(LocalKey(nextIndex()));
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(4)
+    public String slowGet() throws Exception {
+        return network.get(RemoteKey(nextIndex()));
+    }
+
+    @Benchmark
+    @Group("mixedWrites")
+    @GroupThreads(4)
+    public boolean fastSet() throws Exception {
+        int i = nextIndex();
+        return network.set(LocalKey(i), "changed" + i);
+    }
+
+    @Benchmark
+    @Group("mixedWrites")
+    @GroupThreads(4)
+    public String slowGetDuringWrites() throws Exception {
+        return network.get(RemoteKey(nextIndex()));
+    }
+}
@@ -0,0 +1,41 @@
+package com.laytonsmith.benchmarks;
+
+import com.laytonsmith.annotations.datasource;
+import com.laytonsmith.persistance.DataSourceException;
+import com.laytonsmith.persistance.INIDataSource;
+import com.laytonsmith.persistance.io.ConnectionMixinFactory;
+import java.net.URI;
+
+/**
+ * A local stand-in for a data source on the other end of a network connection (an ssh
+ * or http one, for instance). It's an ini file, but every get waits for {@link #LATENCY}
+ * milliseconds first, as if it were making a round trip. Sets read the old value
+ * first, so they wait too.
+ * @author layton
+ */
+@datasource("slowini")
+public class SlowDataSource extends INIDataSource {
+
+    /**
+     * How long each get takes, in milliseconds.
+     */
+    public static volatile long LATENCY = 5;
+
+    public SlowDataSource(URI uri, ConnectionMixinFactory.ConnectionMixinOptions options) throws DataSourceException {
+        super(uri, options);
+    }
+
+    private static void RoundTrip(){
+        try {
+            Thread.sleep(LATENCY);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public String get(String[] key, boolean bypassTransient) throws DataSourceException {
+        RoundTrip();
+        return super.get(key, bypassTransient);
+    }
+}
@@ -0,0 +1,105 @@
+package com.laytonsmith.PureUtilities;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A thread safe, size bounded cache, which evicts the least recently used entry
+ * once it grows past its maximum size. Hits, misses and evictions are counted,
+ * so callers can tell how well the cache is doing.
+ * @author layton
+ */
+public class LRUCache<K, V> {
+
+    private final int maxSize;
+    private final LinkedHashMap<K, V> map;
+    private long hits = 0;
+    private long misses = 0;
+    private long evictions = 0;
+
+    /**
+     * Creates a new cache, which will hold at most maxSize entries.
+     * @param maxSize
+     */
+    public LRUCache(final int maxSize) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("maxSize must be at least 1");
+        }
+        this.maxSize = maxSize;
+        this.map = new LinkedHashMap<K, V>(16, 0.75f, true) {
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+                if (size() > LRUCache.this.maxSize) {
+                    evictions++;
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Returns the cached value, or null if there is none. This counts as a hit
+     * or a miss.
+     * @param key
+     * @return
+     */
+    public synchronized V get(K key) {
+        V value = map.get(key);
+        if (value == null) {
+            misses++;
+        } else {
+            hits++;
+        }
+        return value;
+    }
+
+    /**
+     * Adds the value to the cache, possibly evicting the least recently used entry.
+     * @param key
+     * @param value
+     * @return The previous value for this key, if any
+     */
+    public synchronized V put(K key, V value) {
+        return map.put(key, value);
+    }
+
+    public synchronized V remove(K key) {
+        return map.remove(key);
+    }
+
+    public synchronized boolean containsKey(K key) {
+        return map.containsKey(key);
+    }
+
+    public synchronized void clear() {
+        map.clear();
+    }
+
+    public synchronized int size() {
+        return map.size();
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "LRUCache{size=" + map.size() + ", maxSize=" + maxSize + ", hits=" + hits
+                + ", misses=" + misses + ", evictions=" + evictions + "}";
+    }
+}
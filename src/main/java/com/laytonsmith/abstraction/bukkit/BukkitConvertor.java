@@ -80,10 +80,9 @@ public class BukkitConvertor implements Convertor {
     public static final BukkitWorldListener WorldListener = new BukkitWorldListener();
 
     public void Startup(CommandHelperPlugin chp) {
-        chp.registerEvent((Listener)BlockListener);
-        chp.registerEvent((Listener)EntityListener);
+        //The block, entity and player listeners are registered per driver by
+        //BukkitDriverRegistry, once something is actually bound to them.
         chp.registerEvent((Listener)InventoryListener);
-        chp.registerEvent((Listener)PlayerListener);
         chp.registerEvent((Listener)ServerListener);
         chp.registerEvent((Listener)VehicleListener);
         chp.registerEvent((Listener)WeatherListener);
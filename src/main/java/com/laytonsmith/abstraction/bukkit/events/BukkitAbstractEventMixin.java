@@ -3,6 +3,7 @@
 package com.laytonsmith.abstraction.bukkit.events;
 
 import com.laytonsmith.abstraction.bukkit.BukkitMCServer;
+import com.laytonsmith.abstraction.bukkit.events.drivers.BukkitDriverRegistry;
 import com.laytonsmith.core.Static;
 import com.laytonsmith.core.constructs.CString;
 import com.laytonsmith.core.constructs.Construct;
@@ -98,5 +99,13 @@ public class BukkitAbstractEventMixin implements EventMixinInterface{
             return false;
         }
     }
+
+    public void bind() {
+        BukkitDriverRegistry.Register(mySuper.driver());
+    }
+
+    public void unbind() {
+        BukkitDriverRegistry.Unregister(mySuper.driver());
+    }
     
 }
@@ -0,0 +1,206 @@
+package com.laytonsmith.abstraction.bukkit.events.drivers;
+
+import com.laytonsmith.abstraction.bukkit.BukkitConvertor;
+import com.laytonsmith.commandhelper.CommandHelperPlugin;
+import com.laytonsmith.core.events.Driver;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import org.bukkit.Bukkit;
+import org.bukkit.event.Event;
+import org.bukkit.event.EventException;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.HandlerList;
+import org.bukkit.event.Listener;
+import org.bukkit.event.block.BlockBreakEvent;
+import org.bukkit.event.block.BlockPlaceEvent;
+import org.bukkit.event.block.SignChangeEvent;
+import org.bukkit.event.entity.EntityDamageByEntityEvent;
+import org.bukkit.event.entity.EntityDeathEvent;
+import org.bukkit.event.entity.EntityTargetEvent;
+import org.bukkit.event.player.*;
+import org.bukkit.plugin.EventExecutor;
+
+/**
+ * Registers the server listeners for a driver only while at least one script
+ * event using that driver is bound, so the server doesn't have to call into
+ * CommandHelper for events nobody is listening to. The actual conversion is still
+ * done by the listeners in this package, this only decides when they are hooked up.
+ * PLAYER_COMMAND is not handled here, since the command listener is always needed
+ * for aliases anyways.
+ * @author Layton
+ */
+public final class BukkitDriverRegistry {
+
+    private BukkitDriverRegistry(){}
+
+    /**
+     * The number of events currently listening to each driver.
+     */
+    private static final Map<Driver, Integer> counts = new EnumMap<Driver, Integer>(Driver.class);
+    /**
+     * The listener object registered for each active driver. This is only used
+     * as the key to unregister with.
+     */
+    private static final Map<Driver, Listener> listeners = new EnumMap<Driver, Listener>(Driver.class);
+
+    /**
+     * Starts listening for the given driver, if this is the first event to need it.
+     * @param driver
+     */
+    public static synchronized void Register(Driver driver){
+        Integer count = counts.get(driver);
+        counts.put(driver, count == null ? 1 : count + 1);
+        if(count != null){
+            return;
+        }
+        Listener listener = new Listener(){};
+        for(Executor<?> executor : GetExecutors(driver)){
+            Bukkit.getServer().getPluginManager().registerEvent(executor.type, listener,
+                    EventPriority.LOWEST, executor, CommandHelperPlugin.self);
+        }
+        listeners.put(driver, listener);
+    }
+
+    /**
+     * Stops listening for the given driver, if this was the last event that needed it.
+     * @param driver
+     */
+    public static synchronized void Unregister(Driver driver){
+        Integer count = counts.get(driver);
+        if(count == null){
+            return;
+        }
+        if(count > 1){
+            counts.put(driver, count - 1);
+            return;
+        }
+        counts.remove(driver);
+        Listener listener = listeners.remove(driver);
+        for(Executor<?> executor : GetExecutors(driver)){
+            GetHandlerList(executor.type).unregister(listener);
+        }
+    }
+
+    /**
+     * Returns true if the server listener for this driver is currently registered.
+     * @param driver
+     * @return
+     */
+    public static synchronized boolean IsRegistered(Driver driver){
+        return listeners.containsKey(driver);
+    }
+
+    /**
+     * Every bukkit event class has a static getHandlerList method, but it isn't
+     * part of any interface, so it has to be looked up reflectively.
+     */
+    private static HandlerList GetHandlerList(Class<? extends Event> type){
+        try {
+            return (HandlerList)type.getMethod("getHandlerList").invoke(null);
+        } catch (Exception e) {
+            throw new Error("Could not get the handler list for " + type.getName(), e);
+        }
+    }
+
+    private static List<Executor<?>> GetExecutors(Driver driver){
+        List<Executor<?>> l = new ArrayList<Executor<?>>();
+        switch(driver){
+            case PLAYER_PRELOGIN:
+                l.add(new Executor<PlayerPreLoginEvent>(PlayerPreLoginEvent.class){
+                    void handle(PlayerPreLoginEvent e){ BukkitConvertor.PlayerListener.onPlayerPreLogin(e); }
+                });
+                break;
+            case PLAYER_LOGIN:
+                l.add(new Executor<PlayerLoginEvent>(PlayerLoginEvent.class){
+                    void handle(PlayerLoginEvent e){ BukkitConvertor.PlayerListener.onPlayerLogin(e); }
+                });
+                break;
+            case PLAYER_JOIN:
+                l.add(new Executor<PlayerJoinEvent>(PlayerJoinEvent.class){
+                    void handle(PlayerJoinEvent e){ BukkitConvertor.PlayerListener.onPlayerJoin(e); }
+                });
+                break;
+            case PLAYER_INTERACT:
+                l.add(new Executor<PlayerInteractEvent>(PlayerInteractEvent.class){
+                    void handle(PlayerInteractEvent e){ BukkitConvertor.PlayerListener.onPlayerInteract(e); }
+                });
+                break;
+            case PLAYER_SPAWN:
+                l.add(new Executor<PlayerRespawnEvent>(PlayerRespawnEvent.class){
+                    void handle(PlayerRespawnEvent e){ BukkitConvertor.PlayerListener.onPlayerRespawn(e); }
+                });
+                break;
+            case PLAYER_DEATH:
+                l.add(new Executor<EntityDeathEvent>(EntityDeathEvent.class){
+                    void handle(EntityDeathEvent e){ BukkitConvertor.EntityListener.onEntityDeath(e); }
+                });
+                break;
+            case PLAYER_QUIT:
+                l.add(new Executor<PlayerQuitEvent>(PlayerQuitEvent.class){
+                    void handle(PlayerQuitEvent e){ BukkitConvertor.PlayerListener.onPlayerQuit(e); }
+                });
+                break;
+            case PLAYER_CHAT:
+                l.add(new Executor<AsyncPlayerChatEvent>(AsyncPlayerChatEvent.class){
+                    void handle(AsyncPlayerChatEvent e){ BukkitConvertor.PlayerListener.onPlayerChat(e); }
+                });
+                break;
+            case WORLD_CHANGED:
+                l.add(new Executor<PlayerChangedWorldEvent>(PlayerChangedWorldEvent.class){
+                    void handle(PlayerChangedWorldEvent e){ BukkitConvertor.PlayerListener.onPlayerChangedWorld(e); }
+                });
+                l.add(new Executor<PlayerTeleportEvent>(PlayerTeleportEvent.class){
+                    void handle(PlayerTeleportEvent e){ BukkitConvertor.PlayerListener.onPlayerTeleport(e); }
+                });
+                break;
+            case SIGN_CHANGED:
+                l.add(new Executor<SignChangeEvent>(SignChangeEvent.class){
+                    void handle(SignChangeEvent e){ BukkitConvertor.BlockListener.onSignChange(e); }
+                });
+                break;
+            case BLOCK_BREAK:
+                l.add(new Executor<BlockBreakEvent>(BlockBreakEvent.class){
+                    void handle(BlockBreakEvent e){ BukkitConvertor.BlockListener.onBlockBreak(e); }
+                });
+                break;
+            case BLOCK_PLACE:
+                l.add(new Executor<BlockPlaceEvent>(BlockPlaceEvent.class){
+                    void handle(BlockPlaceEvent e){ BukkitConvertor.BlockListener.onBlockPlace(e); }
+                });
+                break;
+            case TARGET_ENTITY:
+                l.add(new Executor<EntityTargetEvent>(EntityTargetEvent.class){
+                    void handle(EntityTargetEvent e){ BukkitConvertor.EntityListener.onTargetLiving(e); }
+                });
+                break;
+            case ENTITY_DAMAGE_PLAYER:
+                l.add(new Executor<EntityDamageByEntityEvent>(EntityDamageByEntityEvent.class){
+                    void handle(EntityDamageByEntityEvent e){ BukkitConvertor.EntityListener.onEntityDamagePlayer(e); }
+                });
+                break;
+        }
+        return l;
+    }
+
+    /**
+     * Bukkit passes subclasses of the registered type to the executor as well, and
+     * the listeners expect the exact type, so this does the check and cast.
+     */
+    private static abstract class Executor<T extends Event> implements EventExecutor{
+        private final Class<T> type;
+
+        Executor(Class<T> type){
+            this.type = type;
+        }
+
+        public void execute(Listener listener, Event event) throws EventException {
+            if(type.isInstance(event)){
+                handle(type.cast(event));
+            }
+        }
+
+        abstract void handle(T event);
+    }
+}
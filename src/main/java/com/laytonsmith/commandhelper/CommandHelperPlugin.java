@@ -25,6 +25,7 @@ import com.laytonsmith.abstraction.bukkit.BukkitMCPlayer;
 import com.laytonsmith.core.*;
 import com.laytonsmith.core.events.EventList;
 import com.laytonsmith.core.exceptions.ConfigCompileException;
+import com.laytonsmith.persistance.AbstractDataSource;
 import com.laytonsmith.persistance.DataSourceException;
 import com.laytonsmith.persistance.SerializedPersistance;
 import com.sk89q.wepif.PermissionsResolverManager;
@@ -174,6 +175,24 @@ public class CommandHelperPlugin extends JavaPlugin {
      */
     @Override
     public void onDisable() {
+        if(Static.persist != null){
+            try {
+                //Let any store_value_async calls finish first
+                if(!Threader.GetThreader().awaitPersistanceTasks(10000)){
+                    Logger.getLogger(CommandHelperPlugin.class.getName()).log(Level.WARNING, "Timed out waiting for asynchronous persistance tasks to finish");
+                }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            try {
+                //Merge the journal back in, so startup doesn't have to replay it
+                Static.persist.close();
+            } catch (IOException ex) {
+                Logger.getLogger(CommandHelperPlugin.class.getName()).log(Level.SEVERE, null, ex);
+            }
+        }
+        //Write out any writebehind changes that are still waiting
+        AbstractDataSource.FlushWriteBehind();
         //free up some memory
         ac = null;
         wep = null;
@@ -254,6 +254,7 @@ public class AliasCore {
             }
 
             Prefs.init(prefFile);
+            IncludeCache.configure(Prefs.IncludeCacheSize(), Prefs.IncludeCacheWatchInterval());
             scripts = new ArrayList<Script>();
             
             LocalPackage localPackages = new LocalPackage();
@@ -4,6 +4,7 @@ package com.laytonsmith.core;
 
 import com.laytonsmith.abstraction.MCCommandSender;
 import com.laytonsmith.abstraction.MCPlayer;
+import com.laytonsmith.core.constructs.Construct;
 import com.laytonsmith.core.constructs.IVariableList;
 import com.laytonsmith.core.events.BoundEvent;
 import java.util.HashMap;
@@ -16,10 +17,12 @@ import java.util.Map;
 public final class Env implements Cloneable{
     
     /**
-     * This is the underlying map of variables
+     * This is the underlying map of variables. This and the flags are only created
+     * once they are needed, since most environments never use them, and an Env is
+     * derived for every event trigger.
      */
-    private Map<String, Object> custom = new HashMap<String, Object>();   
-    private Map<String, Boolean> flags = new HashMap<String, Boolean>();
+    private Map<String, Object> custom = null;   
+    private Map<String, Boolean> flags = null;
     private MCCommandSender commandSender = null;
     private IVariableList iVariableList = null;
     private Map<String, Procedure> procs = null;
@@ -27,6 +30,12 @@ public final class Env implements Cloneable{
     private Script script = null;
     private BoundEvent.ActiveEvent event = null;
     private String command = null;
+    private Map<String, Construct> dollarVars = null;
+    /**
+     * The environment this one was derived from, or null. The maps and variables
+     * that haven't been set in this environment yet are read from the parent.
+     */
+    private Env parent = null;
     
     /*
      * The constructor has relatively little to do, most things are lazy
@@ -43,7 +52,7 @@ public final class Env implements Cloneable{
      * @param value 
      */
     public void SetFlag(String name, boolean value){
-        flags.put(name, value);
+        ownFlags().put(name, value);
     }
     
     /**
@@ -52,10 +61,11 @@ public final class Env implements Cloneable{
      * @return 
      */
     public Boolean GetFlag(String name){
-        if(!flags.containsKey(name)){
+        Map<String, Boolean> f = readFlags();
+        if(f == null || !f.containsKey(name)){
             return null;
         } else {
-            return flags.get(name);
+            return f.get(name);
         }
     }
     
@@ -64,7 +74,9 @@ public final class Env implements Cloneable{
      * @param name 
      */
     public void ClearFlag(String name){
-        flags.remove(name);
+        if(readFlags() != null){
+            ownFlags().remove(name);
+        }
     }
     
     /**
@@ -75,6 +87,7 @@ public final class Env implements Cloneable{
      * @param var 
      */
     public void SetCustom(String name, Object var){
+        Map<String, Object> custom = ownCustom();
         if(!custom.containsKey("custom")){
             custom.put("custom", new HashMap<String, Object>());
         }
@@ -87,8 +100,9 @@ public final class Env implements Cloneable{
      * @return 
      */
     public Object GetCustom(String name){
-        if(!custom.containsKey("custom")){
-            custom.put("custom", new HashMap<String, Object>());
+        Map<String, Object> custom = readCustom();
+        if(custom == null || !custom.containsKey("custom")){
+            return null;
         }
         return ((Map<String, Object>)custom.get("custom")).get(name);
     }
@@ -143,7 +157,8 @@ public final class Env implements Cloneable{
      */
     public IVariableList GetVarList(){
         if(iVariableList == null){
-            iVariableList = new IVariableList();
+            IVariableList p = parent == null ? null : parent.readVarList();
+            iVariableList = p == null ? new IVariableList() : new IVariableList(p);
         }
         return iVariableList;
     }
@@ -161,11 +176,24 @@ public final class Env implements Cloneable{
      */
     public Map<String, Procedure> GetProcs(){
         if(procs == null){
-            procs = new HashMap<String, Procedure>();
+            Map<String, Procedure> p = parent == null ? null : parent.readProcs();
+            procs = p == null ? new HashMap<String, Procedure>() : new HashMap<String, Procedure>(p);
         }
         return procs;
     }
     
+    /**
+     * Returns the procedure with this name, or null if there is none. Unlike
+     * GetProcs, this doesn't copy the procedures of the environment this one
+     * was derived from, so it should be preferred for lookups.
+     * @param name
+     * @return 
+     */
+    public Procedure GetProc(String name){
+        Map<String, Procedure> p = readProcs();
+        return p == null ? null : p.get(name);
+    }
+    
     public void SetProcs(Map<String, Procedure> procs){
         this.procs = procs;
     }
@@ -198,28 +226,119 @@ public final class Env implements Cloneable{
         return event;
     }
     
+    /**
+     * Returns the values of the $variables for this run, or null if none were
+     * set. The compiled tree may be shared by several runs at once, so the values
+     * are kept here, instead of in the Variable nodes themselves.
+     * @return 
+     */
+    public Map<String, Construct> GetDollarVars(){
+        return dollarVars;
+    }
+    
+    public void SetDollarVars(Map<String, Construct> dollarVars){
+        this.dollarVars = dollarVars;
+    }
+    
+    /**
+     * Returns a new environment for a single run of code that was bound in this one,
+     * such as an event handler. It starts out the same as a clone would, but nothing
+     * is copied up front. The variables, procedures, flags and custom values of this
+     * environment are read from here until the new environment changes them, at which
+     * point only that part is copied. Deriving and reading don't change this environment,
+     * so several derived environments may be used on different threads at once, but this
+     * environment itself must not be changed while they are in use. BoundEvent keeps a
+     * private copy of the binding script's environment for that reason.
+     * @return 
+     */
+    public Env derive(){
+        Env child = new Env();
+        child.parent = this;
+        child.commandSender = commandSender;
+        child.event = event;
+        child.label = label;
+        child.script = script;
+        child.command = command;
+        child.dollarVars = dollarVars;
+        return child;
+    }
+    
+    private Map<String, Boolean> readFlags(){
+        if(flags == null && parent != null){
+            return parent.readFlags();
+        }
+        return flags;
+    }
+    
+    private Map<String, Boolean> ownFlags(){
+        if(flags == null){
+            Map<String, Boolean> p = parent == null ? null : parent.readFlags();
+            flags = p == null ? new HashMap<String, Boolean>() : new HashMap<String, Boolean>(p);
+        }
+        return flags;
+    }
+    
+    private Map<String, Object> readCustom(){
+        if(custom == null && parent != null){
+            return parent.readCustom();
+        }
+        return custom;
+    }
+    
+    private Map<String, Object> ownCustom(){
+        if(custom == null){
+            Map<String, Object> p = parent == null ? null : parent.readCustom();
+            custom = p == null ? new HashMap<String, Object>() : new HashMap<String, Object>(p);
+            if(custom.containsKey("custom")){
+                //SetCustom writes into this one, which must not be the parent's
+                custom.put("custom", new HashMap<String, Object>((Map<String, Object>)custom.get("custom")));
+            }
+        }
+        return custom;
+    }
+    
+    private Map<String, Procedure> readProcs(){
+        if(procs == null && parent != null){
+            return parent.readProcs();
+        }
+        return procs;
+    }
+    
+    private IVariableList readVarList(){
+        if(iVariableList == null && parent != null){
+            return parent.readVarList();
+        }
+        return iVariableList;
+    }
+    
     @Override
     public Env clone() throws CloneNotSupportedException{
         Env clone = new Env();
-        clone.custom = new HashMap<String, Object>(this.custom);
+        Map<String, Object> custom = readCustom();
+        if(custom != null){
+            clone.custom = new HashMap<String, Object>(custom);
+            if(custom.containsKey("custom")){
+                clone.custom.put("custom", new HashMap<String, Object>((Map<String, Object>)custom.get("custom")));
+            }
+        }
         clone.commandSender = commandSender;
         clone.event = event;
+        Map<String, Boolean> flags = readFlags();
         if(flags != null){
             clone.flags = new HashMap<String, Boolean>(flags);
-        } else {
-            clone.flags = new HashMap<String, Boolean>();
         }
         clone.label = label;
+        Map<String, Procedure> procs = readProcs();
         if(procs != null){
             clone.procs = new HashMap<String, Procedure>(procs);
-        } else {
-            clone.procs = new HashMap<String, Procedure>();
         }
         clone.script = script;
+        IVariableList iVariableList = readVarList();
         if(iVariableList != null){
             clone.iVariableList = (IVariableList) iVariableList.clone();
         }
         clone.command = command;
+        clone.dollarVars = dollarVars;
         return clone;
     }
 
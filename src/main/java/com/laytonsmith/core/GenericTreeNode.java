@@ -18,6 +18,12 @@ public class GenericTreeNode<T> implements Cloneable{
     public T data;
     public List<GenericTreeNode<T>> children;
     public boolean optimized = false;
+    /**
+     * Functions that can precompute something about this node at compile time (a lookup
+     * table, for instance) may store it here, and retrieve it again at runtime. The data
+     * must not be modified once the node has been optimized.
+     */
+    private Object compiledData = null;
     
     @Override
     public GenericTreeNode<T> clone() throws CloneNotSupportedException{
@@ -53,7 +59,12 @@ public class GenericTreeNode<T> implements Cloneable{
         setData(data);
     }
 
-    public synchronized List<GenericTreeNode<T>> getChildren() {
+    /**
+     * Returns the children of this node. Compiled trees are not modified once they have been
+     * compiled, and may be shared by several threads at once, so this does no locking.
+     * @return 
+     */
+    public List<GenericTreeNode<T>> getChildren() {
         return this.children;
     }
 
@@ -93,6 +104,14 @@ public class GenericTreeNode<T> implements Cloneable{
         return this.data;
     }
 
+    public Object getCompiledData() {
+        return this.compiledData;
+    }
+
+    public void setCompiledData(Object compiledData) {
+        this.compiledData = compiledData;
+    }
+
     public void setData(T data) {
         this.data = data;
     }
@@ -45,6 +45,10 @@ public class Main {
                     .addFlag("verify", "Compiles all the files in the system, simply checking for compile errors, then exits.")
                     .addFlag("install-cmdline", "Installs MethodScript to your system, so that commandline scripts work. (Currently only unix is supported.)")
                     .addFlag("uninstall-cmdline", "Uninstalls the MethodScript interpreter from your system.")
+                    .addArgument("replay-events", ArgumentParser.Type.ARRAY_OF_STRINGS, "Runs the given scripts, which should bind some events, then replays"
+                    + " an event recording made with record_events() against them, and prints how long each handler took.", "recording script [script...]", false)
+                    .addArgument("replay-speed", ArgumentParser.Type.NUMBER, "Used with --replay-events. If 0, which is the default, the events are replayed as fast as"
+                    + " possible, otherwise the time between them is kept, divided by this number.", "speed", false)
                     .addArgument("syntax", ArgumentParser.Type.ARRAY_OF_STRINGS, "Generates the syntax highlighter for the specified editor (if available).\n"
                     + "Don't specify a type to see the available options.", "type", false)
             ;
@@ -70,6 +74,13 @@ public class Main {
                 System.exit(0);
             }
             
+            List<String> replay = switches.getStringListArgument("replay-events");
+            if(replay != null){
+                Double speed = switches.getNumberArgument("replay-speed");
+                Interpreter.replay(replay, speed == null ? 0 : speed);
+                System.exit(0);
+            }
+            
             String mslp = switches.getStringArgument("mslp");
             if(mslp != null){
                 if(mslp.isEmpty()){
@@ -1283,32 +1283,33 @@ public final class MethodScriptCompiler {
         if (script == null) {
             script = new Script(null, null);
         }
+        Map<String, Construct> oldDollarVars = env.GetDollarVars();
         if(vars != null){
-            Map<String, Variable> varMap = new HashMap<String, Variable>();
+            //The values go in the environment, since the tree may be shared, and must not be modified
+            Map<String, Construct> dollarVars = new HashMap<String, Construct>();
             for(Variable v : vars){
-                varMap.put(v.getName(), v);
+                dollarVars.put(v.getName(), Static.resolveConstruct(
+                        Static.resolveDollarVar(v, vars).toString(), v.getTarget()));
             }
-            GenericTree<Construct> tree = new GenericTree<Construct>();
-            tree.setRoot(root);
-            for (GenericTreeNode<Construct> tempNode : tree.build(GenericTreeTraversalOrderEnum.PRE_ORDER)) {
-                if (tempNode.data instanceof Variable) {
-                    ((Variable) tempNode.data).setVal(
-                            Static.resolveConstruct(
-                            Static.resolveDollarVar(varMap.get(((Variable) tempNode.data).getName()), vars).toString(), tempNode.data.getTarget()));
-                }
-            }
-            root = tree.getRoot();
+            env.SetDollarVars(Collections.unmodifiableMap(dollarVars));
         }
         StringBuilder b = new StringBuilder();
         Construct returnable = null;
-        for (GenericTreeNode<Construct> gg : root.getChildren()) {
-            Construct retc = script.eval(gg, env);
-            if (root.getNumberOfChildren() == 1) {
-                returnable = retc;
-            }
-            String ret = retc instanceof CNull ? "null" : retc.val();
-            if (ret != null && !ret.trim().isEmpty()) {
-                b.append(ret).append(" ");
+        try {
+            for (GenericTreeNode<Construct> gg : root.getChildren()) {
+                Construct retc = script.eval(gg, env);
+                if (root.getNumberOfChildren() == 1) {
+                    returnable = retc;
+                }
+                String ret = retc instanceof CNull ? "null" : retc.val();
+                if (ret != null && !ret.trim().isEmpty()) {
+                    b.append(ret).append(" ");
+                }
+            }
+        } finally {
+            if(vars != null){
+                //The values only apply to this execution, and the env may be reused
+                env.SetDollarVars(oldDollarVars);
             }
         }
         if (done != null) {
@@ -46,7 +46,12 @@ public final class Prefs {
         PROFILING_FILE("profiling-file"),
         SHOW_SPLASH_SCREEN("show-splash-screen"),
         USE_COLORS("use-colors"),
-        HALT_ON_FAILURE("halt-on-failure");
+        HALT_ON_FAILURE("halt-on-failure"),
+        INCLUDE_CACHE_SIZE("include-cache-size"),
+        INCLUDE_CACHE_WATCH_INTERVAL("include-cache-watch-interval"),
+        ASYNC_EVENT_THREADS("async-event-threads"),
+        ASYNC_EVENT_QUEUE_SIZE("async-event-queue-size"),
+        ASYNC_EVENT_RUN_WHEN_FULL("async-event-run-when-full");
         String name;
         private PNames(String name){
             this.name = name;
@@ -79,6 +84,11 @@ public final class Prefs {
         a.add(new Preference(PNames.SHOW_SPLASH_SCREEN.config(), "true", Preferences.Type.BOOLEAN, "Whether or not to show the splash screen at server startup"));
         a.add(new Preference(PNames.USE_COLORS.config(), (TermColors.SYSTEM == TermColors.SYS.WINDOWS ? "false" : "true"), Preferences.Type.BOOLEAN, "Whether or not to use console colors. If this is a Windows machine, defaults to false, however, it can be toggled manually, and will then respect your setting."));
         a.add(new Preference(PNames.HALT_ON_FAILURE.config(), "false", Preferences.Type.BOOLEAN, "Whether or not to halt compilation of pure mscript files if a compilation failure occurs in any one of the files."));
+        a.add(new Preference(PNames.INCLUDE_CACHE_SIZE.config(), "0", Preferences.Type.INT, "The maximum number of compiled include files to keep cached. If more files than this are included, the least recently used ones are dropped, and recompiled when needed. If 0, there is no limit."));
+        a.add(new Preference(PNames.INCLUDE_CACHE_WATCH_INTERVAL.config(), "0", Preferences.Type.INT, "Included files are recompiled if they have changed since they were cached. By default, each include checks the file itself. If this is greater than 0, a background thread checks all the cached files every this many milliseconds instead, which makes includes slightly cheaper, at the cost of a short delay before changes are noticed."));
+        a.add(new Preference(PNames.ASYNC_EVENT_THREADS.config(), "2", Preferences.Type.INT, "The number of threads that run MONITOR event handlers bound with the async option."));
+        a.add(new Preference(PNames.ASYNC_EVENT_QUEUE_SIZE.config(), "1000", Preferences.Type.INT, "The maximum number of async event handlers that can be waiting to run. Once the queue is full, further triggers are handled according to async-event-run-when-full."));
+        a.add(new Preference(PNames.ASYNC_EVENT_RUN_WHEN_FULL.config(), "false", Preferences.Type.BOOLEAN, "If the async event queue is full, and this is true, the handler is run on the main thread instead, which slows the server down, but never loses a trigger. If false, the trigger is dropped, and counted."));
         prefs = new Preferences("CommandHelper", Static.getLogger(), a);
         prefs.init(f);
     }
@@ -150,4 +160,24 @@ public final class Prefs {
     public static Boolean HaltOnFailure() {
         return (Boolean)pref(PNames.HALT_ON_FAILURE);
     }
+    
+    public static Integer IncludeCacheSize() {
+        return (Integer)pref(PNames.INCLUDE_CACHE_SIZE);
+    }
+    
+    public static Integer IncludeCacheWatchInterval() {
+        return (Integer)pref(PNames.INCLUDE_CACHE_WATCH_INTERVAL);
+    }
+    
+    public static Integer AsyncEventThreads() {
+        return (Integer)pref(PNames.ASYNC_EVENT_THREADS);
+    }
+    
+    public static Integer AsyncEventQueueSize() {
+        return (Integer)pref(PNames.ASYNC_EVENT_QUEUE_SIZE);
+    }
+    
+    public static Boolean AsyncEventRunWhenFull() {
+        return (Boolean)pref(PNames.ASYNC_EVENT_RUN_WHEN_FULL);
+    }
 }
@@ -41,7 +41,12 @@ public class Script {
     boolean hasBeenCompiled = false;
     boolean compilerError = false;
     private String label;
-    private Env CurrentEnv;
+    /**
+     * Worked out lazily, but several threads may run the script at once. dollarVarTarget
+     * is always set before this is, so if this is visible, so is it.
+     */
+    private volatile Boolean hasDollarVars = null;
+    private volatile Target dollarVarTarget = Target.UNKNOWN;
 
     @Override
     public String toString() {
@@ -53,12 +58,8 @@ public class Script {
         return b.toString();
     }
 
-    private Procedure getProc(String name) {
-        return CurrentEnv.GetProcs().get(name);
-    }
-    
-    public Env getCurrentEnv(){
-        return CurrentEnv;
+    private Procedure getProc(String name, Env env) {
+        return env.GetProc(name);
     }
     
     public String getLabel(){
@@ -97,11 +98,41 @@ public class Script {
     public boolean uncompilable() {
         return compilerError;
     }
+    
+    /**
+     * Returns true if the compiled tree contains any $variables. Since the tree doesn't change
+     * once compiled, this is only worked out once.
+     * @return 
+     */
+    private boolean hasDollarVars(){
+        Boolean has = hasDollarVars;
+        if(has == null){
+            boolean found = false;
+            for (GenericTreeNode<Construct> rootNode : cright) {
+                GenericTree<Construct> tree = new GenericTree<Construct>();
+                tree.setRoot(rootNode);
+                for (GenericTreeNode<Construct> tempNode : tree.build(GenericTreeTraversalOrderEnum.PRE_ORDER)) {
+                    if (tempNode.data instanceof Variable) {
+                        dollarVarTarget = tempNode.data.getTarget();
+                        found = true;
+                        break;
+                    }
+                }
+                if(found){
+                    break;
+                }
+            }
+            has = found;
+            hasDollarVars = has;
+        }
+        return has;
+    }
 
     public void run(final List<Variable> vars, Env myEnv, final MethodScriptComplete done) {
-        //Some things, such as the label are determined at compile time
-        this.CurrentEnv = myEnv;
-        this.CurrentEnv.SetLabel(this.label);
+        //Some things, such as the label are determined at compile time.
+        //The script may be run by several threads at once, so the environment
+        //is only ever kept in this call, never in the script itself.
+        myEnv.SetLabel(this.label);
         MCCommandSender p = myEnv.GetCommandSender();
         if (!hasBeenCompiled || compilerError) {
             Target target = Target.UNKNOWN;
@@ -117,9 +148,9 @@ public class Script {
                     null, target);
         }
         if (p instanceof MCPlayer) {
-            if (CurrentEnv.GetLabel() != null) {
+            if (myEnv.GetLabel() != null) {
                 PermissionsResolverManager perms = Static.getPermissionsResolverManager();
-                String[] groups = CurrentEnv.GetLabel().substring(1).split("/");
+                String[] groups = myEnv.GetLabel().substring(1).split("/");
                 for (String group : groups) {
                     if (group.startsWith("-") && perms.inGroup(((MCPlayer)p).getName(), group.substring(1))) {
                         //negative permission
@@ -133,23 +164,26 @@ public class Script {
             }
         }
 
+        Map<String, Construct> oldDollarVars = myEnv.GetDollarVars();
         try {
-            for (GenericTreeNode<Construct> rootNode : cright) {
-                GenericTree<Construct> tree = new GenericTree<Construct>();
-                tree.setRoot(rootNode);
-                for (GenericTreeNode<Construct> tempNode : tree.build(GenericTreeTraversalOrderEnum.PRE_ORDER)) {
-                    if (tempNode.data instanceof Variable) {
-                        if(left_vars == null){
-                            throw new ConfigRuntimeException("$variables may not be used in this context. Only @variables may be.", null, tempNode.data.getTarget());
-                        }
-                        ((Variable) tempNode.data).setVal(
-                                Static.resolveConstruct(
-                                Static.resolveDollarVar(left_vars.get(((Variable) tempNode.data).getName()), vars).toString(), tempNode.data.getTarget()));
-                    }
+            if(left_vars == null){
+                if(hasDollarVars()){
+                    throw new ConfigRuntimeException("$variables may not be used in this context. Only @variables may be.", null, dollarVarTarget);
                 }
-                
-                MethodScriptCompiler.registerAutoIncludes(CurrentEnv, this);
-                MethodScriptCompiler.execute(tree.getRoot(), CurrentEnv, done, this);
+            } else {
+                //The values of the $variables are per run, so they go in the environment, not the tree.
+                //The tree is shared between runs, and may not be modified.
+                Map<String, Construct> dollarVars = new HashMap<String, Construct>();
+                List<Variable> runVars = vars == null ? new ArrayList<Variable>() : vars;
+                for(Map.Entry<String, Variable> entry : left_vars.entrySet()){
+                    dollarVars.put(entry.getKey(), Static.resolveConstruct(
+                            Static.resolveDollarVar(entry.getValue(), runVars).toString(), entry.getValue().getTarget()));
+                }
+                myEnv.SetDollarVars(Collections.unmodifiableMap(dollarVars));
+            }
+            for (GenericTreeNode<Construct> rootNode : cright) {
+                MethodScriptCompiler.registerAutoIncludes(myEnv, this);
+                MethodScriptCompiler.execute(rootNode, myEnv, done, this);
             }
         } catch (ConfigRuntimeException ex) {
             //We don't know how to handle this really, so let's pass it up the chain.
@@ -182,6 +216,9 @@ public class Script {
             if(p != null){
                 p.sendMessage("An unexpected exception occured during the execution of your script. Please check the console for more information.");
             }
+        } finally {
+            //The values only apply to this run
+            myEnv.SetDollarVars(oldDollarVars);
         }
         if (done != null) {
             done.done(null);
@@ -205,13 +242,12 @@ public class Script {
 
     public Construct eval(GenericTreeNode<Construct> c, final Env env) throws CancelCommandException {
         final Construct m = c.getData();
-        CurrentEnv = env;
-        CurrentEnv.SetLabel(this.label);
+        env.SetLabel(this.label);
         if (m.getCType() == ConstructType.FUNCTION) {
                 env.SetScript(this);
                 if (m.val().matches("^_[^_].*")) {
                     //Not really a function, so we can't put it in Function.
-                    Procedure p = getProc(m.val());
+                    Procedure p = getProc(m.val(), env);
                     if (p == null) {
                         throw new ConfigRuntimeException("Unknown procedure \"" + m.val() + "\"", ExceptionType.InvalidProcedureException, m.getTarget());
                     }
@@ -282,7 +318,15 @@ public class Script {
                 Construct ret = f.exec(m.getTarget(), env, ca);
                 return ret;
 
-        } else if (m.getCType() == ConstructType.VARIABLE) {            ;
+        } else if (m.getCType() == ConstructType.VARIABLE) {
+            Map<String, Construct> dollarVars = env.GetDollarVars();
+            if(dollarVars != null){
+                Construct value = dollarVars.get(((Variable)m).getName());
+                if(value == null){
+                    return new CNull(m.getTarget());
+                }
+                return Static.resolveConstruct(value.toString(), m.getTarget());
+            }
             return Static.resolveConstruct(m.val(), m.getTarget());
         } else {
             return m;
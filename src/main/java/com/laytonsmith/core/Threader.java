@@ -1,10 +1,21 @@
 package com.laytonsmith.core;
 
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 /**
  * The Threader class maintains a pool of threads that are required by the
@@ -97,4 +108,200 @@ public class Threader {
 	public Future<?> submit(Runnable task){
 		return execService.submit(task);
 	}
+	
+	/**
+	 * Runs the background part of event handling, such as async MONITOR handlers.
+	 * Unlike the userland pool, this pool is bounded, both in threads and in
+	 * waiting tasks, so a burst of events can't pile up without limit. It is
+	 * created the first time it is needed.
+	 */
+	private ThreadPoolExecutor eventService;
+	private boolean runEventsWhenFull;
+	private final AtomicLong eventTasksDropped = new AtomicLong();
+	private final AtomicLong eventTasksRunInline = new AtomicLong();
+	
+	/**
+	 * Sets up the event pool. If there already is one, it is shut down, but the
+	 * tasks already submitted to it still run.
+	 * @param threads The number of worker threads
+	 * @param queueSize The number of tasks that may be waiting for a thread
+	 * @param runWhenFull If true, tasks submitted while the queue is full are run
+	 * in the submitting thread. If false, they are dropped.
+	 */
+	public synchronized void configureEventPool(int threads, int queueSize, boolean runWhenFull){
+		if(eventService != null){
+			eventService.shutdown();
+		}
+		threads = Math.max(1, threads);
+		eventService = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+				new ArrayBlockingQueue<Runnable>(Math.max(1, queueSize)), new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "commandhelper-event-" + (++threadCount));
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		eventService.allowCoreThreadTimeOut(true);
+		runEventsWhenFull = runWhenFull;
+	}
+	
+	/**
+	 * Submits a task to the bounded event pool. If the queue is full, the
+	 * task is either run right away in this thread, or dropped, depending on how
+	 * the pool is configured.
+	 * @param task
+	 * @return false if the task was dropped
+	 */
+	public boolean submitEventTask(Runnable task){
+		ThreadPoolExecutor service;
+		boolean runWhenFull;
+		synchronized(this){
+			if(eventService == null){
+				configureEventPool(Prefs.AsyncEventThreads(), Prefs.AsyncEventQueueSize(), Prefs.AsyncEventRunWhenFull());
+			}
+			service = eventService;
+			runWhenFull = runEventsWhenFull;
+		}
+		try{
+			service.execute(task);
+			return true;
+		} catch(RejectedExecutionException e){
+			if(runWhenFull){
+				eventTasksRunInline.incrementAndGet();
+				task.run();
+				return true;
+			} else {
+				eventTasksDropped.incrementAndGet();
+				return false;
+			}
+		}
+	}
+	
+	/**
+	 * Returns the number of event tasks dropped because the queue was full.
+	 * @return 
+	 */
+	public long getEventTasksDropped(){
+		return eventTasksDropped.get();
+	}
+	
+	/**
+	 * Returns the number of event tasks that were run in the submitting thread,
+	 * because the queue was full.
+	 * @return 
+	 */
+	public long getEventTasksRunInline(){
+		return eventTasksRunInline.get();
+	}
+	
+	/**
+	 * Returns the number of event tasks currently waiting for a thread.
+	 * @return 
+	 */
+	public synchronized int getEventQueueDepth(){
+		return eventService == null ? 0 : eventService.getQueue().size();
+	}
+	
+	/**
+	 * The number of threads that do persistance io in the background.
+	 */
+	private static final int PERSISTANCE_THREADS = 4;
+	/**
+	 * Runs the persistance io that scripts asked to have done in the background.
+	 * It is created the first time it is needed.
+	 */
+	private ExecutorService persistanceService;
+	/**
+	 * The tasks waiting behind the one that is running, for each key that has a
+	 * task running. A key is only in here while it has a task running.
+	 */
+	private final Map<String, Queue<Runnable>> persistanceQueues = new HashMap<String, Queue<Runnable>>();
+	
+	/**
+	 * Submits a persistance task for the given key. Tasks for the same key are run
+	 * one at a time, in the order they were submitted, so for instance, a read that
+	 * is submitted after a write to the same key will see the written value. Tasks
+	 * for different keys may run at the same time.
+	 * @param key
+	 * @param task 
+	 */
+	public void submitPersistanceTask(String key, Runnable task){
+		ExecutorService service;
+		synchronized(persistanceQueues){
+			Queue<Runnable> queue = persistanceQueues.get(key);
+			if(queue != null){
+				//There's already a task running for this key, so this will be run
+				//once the tasks ahead of it are done.
+				queue.add(task);
+				return;
+			}
+			persistanceQueues.put(key, new LinkedList<Runnable>());
+			if(persistanceService == null){
+				persistanceService = Executors.newFixedThreadPool(PERSISTANCE_THREADS, new ThreadFactory() {
+					public Thread newThread(Runnable r) {
+						Thread t = new Thread(r, "commandhelper-persistance-" + (++threadCount));
+						t.setDaemon(true);
+						return t;
+					}
+				});
+			}
+			service = persistanceService;
+		}
+		service.execute(new PersistanceKeyRunner(key, task));
+	}
+	
+	/**
+	 * Waits for all the persistance tasks that have been submitted so far to finish.
+	 * This should be called before the persistance database is closed.
+	 * @param timeout The maximum time to wait, in milliseconds
+	 * @return true if all the tasks finished, false if the time ran out first
+	 * @throws InterruptedException 
+	 */
+	public boolean awaitPersistanceTasks(long timeout) throws InterruptedException{
+		long end = System.currentTimeMillis() + timeout;
+		synchronized(persistanceQueues){
+			while(!persistanceQueues.isEmpty()){
+				long remaining = end - System.currentTimeMillis();
+				if(remaining <= 0){
+					return false;
+				}
+				persistanceQueues.wait(remaining);
+			}
+			return true;
+		}
+	}
+	
+	/**
+	 * Runs the tasks for a single key, one after another, until there are none left.
+	 */
+	private class PersistanceKeyRunner implements Runnable {
+		private final String key;
+		private final Runnable first;
+
+		public PersistanceKeyRunner(String key, Runnable first) {
+			this.key = key;
+			this.first = first;
+		}
+
+		public void run() {
+			Runnable next = first;
+			while(next != null){
+				try{
+					next.run();
+				} catch(RuntimeException e){
+					//Don't let one failed task hold up the rest of the key's tasks
+					Logger.getLogger(Threader.class.getName()).log(Level.SEVERE, null, e);
+				}
+				synchronized(persistanceQueues){
+					next = persistanceQueues.get(key).poll();
+					if(next == null){
+						persistanceQueues.remove(key);
+						if(persistanceQueues.isEmpty()){
+							persistanceQueues.notifyAll();
+						}
+					}
+				}
+			}
+		}
+	}
 }
@@ -60,8 +60,8 @@ public class UserManager {
         List<Map.Entry<String, Object>> list = persist.getNamespaceValues(new String[]{"user", name, "aliases"});
         Integer nextValue = 0;
         for (Map.Entry e : list) {
-            String[] x = e.getKey().toString().split("\\.");
-            Integer thisX = Integer.parseInt(x[x.length - 1]);
+            String key = e.getKey().toString();
+            Integer thisX = Integer.parseInt(key.substring(key.lastIndexOf('.') + 1));
             nextValue = Math.max(thisX + 1, nextValue + 1);
         }
         persist.setValue(new String[]{"user", name, "aliases", nextValue.toString()}, alias);
@@ -101,9 +101,9 @@ public class UserManager {
         StringBuilder b = new StringBuilder();
 
         for(Map.Entry e : al){
-            String [] key = e.getKey().toString().split("\\.");
+            String key = e.getKey().toString();
             b.append(MCChatColor.AQUA)
-                    .append(key[key.length - 1])
+                    .append(key.substring(key.lastIndexOf('.') + 1))
                     .append(":")
                     .append(e.getValue().toString().substring(0, Math.min(e.getValue().toString().length(), 45)))
                     .append(e.getValue().toString().length() > 45?"...":"")
@@ -23,6 +23,17 @@ public class CArray extends Construct implements ArrayAccess{
     private SortedMap<String, Construct> associative_array;
     private String mutVal;
     CArray parent = null;
+    /**
+     * True if the contents of this array may be shared with other arrays, in which case
+     * they are copied before this array is changed. See {@link #copyOnWrite()}.
+     */
+    private boolean shared = false;
+    /**
+     * The nested arrays that have been read out of this array while its contents are
+     * shared, by key. They are views of the shared arrays, and are used in their place,
+     * so a nested array can be changed without copying this one. See {@link #child}.
+     */
+    private Map<String, CArray> children = null;
     
     
     public CArray(Target t){
@@ -91,6 +102,7 @@ public class CArray extends Construct implements ArrayAccess{
      * remain associative.
      */
     public void forceAssociativeMode(){
+        detach();
         if(associative_array == null){
             associative_array = new TreeMap<String, Construct>();
         }
@@ -104,9 +116,9 @@ public class CArray extends Construct implements ArrayAccess{
             for (int i = 0; i < array.size(); i++) {
                 if (i > 0) {
                     b.append(", ");
-                    b.append(array.get(i).val());
+                    b.append(current(Integer.toString(i), array.get(i)).val());
                 } else {
-                    b.append(array.get(i).val());
+                    b.append(current(Integer.toString(i), array.get(i)).val());
                 }
             }
         } else {
@@ -116,7 +128,7 @@ public class CArray extends Construct implements ArrayAccess{
                     b.append(", ");
                 }
                 first = false;
-                b.append(key).append(": ").append(associative_array.get(key).val());
+                b.append(key).append(": ").append(current(key, associative_array.get(key)).val());
             }
         }
         b.append("}");
@@ -131,6 +143,7 @@ public class CArray extends Construct implements ArrayAccess{
      * @param c 
      */
     public void push(Construct c) {
+        detach();
         if (!associative_mode) {
             array.add(c);
             next_index++;
@@ -178,6 +191,7 @@ public class CArray extends Construct implements ArrayAccess{
      * @param c 
      */
     public void set(Construct index, Construct c) {
+        detach();
         if (!associative_mode) {
             try {
                 int indx = (int) Static.getInt(index);
@@ -227,17 +241,19 @@ public class CArray extends Construct implements ArrayAccess{
     public Construct get(Construct index, Target t) {
         if(!associative_mode){
             try {
-                return array.get((int)Static.getInt(index));
+                int i = (int)Static.getInt(index);
+                return child(Integer.toString(i), array.get(i));
             } catch (IndexOutOfBoundsException e) {
                 throw new ConfigRuntimeException("The element at index \"" + index.val() + "\" does not exist", ExceptionType.IndexOverflowException, t);
             }
         } else {
             if(associative_array.containsKey(normalizeConstruct(index))){
-                Construct val = associative_array.get(normalizeConstruct(index));
+                String key = normalizeConstruct(index);
+                Construct val = associative_array.get(key);
                 if(val instanceof CEntry){
                     return ((CEntry)val).construct();
                 }
-                return val;
+                return child(key, val);
             } else {
                 throw new ConfigRuntimeException("The element at index \"" + index.val() + "\" does not exist", ExceptionType.IndexOverflowException, t);
             }
@@ -283,6 +299,9 @@ public class CArray extends Construct implements ArrayAccess{
     }
     
     public boolean contains(Construct c){
+        if(children != null && children.containsValue(c)){
+            return true;
+        }
         if(associative_mode){
             return associative_array.containsValue(c);
         } else {
@@ -319,6 +338,8 @@ public class CArray extends Construct implements ArrayAccess{
     @Override
     public CArray clone() throws CloneNotSupportedException {
         CArray clone = (CArray) super.clone();
+        clone.shared = false;
+        clone.children = null;
         clone.associative_mode = associative_mode;
         if(!associative_mode){
             if (array != null) {
@@ -329,10 +350,146 @@ public class CArray extends Construct implements ArrayAccess{
                 clone.associative_array = new TreeMap<String, Construct>(this.associative_array);
             }
         }
+        if(children != null){
+            for(Map.Entry<String, CArray> entry : children.entrySet()){
+                if(associative_mode){
+                    clone.associative_array.put(entry.getKey(), entry.getValue());
+                } else {
+                    clone.array.set(Integer.parseInt(entry.getKey()), entry.getValue());
+                }
+            }
+        }
         clone.regenValue();
         return clone;
     }
     
+    /**
+     * Returns a copy of this array, which shares its contents with this one until
+     * either of them is changed, so it is cheap to make a copy that is usually only
+     * read. Reading a nested array out of the copy returns a copy of it made the same
+     * way, so changing it only copies the nested array, and reading never copies anything.
+     * Arrays that share their contents may be used on different threads at once, but
+     * each of them only by one thread at a time, like any other array, and copies must
+     * not be made while another thread is using any of them.
+     * @return 
+     */
+    public CArray copyOnWrite(){
+        if(children != null){
+            //Nested arrays were handed out, and may have been changed, so they have to
+            //be put in place before the contents can be shared again
+            detach();
+        }
+        markShared();
+        return view();
+    }
+    
+    private void markShared(){
+        if(shared){
+            //Anything nested was marked along with it
+            return;
+        }
+        shared = true;
+        for(Construct c : associative_mode ? associative_array.values() : array){
+            if(c instanceof CArray){
+                ((CArray)c).markShared();
+            }
+        }
+    }
+    
+    /**
+     * Returns true if this array still shares its contents with the array it was copied
+     * from with {@link #copyOnWrite()}, that is, it hasn't been changed since.
+     * @return 
+     */
+    public boolean isShared(){
+        return shared;
+    }
+    
+    private CArray view(){
+        try{
+            CArray view = (CArray) super.clone();
+            view.parent = null;
+            view.children = null;
+            return view;
+        } catch(CloneNotSupportedException e){
+            //Constructs are always cloneable
+            throw new Error(e);
+        }
+    }
+    
+    /**
+     * If the contents of this array are shared, this gives the array its own copy
+     * of them, so it can be changed.
+     */
+    private void detach(){
+        if(!shared){
+            return;
+        }
+        if(array != null){
+            array = new ArrayList<Construct>(array);
+            for(ListIterator<Construct> it = array.listIterator(); it.hasNext();){
+                int i = it.nextIndex();
+                Construct c = it.next();
+                if(c instanceof CArray){
+                    it.set(child(Integer.toString(i), c));
+                }
+            }
+        }
+        if(associative_array != null){
+            associative_array = new TreeMap<String, Construct>(associative_array);
+            for(Map.Entry<String, Construct> entry : associative_array.entrySet()){
+                if(entry.getValue() instanceof CArray){
+                    entry.setValue(child(entry.getKey(), entry.getValue()));
+                }
+            }
+        }
+        //The nested arrays are in our own copy now
+        children = null;
+        shared = false;
+    }
+    
+    /**
+     * Returns the value to hand out for the given element. While the contents of this
+     * array are shared, a nested array is handed out as a copy made with copyOnWrite, which
+     * is kept, so it is the same one each time, and so it is used in place of the shared
+     * one from then on. Only the nested array is copied when it is changed, not this one.
+     * @param key
+     * @param value
+     * @return 
+     */
+    private Construct child(String key, Construct value){
+        if(!shared || !(value instanceof CArray)){
+            return value;
+        }
+        if(children == null){
+            children = new HashMap<String, CArray>();
+        }
+        CArray child = children.get(key);
+        if(child == null){
+            child = ((CArray)value).view();
+            child.parent = this;
+            children.put(key, child);
+        }
+        return child;
+    }
+    
+    /**
+     * Returns the nested array that was handed out for the given element, if any, otherwise
+     * the value itself.
+     * @param key
+     * @param value
+     * @return 
+     */
+    private Construct current(String key, Construct value){
+        if(children != null){
+            CArray child = children.get(key);
+            if(child != null){
+                return child;
+            }
+        }
+        return value;
+    }
+    
     private String normalizeConstruct(Construct c){
         if(c instanceof CArray){
             throw new ConfigRuntimeException("Arrays cannot be used as the key in an associative array", ExceptionType.CastException, c.getTarget());
@@ -354,6 +511,7 @@ public class CArray extends Construct implements ArrayAccess{
     }
 
     public Construct remove(Construct construct) {
+        detach();
         String c = normalizeConstruct(construct);
         Construct ret;
         if(!associative_mode){
@@ -441,6 +599,7 @@ public class CArray extends Construct implements ArrayAccess{
         STRING_CI
     }
     public void sort(final SortType sort){
+        detach();
         List<Construct> list = array;
         if(this.associative_mode){
             list = new ArrayList(associative_array.values());
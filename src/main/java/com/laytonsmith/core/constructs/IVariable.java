@@ -39,6 +39,17 @@ public class IVariable extends Construct implements Cloneable {
     public void setIval(Construct c) {
         var_value = c;
     }
+    
+    /**
+     * Returns a new variable with the same name and value, at the given target.
+     * Unlike {@link #ival()}, this doesn't change this variable or its value, so
+     * it is safe to use on a variable that other threads may be reading.
+     * @param t
+     * @return 
+     */
+    IVariable copy(Target t) {
+        return new IVariable(name, var_value, t);
+    }
 
     @Override
     public String toString() {
@@ -12,17 +12,64 @@ import java.util.Set;
  */
 public class IVariableList {
     Map<String, IVariable> varList = new HashMap<String, IVariable>();
+    /**
+     * The list this one was layered over, or null.
+     */
+    private final IVariableList parent;
+    
+    public IVariableList(){
+        this.parent = null;
+    }
+    
+    /**
+     * Creates a list that starts out with the same variables as the given one,
+     * without copying them. Variables are looked up in the parent until they are
+     * set in this list, and setting them here doesn't affect the parent. This is
+     * the same as cloning the parent, as long as the parent isn't changed while
+     * this list is in use. Lookups don't change the parent, so several lists may
+     * be layered over the same parent on different threads.
+     * @param parent 
+     */
+    public IVariableList(IVariableList parent){
+        this.parent = parent;
+    }
     
     public void set(IVariable v){
         varList.put(v.getName(), v);
     }
     
     public IVariable get(String name, Target t){
-        if(!varList.containsKey(name)){
-            this.set(new IVariable(name, t));
+        IVariable v = varList.get(name);
+        if(v == null){
+            //The parent's variables may be read by other lists at the same time, so
+            //they are copied into this one, rather than retargeted
+            IVariable inherited = parent == null ? null : parent.lookup(name);
+            v = inherited == null ? new IVariable(name, t) : inherited.copy(t);
+            varList.put(name, v);
+        } else {
+            v.setTarget(t);
         }
-        varList.get(name).setTarget(t);
-        return varList.get(name);
+        return v;
+    }
+    
+    private IVariable lookup(String name){
+        IVariable v = varList.get(name);
+        if(v == null && parent != null){
+            return parent.lookup(name);
+        }
+        return v;
+    }
+    
+    /**
+     * Returns all the variables, including the ones in the parent.
+     */
+    private Map<String, IVariable> flatten(){
+        if(parent == null){
+            return varList;
+        }
+        Map<String, IVariable> all = new HashMap<String, IVariable>(parent.flatten());
+        all.putAll(varList);
+        return all;
     }
 
     @Override
@@ -30,7 +77,7 @@ public class IVariableList {
         StringBuilder b = new StringBuilder();
         b.append("[");
         boolean first = true;
-        for(Map.Entry<String, IVariable> entry : varList.entrySet()){
+        for(Map.Entry<String, IVariable> entry : flatten().entrySet()){
             IVariable iv = entry.getValue();
             if(first){
                 first = false;
@@ -46,13 +93,16 @@ public class IVariableList {
     @Override
     public IVariableList clone(){
         IVariableList clone = new IVariableList();
-        clone.varList = new HashMap<String, IVariable>(varList);
+        for(IVariable v : flatten().values()){
+            //The variables are copied too, so the lists don't change each other's targets
+            clone.varList.put(v.getName(), v.copy(v.getTarget()));
+        }
         return clone;
     }
 
     //only the reflection package should be accessing this
     public Set<String> keySet() {
-        return varList.keySet();
+        return flatten().keySet();
     }
     
     
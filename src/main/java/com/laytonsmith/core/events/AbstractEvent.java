@@ -8,7 +8,9 @@ import com.laytonsmith.core.constructs.CArray;
 import com.laytonsmith.core.constructs.Construct;
 import com.laytonsmith.core.constructs.Target;
 import com.laytonsmith.core.exceptions.ConfigRuntimeException;
+import com.laytonsmith.core.events.Prefilters.PrefilterType;
 import com.laytonsmith.core.exceptions.EventException;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -33,11 +35,19 @@ public abstract class AbstractEvent implements Event, Comparable<Event> {
 
     /**
      * If the event needs to run special code when a player binds the event, it
-     * can be done here. By default, an UnsupportedOperationException is thrown,
-     * but is caught and ignored.
+     * can be done here. By default, the mixin starts listening for the driver.
+     * Events that override this should call super.bind() as well.
      */
     public void bind() {
-        throw new UnsupportedOperationException("Not supported yet.");
+        mixin.bind();
+    }
+
+    /**
+     * Called once the last handler for this event is unbound. By default, the
+     * mixin stops listening for the driver.
+     */
+    public void unbind() {
+        mixin.unbind();
     }
 
     /**
@@ -135,6 +145,15 @@ public abstract class AbstractEvent implements Event, Comparable<Event> {
     public boolean isCancelled(BindableEvent o) {
         return mixin.isCancelled(o);
     }
+    
+    /**
+     * By default, none of the prefilters are compiled ahead of time. Events that
+     * match their prefilters with {@link Prefilters} should list them.
+     * @return 
+     */
+    public Map<String, PrefilterType> prefilterTypes(){
+        return Collections.emptyMap();
+    }
         
     
     
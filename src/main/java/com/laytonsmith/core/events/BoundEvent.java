@@ -7,14 +7,21 @@ import com.laytonsmith.PureUtilities.Pair;
 import com.laytonsmith.abstraction.MCPlayer;
 import com.laytonsmith.core.*;
 import com.laytonsmith.core.constructs.*;
+import com.laytonsmith.core.exceptions.ConfigCompileException;
 import com.laytonsmith.core.exceptions.ConfigRuntimeException;
 import com.laytonsmith.core.exceptions.EventException;
+import com.laytonsmith.core.exceptions.FunctionReturnException;
 import com.laytonsmith.core.functions.Exceptions;
+import com.laytonsmith.core.functions.Function;
+import com.laytonsmith.core.functions.FunctionBase;
+import com.laytonsmith.core.functions.FunctionList;
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -30,11 +37,16 @@ public class BoundEvent implements Comparable<BoundEvent> {
     private final Priority priority;
     private final Map<String, Construct> prefilter;
     private final String eventObjName;
-    private Env originalEnv;
+    private final Env originalEnv;
     private final GenericTreeNode<Construct> tree; //The code closure for this event
+    private final GenericTreeNode<Construct> superRoot; //The tree is immutable, so this can be shared by all the runs
     private final Driver driver; //For efficiency sake, cache it here
+    private final Event eventDriver; //Likewise
     private static int EventID = 0;
     private final Target target;
+    private final TriggerLimiter limiter; //null unless debounce or throttle is set
+    private final boolean async;
+    private final AtomicLong asyncDropped = new AtomicLong();
 
     /**
      * Returns a unique ID that can be used to identify an event.
@@ -108,7 +120,7 @@ public class BoundEvent implements Comparable<BoundEvent> {
      * @param options The options for this event. Contains the priority and assigned id, possibly
      * @param prefilter The prefilter provided by the user
      * @param eventObjName The name of the variable that should be assigned the event object
-     * @param env The script's environment
+     * @param env The script's environment. A copy is kept, so it may be changed afterwards
      * @param tree The closure of the BoundEvent
      * @throws EventException If the priority or id are improperly specified
      */
@@ -134,21 +146,47 @@ public class BoundEvent implements Comparable<BoundEvent> {
         } else {
             this.priority = Priority.NORMAL;
         }
+        
+        this.limiter = TriggerLimiter.FromOptions(options);
+        
+        if (options != null && options.containsKey("async")) {
+            this.async = Static.getBoolean(options.get("async", Target.UNKNOWN));
+        } else {
+            this.async = false;
+        }
+        if (this.async) {
+            if (this.priority != Priority.MONITOR) {
+                throw new EventException("Only MONITOR priority events may be run async");
+            }
+            CheckAsync(tree);
+        }
 
-        this.prefilter = new HashMap<String, Construct>();
+        Map<String, Construct> prefilterMap = new HashMap<String, Construct>();
         if (prefilter != null) {
             for (String key : prefilter.keySet()) {
-                this.prefilter.put(key, prefilter.get(key, Target.UNKNOWN));
+                prefilterMap.put(key, prefilter.get(key, Target.UNKNOWN));
             }
         }
 
-        this.originalEnv = env;
+        try {
+            //The script's env keeps changing after bind() returns, for instance the
+            //alias's $vars are taken back out of it, so the handler keeps a snapshot
+            this.originalEnv = env.clone();
+        } catch (CloneNotSupportedException ex) {
+            throw new EventException(ex.getMessage());
+        }
         this.tree = tree;
+        this.superRoot = new GenericTreeNode<Construct>(null);
+        this.superRoot.addChild(tree);
         
-        if(EventList.getEvent(this.eventName) == null){
+        this.eventDriver = EventList.getEvent(this.eventName);
+        if(this.eventDriver == null){
             throw new EventException("No event named \"" + this.eventName + "\" is registered!");
         }
-        this.driver = EventList.getEvent(this.eventName).driver();
+        this.driver = this.eventDriver.driver();
+        //The compiled prefilters are kept with the map, so the expensive part of matching
+        //is only done once, not each time the event fires, and malformed ones are reported now
+        this.prefilter = Prefilters.compile(prefilterMap, this.eventDriver.prefilterTypes());
         this.eventObjName = eventObjName;
         
         this.target = t;
@@ -190,6 +228,119 @@ public class BoundEvent implements Comparable<BoundEvent> {
     public Map<String, Construct> getPrefilter() {
         return prefilter;
     }
+    
+    /**
+     * Returns false if this trigger should be dropped because of the debounce
+     * or throttle options. This should only be called once per trigger, since it
+     * also records the trigger. If the handler is debounced, this returns false,
+     * and the handler is run later, with a snapshot of the event, if no other trigger
+     * comes along first.
+     * @param activeEvent
+     * @return 
+     */
+    public boolean allowTrigger(ActiveEvent activeEvent) {
+        if (limiter == null) {
+            return true;
+        }
+        Runnable trailing = null;
+        if (limiter.isDebounced()) {
+            final CArray snapshot = activeEvent.getEventObject();
+            final MCPlayer player = activeEvent.getPlayer();
+            trailing = new Runnable() {
+
+                public void run() {
+                    if (EventUtils.GetBoundEvent(id) != BoundEvent.this) {
+                        //It was unbound in the meantime
+                        return;
+                    }
+                    try {
+                        trigger(snapshot, player);
+                    } catch (FunctionReturnException ex) {
+                        //Just a return()
+                    } catch (EventException ex) {
+                        Logger.getLogger(BoundEvent.class.getName()).log(Level.SEVERE, null, ex);
+                    } catch (ConfigRuntimeException ex) {
+                        ConfigRuntimeException.React(ex);
+                    }
+                }
+            };
+        }
+        return limiter.allow(activeEvent.getParsedEvent(), trailing);
+    }
+    
+    /**
+     * Returns the number of triggers dropped because of the debounce or throttle
+     * options.
+     * @return 
+     */
+    public long getSuppressedCount() {
+        return (limiter == null ? 0 : limiter.getSuppressed()) + asyncDropped.get();
+    }
+    
+    /**
+     * Returns true if this handler is run off of the main thread.
+     * @return 
+     */
+    public boolean isAsync() {
+        return async;
+    }
+    
+    /**
+     * Async handlers run on the event pool, where they must not touch the server, so
+     * every function in the closure must allow being run async. Procedures can't be
+     * checked ahead of time, since they are looked up when they are called, so they
+     * aren't allowed either.
+     */
+    private static void CheckAsync(GenericTreeNode<Construct> node) throws EventException {
+        if (node == null) {
+            return;
+        }
+        Construct c = node.getData();
+        if (c instanceof CFunction) {
+            if (c.val().startsWith("_")) {
+                throw new EventException("Procedures may not be called from an async event handler");
+            }
+            try {
+                FunctionBase f = FunctionList.getFunction(c);
+                if (f instanceof Function && Boolean.FALSE.equals(((Function) f).runAsync())) {
+                    throw new EventException(f.getName() + " may not be used in an async event handler,"
+                            + " since it must run on the main thread");
+                }
+            } catch (ConfigCompileException e) {
+                throw new EventException(e.getMessage());
+            }
+        }
+        for (GenericTreeNode<Construct> child : node.getChildren()) {
+            CheckAsync(child);
+        }
+    }
+    
+    /**
+     * Queues this handler to run on the event pool, with a snapshot of the event.
+     * The handler doesn't get the underlying event, so it can't affect the outcome,
+     * which it couldn't anyways, being a MONITOR handler.
+     * @param activeEvent 
+     */
+    public void triggerAsync(ActiveEvent activeEvent) {
+        final CArray snapshot = activeEvent.getEventObject();
+        boolean queued = Threader.GetThreader().submitEventTask(new Runnable() {
+
+            public void run() {
+                try {
+                    manual_trigger(snapshot);
+                } catch (FunctionReturnException ex) {
+                    //Just a return()
+                } catch (EventException ex) {
+                    Logger.getLogger(BoundEvent.class.getName()).log(Level.SEVERE, null, ex);
+                } catch (ConfigRuntimeException ex) {
+                    ConfigRuntimeException.React(ex);
+                }
+            }
+        });
+        if (!queued) {
+            asyncDropped.incrementAndGet();
+        }
+    }
 
     public Priority getPriority() {
         return priority;
@@ -219,41 +370,26 @@ public class BoundEvent implements Comparable<BoundEvent> {
      * @param event 
      */
     public void trigger(ActiveEvent activeEvent) throws EventException {
-        try {
-    //        GenericTree<Construct> root = new GenericTree<Construct>();
-    //        root.setRoot(tree);
-            Env env = originalEnv.clone();
-            CArray ca = new CArray(Target.UNKNOWN);
-            for (String key : activeEvent.parsedEvent.keySet()) {
-                ca.set(new CString(key, Target.UNKNOWN), activeEvent.parsedEvent.get(key));
-            }
-            if(activeEvent.parsedEvent.containsKey("player")){
-                try{
-                    MCPlayer p = Static.GetPlayer(activeEvent.parsedEvent.get("player"));
-                    if(p != null && p.isOnline()){
-                        env.SetPlayer(p);                                        
-                    }                    
-                } catch(ConfigRuntimeException e){
-                    if(!e.getExceptionType().equals(Exceptions.ExceptionType.PlayerOfflineException)){
-                        throw e;
-                    }
-                    //else we just leave the player to be null. It either doesn't matter here,
-                    //or the event will add it later, manually.
-                }
-            }
-            env.GetVarList().set(new IVariable(eventObjName, ca, Target.UNKNOWN));
-            env.SetEvent(activeEvent);
+        //The handler's changes are kept in the derived env, so the snapshot taken
+        //at bind time is neither copied nor changed
+        Env env = originalEnv.derive();
+        CArray ca = activeEvent.getEventObject();
+        MCPlayer p = activeEvent.getPlayer();
+        if(p != null && p.isOnline()){
+            env.SetPlayer(p);
+        }
+        env.GetVarList().set(new IVariable(eventObjName, ca, Target.UNKNOWN));
+        env.SetEvent(activeEvent);
+        if(Prefs.DebugMode()){
             activeEvent.addHistory("Triggering bound event: " + this);
-            try{
-                this.execute(env, activeEvent);
-            } catch(ConfigRuntimeException e){
-                //We don't know how to handle this, but we need to set the env,
-                //then pass it up the chain
-                e.setEnv(env);
-                throw e;
-            }
-        } catch (CloneNotSupportedException ex) {
-            Logger.getLogger(BoundEvent.class.getName()).log(Level.SEVERE, null, ex);
+        }
+        try{
+            this.execute(env, activeEvent);
+        } catch(ConfigRuntimeException e){
+            //We don't know how to handle this, but we need to set the env,
+            //then pass it up the chain
+            e.setEnv(env);
+            throw e;
         }
     }
     
@@ -263,26 +399,34 @@ public class BoundEvent implements Comparable<BoundEvent> {
      * @throws EventException 
      */
     public void manual_trigger(CArray event) throws EventException{
-        try {
-            Env env = originalEnv.clone();
-            env.GetVarList().set(new IVariable(eventObjName, event, Target.UNKNOWN));
-            Map<String, Construct> map = new HashMap<String, Construct>();
-            for(String key : event.keySet()){
-                map.put(key, event.get(key, Target.UNKNOWN));
-            }
-            ActiveEvent activeEvent = new ActiveEvent(null);
-            activeEvent.setParsedEvent(map);
-            activeEvent.setBoundEvent(this);
-            env.SetEvent(activeEvent);
-            this.execute(env, activeEvent);
-        } catch (CloneNotSupportedException ex) {
-            Logger.getLogger(BoundEvent.class.getName()).log(Level.SEVERE, null, ex);
-        }
+        trigger(event, null);
+    }
+    
+    /**
+     * Runs the handler with an event object that isn't backed by an underlying event,
+     * such as a manually triggered one, or a debounced one that is run after the fact.
+     * @param event
+     * @param player The player to run as, or null
+     * @throws EventException 
+     */
+    private void trigger(CArray event, MCPlayer player) throws EventException{
+        Env env = originalEnv.derive();
+        if(player != null && player.isOnline()){
+            env.SetPlayer(player);
+        }
+        env.GetVarList().set(new IVariable(eventObjName, event, Target.UNKNOWN));
+        Map<String, Construct> map = new HashMap<String, Construct>();
+        for(String key : event.keySet()){
+            map.put(key, event.get(key, Target.UNKNOWN));
+        }
+        ActiveEvent activeEvent = new ActiveEvent(null);
+        activeEvent.setParsedEvent(map);
+        activeEvent.setBoundEvent(this);
+        env.SetEvent(activeEvent);
+        this.execute(env, activeEvent);
     }
     
     private void execute(Env env, ActiveEvent activeEvent) throws EventException{
-        GenericTreeNode<Construct> superRoot = new GenericTreeNode<Construct>(null);
-        superRoot.addChild(tree);
         Script s = Script.GenerateScript(superRoot, "*");        
         Event myDriver = this.getEventDriver();
         myDriver.execute(s, this, env, activeEvent);
@@ -293,7 +437,7 @@ public class BoundEvent implements Comparable<BoundEvent> {
      * @return 
      */
     public Event getEventDriver(){
-        return EventList.getEvent(this.getDriver(), this.getEventName());
+        return eventDriver;
     }
     
     /**
@@ -307,6 +451,18 @@ public class BoundEvent implements Comparable<BoundEvent> {
     public static class ActiveEvent{
         private final BindableEvent underlyingEvent;
         private Map<String, Construct> parsedEvent;
+        /**
+         * The parsed event, as an array. This is built the first time a handler needs
+         * it, and each handler then gets a copy of it, which shares its contents until
+         * the handler changes it.
+         */
+        private CArray eventObject;
+        /**
+         * The player the event is about, resolved once per parsed event, since
+         * looking the player up creates a new wrapper each time.
+         */
+        private MCPlayer player;
+        private boolean playerResolved;
         private BoundEvent boundEvent;
         private Boolean cancelled;
         private BoundEvent consumedAt;
@@ -335,6 +491,11 @@ public class BoundEvent implements Comparable<BoundEvent> {
             return history;
         }
 
+        /**
+         * Returns the parsed event, or null if it hasn't been parsed yet. The parsed event
+         * is shared by all the handlers of this event, so the map may not be modified.
+         * @return 
+         */
         public Map<String, Construct> getParsedEvent() {
             return parsedEvent;
         }
@@ -352,9 +513,70 @@ public class BoundEvent implements Comparable<BoundEvent> {
         }
         
         public void setParsedEvent(Map<String, Construct> parsedEvent){
-            this.parsedEvent = parsedEvent;
+            this.parsedEvent = parsedEvent == null ? null : Collections.unmodifiableMap(parsedEvent);
+            this.eventObject = null;
+            this.player = null;
+            this.playerResolved = false;
         }
-
+        
+        /**
+         * Throws away the parsed event, so that it is evaluated again for the next handler.
+         * This should be called when the underlying event has been modified.
+         */
+        public void invalidateParsedEvent(){
+            this.parsedEvent = null;
+            this.eventObject = null;
+            this.player = null;
+            this.playerResolved = false;
+        }
+        
+        /**
+         * Returns the player named by the "player" parameter of the parsed event, or null if
+         * there is no such parameter, or the player is offline. The player is only looked up
+         * once per parsed event.
+         * @return 
+         */
+        public MCPlayer getPlayer(){
+            if(!playerResolved){
+                MCPlayer p = null;
+                if(parsedEvent.containsKey("player")){
+                    try{
+                        p = Static.GetPlayer(parsedEvent.get("player"));
+                    } catch(ConfigRuntimeException e){
+                        if(!e.getExceptionType().equals(Exceptions.ExceptionType.PlayerOfflineException)){
+                            throw e;
+                        }
+                        //else we just leave the player to be null. It either doesn't matter here,
+                        //or the event will add it later, manually.
+                    }
+                }
+                player = p;
+                playerResolved = true;
+            }
+            return player;
+        }
+        
+        /**
+         * Returns the event object for the current handler. Handlers may modify the array
+         * they are given, so this is a copy of the array built from the parsed event. The
+         * copy shares its contents with the others until it is modified, and the array
+         * itself is only built once per parsed event, that is, again after modify_event.
+         * @return 
+         */
+        public CArray getEventObject() {
+            return buildEventObject().copyOnWrite();
+        }
+        
+        private CArray buildEventObject() {
+            if(eventObject == null){
+                eventObject = new CArray(Target.UNKNOWN);
+                for (String key : parsedEvent.keySet()) {
+                    eventObject.set(new CString(key, Target.UNKNOWN), parsedEvent.get(key));
+                }
+            }
+            return eventObject;
+        }
+        
         public boolean isCancelled() {
             //if cancelled is not null, return it. If it is null, check with the underlying event.
             //If it isn't null, that means we have manually set it somewhere, so that takes precedence;
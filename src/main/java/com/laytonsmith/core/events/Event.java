@@ -8,6 +8,7 @@ import com.laytonsmith.core.Script;
 import com.laytonsmith.core.constructs.CArray;
 import com.laytonsmith.core.constructs.Construct;
 import com.laytonsmith.core.events.BoundEvent.ActiveEvent;
+import com.laytonsmith.core.events.Prefilters.PrefilterType;
 import com.laytonsmith.core.exceptions.EventException;
 import com.laytonsmith.core.exceptions.PrefilterNonMatchException;
 import java.util.Map;
@@ -84,13 +85,20 @@ public interface Event extends Comparable<Event>, Documentation{
     public Driver driver();
     
     /**
-     * This function is called once a script binds to this event, which gives 
+     * This function is called when the first script binds to this event, which gives 
      * this event type a chance to "activate" if needed. It may throw an 
-     * UnsupportedOperationException if it is not needed. The listener
-     * is automatically registered, based on the driver returned.
+     * UnsupportedOperationException if it is not needed. The server listener
+     * is registered here, based on the driver returned.
      */
     public void bind();
     
+    /**
+     * This function is called when the last script handler bound to this event
+     * is unbound, and undoes whatever bind() did. It may throw an
+     * UnsupportedOperationException if it is not needed.
+     */
+    public void unbind();
+    
     /**
      * This function is called once when the plugin starts up, to give this
      * event a chance to make a hook into the server if it needs it.
@@ -138,4 +146,14 @@ public interface Event extends Comparable<Event>, Documentation{
      */
     public boolean isCancelled(BindableEvent underlyingEvent);
     
+    /**
+     * Returns the type of match that matches() uses for each of the prefilters it
+     * checks with {@link Prefilters}, by prefilter name. The prefilters given to bind()
+     * are compiled for these types when the event is bound, so a malformed regex or
+     * expression is reported by bind(), and not the first time the event fires.
+     * Prefilters that aren't listed are compiled the first time they are matched.
+     * @return 
+     */
+    public Map<String, PrefilterType> prefilterTypes();
+    
 }
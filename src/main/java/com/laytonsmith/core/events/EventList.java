@@ -23,6 +23,11 @@ public final class EventList {
     
     private static final Map<Driver, SortedSet<Event>> event_list =
             new EnumMap<Driver, SortedSet<Event>>(Driver.class);
+    /**
+     * The same events, keyed by name, so that looking an event up by name doesn't require
+     * a scan of every driver.
+     */
+    private static final Map<String, Event> event_names = new HashMap<String, Event>();
     static {
         //Initialize all our events as soon as we start up
         initEvents();
@@ -39,43 +44,23 @@ public final class EventList {
     }
     
     /**
-     * A more efficient lookup, this method will return a value in near constant time,
-     * as opposed to the other getEvent, which will return in O(n) time. This could
-     * return null if there is no event named name.
+     * Returns the event named name, as long as it is driven by type. This runs in
+     * constant time. This could return null if there is no event named name.
      */
     public static Event getEvent(Driver type, String name){
-        if(type == null){
-            return getEvent(name);
-        }
-        SortedSet<Event> set = event_list.get(type);
-        if(set != null){
-            Iterator<Event> i = set.iterator();
-            while(i.hasNext()){
-                Event e = i.next();
-                if(e.getName().equals(name)){
-                    return e;
-                }
-            }
+        Event e = event_names.get(name);
+        if(type == null || e == null || e.driver() == type){
+            return e;
         }
         return null;
     }
     /**
-     * This could return null if there is no event named name.
+     * This could return null if there is no event named name. This runs in constant time.
      * @param name
      * @return 
      */
     public static Event getEvent(String name){
-        for(Driver type : event_list.keySet()){
-            SortedSet<Event> set = event_list.get(type);
-            Iterator<Event> i = set.iterator();
-            while(i.hasNext()){
-                Event e = i.next();
-                if(e.getName().equals(name)){
-                    return e;
-                }
-            }
-        }
-        return null;
+        return event_names.get(name);
     }
     
     private static void initEvents() {
@@ -134,7 +119,9 @@ public final class EventList {
         if(!event_list.containsKey(e.driver())){
             event_list.put(e.driver(), new TreeSet<Event>());
         }
-        event_list.get(e.driver()).add(e);
+        if(event_list.get(e.driver()).add(e) && !event_names.containsKey(e.getName())){
+            event_names.put(e.getName(), e);
+        }
         
         try{
             e.hook();
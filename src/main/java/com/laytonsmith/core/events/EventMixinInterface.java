@@ -44,4 +44,16 @@ public interface EventMixinInterface {
      * @return 
      */
     public boolean isCancelled(BindableEvent o);
+
+    /**
+     * Called when the first script handler for this event is bound, so the
+     * implementation can start listening for the underlying server event.
+     */
+    public void bind();
+
+    /**
+     * Called when the last script handler for this event is unbound, so the
+     * implementation can stop listening for the underlying server event.
+     */
+    public void unbind();
 }
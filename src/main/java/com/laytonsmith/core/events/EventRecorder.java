@@ -0,0 +1,199 @@
+package com.laytonsmith.core.events;
+
+import com.laytonsmith.core.constructs.CArray;
+import com.laytonsmith.core.constructs.CString;
+import com.laytonsmith.core.constructs.Construct;
+import com.laytonsmith.core.constructs.Target;
+import com.laytonsmith.core.exceptions.MarshalException;
+import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Records the events that are triggered, so they can later be replayed with the
+ * {@link EventReplayer}, for instance to load test a set of scripts without a server.
+ * Each event is written as a line with the number of ms since the recording started,
+ * the event name, and the evaluated event object as json, separated by tabs. If the
+ * file name ends with .gz, the file is compressed. Only events that have at least one
+ * handler bound are seen, since the server doesn't send us the others.
+ * @author layton
+ */
+public final class EventRecorder {
+
+    private EventRecorder(){}
+
+    private static volatile Writer out = null;
+    private static long start;
+    private static long recorded;
+    private static long skipped;
+
+    /**
+     * Starts recording to the given file, overwriting it. If a recording is already
+     * in progress, it is stopped first.
+     * @param file
+     * @throws IOException
+     */
+    public static synchronized void Start(File file) throws IOException {
+        Stop();
+        OutputStream os = new FileOutputStream(file);
+        if(file.getName().endsWith(".gz")){
+            os = new GZIPOutputStream(os);
+        }
+        out = new BufferedWriter(new OutputStreamWriter(os, "UTF-8"));
+        start = System.currentTimeMillis();
+        recorded = 0;
+        skipped = 0;
+    }
+
+    /**
+     * Stops recording, and closes the file. If nothing is being recorded, nothing happens.
+     * @throws IOException
+     */
+    public static synchronized void Stop() throws IOException {
+        if(out != null){
+            Writer w = out;
+            out = null;
+            w.close();
+        }
+    }
+
+    public static boolean IsRecording() {
+        return out != null;
+    }
+
+    /**
+     * Returns the number of events written to the current or last recording.
+     * @return
+     */
+    public static synchronized long GetRecordedCount() {
+        return recorded;
+    }
+
+    /**
+     * Returns the number of events that couldn't be recorded, because their event
+     * object couldn't be converted to json.
+     * @return
+     */
+    public static synchronized long GetSkippedCount() {
+        return skipped;
+    }
+
+    /**
+     * Writes the event to the recording, if one is in progress.
+     * @param eventName
+     * @param parsedEvent
+     */
+    public static synchronized void Record(String eventName, Map<String, Construct> parsedEvent) {
+        if(out == null){
+            return;
+        }
+        CArray object = new CArray(Target.UNKNOWN);
+        for(String key : parsedEvent.keySet()){
+            object.set(new CString(key, Target.UNKNOWN), parsedEvent.get(key));
+        }
+        String json;
+        try{
+            json = Construct.json_encode(object, Target.UNKNOWN);
+        } catch(MarshalException e){
+            skipped++;
+            return;
+        }
+        try{
+            out.write(Long.toString(System.currentTimeMillis() - start));
+            out.write('\t');
+            out.write(eventName);
+            out.write('\t');
+            out.write(json);
+            out.write('\n');
+            recorded++;
+        } catch(IOException e){
+            //Don't keep failing on every event
+            Writer w = out;
+            out = null;
+            try {
+                w.close();
+            } catch (IOException ex) {
+            }
+            throw new RuntimeException("Could not write to the event recording, so it has been stopped", e);
+        }
+    }
+
+    /**
+     * Reads a recording back in.
+     * @param file
+     * @return
+     * @throws IOException If the file can't be read, or isn't a valid recording
+     */
+    public static List<RecordedEvent> Read(File file) throws IOException {
+        InputStream is = new FileInputStream(file);
+        if(file.getName().endsWith(".gz")){
+            is = new GZIPInputStream(is);
+        }
+        BufferedReader reader = new BufferedReader(new InputStreamReader(is, "UTF-8"));
+        List<RecordedEvent> events = new ArrayList<RecordedEvent>();
+        try{
+            String line;
+            int lineNum = 0;
+            while((line = reader.readLine()) != null){
+                lineNum++;
+                if(line.trim().isEmpty()){
+                    continue;
+                }
+                String[] parts = line.split("\t", 3);
+                try{
+                    if(parts.length != 3){
+                        throw new IOException("Expected 3 fields");
+                    }
+                    Construct object = Construct.json_decode(parts[2], Target.UNKNOWN);
+                    if(!(object instanceof CArray)){
+                        throw new IOException("The event object must be an array");
+                    }
+                    events.add(new RecordedEvent(Long.parseLong(parts[0]), parts[1], (CArray)object));
+                } catch(NumberFormatException e){
+                    throw new IOException("Invalid recording on line " + lineNum + ": " + e.getMessage());
+                } catch(MarshalException e){
+                    throw new IOException("Invalid recording on line " + lineNum + ": " + e.getMessage());
+                } catch(IOException e){
+                    throw new IOException("Invalid recording on line " + lineNum + ": " + e.getMessage());
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        return events;
+    }
+
+    /**
+     * A single event read from a recording.
+     */
+    public static class RecordedEvent {
+        private final long time;
+        private final String eventName;
+        private final CArray object;
+
+        public RecordedEvent(long time, String eventName, CArray object){
+            this.time = time;
+            this.eventName = eventName;
+            this.object = object;
+        }
+
+        /**
+         * The number of ms after the start of the recording that this event happened.
+         * @return
+         */
+        public long getTime(){
+            return time;
+        }
+
+        public String getEventName(){
+            return eventName;
+        }
+
+        public CArray getObject(){
+            return object;
+        }
+    }
+}
@@ -0,0 +1,198 @@
+package com.laytonsmith.core.events;
+
+import com.laytonsmith.core.exceptions.ConfigRuntimeException;
+import java.util.*;
+
+/**
+ * Feeds a recording made by the {@link EventRecorder} back through the currently
+ * bound handlers, and measures how long each handler takes. Each recorded event is
+ * turned back into an event by its driver, as with trigger(), and then dispatched the
+ * same way a server event is, so the prefilters, priorities, cancellation and the
+ * debounce and throttle options all apply. Async handlers are only timed for as
+ * long as it takes to hand them off. Events the driver can't rebuild are skipped,
+ * and counted.
+ * @author layton
+ */
+public final class EventReplayer {
+
+    private EventReplayer(){}
+
+    /**
+     * Replays the events.
+     * @param events
+     * @param speed If 0, the events are replayed as fast as possible. Otherwise, the
+     * time between the events is kept, divided by this, so 1 is real time, and 2 is twice as fast.
+     * @return The timings
+     */
+    public static Report Replay(List<EventRecorder.RecordedEvent> events, double speed) {
+        final Report report = new Report();
+        EventUtils.HandlerTimer timer = new EventUtils.HandlerTimer() {
+
+            public void ran(BoundEvent b, long ns, boolean failed) {
+                HandlerStats stats = report.get(b);
+                if(failed){
+                    stats.errors++;
+                }
+                stats.add(ns);
+            }
+        };
+        long start = System.nanoTime();
+        for(EventRecorder.RecordedEvent event : events){
+            if(speed > 0){
+                long due = start + (long)(event.getTime() * 1000000 / speed);
+                long wait = due - System.nanoTime();
+                if(wait > 0){
+                    try {
+                        Thread.sleep(wait / 1000000, (int)(wait % 1000000));
+                    } catch (InterruptedException ex) {
+                        break;
+                    }
+                }
+            }
+            report.events++;
+            try{
+                EventUtils.Replay(event.getEventName(), event.getObject(), timer);
+            } catch(ConfigRuntimeException e){
+                //Either the driver couldn't rebuild the event, or a handler failed badly
+                //enough that the dispatch was abandoned, which the timer has already counted.
+                report.skipped++;
+            } catch(UnsupportedOperationException e){
+                //The driver doesn't support building events
+                report.skipped++;
+            }
+        }
+        report.elapsed = System.nanoTime() - start;
+        return report;
+    }
+
+    /**
+     * The results of a replay.
+     */
+    public static class Report {
+        private final Map<String, HandlerStats> handlers = new LinkedHashMap<String, HandlerStats>();
+        private long events = 0;
+        private long skipped = 0;
+        private long elapsed = 0;
+
+        private HandlerStats get(BoundEvent b){
+            HandlerStats stats = handlers.get(b.getId());
+            if(stats == null){
+                stats = new HandlerStats(b.toString() + " " + b.getFile() + ":" + b.getLineNum());
+                handlers.put(b.getId(), stats);
+            }
+            return stats;
+        }
+
+        /**
+         * The stats for each handler that ran, keyed by event id.
+         * @return
+         */
+        public Map<String, HandlerStats> getHandlers(){
+            return Collections.unmodifiableMap(handlers);
+        }
+
+        /**
+         * The number of events replayed.
+         * @return
+         */
+        public long getEvents(){
+            return events;
+        }
+
+        /**
+         * The number of replayed events that could not be run through the handlers, because
+         * the driver couldn't rebuild them, or the dispatch failed.
+         * @return
+         */
+        public long getSkipped(){
+            return skipped;
+        }
+
+        /**
+         * The time the whole replay took, in ns.
+         * @return
+         */
+        public long getElapsed(){
+            return elapsed;
+        }
+
+        /**
+         * The number of events replayed per second.
+         * @return
+         */
+        public double getThroughput(){
+            return elapsed == 0 ? 0 : events * 1000000000.0 / elapsed;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder b = new StringBuilder();
+            b.append(String.format("Replayed %d events in %.1f ms (%.1f events/s), %d skipped\n", events, elapsed / 1000000.0,
+                    getThroughput(), skipped));
+            b.append(String.format("%8s %8s %10s %10s %10s %10s  %s\n", "runs", "errors", "p50 ms", "p90 ms", "p99 ms", "max ms", "handler"));
+            for(HandlerStats stats : handlers.values()){
+                b.append(String.format("%8d %8d %10.3f %10.3f %10.3f %10.3f  %s\n", stats.getCount(), stats.getErrors(),
+                        stats.getPercentile(50) / 1000000.0, stats.getPercentile(90) / 1000000.0,
+                        stats.getPercentile(99) / 1000000.0, stats.getPercentile(100) / 1000000.0, stats.getName()));
+            }
+            return b.toString();
+        }
+    }
+
+    /**
+     * The timings of a single handler.
+     */
+    public static class HandlerStats {
+        private final String name;
+        private long[] samples = new long[16];
+        private int count = 0;
+        private boolean sorted = true;
+        private long errors = 0;
+
+        private HandlerStats(String name){
+            this.name = name;
+        }
+
+        private void add(long ns){
+            if(count == samples.length){
+                samples = Arrays.copyOf(samples, count * 2);
+            }
+            samples[count++] = ns;
+            sorted = false;
+        }
+
+        public String getName(){
+            return name;
+        }
+
+        public int getCount(){
+            return count;
+        }
+
+        /**
+         * The number of runs that ended in an uncaught exception.
+         * @return
+         */
+        public long getErrors(){
+            return errors;
+        }
+
+        /**
+         * Returns the time in ns that the given percent of the runs took at most, or 0 if there
+         * were no runs. 100 is the slowest run.
+         * @param percent
+         * @return
+         */
+        public long getPercentile(double percent){
+            if(count == 0){
+                return 0;
+            }
+            if(!sorted){
+                Arrays.sort(samples, 0, count);
+                sorted = true;
+            }
+            int index = (int)Math.ceil(percent / 100 * count) - 1;
+            return samples[Math.max(0, Math.min(count - 1, index))];
+        }
+    }
+}
@@ -12,6 +12,7 @@ import com.laytonsmith.core.exceptions.EventException;
 import com.laytonsmith.core.exceptions.FunctionReturnException;
 import com.laytonsmith.core.exceptions.PrefilterNonMatchException;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  *
@@ -21,8 +22,30 @@ public final class EventUtils {
     
     private EventUtils(){}
 
+    /**
+     * Guards binding and unbinding. Triggering never takes this lock, it only ever reads
+     * the immutable snapshots stored in the maps below, so a handler that binds or unbinds
+     * events, even from another thread, can't disturb a dispatch in progress.
+     */
+    private static final Object lock = new Object();
+    /**
+     * Maps the driver to an unmodifiable snapshot of all the handlers for that driver.
+     * The snapshot is replaced, not modified, when a handler is bound or unbound.
+     */
     private static final Map<Driver, SortedSet<BoundEvent>> event_handles =
-            new EnumMap<Driver, SortedSet<BoundEvent>>(Driver.class);
+            new ConcurrentHashMap<Driver, SortedSet<BoundEvent>>();
+    /**
+     * The dispatch table. Maps the event name to all the handlers bound to that event,
+     * already sorted by priority, so triggering an event doesn't have to look through
+     * the handlers of other events that share the same driver. The lists are
+     * replaced, not modified, when a handler is bound or unbound, so a handler
+     * binding or unbinding while the event is running doesn't disturb the dispatch.
+     */
+    private static final Map<String, HandlerList> handlers_by_name = new ConcurrentHashMap<String, HandlerList>();
+    /**
+     * Maps the event id to the handler, so unbinding is a constant time operation.
+     */
+    private static final Map<String, BoundEvent> handlers_by_id = new ConcurrentHashMap<String, BoundEvent>();
 
     /**
      * Registers a BoundEvent.
@@ -30,53 +53,80 @@ public final class EventUtils {
      * @throws EventException 
      */
     public static void RegisterEvent(BoundEvent b) throws EventException {
-        Event event = EventList.getEvent(b.getEventName());
+        Event event = b.getEventDriver();
         if (event == null) {
             throw new EventException("The event type \"" + b.getEventName() + "\" could not be found.");
         }
-        if (!event_handles.containsKey(event.driver())) {
-            event_handles.put(event.driver(), new TreeSet<BoundEvent>());
-        }
-        SortedSet<BoundEvent> set = event_handles.get(event.driver());
-        set.add(b);
-        try {
-            event.bind();
-        } catch (UnsupportedOperationException e) {
+        synchronized (lock) {
+            if (handlers_by_id.containsKey(b.getId())) {
+                throw new EventException("An event with the id \"" + b.getId() + "\" is already bound.");
+            }
+            SortedSet<BoundEvent> set = new TreeSet<BoundEvent>();
+            if (event_handles.containsKey(event.driver())) {
+                set.addAll(event_handles.get(event.driver()));
+            }
+            set.add(b);
+            event_handles.put(event.driver(), Collections.unmodifiableSortedSet(set));
+            handlers_by_id.put(b.getId(), b);
+            HandlerList current = handlers_by_name.get(b.getEventName());
+            boolean first = current == null;
+            if (first) {
+                current = new HandlerList(event, new BoundEvent[0]);
+            }
+            handlers_by_name.put(b.getEventName(), current.add(b));
+            //This is still done under the lock, so a bind and an unbind racing each
+            //other can't leave the server listening with nothing bound, or the reverse.
+            if (first) {
+                try {
+                    event.bind();
+                } catch (UnsupportedOperationException e) {
+                }
+            }
         }
     }
 
     /**
-     * Looks through all the events for an event with id <code>id</code>. Once found, removes it.
-     * If no event with that id is registered, nothing happens.
+     * Removes the event with id <code>id</code>. If no event with that id is registered,
+     * nothing happens. Runs in O(1) with respect to the number of events with other names.
      * @param id 
      */
     public static void UnregisterEvent(String id) {
-        for (Driver type : event_handles.keySet()) {
-            SortedSet<BoundEvent> set = event_handles.get(type);
-            Iterator<BoundEvent> i = set.iterator();
-            while (i.hasNext()) {
-                BoundEvent b = i.next();
-                if (b.getId().equals(id)) {
-                    i.remove();
-                    return;
+        synchronized (lock) {
+            BoundEvent b = handlers_by_id.remove(id);
+            if (b == null) {
+                return;
+            }
+            SortedSet<BoundEvent> set = event_handles.get(b.getDriver());
+            if (set != null) {
+                SortedSet<BoundEvent> updated = new TreeSet<BoundEvent>(set);
+                updated.remove(b);
+                if (updated.isEmpty()) {
+                    event_handles.remove(b.getDriver());
+                } else {
+                    event_handles.put(b.getDriver(), Collections.unmodifiableSortedSet(updated));
+                }
+            }
+            HandlerList current = handlers_by_name.get(b.getEventName());
+            if (current != null) {
+                HandlerList updated = current.remove(b);
+                if (updated == null) {
+                    handlers_by_name.remove(b.getEventName());
+                    Unbind(current.getDriver());
+                } else {
+                    handlers_by_name.put(b.getEventName(), updated);
                 }
             }
         }
     }
 
     /**
-     * Unregisters all event handlers. Runs in O(n)
+     * Unregisters the first event handler that uses <code>name</code> as the event object name. Runs in O(n)
      */
     public static void UnregisterAll(String name) {
-        for (Driver type : event_handles.keySet()) {
-            SortedSet<BoundEvent> set = event_handles.get(type);
-            Iterator<BoundEvent> i = set.iterator();
-            while (i.hasNext()) {
-                BoundEvent b = i.next();
-                if (b.getEventObjName().equals(name)) {
-                    i.remove();
-                    return;
-                }
+        for (BoundEvent b : handlers_by_id.values()) {
+            if (b.getEventObjName().equals(name)) {
+                UnregisterEvent(b.getId());
+                return;
             }
         }
     }
@@ -85,11 +135,30 @@ public final class EventUtils {
      * This should be used in the case the plugin is disabled, or /reloadalises is run.
      */
     public static void UnregisterAll() {
-        event_handles.clear();
+        synchronized (lock) {
+            for (HandlerList list : handlers_by_name.values()) {
+                Unbind(list.getDriver());
+            }
+            event_handles.clear();
+            handlers_by_name.clear();
+            handlers_by_id.clear();
+        }
     }
 
     /**
-     * Returns all events driven by type. O(1).
+     * Tells the event that nothing is bound to it anymore, so it can stop listening.
+     */
+    private static void Unbind(Event event) {
+        try {
+            event.unbind();
+        } catch (UnsupportedOperationException e) {
+        }
+    }
+
+    /**
+     * Returns all events driven by type, or null if there are none. O(1). The
+     * returned set is an unmodifiable snapshot, so it won't change while it is being
+     * iterated, even if events are bound or unbound.
      * @param type
      * @return 
      */
@@ -97,104 +166,217 @@ public final class EventUtils {
         return event_handles.get(type);
     }
 
+    /**
+     * Returns the handlers bound to the event named eventName, sorted by priority,
+     * or null if there are none. O(1). The returned array must not be modified.
+     * @param eventName
+     * @return 
+     */
+    static BoundEvent[] GetHandlers(String eventName) {
+        HandlerList list = handlers_by_name.get(eventName);
+        return list == null ? null : list.getHandlers();
+    }
+
+    /**
+     * Returns the handler bound with this id, or null if there is none. O(1).
+     * @param id
+     * @return 
+     */
+    public static BoundEvent GetBoundEvent(String id) {
+        return handlers_by_id.get(id);
+    }
+
     public static void ManualTrigger(String eventName, CArray object, boolean serverWide) {
-        for (Driver type : event_handles.keySet()) {
-            SortedSet<BoundEvent> toRun = new TreeSet<BoundEvent>();
-            SortedSet<BoundEvent> bounded = GetEvents(type);
-            Event driver = EventList.getEvent(type, eventName);
-            if (bounded != null) {
-                for (BoundEvent b : bounded) {
-                    if(b.getEventName().equalsIgnoreCase(eventName)){
-                        try {
-                            BindableEvent convertedEvent;
-                            try{
-                                convertedEvent = driver.convert(object);
-                            } catch(ConfigRuntimeException e){
-                                ConfigRuntimeException.React(e, "Did you include all the event parameters?");
-                                continue;
-                            }
-                            if (driver.matches(b.getPrefilter(), convertedEvent)) {
-                                toRun.add(b);
-                            }
-                        } catch (PrefilterNonMatchException ex) {
-                            //Not running this one
-                        }
-                    }
-                }
+        Event driver = EventList.getEvent(eventName.toLowerCase());
+        BoundEvent[] bounded = driver == null ? null : GetHandlers(driver.getName());
+        if (bounded != null) {
+            BindableEvent convertedEvent;
+            try{
+                convertedEvent = driver.convert(object);
+            } catch(ConfigRuntimeException e){
+                ConfigRuntimeException.React(e, "Did you include all the event parameters?");
+                return;
             }
             //If it's not a serverwide event, or this event doesn't support external events.
-            if (!toRun.isEmpty()) {
-                if (!serverWide || !driver.supportsExternal()) {
-                    FireListeners(toRun, driver, driver.convert(object));
-                } else {
-                    //It's serverwide, so we can just trigger it normally with the driver, and it should trickle back down to us
-                    driver.manualTrigger(driver.convert(object));
+            if (!serverWide || !driver.supportsExternal()) {
+                if (FireListeners(bounded, driver, convertedEvent, null, null)) {
+                    return;
                 }
-            } else {
-                //They have fired a non existant event
-                ConfigRuntimeException.DoWarning(new ConfigRuntimeException("Non existant event is being triggered: " + eventName, object.getTarget()));
+            } else if (AnyMatches(bounded, driver, convertedEvent)) {
+                //It's serverwide, so we can just trigger it normally with the driver, and it should trickle back down to us
+                driver.manualTrigger(convertedEvent);
+                return;
             }
         }
+        //They have fired a non existant event
+        ConfigRuntimeException.DoWarning(new ConfigRuntimeException("Non existant event is being triggered: " + eventName, object.getTarget()));
     }
 
     /**
-     * Triggers an event by name. The event name is the primary filter for this event, but
-     * to increase event lookup efficiency, the driver is required. This will run in O(n),
-     * where n is the number of bound events driven by type <code>type</code>.
+     * Triggers an event by name. The handlers are looked up by the event name directly, so
+     * this runs in O(n), where n is the number of handlers bound to this particular event,
+     * or, if the event is an IndexableEvent, the number of those handlers that could possibly
+     * match. The driver is still passed in, as it is part of the event's identity.
      * @param type
      * @param e 
      */
     public static void TriggerListener(Driver type, String eventName, BindableEvent e) {
-        SortedSet<BoundEvent> toRun = new TreeSet<BoundEvent>();
-        //This is the Event driver
-        Event driver = EventList.getEvent(type, eventName);
-        //This is the set of bounded events of this driver type. 
-        //We must now look through the bound events to see if they are
-        //the eventName, and if so, we will also run the prefilter.
-        SortedSet<BoundEvent> bounded = GetEvents(type);
-        if (bounded != null) {
-            for (BoundEvent b : bounded) {
-                try {
-                    if (driver.getName().equals(eventName) && driver.matches(b.getPrefilter(), e)) {
-                        toRun.add(b);
-                    }
-                } catch (PrefilterNonMatchException ex) {
-                    //Not running this one
-                }
+        HandlerList list = handlers_by_name.get(eventName);
+        if (list == null) {
+            return;
+        }
+        //This is the Event driver. All the handlers for this name share it.
+        Event driver = list.getDriver();
+        if (driver.driver() != type) {
+            return;
+        }
+        Map<String, Construct> parsed = null;
+        if (EventRecorder.IsRecording()) {
+            try {
+                parsed = driver.evaluate(e);
+                EventRecorder.Record(eventName, parsed);
+            } catch (EventException ex) {
+                //It will fail again below if anything runs, so let that report it
             }
         }
+        FireListeners(list.getCandidates(e), driver, e, parsed, null);
+    }
 
-        FireListeners(toRun, driver, e);
+    /**
+     * Is told how long each handler took, when events are replayed.
+     */
+    interface HandlerTimer {
+        /**
+         * @param b The handler that ran
+         * @param ns How long it took. For async handlers, this is only the time taken to hand it off.
+         * @param failed True if it ended in an uncaught exception
+         */
+        void ran(BoundEvent b, long ns, boolean failed);
     }
 
-    private static void FireListeners(SortedSet<BoundEvent> toRun, Event driver, BindableEvent e) {
-        //Sort our event handlers by priorities
-        BoundEvent.ActiveEvent activeEvent = new BoundEvent.ActiveEvent(e);
-        for (BoundEvent b : toRun) {
-            if(activeEvent.canReceive() || b.getPriority().equals(Priority.MONITOR)){
-                try {
-                    //We must re-set the active event's bound event and parsed event
-                    activeEvent.setBoundEvent(b);
-                    activeEvent.setParsedEvent(driver.evaluate(e));                    
-                    b.trigger(activeEvent);
-                } catch (FunctionReturnException ex){
-                    //We also know how to deal with this
-                } catch (EventException ex) {
-                    throw new ConfigRuntimeException(ex.getMessage(), null, Target.UNKNOWN);
-                } catch(ConfigRuntimeException ex){
-                    //An exception has bubbled all the way up
-                    ConfigRuntimeException.React(ex);
-                }
+    /**
+     * Has the event's driver convert the recorded event object, and then runs the converted event
+     * through the handlers bound to it, the same way TriggerListener does, so the prefilters, priorities,
+     * cancellation and the debounce and throttle options all behave as they would for a server event.
+     * @param eventName
+     * @param object The recorded event
+     * @param timer Is told how long each handler that runs takes
+     * @return False if nothing is bound to the event
+     * @throws ConfigRuntimeException If the driver can't build an event from the object
+     */
+    static boolean Replay(String eventName, CArray object, HandlerTimer timer) {
+        HandlerList list = handlers_by_name.get(eventName);
+        if (list == null) {
+            return false;
+        }
+        Event driver = list.getDriver();
+        BindableEvent e = driver.convert(object);
+        if (e == null) {
+            throw new ConfigRuntimeException("The " + eventName + " event could not be built from the recorded event", Target.UNKNOWN);
+        }
+        FireListeners(list.getCandidates(e), driver, e, null, timer);
+        return true;
+    }
+
+    /**
+     * Returns true if any of the handlers' prefilters match the event.
+     */
+    private static boolean AnyMatches(BoundEvent[] handlers, Event driver, BindableEvent e) {
+        for (BoundEvent b : handlers) {
+            if (Matches(b, driver, e)) {
+                return true;
             }
         }
-        for(BoundEvent b : toRun){
-            activeEvent.setBoundEvent(b);
-            if(activeEvent.isCancelled()){
-                activeEvent.executeCancelled();
-            } else {
-                activeEvent.executeTriggered();
+        return false;
+    }
+
+    private static boolean Matches(BoundEvent b, Event driver, BindableEvent e) {
+        try {
+            return driver.matches(b.getPrefilter(), e);
+        } catch (PrefilterNonMatchException ex) {
+            return false;
+        }
+    }
+
+    /**
+     * Runs the handlers whose prefilters match the event. The handlers must already be
+     * sorted by priority. The array is the immutable snapshot from the handler list, so
+     * it is iterated directly, and the handlers that don't match are skipped as they are
+     * reached. Nothing is allocated unless a handler matches.
+     * @param handlers
+     * @param driver
+     * @param e 
+     * @param parsed The evaluated event, if it has already been evaluated, or null
+     * @param timer Is told how long each handler that runs takes, or null
+     * @return True if any handler matched
+     */
+    private static boolean FireListeners(BoundEvent[] handlers, Event driver, BindableEvent e, Map<String, Construct> parsed,
+            HandlerTimer timer) {
+        BoundEvent.ActiveEvent activeEvent = null;
+        BoundEvent last = null;
+        for (int i = 0; i < handlers.length; i++) {
+            BoundEvent b = handlers[i];
+            if (activeEvent != null && !activeEvent.canReceive() && !b.getPriority().equals(Priority.MONITOR)) {
+                continue;
+            }
+            if (!Matches(b, driver, e)) {
+                continue;
+            }
+            if (activeEvent == null) {
+                activeEvent = new BoundEvent.ActiveEvent(e);
+                if (parsed != null) {
+                    activeEvent.setParsedEvent(parsed);
+                }
+            }
+            last = b;
+            long started = 0;
+            boolean ran = false;
+            boolean failed = false;
+            try {
+                //We must re-set the active event's bound event. The parsed event is shared
+                //by all the handlers, unless one of them modifies the event.
+                activeEvent.setBoundEvent(b);
+                if(activeEvent.getParsedEvent() == null){
+                    activeEvent.setParsedEvent(driver.evaluate(e));
+                }
+                if(!b.allowTrigger(activeEvent)){
+                    continue;
+                }
+                if(timer != null){
+                    started = System.nanoTime();
+                    ran = true;
+                }
+                if(b.isAsync()){
+                    b.triggerAsync(activeEvent);
+                    continue;
+                }
+                b.trigger(activeEvent);
+            } catch (FunctionReturnException ex){
+                //We also know how to deal with this
+            } catch (EventException ex) {
+                failed = true;
+                throw new ConfigRuntimeException(ex.getMessage(), null, Target.UNKNOWN);
+            } catch(ConfigRuntimeException ex){
+                failed = true;
+                //An exception has bubbled all the way up
+                ConfigRuntimeException.React(ex);
+            } finally {
+                if(ran){
+                    timer.ran(b, System.nanoTime() - started, failed);
+                }
             }
         }
+        if (activeEvent == null) {
+            return false;
+        }
+        //The callbacks are for the event as a whole, so they are run once, after all the handlers
+        activeEvent.setBoundEvent(last);
+        if(activeEvent.isCancelled()){
+            activeEvent.executeCancelled();
+        } else {
+            activeEvent.executeTriggered();
+        }
+        return true;
     }
 
     public static Construct DumpEvents() {
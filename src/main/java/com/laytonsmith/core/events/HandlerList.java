@@ -0,0 +1,162 @@
+package com.laytonsmith.core.events;
+
+import com.laytonsmith.core.constructs.Construct;
+import com.laytonsmith.core.events.Prefilters.PrefilterType;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The handlers bound to a single event, sorted by priority. If the event is an
+ * {@link IndexableEvent}, the handlers are also indexed by the value of their
+ * equality prefilter, so only the handlers that can possibly match an event are
+ * looked at. This is immutable; binding or unbinding a handler creates a new list,
+ * which is then published in place of the old one, so a dispatch can iterate over
+ * its arrays without locking or copying them.
+ * @author layton
+ */
+final class HandlerList {
+    
+    private final Event driver;
+    private final BoundEvent[] all;
+    /**
+     * For each value of the indexed prefilter, the handlers with that value, along
+     * with the residual handlers, already merged in priority order.
+     */
+    private final Map<Object, BoundEvent[]> indexed;
+    /**
+     * The handlers that aren't in the index, because they don't have the prefilter, or
+     * it isn't an equality match. These have to be checked for every event.
+     */
+    private final BoundEvent[] residual;
+    
+    /**
+     * Creates a new list. The handlers must already be sorted by priority.
+     * @param driver
+     * @param handlers 
+     */
+    public HandlerList(Event driver, BoundEvent[] handlers){
+        this.driver = driver;
+        this.all = handlers;
+        if(driver instanceof IndexableEvent){
+            IndexableEvent ie = (IndexableEvent)driver;
+            String key = ie.indexKey();
+            PrefilterType type = ie.indexType();
+            Map<Object, List<BoundEvent>> index = new HashMap<Object, List<BoundEvent>>();
+            List<BoundEvent> rest = new ArrayList<BoundEvent>();
+            for(BoundEvent b : handlers){
+                Construct value = b.getPrefilter().get(key);
+                Object indexValue = value == null ? null : Prefilters.IndexValue(value, type);
+                if(indexValue == null){
+                    rest.add(b);
+                } else {
+                    if(!index.containsKey(indexValue)){
+                        index.put(indexValue, new ArrayList<BoundEvent>());
+                    }
+                    index.get(indexValue).add(b);
+                }
+            }
+            this.residual = rest.toArray(new BoundEvent[rest.size()]);
+            //The lists are only rebuilt when a handler is bound or unbound, so the
+            //merging is done here, rather than for every event.
+            this.indexed = new HashMap<Object, BoundEvent[]>();
+            for(Map.Entry<Object, List<BoundEvent>> entry : index.entrySet()){
+                BoundEvent[] hits = entry.getValue().toArray(new BoundEvent[entry.getValue().size()]);
+                this.indexed.put(entry.getKey(), merge(hits, residual));
+            }
+        } else {
+            this.indexed = null;
+            this.residual = null;
+        }
+    }
+    
+    public Event getDriver(){
+        return driver;
+    }
+    
+    /**
+     * Returns all the handlers, sorted by priority. The array must not be modified.
+     * @return 
+     */
+    public BoundEvent[] getHandlers(){
+        return all;
+    }
+    
+    public HandlerList add(BoundEvent b){
+        BoundEvent[] handlers = Arrays.copyOf(all, all.length + 1);
+        int i = all.length;
+        //Shift everything that sorts after it up one
+        while(i > 0 && handlers[i - 1].compareTo(b) > 0){
+            handlers[i] = handlers[i - 1];
+            i--;
+        }
+        handlers[i] = b;
+        return new HandlerList(driver, handlers);
+    }
+    
+    /**
+     * Returns the list without the handler, or null if that would leave it empty.
+     * @param b
+     * @return 
+     */
+    public HandlerList remove(BoundEvent b){
+        List<BoundEvent> handlers = new ArrayList<BoundEvent>(Arrays.asList(all));
+        handlers.remove(b);
+        if(handlers.isEmpty()){
+            return null;
+        }
+        return new HandlerList(driver, handlers.toArray(new BoundEvent[handlers.size()]));
+    }
+    
+    /**
+     * Returns the handlers that could match this event, sorted by priority. These
+     * still need to be checked with the prefilters. The array must not be modified.
+     * @param e
+     * @return 
+     */
+    public BoundEvent[] getCandidates(BindableEvent e){
+        if(indexed == null){
+            return all;
+        }
+        IndexableEvent ie = (IndexableEvent)driver;
+        Construct value = ie.indexValue(e);
+        if(value == null){
+            return all;
+        }
+        //A macro on the event's side is just a string
+        PrefilterType type = ie.indexType() == PrefilterType.MACRO ? PrefilterType.STRING_MATCH : ie.indexType();
+        Object indexValue = Prefilters.IndexValue(value, type);
+        BoundEvent[] hits = indexValue == null ? null : indexed.get(indexValue);
+        if(hits == null){
+            return residual;
+        }
+        return hits;
+    }
+    
+    /**
+     * Merges two arrays that are each sorted by priority, keeping the result sorted.
+     */
+    private static BoundEvent[] merge(BoundEvent[] one, BoundEvent[] two){
+        if(two.length == 0){
+            return one;
+        }
+        BoundEvent[] merged = new BoundEvent[one.length + two.length];
+        int i = 0, j = 0, k = 0;
+        while(i < one.length && j < two.length){
+            if(one[i].compareTo(two[j]) <= 0){
+                merged[k++] = one[i++];
+            } else {
+                merged[k++] = two[j++];
+            }
+        }
+        while(i < one.length){
+            merged[k++] = one[i++];
+        }
+        while(j < two.length){
+            merged[k++] = two[j++];
+        }
+        return merged;
+    }
+}
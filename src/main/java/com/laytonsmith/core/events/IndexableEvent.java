@@ -0,0 +1,35 @@
+package com.laytonsmith.core.events;
+
+import com.laytonsmith.core.constructs.Construct;
+import com.laytonsmith.core.events.Prefilters.PrefilterType;
+
+/**
+ * Events that check one of their prefilters with a plain equality match may implement
+ * this, in which case the handlers bound to the event are indexed by the value of that
+ * prefilter, and only the handlers that could possibly match are checked when the event
+ * fires. This is only an optimization; the handlers that are checked still go through
+ * the event's matches function as usual.
+ * @author layton
+ */
+public interface IndexableEvent extends Event {
+    /**
+     * Returns the name of the prefilter that handlers can be indexed by.
+     * @return 
+     */
+    public String indexKey();
+    
+    /**
+     * Returns the type of match that matches() uses for that prefilter. This should
+     * be STRING_MATCH, MATH_MATCH, ITEM_MATCH or MACRO.
+     * @return 
+     */
+    public PrefilterType indexType();
+    
+    /**
+     * Returns the value of the event that the prefilter is matched against, or null
+     * if it can't be determined, in which case all the handlers are checked.
+     * @param e
+     * @return 
+     */
+    public Construct indexValue(BindableEvent e);
+}
@@ -5,11 +5,19 @@ package com.laytonsmith.core.events;
 import com.laytonsmith.core.Static;
 import com.laytonsmith.core.constructs.*;
 import com.laytonsmith.core.exceptions.ConfigRuntimeException;
+import com.laytonsmith.core.exceptions.EventException;
 import com.laytonsmith.core.exceptions.PrefilterNonMatchException;
 import com.laytonsmith.core.functions.Exceptions.ExceptionType;
 import com.sk89q.worldedit.expression.Expression;
 import com.sk89q.worldedit.expression.ExpressionException;
+import java.util.AbstractMap;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
 
 /**
  *
@@ -69,6 +77,70 @@ public final class Prefilters {
         match(map, key, new CDouble(actualValue, Target.UNKNOWN), type);
     }
     
+    /**
+     * Returns a read only copy of the prefilter map, which also holds the compiled form of each
+     * value, so the regexes and expressions in it don't have to be parsed each time an event is
+     * matched against it. This should be done once, when the event is bound, and the returned map
+     * should be kept with the event. The values are compiled right away for the types of match
+     * given, which are usually the event's {@link Event#prefilterTypes()}. Any other value is
+     * compiled the first time it is used for each type.
+     * @param prefilter
+     * @param types
+     * @return 
+     * @throws EventException If one of the values can't be used for its type of match, for instance
+     * if it is a malformed regex
+     */
+    public static Map<String, Construct> compile(Map<String, Construct> prefilter,
+            Map<String, PrefilterType> types) throws EventException {
+        return new CompiledMap(prefilter, types);
+    }
+    
+    private static CompiledPrefilter GetCompiled(Map<String, Construct> map, String key, PrefilterType type){
+        if(map instanceof CompiledMap){
+            return ((CompiledMap)map).get(key, type);
+        }
+        //Not compiled ahead of time, so it's compiled just for this match
+        return new CompiledPrefilter(key, map.get(key), type);
+    }
+    
+    /**
+     * Returns a value which is equal for any two values that would match each other under
+     * the given prefilter type, so handlers can be looked up by their prefilter value, instead
+     * of being checked one at a time. Only the equality types can be indexed, and null is returned
+     * if the type or the value can't be, for instance a macro that is a regex.
+     * @param value
+     * @param type
+     * @return 
+     */
+    public static Object IndexValue(Construct value, PrefilterType type){
+        switch(type){
+            case STRING_MATCH:
+                return value.val();
+            case MACRO:
+                if(CompiledPrefilter.REGEX_FORMAT.matcher(value.val()).matches()
+                        || CompiledPrefilter.EXPRESSION_FORMAT.matcher(value.val()).matches()){
+                    return null;
+                }
+                return value.val();
+            case ITEM_MATCH:
+                return ItemId(value.val()).toLowerCase();
+            case MATH_MATCH:
+                try{
+                    double d = Static.getNumber(value);
+                    if(Double.isNaN(d)){
+                        //NaN doesn't match anything, itself included
+                        return null;
+                    }
+                    //-0.0 and 0.0 are equal, but don't box to equal Doubles
+                    return d == 0.0 ? 0.0 : d;
+                } catch(ConfigRuntimeException e){
+                    return null;
+                }
+            default:
+                return null;
+        }
+    }
+    
     /**
      * Given a prototype and the actual user provided value, determines if it matches.
      * If it doesn't, it throws an exception. If the value is not provided, or it does
@@ -77,40 +149,47 @@ public final class Prefilters {
     public static void match(Map<String, Construct> map, String key,
             Construct actualValue, PrefilterType type) throws PrefilterNonMatchException{
         if(map.containsKey(key)){
-            switch(type){
+            CompiledPrefilter prefilter = GetCompiled(map, key, type);
+            if(prefilter.error != null){
+                //The exception keeps track of where it's thrown from, so one isn't shared
+                throw new ConfigRuntimeException(prefilter.error, ExceptionType.FormatException, prefilter.original.getTarget());
+            }
+            //A macro has already been resolved to the type of match it turned out to be
+            switch(prefilter.mode){
                 case ITEM_MATCH:
-                    ItemMatch(map.get(key), actualValue);
+                    ItemMatch(prefilter, actualValue);
                     break;
                 case STRING_MATCH:
-                    StringMatch(map.get(key).val(), actualValue.val());
+                    StringMatch(prefilter.value, actualValue.val());
                     break;
                 case MATH_MATCH:
-                    MathMatch(map.get(key), actualValue);
+                    MathMatch(prefilter, actualValue);
                     break;
                 case EXPRESSION:
-                    ExpressionMatch(MathReplace(key, map.get(key), actualValue), actualValue);
+                    ExpressionMatch(prefilter, actualValue);
                     break;
                 case REGEX:
-                    RegexMatch(map.get(key), actualValue);
+                    RegexMatch(prefilter, actualValue);
                     break;
-                case MACRO:
-                    MacroMatch(key, map.get(key), actualValue);
             }
         }
     }
     
-    private static void ItemMatch(Construct item1, Construct item2) throws PrefilterNonMatchException{
-        String i1 = item1.val();
-        String i2 = item2.val();
-        if(item1.val().contains(":")){
-            String[] split = item1.val().split(":");
-            i1 = split[0].trim();
-        }
-        if(item2.val().contains(":")){
-            String[] split = item2.val().split(":");
-            i2 = split[0].trim();
+    /**
+     * Returns the item id of the item notation, that is, the part before the data value, if any.
+     * @param notation
+     * @return 
+     */
+    private static String ItemId(String notation){
+        int colon = notation.indexOf(':');
+        if(colon != -1){
+            notation = notation.substring(0, colon);
         }
-        if(!i1.trim().equalsIgnoreCase(i2.trim())){
+        return notation.trim();
+    }
+    
+    private static void ItemMatch(CompiledPrefilter item1, Construct item2) throws PrefilterNonMatchException{
+        if(!item1.itemId.equalsIgnoreCase(ItemId(item2.val()))){
             throw new PrefilterNonMatchException();
         }
     }
@@ -121,11 +200,13 @@ public final class Prefilters {
         }
     }
     
-    private static void MathMatch(Construct one, Construct two) throws PrefilterNonMatchException{
+    private static void MathMatch(CompiledPrefilter one, Construct two) throws PrefilterNonMatchException{
+        if(one.number == null){
+            throw new PrefilterNonMatchException();
+        }
         try{
-            double dOne = Static.getNumber(one);
             double dTwo = Static.getNumber(two);
-            if(dOne != dTwo){
+            if(one.number != dTwo){
                 throw new PrefilterNonMatchException();
             }
         } catch(ConfigRuntimeException e){
@@ -133,59 +214,220 @@ public final class Prefilters {
         }
     }
     
-    private static void ExpressionMatch(Construct expression, Construct dvalue) throws PrefilterNonMatchException{
-        if(expression.val().matches("\\(.*\\)")){
-            String exp = expression.val().substring(1, expression.val().length() - 1);
-            boolean inequalityMode = false;
-            if(exp.contains("<") || exp.contains(">") || exp.contains("==")){
-                inequalityMode = true;
-            }
+    private static void ExpressionMatch(CompiledPrefilter expression, Construct dvalue) throws PrefilterNonMatchException{
+        double val;
+        if(expression.expression != null){
+            double variable;
             try{
-                double val = Expression.compile(exp).evaluate();
-                if(inequalityMode){
-                    if(val == 0){
-                        throw new PrefilterNonMatchException();
-                    }
-                } else {
-                    if(val != Static.getDouble(dvalue)){
-                        throw new PrefilterNonMatchException();
-                    }
+                variable = Static.getNumber(dvalue);
+            } catch(ConfigRuntimeException e){
+                //A non numeric value can't match a numeric expression
+                throw new PrefilterNonMatchException();
+            }
+            //The expression holds the variable's value while it is evaluated, so it can't be shared
+            synchronized(expression.expression){
+                try{
+                    val = expression.expression.evaluate(variable);
+                } catch(ExpressionException e){
+                    throw new ConfigRuntimeException("Your expression is invalidly formatted", 
+                            ExceptionType.FormatException, expression.original.getTarget());
                 }
+            }
+        } else {
+            //The key can't be used as a variable name, so fall back to replacing it in the expression directly
+            Construct replaced = MathReplace(expression.key, expression.original, dvalue);
+            String exp = replaced.val().substring(1, replaced.val().length() - 1);
+            try{
+                val = Expression.compile(exp).evaluate();
             } catch(ExpressionException e){
                 throw new ConfigRuntimeException("Your expression is invalidly formatted", 
-                        ExceptionType.FormatException, expression.getTarget());
+                        ExceptionType.FormatException, expression.original.getTarget());
             }
-        } else {
-            throw new ConfigRuntimeException("Prefilter expecting expression type, and \"" 
-                    + expression.val() + "\" does not follow expression format. "
-                    + "(Did you surround it in parenthesis?)", 
-                    ExceptionType.FormatException, expression.getTarget());
         }
-    }
-    
-    private static void RegexMatch(Construct expression, Construct value) throws PrefilterNonMatchException{
-        if(expression.val().matches("/.*/")){
-            String exp = expression.val().substring(1, expression.val().length() - 1);
-            if(!value.val().matches(exp)){
+        if(expression.inequalityMode){
+            if(val == 0){
                 throw new PrefilterNonMatchException();
             }
         } else {
-            throw new ConfigRuntimeException("Prefilter expecting regex type, and \"" 
-                    + expression.val() + "\" does not follow regex format", ExceptionType.FormatException, expression.getTarget());
+            if(val != Static.getDouble(dvalue)){
+                throw new PrefilterNonMatchException();
+            }
         }
     }
     
-    private static void MacroMatch(String key, Construct expression, Construct value) throws PrefilterNonMatchException{
-        if(expression.val().matches("\\(.*\\)")){
-            ExpressionMatch(MathReplace(key, expression, value), value);
-        } else if(expression.val().matches("/.*/")){
-            RegexMatch(expression, value);
-        } else {
-            StringMatch(expression.val(), value.val());
+    private static void RegexMatch(CompiledPrefilter expression, Construct value) throws PrefilterNonMatchException{
+        if(!expression.pattern.matcher(value.val()).matches()){
+            throw new PrefilterNonMatchException();
         }
     }
     
     private static Construct MathReplace(String key, Construct expression, Construct value){
         return new CString(expression.val().replaceAll(key, value.val()), expression.getTarget());
     }
+    
+    /**
+     * A read only prefilter map, along with the compiled form of each of its values, for each
+     * type of match they have been used for so far. This belongs to the bound event, and goes
+     * away along with it.
+     */
+    private static final class CompiledMap extends AbstractMap<String, Construct> {
+        private final Map<String, Construct> values;
+        /**
+         * For each key, the compiled value, by the ordinal of the prefilter type. These are
+         * filled in as they are needed. Two threads may compile the same value at once, but
+         * they come up with the same thing, so it doesn't matter which one is kept.
+         */
+        private final Map<String, AtomicReferenceArray<CompiledPrefilter>> compiled;
+        
+        private CompiledMap(Map<String, Construct> prefilter, Map<String, PrefilterType> types) throws EventException{
+            values = Collections.unmodifiableMap(new HashMap<String, Construct>(prefilter));
+            compiled = new HashMap<String, AtomicReferenceArray<CompiledPrefilter>>();
+            for(String key : values.keySet()){
+                AtomicReferenceArray<CompiledPrefilter> byType = new AtomicReferenceArray<CompiledPrefilter>(PrefilterType.values().length);
+                PrefilterType type = types.get(key);
+                if(type != null){
+                    CompiledPrefilter c = new CompiledPrefilter(key, values.get(key), type);
+                    if(c.error != null){
+                        throw new EventException(c.error);
+                    }
+                    byType.set(type.ordinal(), c);
+                }
+                compiled.put(key, byType);
+            }
+        }
+        
+        private CompiledPrefilter get(String key, PrefilterType type){
+            AtomicReferenceArray<CompiledPrefilter> byType = compiled.get(key);
+            CompiledPrefilter c = byType.get(type.ordinal());
+            if(c == null){
+                c = new CompiledPrefilter(key, values.get(key), type);
+                byType.set(type.ordinal(), c);
+            }
+            return c;
+        }
+
+        @Override
+        public Set<Entry<String, Construct>> entrySet() {
+            return values.entrySet();
+        }
+
+        @Override
+        public Construct get(Object key) {
+            return values.get(key);
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return values.containsKey(key);
+        }
+    }
+    
+    /**
+     * A prefilter value, compiled for a particular type of match. Only the parts that
+     * the type of match uses are worked out.
+     */
+    private static final class CompiledPrefilter {
+        private static final Pattern REGEX_FORMAT = Pattern.compile("/.*/");
+        private static final Pattern EXPRESSION_FORMAT = Pattern.compile("\\(.*\\)");
+        private static final Pattern VARIABLE_NAME = Pattern.compile("[a-zA-Z_][a-zA-Z0-9_]*");
+        
+        private final String key;
+        private final Construct original;
+        private final String value;
+        /**
+         * The type of match to actually do. This is the type that was asked for, except
+         * for macros, which are resolved to a string, regex, or expression match, depending
+         * on the format of the value.
+         */
+        private final PrefilterType mode;
+        private String itemId;
+        private Double number;
+        private Pattern pattern;
+        private boolean inequalityMode;
+        private Expression expression;
+        /**
+         * If the value can't be used for this type of match, this is the message of the
+         * exception to throw when it is used.
+         */
+        private String error;
+        
+        public CompiledPrefilter(String key, Construct original, PrefilterType type){
+            this.key = key;
+            this.original = original;
+            this.value = original.val();
+            switch(type){
+                case ITEM_MATCH:
+                    itemId = ItemId(value);
+                    break;
+                case MATH_MATCH:
+                    try{
+                        number = Static.getNumber(original);
+                    } catch(ConfigRuntimeException e){
+                        number = null;
+                    }
+                    break;
+                case REGEX:
+                    if(REGEX_FORMAT.matcher(value).matches()){
+                        error = compileRegex();
+                    } else {
+                        error = "Prefilter expecting regex type, and \"" + value + "\" does not follow regex format";
+                    }
+                    break;
+                case EXPRESSION:
+                    if(EXPRESSION_FORMAT.matcher(value).matches()){
+                        error = compileExpression();
+                    } else {
+                        error = "Prefilter expecting expression type, and \""
+                                + value + "\" does not follow expression format. "
+                                + "(Did you surround it in parenthesis?)";
+                    }
+                    break;
+                case MACRO:
+                    //The format decides the type of match, so a typo in an expression or
+                    //regex is an error, rather than a string that never matches
+                    if(EXPRESSION_FORMAT.matcher(value).matches()){
+                        type = PrefilterType.EXPRESSION;
+                        error = compileExpression();
+                    } else if(REGEX_FORMAT.matcher(value).matches()){
+                        type = PrefilterType.REGEX;
+                        error = compileRegex();
+                    } else {
+                        type = PrefilterType.STRING_MATCH;
+                    }
+                    break;
+            }
+            this.mode = type;
+        }
+        
+        /**
+         * Compiles the value as a regex, and returns the error message, if it isn't valid.
+         */
+        private String compileRegex(){
+            try{
+                pattern = Pattern.compile(value.substring(1, value.length() - 1));
+                return null;
+            } catch(PatternSyntaxException e){
+                return "The regex in the prefilter \"" + key + "\" is invalid: " + e.getDescription();
+            }
+        }
+
+        /**
+         * Compiles the value as an expression, and returns the error message, if it isn't valid.
+         */
+        private String compileExpression(){
+            String exp = value.substring(1, value.length() - 1);
+            inequalityMode = exp.contains("<") || exp.contains(">") || exp.contains("==");
+            try{
+                if(VARIABLE_NAME.matcher(key).matches()){
+                    expression = Expression.compile(exp, key);
+                } else {
+                    //Still make sure it's valid, though it will be compiled again when it's used
+                    Expression.compile(exp.replaceAll(key, "0"));
+                }
+                return null;
+            } catch(ExpressionException e){
+                return "Your expression is invalidly formatted";
+            }
+        }
+    }
 }
@@ -0,0 +1,221 @@
+package com.laytonsmith.core.events;
+
+import com.laytonsmith.PureUtilities.LRUCache;
+import com.laytonsmith.abstraction.StaticLayer;
+import com.laytonsmith.core.constructs.CArray;
+import com.laytonsmith.core.constructs.Construct;
+import com.laytonsmith.core.constructs.Target;
+import com.laytonsmith.core.exceptions.EventException;
+import java.util.Map;
+
+/**
+ * Drops redundant triggers of a bound event before any script code runs, based on
+ * the debounce, throttle and coalesce-by bind options. Triggers are grouped by the
+ * value of the coalesce-by parameter in the event (for instance, the player), or
+ * all together if it isn't set.
+ * <ul>
+ * <li>debounce: triggers aren't run right away. Instead, the latest trigger in each
+ * group is kept, and once the group has gone this many ms without a trigger, the
+ * handler is run with it. A burst only runs the handler once, at the end, and a
+ * steady stream that never pauses for that long doesn't run it at all. Since the
+ * handler runs after the fact, it can't cancel or modify the event.</li>
+ * <li>throttle: a trigger only runs if the handler hasn't run for its group in the
+ * last this many ms, so a steady stream runs the handler at a fixed rate. Along with
+ * debounce, this delays the debounced run until the throttle interval has passed.</li>
+ * </ul>
+ * @author layton
+ */
+final class TriggerLimiter {
+
+    /**
+     * How many groups are remembered per handler. If more groups than this are active
+     * at once, the least recently seen ones are forgotten, and will run on their next
+     * trigger. A group that is waiting for its debounced run still gets it.
+     */
+    private static final int MAX_GROUPS = 1024;
+
+    private final long debounce;
+    private final long throttle;
+    private final String coalesceBy;
+    private final LRUCache<String, Group> groups = new LRUCache<String, Group>(MAX_GROUPS);
+    private long allowed = 0;
+    private long suppressed = 0;
+
+    private TriggerLimiter(long debounce, long throttle, String coalesceBy) {
+        this.debounce = debounce;
+        this.throttle = throttle;
+        this.coalesceBy = coalesceBy;
+    }
+
+    /**
+     * Reads the limiter settings from the bind options, or returns null if none of them
+     * are set, which is the usual case.
+     * @param options
+     * @return
+     * @throws EventException If debounce or throttle are not a positive number of ms
+     */
+    public static TriggerLimiter FromOptions(CArray options) throws EventException {
+        if (options == null) {
+            return null;
+        }
+        long debounce = GetMillis(options, "debounce");
+        long throttle = GetMillis(options, "throttle");
+        String coalesceBy = null;
+        if (options.containsKey("coalesce-by")) {
+            coalesceBy = options.get("coalesce-by", Target.UNKNOWN).val();
+        }
+        if (debounce == 0 && throttle == 0) {
+            if (coalesceBy != null) {
+                throw new EventException("coalesce-by requires debounce or throttle to be set as well");
+            }
+            return null;
+        }
+        return new TriggerLimiter(debounce, throttle, coalesceBy);
+    }
+
+    private static long GetMillis(CArray options, String key) throws EventException {
+        if (!options.containsKey(key)) {
+            return 0;
+        }
+        long ms;
+        try {
+            ms = Long.parseLong(options.get(key, Target.UNKNOWN).val());
+        } catch (NumberFormatException e) {
+            throw new EventException(key + " must be a number of milliseconds");
+        }
+        if (ms < 0) {
+            throw new EventException(key + " may not be negative");
+        }
+        return ms;
+    }
+
+    /**
+     * Returns true if the handler is debounced, in which case {@link #allow} needs the
+     * trailing run.
+     * @return
+     */
+    public boolean isDebounced() {
+        return debounce > 0;
+    }
+
+    /**
+     * Returns true if the handler should run for this event right now, and records the
+     * trigger either way. If the handler is debounced, this always returns false, and
+     * the trailing run is instead run later, on the server thread, unless a newer trigger
+     * in the same group replaces it first.
+     * @param parsedEvent
+     * @param trailing Runs the handler with this trigger's event. Only needed if the
+     * handler is debounced.
+     * @return
+     */
+    public boolean allow(Map<String, Construct> parsedEvent, Runnable trailing) {
+        String groupName = "";
+        if (coalesceBy != null) {
+            Construct c = parsedEvent.get(coalesceBy);
+            if (c != null) {
+                groupName = c.val();
+            }
+        }
+        long now = System.currentTimeMillis();
+        Group group;
+        synchronized (this) {
+            group = groups.get(groupName);
+            if (group == null) {
+                group = new Group();
+                groups.put(groupName, group);
+            }
+            group.lastTrigger = now;
+            if (debounce == 0) {
+                if (now - group.lastRun < throttle) {
+                    suppressed++;
+                    return false;
+                }
+                group.lastRun = now;
+                allowed++;
+                return true;
+            }
+            if (group.pending != null) {
+                //It's replaced by this one
+                suppressed++;
+            }
+            group.pending = trailing;
+            if (group.scheduled) {
+                return false;
+            }
+            group.scheduled = true;
+        }
+        schedule(group, debounce);
+        return false;
+    }
+
+    /**
+     * Runs the group's pending trigger if it has been quiet for long enough, or
+     * otherwise checks again once it might have been.
+     */
+    private void check(Group group) {
+        Runnable run;
+        long wait;
+        synchronized (this) {
+            long now = System.currentTimeMillis();
+            wait = Math.max(group.lastTrigger + debounce, group.lastRun + throttle) - now;
+            if (wait > 0) {
+                run = null;
+            } else {
+                run = group.pending;
+                group.pending = null;
+                group.scheduled = false;
+                group.lastRun = now;
+                allowed++;
+            }
+        }
+        if (run == null) {
+            schedule(group, wait);
+        } else {
+            run.run();
+        }
+    }
+
+    private void schedule(final Group group, long ms) {
+        StaticLayer.SetFutureRunnable(ms, new Runnable() {
+
+            public void run() {
+                check(group);
+            }
+        });
+    }
+
+    /**
+     * The number of triggers that were let through.
+     * @return
+     */
+    public synchronized long getAllowed() {
+        return allowed;
+    }
+
+    /**
+     * The number of triggers that were dropped.
+     * @return
+     */
+    public synchronized long getSuppressed() {
+        return suppressed;
+    }
+
+    /**
+     * The triggers of a single group. Guarded by the limiter.
+     */
+    private static final class Group {
+        long lastTrigger;
+        /**
+         * 0 if it never ran, so the throttle doesn't hold up the first run.
+         */
+        long lastRun = 0;
+        /**
+         * The debounced run that is waiting for the group to be quiet, or null.
+         */
+        Runnable pending;
+        /**
+         * True if a check is scheduled.
+         */
+        boolean scheduled;
+    }
+}
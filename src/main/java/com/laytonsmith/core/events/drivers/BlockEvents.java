@@ -12,9 +12,11 @@ import com.laytonsmith.annotations.api;
 import com.laytonsmith.core.*;
 import com.laytonsmith.core.constructs.*;
 import com.laytonsmith.core.events.*;
+import com.laytonsmith.core.events.Prefilters.PrefilterType;
 import com.laytonsmith.core.exceptions.EventException;
 import com.laytonsmith.core.exceptions.PrefilterNonMatchException;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
 
@@ -346,6 +348,15 @@ public class BlockEvents {
             return Driver.SIGN_CHANGED;
         }
 
+        public Map<String, PrefilterType> prefilterTypes() {
+            Map<String, PrefilterType> types = new HashMap<String, PrefilterType>();
+            types.put("1", PrefilterType.REGEX);
+            types.put("2", PrefilterType.REGEX);
+            types.put("3", PrefilterType.REGEX);
+            types.put("4", PrefilterType.REGEX);
+            return types;
+        }
+
         public boolean matches(Map<String, Construct> prefilter, BindableEvent e) throws PrefilterNonMatchException {
             if (e instanceof MCSignChangeEvent) {
                 MCSignChangeEvent sce = (MCSignChangeEvent) e;
@@ -13,8 +13,10 @@ import com.laytonsmith.core.CHVersion;
 import com.laytonsmith.core.Static;
 import com.laytonsmith.core.constructs.*;
 import com.laytonsmith.core.events.*;
+import com.laytonsmith.core.events.Prefilters.PrefilterType;
 import com.laytonsmith.core.exceptions.EventException;
 import com.laytonsmith.core.exceptions.PrefilterNonMatchException;
+import java.util.HashMap;
 import java.util.Map;
 
 
@@ -139,6 +141,13 @@ public class EntityEvents {
             return Driver.TARGET_ENTITY;
         }
 
+        public Map<String, PrefilterType> prefilterTypes() {
+            Map<String, PrefilterType> types = new HashMap<String, PrefilterType>();
+            types.put("mobtype", PrefilterType.MACRO);
+            types.put("player", PrefilterType.MACRO);
+            return types;
+        }
+
         public boolean matches(Map<String, Construct> prefilter, BindableEvent e) throws PrefilterNonMatchException {
         	if(e instanceof MCEntityTargetEvent){
         		MCEntityTargetEvent ete = (MCEntityTargetEvent) e;
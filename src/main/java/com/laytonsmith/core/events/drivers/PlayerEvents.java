@@ -20,6 +20,7 @@ import com.laytonsmith.core.functions.Exceptions;
 import com.laytonsmith.core.functions.StringHandling;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -243,6 +244,12 @@ public class PlayerEvents {
             return Driver.PLAYER_JOIN;
         }
 
+        public Map<String, PrefilterType> prefilterTypes() {
+            Map<String, PrefilterType> types = new HashMap<String, PrefilterType>();
+            types.put("join_message", PrefilterType.REGEX);
+            return types;
+        }
+
         public boolean matches(Map<String, Construct> prefilter, BindableEvent e) throws PrefilterNonMatchException {
             if(e instanceof MCPlayerJoinEvent){
                 MCPlayerJoinEvent ple = (MCPlayerJoinEvent) e;
@@ -295,7 +302,7 @@ public class PlayerEvents {
     }
     
     @api
-    public static class player_interact extends AbstractEvent{
+    public static class player_interact extends AbstractEvent implements IndexableEvent{
 
         public String getName() {
             return "player_interact";
@@ -326,6 +333,29 @@ public class PlayerEvents {
             return Driver.PLAYER_INTERACT;
         }
 
+        public String indexKey() {
+            return "block";
+        }
+
+        public PrefilterType indexType() {
+            return PrefilterType.ITEM_MATCH;
+        }
+
+        public Construct indexValue(BindableEvent e) {
+            if(e instanceof MCPlayerInteractEvent){
+                return new CString(Static.ParseItemNotation(((MCPlayerInteractEvent)e).getClickedBlock()), Target.UNKNOWN);
+            }
+            return null;
+        }
+
+        public Map<String, PrefilterType> prefilterTypes() {
+            Map<String, PrefilterType> types = new HashMap<String, PrefilterType>();
+            types.put("item", PrefilterType.ITEM_MATCH);
+            types.put("block", PrefilterType.ITEM_MATCH);
+            types.put("player", PrefilterType.MACRO);
+            return types;
+        }
+
         public boolean matches(Map<String, Construct> prefilter, BindableEvent e) throws PrefilterNonMatchException {
             if(e instanceof MCPlayerInteractEvent){
                 MCPlayerInteractEvent pie = (MCPlayerInteractEvent)e;
@@ -429,6 +459,16 @@ public class PlayerEvents {
             return CHVersion.V3_3_0;
         }
         
+        public Map<String, PrefilterType> prefilterTypes() {
+            Map<String, PrefilterType> types = new HashMap<String, PrefilterType>();
+            types.put("player", PrefilterType.MACRO);
+            types.put("x", PrefilterType.EXPRESSION);
+            types.put("y", PrefilterType.EXPRESSION);
+            types.put("z", PrefilterType.EXPRESSION);
+            types.put("world", PrefilterType.STRING_MATCH);
+            return types;
+        }
+
         public boolean matches(Map<String, Construct> prefilter, BindableEvent e) throws PrefilterNonMatchException {
             if (e instanceof MCPlayerRespawnEvent) {
                 MCPlayerRespawnEvent event = (MCPlayerRespawnEvent) e;
@@ -524,6 +564,12 @@ public class PlayerEvents {
             return CHVersion.V3_3_0;
         }
         
+        public Map<String, PrefilterType> prefilterTypes() {
+            Map<String, PrefilterType> types = new HashMap<String, PrefilterType>();
+            types.put("player", PrefilterType.MACRO);
+            return types;
+        }
+
         public boolean matches(Map<String, Construct> prefilter, BindableEvent e) throws PrefilterNonMatchException {
             if (e instanceof MCPlayerDeathEvent) {
                 MCPlayerDeathEvent event = (MCPlayerDeathEvent) e;
@@ -631,6 +677,12 @@ public class PlayerEvents {
             return CHVersion.V3_3_1;
         }
         
+        public Map<String, PrefilterType> prefilterTypes() {
+            Map<String, PrefilterType> types = new HashMap<String, PrefilterType>();
+            types.put("player", PrefilterType.MACRO);
+            return types;
+        }
+
         public boolean matches(Map<String, Construct> prefilter, BindableEvent e) throws PrefilterNonMatchException {
             if (e instanceof MCPlayerQuitEvent) {
                 //As a very special case, if this player is currently in interpreter mode, we do not want to
@@ -705,6 +757,12 @@ public class PlayerEvents {
             return CHVersion.V3_3_0;
         }
         
+        public Map<String, PrefilterType> prefilterTypes() {
+            Map<String, PrefilterType> types = new HashMap<String, PrefilterType>();
+            types.put("player", PrefilterType.MACRO);
+            return types;
+        }
+
         public boolean matches(Map<String, Construct> prefilter, BindableEvent e) throws PrefilterNonMatchException {
             if (e instanceof MCPlayerChatEvent) {
                 //As a very special case, if this player is currently in interpreter mode, we do not want to
@@ -774,7 +832,7 @@ public class PlayerEvents {
     }
     
     @api
-    public static class player_command extends AbstractEvent {
+    public static class player_command extends AbstractEvent implements IndexableEvent {
         
         public String getName() {
             return "player_command";
@@ -794,19 +852,39 @@ public class PlayerEvents {
         public Driver driver() {
             return Driver.PLAYER_COMMAND;
         }
+
+        public String indexKey() {
+            return "command";
+        }
+
+        public PrefilterType indexType() {
+            return PrefilterType.STRING_MATCH;
+        }
+
+        public Construct indexValue(BindableEvent e) {
+            if(e instanceof MCPlayerCommandEvent){
+                return new CString(((MCPlayerCommandEvent)e).getCommand(), Target.UNKNOWN);
+            }
+            return null;
+        }
         
         public CHVersion since() {
             return CHVersion.V3_3_1;
         }
         
+        public Map<String, PrefilterType> prefilterTypes() {
+            Map<String, PrefilterType> types = new HashMap<String, PrefilterType>();
+            types.put("player", PrefilterType.MACRO);
+            types.put("command", PrefilterType.STRING_MATCH);
+            return types;
+        }
+
         public boolean matches(Map<String, Construct> prefilter, BindableEvent e) throws PrefilterNonMatchException {
             if (e instanceof MCPlayerCommandEvent) {
                 MCPlayerCommandEvent event = (MCPlayerCommandEvent) e;
                 String command = event.getCommand();
                 Prefilters.match(prefilter, "player", event.getPlayer().getName(), PrefilterType.MACRO);   
-                if(prefilter.containsKey("command") && !command.equals(event.getCommand())){
-                    return false;
-                }
+                Prefilters.match(prefilter, "command", command, PrefilterType.STRING_MATCH);
                 if(prefilter.containsKey("prefix")){
                     StringHandling.parse_args pa = new StringHandling.parse_args();
                     CArray ca = (CArray)pa.exec(Target.UNKNOWN, null, new CString(command, Target.UNKNOWN));
@@ -869,7 +947,7 @@ public class PlayerEvents {
     }
     
     @api
-    public static class world_changed extends AbstractEvent {
+    public static class world_changed extends AbstractEvent implements IndexableEvent {
         
         public String getName() {
             return "world_changed";
@@ -888,11 +966,34 @@ public class PlayerEvents {
         public Driver driver() {
             return Driver.WORLD_CHANGED;
         }
+
+        public String indexKey() {
+            return "to";
+        }
+
+        public PrefilterType indexType() {
+            return PrefilterType.STRING_MATCH;
+        }
+
+        public Construct indexValue(BindableEvent e) {
+            if(e instanceof MCWorldChangedEvent){
+                return new CString(((MCWorldChangedEvent)e).getTo().getName(), Target.UNKNOWN);
+            }
+            return null;
+        }
         
         public CHVersion since() {
             return CHVersion.V3_3_1;
         }
         
+        public Map<String, PrefilterType> prefilterTypes() {
+            Map<String, PrefilterType> types = new HashMap<String, PrefilterType>();
+            types.put("player", PrefilterType.MACRO);
+            types.put("from", PrefilterType.STRING_MATCH);
+            types.put("to", PrefilterType.STRING_MATCH);
+            return types;
+        }
+
         public boolean matches(Map<String, Construct> prefilter, BindableEvent e) throws PrefilterNonMatchException {
             if (e instanceof MCWorldChangedEvent) {
                 MCWorldChangedEvent event = (MCWorldChangedEvent) e;
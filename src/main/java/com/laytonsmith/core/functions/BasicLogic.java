@@ -8,7 +8,9 @@ import com.laytonsmith.core.exceptions.ConfigCompileException;
 import com.laytonsmith.core.exceptions.ConfigRuntimeException;
 import com.laytonsmith.core.functions.Exceptions.ExceptionType;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  *
@@ -176,20 +178,25 @@ public class BasicLogic {
         public Construct execs(Target t, Env env, Script parent, GenericTreeNode<Construct>... nodes) {
             Construct value = parent.seval(nodes[0], env);
             equals equals = new equals();
-            for (int i = 1; i <= nodes.length - 2; i += 2) {
-                GenericTreeNode<Construct> statement = nodes[i];
-                GenericTreeNode<Construct> code = nodes[i + 1];
-                Construct evalStatement = parent.seval(statement, env);
-                if (evalStatement instanceof CArray) {
-                    for (String index : ( (CArray) evalStatement ).keySet()) {
-                        Construct inner = ( (CArray) evalStatement ).get(index);
-                        if (( (CBoolean) equals.exec(t, env, value, inner) ).getBoolean()) {
-                            return parent.seval(code, env);
-                        }
+            if (nodes.length > 1 && nodes[1].getCompiledData() instanceof SwitchTable) {
+                SwitchTable table = (SwitchTable) nodes[1].getCompiledData();
+                int match = table.lookup(value);
+                //Dynamic cases that come before the matched literal still have to be checked, in order
+                for (int i : table.dynamicCases) {
+                    if (match != -1 && i > match) {
+                        break;
                     }
-                } else {
-                    if (( (CBoolean) equals.exec(t, env, value, evalStatement) ).getBoolean()) {
-                        return parent.seval(code, env);
+                    if (caseMatches(t, env, parent, equals, value, nodes[i])) {
+                        return parent.seval(nodes[i + 1], env);
+                    }
+                }
+                if (match != -1) {
+                    return parent.seval(nodes[match + 1], env);
+                }
+            } else {
+                for (int i = 1; i <= nodes.length - 2; i += 2) {
+                    if (caseMatches(t, env, parent, equals, value, nodes[i])) {
+                        return parent.seval(nodes[i + 1], env);
                     }
                 }
             }
@@ -199,6 +206,21 @@ public class BasicLogic {
             return new CVoid(t);
         }
 
+        private boolean caseMatches(Target t, Env env, Script parent, equals equals, Construct value, GenericTreeNode<Construct> statement) {
+            Construct evalStatement = parent.seval(statement, env);
+            if (evalStatement instanceof CArray) {
+                for (String index : ( (CArray) evalStatement ).keySet()) {
+                    Construct inner = ( (CArray) evalStatement ).get(index);
+                    if (( (CBoolean) equals.exec(t, env, value, inner) ).getBoolean()) {
+                        return true;
+                    }
+                }
+                return false;
+            } else {
+                return ( (CBoolean) equals.exec(t, env, value, evalStatement) ).getBoolean();
+            }
+        }
+
         @Override
         public boolean useSpecialExec() {
             return true;
@@ -208,6 +230,154 @@ public class BasicLogic {
         public boolean allowBraces() {
             return true;
         }
+
+        @Override
+        public boolean canOptimizeDynamic() {
+            return true;
+        }
+
+        /**
+         * If any of the cases are literals (or arrays of literals), a lookup table is built for them,
+         * and attached to the first case node, so that at runtime we don't have to run equals against
+         * each case in turn. The tree itself is left unchanged.
+         */
+        @Override
+        public GenericTreeNode<Construct> optimizeDynamic(Target t, List<GenericTreeNode<Construct>> children) throws ConfigCompileException, ConfigRuntimeException {
+            if (children.size() < 3) {
+                return null;
+            }
+            SwitchTable table = new SwitchTable();
+            boolean anyLiterals = false;
+            for (int i = 1; i <= children.size() - 2; i += 2) {
+                GenericTreeNode<Construct> statement = children.get(i);
+                List<Construct> values = new ArrayList<Construct>();
+                if (isLiteral(statement.data)) {
+                    values.add(statement.data);
+                } else if (statement.data instanceof CFunction && statement.data.val().equals("array")) {
+                    for (GenericTreeNode<Construct> element : statement.getChildren()) {
+                        if (!isLiteral(element.data)) {
+                            values = null;
+                            break;
+                        }
+                        values.add(element.data);
+                    }
+                } else {
+                    values = null;
+                }
+                if (values == null) {
+                    table.addDynamic(i);
+                } else {
+                    anyLiterals = true;
+                    for (Construct c : values) {
+                        table.addLiteral(i, c);
+                    }
+                }
+            }
+            if (anyLiterals) {
+                children.get(1).setCompiledData(table);
+            }
+            return null;
+        }
+
+        private static boolean isLiteral(Construct c) {
+            return c instanceof CString || c instanceof CInt || c instanceof CDouble
+                    || c instanceof CBoolean || c instanceof CNull;
+        }
+
+        /**
+         * A precomputed lookup table for the literal cases of a switch. Lookups follow the
+         * same rules as equals(): if either side is a boolean, the values are compared as booleans,
+         * otherwise they match if their string values are the same, or if they are both numbers
+         * with the same value. Each lookup returns the index of the first matching case node.
+         */
+        private static class SwitchTable {
+
+            private final Map<String, Integer> strings = new HashMap<String, Integer>();
+            private final Map<Double, Integer> numbers = new HashMap<Double, Integer>();
+            /**
+             * The first case of any type which is truthy/falsy, used when the value is a boolean
+             */
+            private int firstTrue = -1;
+            private int firstFalse = -1;
+            /**
+             * The first boolean case that is true/false, used when the value isn't a boolean
+             */
+            private int firstBooleanTrue = -1;
+            private int firstBooleanFalse = -1;
+            private final List<Integer> dynamicCases = new ArrayList<Integer>();
+
+            public void addDynamic(int index) {
+                dynamicCases.add(index);
+            }
+
+            public void addLiteral(int index, Construct c) {
+                boolean b = Static.getBoolean(c);
+                if (b && firstTrue == -1) {
+                    firstTrue = index;
+                }
+                if (!b && firstFalse == -1) {
+                    firstFalse = index;
+                }
+                if (c instanceof CBoolean) {
+                    if (b && firstBooleanTrue == -1) {
+                        firstBooleanTrue = index;
+                    }
+                    if (!b && firstBooleanFalse == -1) {
+                        firstBooleanFalse = index;
+                    }
+                    return;
+                }
+                if (!strings.containsKey(c.val())) {
+                    strings.put(c.val(), index);
+                }
+                Double d = numberKey(c);
+                if (d != null && !numbers.containsKey(d)) {
+                    numbers.put(d, index);
+                }
+            }
+
+            /**
+             * Returns the index of the first literal case that equals the value, or -1 if none do.
+             * @param value
+             * @return 
+             */
+            public int lookup(Construct value) {
+                if (value instanceof CBoolean) {
+                    return ( (CBoolean) value ).getBoolean() ? firstTrue : firstFalse;
+                }
+                int match = Static.getBoolean(value) ? firstBooleanTrue : firstBooleanFalse;
+                Integer s = strings.get(value.val());
+                if (s != null && ( match == -1 || s < match )) {
+                    match = s;
+                }
+                Double d = numberKey(value);
+                if (d != null) {
+                    Integer n = numbers.get(d);
+                    if (n != null && ( match == -1 || n < match )) {
+                        match = n;
+                    }
+                }
+                return match;
+            }
+
+            private static Double numberKey(Construct c) {
+                double d;
+                try {
+                    d = Static.getNumber(c);
+                } catch (ConfigRuntimeException e) {
+                    return null;
+                }
+                if (Double.isNaN(d)) {
+                    //NaN is never equal to anything
+                    return null;
+                }
+                if (d == 0) {
+                    //-0.0 == 0.0, but the boxed values aren't equal
+                    d = 0.0;
+                }
+                return d;
+            }
+        }
                 
     }
 
@@ -1295,7 +1295,7 @@ public class DataHandling {
                 args[i] = parent.seval(nodes[i], env);
             }
 
-            Procedure proc = env.GetProcs().get(args[0].val());
+            Procedure proc = env.GetProc(args[0].val());
             if (proc != null) {
                 List<Construct> vars = new ArrayList<Construct>(Arrays.asList(args));
                 vars.remove(0);
@@ -1346,7 +1346,7 @@ public class DataHandling {
         }
 
         public Construct exec(Target t, Env env, Construct... args) {
-            return new CBoolean(env.GetProcs().get(args[0].val()) == null ? false : true, t);
+            return new CBoolean(env.GetProc(args[0].val()) == null ? false : true, t);
         }
     }
 
@@ -9,10 +9,13 @@ import com.laytonsmith.core.events.BoundEvent;
 import com.laytonsmith.core.events.BoundEvent.ActiveEvent;
 import com.laytonsmith.core.events.BoundEvent.Priority;
 import com.laytonsmith.core.events.Event;
+import com.laytonsmith.core.events.EventRecorder;
 import com.laytonsmith.core.events.EventUtils;
 import com.laytonsmith.core.exceptions.ConfigRuntimeException;
 import com.laytonsmith.core.exceptions.EventException;
 import com.laytonsmith.core.functions.Exceptions.ExceptionType;
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -38,7 +41,17 @@ public class EventBinding {
         public String docs() {
             return "string {event_name, options, prefilter, event_obj, [custom_params], &lt;code&gt;} Binds some functionality to an event, so that"
                     + " when said event occurs, the event handler will fire. Returns the id of this event, so it can be unregistered"
-                    + " later, if need be.";
+                    + " later, if need be. Besides id and priority, the options may contain debounce, throttle and coalesce-by,"
+                    + " which drop redundant triggers before the handler runs. With debounce set to a number of ms, the handler"
+                    + " runs once the event has stopped firing for that long, with the last event, so a burst only runs the handler"
+                    + " once, at the end. Since that is after the fact, a debounced handler can't cancel or modify the event. With"
+                    + " throttle set, the handler runs at most once per that many ms. coalesce-by names an event parameter, such as player,"
+                    + " and tracks the triggers separately for each value of it, instead of all together. The number of dropped"
+                    + " triggers can be retrieved with suppressed_triggers(). MONITOR priority handlers may also set async to true,"
+                    + " in which case they are run on a background thread with a copy of the event, so slow handlers, such as ones"
+                    + " that log or store values, don't hold up the server. Only functions that may run off of the main thread can be"
+                    + " used in an async handler, and procedures can't be used at all. If too many async handlers are waiting to run,"
+                    + " further triggers are dropped, unless async-event-run-when-full is set in the preferences.";
         }
 
         public ExceptionType[] thrown() {
@@ -84,8 +97,8 @@ public class EventBinding {
                     throw new ConfigRuntimeException("The custom parameters must be ivariables", ExceptionType.CastException, t);
                 }
                 IVariable cur = (IVariable)var;
-                ((IVariable)var).setIval(env.GetVarList().get(cur.getName(), cur.getTarget()).ival());
-                custom_params.set((IVariable)var);
+                //The node itself may be shared, so don't modify it, make a copy with the current value
+                custom_params.set(new IVariable(cur.getName(), env.GetVarList().get(cur.getName(), cur.getTarget()).ival(), cur.getTarget()));
             }
             Env newEnv = env;
             try{
@@ -216,6 +229,108 @@ public class EventBinding {
         
     }
     
+    @api public static class suppressed_triggers extends AbstractFunction{
+
+        public String getName() {
+            return "suppressed_triggers";
+        }
+
+        public Integer[] numArgs() {
+            return new Integer[]{0, 1};
+        }
+
+        public String docs() {
+            return "int {[eventID]} Returns the number of times the event handler was not run, because of its debounce or"
+                    + " throttle options, or because the async queue was full. If called from within an event handler, eventID is optional, and defaults to"
+                    + " the current event id.";
+        }
+
+        public ExceptionType[] thrown() {
+            return new ExceptionType[]{ExceptionType.BindException};
+        }
+
+        public boolean isRestricted() {
+            return true;
+        }
+        public CHVersion since() {
+            return CHVersion.V3_3_1;
+        }
+
+        public Boolean runAsync() {
+            return null;
+        }
+
+        public Construct exec(Target t, Env environment, Construct... args) throws ConfigRuntimeException {
+            BoundEvent b;
+            if(args.length == 1){
+                b = EventUtils.GetBoundEvent(args[0].val());
+                if(b == null){
+                    throw new ConfigRuntimeException("No event with the id \"" + args[0].val() + "\" is bound", ExceptionType.BindException, t);
+                }
+            } else {
+                if(environment.GetEvent() == null){
+                    throw new ConfigRuntimeException("No event ID specified, and not running inside an event", ExceptionType.BindException, t);
+                }
+                b = environment.GetEvent().getBoundEvent();
+            }
+            return new CInt(b.getSuppressedCount(), t);
+        }
+        
+    }
+    
+    @api public static class record_events extends AbstractFunction{
+
+        public String getName() {
+            return "record_events";
+        }
+
+        public Integer[] numArgs() {
+            return new Integer[]{0, 1};
+        }
+
+        public String docs() {
+            return "int {[file]} Starts recording all the triggered events to the given file, which is relative to this script,"
+                    + " and overwritten if it exists. If the file name ends with .gz, it is compressed. Only events that have"
+                    + " at least one handler bound are recorded. If no file is given, the current recording is stopped, and the"
+                    + " number of events that were recorded is returned, otherwise 0 is returned. The recording can be replayed"
+                    + " against a set of scripts from the command line, with --replay-events.";
+        }
+
+        public ExceptionType[] thrown() {
+            return new ExceptionType[]{ExceptionType.SecurityException, ExceptionType.IOException};
+        }
+
+        public boolean isRestricted() {
+            return true;
+        }
+        public CHVersion since() {
+            return CHVersion.V3_3_1;
+        }
+
+        public Boolean runAsync() {
+            return null;
+        }
+
+        public Construct exec(Target t, Env environment, Construct... args) throws ConfigRuntimeException {
+            try{
+                if(args.length == 0){
+                    EventRecorder.Stop();
+                    return new CInt(EventRecorder.GetRecordedCount(), t);
+                }
+                String location = new File(t.file().getParentFile(), args[0].val()).getAbsolutePath();
+                if(!Security.CheckSecurity(location)){
+                    throw new ConfigRuntimeException("You do not have permission to access the file '" + location + "'",
+                            ExceptionType.SecurityException, t);
+                }
+                EventRecorder.Start(new File(location));
+                return new CInt(0, t);
+            } catch(IOException e){
+                throw new ConfigRuntimeException("The event recording could not be written: " + e.getMessage(), ExceptionType.IOException, t);
+            }
+        }
+        
+    }
+    
     @api public static class cancel extends AbstractFunction{
 
         public String getName() {
@@ -421,6 +536,10 @@ public class EventBinding {
             if(!active.isLocked(parameter)){
                 try{
                     success = e.modifyEvent(parameter, value, environment.GetEvent().getUnderlyingEvent());
+                    if(success){
+                        //The parsed event is now out of date, so the next handler needs a fresh one
+                        active.invalidateParsedEvent();
+                    }
                 } catch(ConfigRuntimeException ex){
                     ex.setFile(t.file());
                     ex.setLineNum(t.line());
@@ -208,8 +208,7 @@ public class Exceptions {
                     if(catchCode != null){
                         CArray ex = ObjectGenerator.GetGenerator().exception(e, t);
                         if(ivar != null){
-                            ivar.setIval(ex);
-                            env.GetVarList().set(ivar);
+                            env.GetVarList().set(new IVariable(ivar.getName(), ex, t));
                         }
                         that.eval(catchCode, env);
                     }
@@ -1,5 +1,3 @@
-
-
 package com.laytonsmith.core.functions;
 
 import com.laytonsmith.PureUtilities.ZipReader;
@@ -13,51 +11,285 @@ import com.laytonsmith.core.exceptions.ConfigCompileException;
 import com.laytonsmith.core.exceptions.ConfigRuntimeException;
 import java.io.File;
 import java.io.IOException;
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
 
 /**
- *
+ * Caches the compiled trees of included files. This is safe to use from multiple
+ * threads, and if several threads ask for the same uncached file at once, it is
+ * only compiled once. Each entry remembers the modification time and size of the file
+ * it was compiled from, and if the file changes, it is recompiled on the next request.
+ * Optionally, the cache can be bounded, in which case the least recently used files are
+ * evicted, and a background thread can be started to watch the cached files for changes
+ * instead of checking them on each request.
  * @author Layton
  */
 public class IncludeCache {
     private static final CHLog.Tags TAG = CHLog.Tags.INCLUDES;
-    private static HashMap<File, GenericTreeNode<Construct>> cache = new HashMap<File, GenericTreeNode<Construct>>();
-    
-    private static void add(File file, GenericTreeNode<Construct> tree){
-        cache.put(file, tree);
+    private static final Object lock = new Object();
+    private static int maxSize = 0;
+    private static final LinkedHashMap<File, FutureTask<CacheEntry>> cache = new LinkedHashMap<File, FutureTask<CacheEntry>>(16, 0.75f, true){
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<File, FutureTask<CacheEntry>> eldest) {
+            return maxSize > 0 && size() > maxSize;
+        }
+
+    };
+    private static Thread watcher = null;
+    private static volatile long watchInterval = 0;
+    /**
+     * How many includes the current thread is in the middle of compiling. Compiling a file
+     * may include other files, and if another thread is compiling one of those, waiting on it
+     * could deadlock, so nested requests don't wait on other threads.
+     */
+    private static final ThreadLocal<Integer> compiling = new ThreadLocal<Integer>(){
+
+        @Override
+        protected Integer initialValue() {
+            return 0;
+        }
+
+    };
+
+    private static class CacheEntry{
+        private final GenericTreeNode<Construct> tree;
+        private final long lastModified;
+        private final long length;
+        private final boolean validate;
+
+        public CacheEntry(GenericTreeNode<Construct> tree, long lastModified, long length, boolean validate){
+            this.tree = tree;
+            this.lastModified = lastModified;
+            this.length = length;
+            this.validate = validate;
+        }
+
+        /**
+         * Returns true if the file has changed since it was compiled. Files
+         * that aren't directly on the file system (inside a zip, for instance)
+         * are never considered stale.
+         * @param file
+         * @return
+         */
+        public boolean isStale(File file){
+            if(!validate){
+                return false;
+            }
+            return file.lastModified() != lastModified || file.length() != length;
+        }
+    }
+
+    /**
+     * Sets the options for the cache. If maxSize is greater than 0, no more than that many
+     * files are kept, otherwise the cache is unbounded. If watchInterval is greater than 0, a background
+     * thread checks the cached files for changes every watchInterval milliseconds, and evicts
+     * the changed ones, and the files are no longer checked on each request. Otherwise,
+     * each request checks the file itself.
+     * @param maxSize
+     * @param watchInterval
+     */
+    public static void configure(int maxSize, long watchInterval){
+        synchronized(lock){
+            IncludeCache.maxSize = maxSize;
+            if(maxSize > 0){
+                //Trim it down now, if need be
+                List<File> files = new ArrayList<File>(cache.keySet());
+                for(int i = 0; i < files.size() - maxSize; i++){
+                    cache.remove(files.get(i));
+                }
+            }
+            IncludeCache.watchInterval = watchInterval;
+            if(watchInterval > 0 && watcher == null){
+                watcher = new Thread(new Runnable() {
+
+                    public void run() {
+                        watch();
+                    }
+                }, "commandhelper-include-watcher");
+                watcher.setDaemon(true);
+                watcher.start();
+            } else if(watchInterval <= 0 && watcher != null){
+                watcher.interrupt();
+                watcher = null;
+            }
+        }
+    }
+
+    private static void watch(){
+        while(watchInterval > 0 && !Thread.currentThread().isInterrupted()){
+            try {
+                Thread.sleep(watchInterval);
+            } catch (InterruptedException ex) {
+                return;
+            }
+            List<Map.Entry<File, FutureTask<CacheEntry>>> entries;
+            synchronized(lock){
+                entries = new ArrayList<Map.Entry<File, FutureTask<CacheEntry>>>(cache.entrySet());
+            }
+            for(Map.Entry<File, FutureTask<CacheEntry>> entry : entries){
+                CacheEntry c = completed(entry.getValue());
+                if(c != null && c.isStale(entry.getKey())){
+                    if(CHLog.WillLog(TAG, CHLog.Level.INFO)){
+                        CHLog.Log(TAG, CHLog.Level.INFO, entry.getKey().getAbsolutePath() + " has changed, removing it from the cache", Target.UNKNOWN);
+                    }
+                    evict(entry.getKey(), entry.getValue());
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the entry if the task has completed successfully, or null otherwise.
+     * @param task
+     * @return
+     */
+    private static CacheEntry completed(FutureTask<CacheEntry> task){
+        if(!task.isDone()){
+            return null;
+        }
+        try {
+            return task.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException ex) {
+            return null;
+        }
+    }
+
+    /**
+     * Removes the file from the cache, but only if it is still mapped to the specified task.
+     * @param file
+     * @param task
+     */
+    private static void evict(File file, FutureTask<CacheEntry> task){
+        synchronized(lock){
+            if(cache.get(file) == task){
+                cache.remove(file);
+            }
+        }
     }
-    
+
     public static GenericTreeNode<Construct> get(File file, Target t){
-        CHLog.Log(TAG, CHLog.Level.DEBUG, "Loading " + file.getAbsolutePath(), t);
-        if(!cache.containsKey(file)){
-            CHLog.Log(TAG, CHLog.Level.VERBOSE, "Cache does not already contain include file, compiling, then caching.", t);
+        if(CHLog.WillLog(TAG, CHLog.Level.DEBUG)){
+            CHLog.Log(TAG, CHLog.Level.DEBUG, "Loading " + file.getAbsolutePath(), t);
+        }
+        File key = file.getAbsoluteFile();
+        FutureTask<CacheEntry> task;
+        boolean owner = false;
+        synchronized(lock){
+            task = cache.get(key);
+            if(task == null){
+                task = new FutureTask<CacheEntry>(new IncludeCompiler(file, t));
+                cache.put(key, task);
+                owner = true;
+            }
+        }
+        if(owner){
+            if(CHLog.WillLog(TAG, CHLog.Level.VERBOSE)){
+                CHLog.Log(TAG, CHLog.Level.VERBOSE, "Cache does not already contain include file, compiling, then caching.", t);
+            }
+            task.run();
+        } else if(!task.isDone() && compiling.get() > 0){
+            return compile(new IncludeCompiler(file, t)).tree;
+        }
+        CacheEntry entry;
+        try {
+            entry = task.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new ConfigRuntimeException("Interrupted while waiting for " + file + " to compile",
+                    Exceptions.ExceptionType.IncludeException, t);
+        } catch (ExecutionException ex) {
+            //Failures aren't cached, so the next request tries again
+            evict(key, task);
+            if(ex.getCause() instanceof ConfigRuntimeException){
+                throw (ConfigRuntimeException)ex.getCause();
+            } else if(ex.getCause() instanceof RuntimeException){
+                throw (RuntimeException)ex.getCause();
+            } else {
+                throw new Error(ex.getCause());
+            }
+        }
+        if(!owner && watchInterval <= 0 && entry.isStale(key)){
+            if(CHLog.WillLog(TAG, CHLog.Level.INFO)){
+                CHLog.Log(TAG, CHLog.Level.INFO, file.getAbsolutePath() + " has changed, recompiling", t);
+            }
+            evict(key, task);
+            return get(file, t);
+        }
+        if(CHLog.WillLog(TAG, CHLog.Level.INFO)){
+            CHLog.Log(TAG, CHLog.Level.INFO, "Returning " + file.getAbsolutePath() + " from cache", t);
+        }
+        return entry.tree;
+    }
+
+    private static class IncludeCompiler implements Callable<CacheEntry>{
+        private final File file;
+        private final Target t;
+
+        public IncludeCompiler(File file, Target t){
+            this.file = file;
+            this.t = t;
+        }
+
+        public CacheEntry call() throws Exception {
+            return compile(this);
+        }
+
+        private CacheEntry doCompile(){
             //We have to pull the file from the FS, and compile it.
             if(Security.CheckSecurity(file.getAbsolutePath())){
-                CHLog.Log(TAG, CHLog.Level.VERBOSE, "Security check passed", t);
+                if(CHLog.WillLog(TAG, CHLog.Level.VERBOSE)){
+                    CHLog.Log(TAG, CHLog.Level.VERBOSE, "Security check passed", t);
+                }
                 try {
+                    //Grab these before reading, so if the file changes while we're compiling, we'll notice next time
+                    boolean validate = file.isFile();
+                    long lastModified = file.lastModified();
+                    long length = file.length();
                     String s = new ZipReader(file).getFileContents();
                     GenericTreeNode<Construct> tree = MethodScriptCompiler.compile(MethodScriptCompiler.lex("g(\n" + s + "\n)", file));
-                    CHLog.Log(TAG, CHLog.Level.VERBOSE, "Compilation succeeded, adding to cache.", t);
-                    IncludeCache.add(file, tree);
+                    if(CHLog.WillLog(TAG, CHLog.Level.VERBOSE)){
+                        CHLog.Log(TAG, CHLog.Level.VERBOSE, "Compilation succeeded, adding to cache.", t);
+                    }
+                    return new CacheEntry(tree, lastModified, length, validate);
                 } catch (ConfigCompileException ex) {
                     throw new ConfigRuntimeException("There was a compile error when trying to include the script at " + file
-                            + "\n" + ex.getMessage() + " :: " + file.getName() + ":" + ex.getLineNum(), 
+                            + "\n" + ex.getMessage() + " :: " + file.getName() + ":" + ex.getLineNum(),
                             Exceptions.ExceptionType.IncludeException, t);
                 } catch (IOException ex) {
-                    throw new ConfigRuntimeException("The script at " + file + " could not be found or read in.", 
+                    throw new ConfigRuntimeException("The script at " + file + " could not be found or read in.",
                             Exceptions.ExceptionType.IOException, t);
                 }
             } else {
-                throw new ConfigRuntimeException("The script cannot access " + file + " due to restrictions imposed by the base-dir setting.", 
+                throw new ConfigRuntimeException("The script cannot access " + file + " due to restrictions imposed by the base-dir setting.",
                         Exceptions.ExceptionType.SecurityException, t);
             }
         }
-        CHLog.Log(TAG, CHLog.Level.INFO, "Returning " + file.getAbsolutePath() + " from cache", t);
-        return cache.get(file);
     }
-    
+
+    private static CacheEntry compile(IncludeCompiler compiler){
+        compiling.set(compiling.get() + 1);
+        try{
+            return compiler.doCompile();
+        } finally {
+            compiling.set(compiling.get() - 1);
+        }
+    }
+
     public static void clearCache(){
-        CHLog.Log(TAG, CHLog.Level.INFO, "Clearing include cache", Target.UNKNOWN);
-        cache.clear();
+        if(CHLog.WillLog(TAG, CHLog.Level.INFO)){
+            CHLog.Log(TAG, CHLog.Level.INFO, "Clearing include cache", Target.UNKNOWN);
+        }
+        synchronized(lock){
+            cache.clear();
+        }
     }
 }
@@ -2,6 +2,7 @@
 
 package com.laytonsmith.core.functions;
 
+import com.laytonsmith.abstraction.StaticLayer;
 import com.laytonsmith.annotations.api;
 import com.laytonsmith.core.*;
 import com.laytonsmith.core.constructs.*;
@@ -9,6 +10,7 @@ import com.laytonsmith.core.exceptions.CancelCommandException;
 import com.laytonsmith.core.exceptions.ConfigRuntimeException;
 import com.laytonsmith.core.exceptions.MarshalException;
 import com.laytonsmith.core.functions.Exceptions.ExceptionType;
+import com.laytonsmith.persistance.SerializedPersistance;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
@@ -66,28 +68,11 @@ public class Persistance {
             } catch(MarshalException e){
                 throw new ConfigRuntimeException(e.getMessage(), t);
             }
-            char pc = '.';
-            for(int i = 0; i < key.length(); i++){
-                Character c = key.charAt(i);
-                if(i != 0){
-                    pc = key.charAt(i - 1);
-                }
-                if((i == 0 || i == key.length() - 1 || pc == '.') && c == '.'){
-                    throw new ConfigRuntimeException("Periods may only be used as seperators between namespaces.", ExceptionType.FormatException, t);
-                }
-                if(c != '_' && c != '.' && !Character.isLetterOrDigit(c)){
-                    throw new ConfigRuntimeException("Param 1 in store_value must only contain letters, digits, underscores, or dots, (which denote namespaces).",
-                            ExceptionType.FormatException, t);
-                }
-            }
+            ValidateKey(key, getName(), t);
             CHLog.Log(CHLog.Tags.PERSISTANCE, "Storing: " + key + " -> " + value, t);
+            //The value is journaled by setValue, so the snapshot doesn't need to be
+            //rewritten here. It is compacted in the background, and on shutdown.
             Static.getPersistance().setValue(new String[]{"storage", key}, value);
-            try {
-                Static.getPersistance().save();
-            } catch (Exception ex) {
-                Logger.getLogger(Persistance.class.getName()).log(Level.SEVERE, null, ex);
-                throw new ConfigRuntimeException(ex.getMessage(), null, t, ex);
-            }
             return new CVoid(t);
         }
         
@@ -153,6 +138,165 @@ public class Persistance {
         
     }
     
+    @api public static class store_value_async extends AbstractFunction{
+
+        public String getName() {
+            return "store_value_async";
+        }
+
+        public Integer[] numArgs() {
+            return new Integer[]{Integer.MAX_VALUE};
+        }
+
+        public String docs() {
+            return "void {[namespace, ...,] key, value, [callback]} Works like store_value, but returns immediately, and the value"
+                    + " is written out in the background, so a slow disk doesn't hold up the server. Once the value is stored, the callback,"
+                    + " if provided, is run on the main thread. It should have the signature closure(@exception), where @exception"
+                    + " is null if the value was stored, or an IOException array if it couldn't be written out. Asynchronous"
+                    + " stores and gets of the same key happen in the order they were called, so a get_value_async after a"
+                    + " store_value_async of the same key will see the new value. (This isn't guaranteed for store_value and get_value mixed with these.)";
+        }
+        
+        public ExceptionType[] thrown(){
+            return new ExceptionType[]{ExceptionType.FormatException};
+        }
+
+        public boolean isRestricted() {
+            return true;
+        }
+
+        public CHVersion since() {
+            return CHVersion.V3_3_1;
+        }
+
+        public Construct exec(final Target t, Env env, Construct... args) throws CancelCommandException, ConfigRuntimeException {
+            CClosure c = null;
+            int valueIndex = args.length - 1;
+            if(args.length > 2 && args[args.length - 1] instanceof CClosure){
+                c = (CClosure)args[args.length - 1];
+                valueIndex--;
+                args = Arrays.copyOf(args, args.length - 1);
+            }
+            final CClosure callback = c;
+            final String key = GetNamespace(args, valueIndex, getName(), t);
+            ValidateKey(key, getName(), t);
+            final String value;
+            try{
+                value = Construct.json_encode(args[valueIndex], t);
+            } catch(MarshalException e){
+                throw new ConfigRuntimeException(e.getMessage(), t);
+            }
+            final SerializedPersistance p = Static.getPersistance();
+            CHLog.Log(CHLog.Tags.PERSISTANCE, "Storing asynchronously: " + key + " -> " + value, t);
+            Threader.GetThreader().submitPersistanceTask("storage." + key, new Runnable() {
+
+                public void run() {
+                    Exception exception = null;
+                    try{
+                        //Unlike setValue, this doesn't just log it if the value can't be written out
+                        p.set(new String[]{"storage", key}, value);
+                    } catch(Exception ex){
+                        Logger.getLogger(Persistance.class.getName()).log(Level.SEVERE, null, ex);
+                        exception = ex;
+                    }
+                    if(callback == null){
+                        return;
+                    }
+                    final Exception ex = exception;
+                    StaticLayer.SetFutureRunnable(0, new Runnable() {
+
+                        public void run() {
+                            Construct cex;
+                            if(ex == null){
+                                cex = new CNull(t);
+                            } else {
+                                cex = ObjectGenerator.GetGenerator().exception(
+                                        new ConfigRuntimeException(ex.getMessage(), ExceptionType.IOException, t, ex), t);
+                            }
+                            callback.execute(new Construct[]{cex});
+                        }
+                    });
+                }
+            });
+            return new CVoid(t);
+        }
+        
+        public Boolean runAsync(){
+            return null;
+        }
+        
+    }
+    
+    @api public static class get_value_async extends AbstractFunction{
+
+        public String getName() {
+            return "get_value_async";
+        }
+
+        public Integer[] numArgs() {
+            return new Integer[]{Integer.MAX_VALUE};
+        }
+
+        public String docs() {
+            return "void {[namespace, ...,] key, callback} Works like get_value, but returns immediately, and the value is read"
+                    + " in the background, so a slow disk doesn't hold up the server. Once the value is read, the callback is run"
+                    + " on the main thread, with the signature closure(@value), where @value is what get_value would have returned."
+                    + " Asynchronous stores and gets of the same key happen in the order they were called. (See store_value_async())";
+        }
+        
+        public ExceptionType[] thrown(){
+            return new ExceptionType[]{ExceptionType.CastException};
+        }
+
+        public boolean isRestricted() {
+            return true;
+        }
+
+        public CHVersion since() {
+            return CHVersion.V3_3_1;
+        }
+
+        public Construct exec(final Target t, Env env, Construct... args) throws CancelCommandException, ConfigRuntimeException {
+            if(!(args[args.length - 1] instanceof CClosure)){
+                throw new ConfigRuntimeException("Expected the last argument of " + getName() + " to be a closure!", ExceptionType.CastException, t);
+            }
+            final CClosure callback = (CClosure)args[args.length - 1];
+            final String namespace = GetNamespace(args, args.length - 1, getName(), t);
+            final SerializedPersistance p = Static.getPersistance();
+            CHLog.Log(CHLog.Tags.PERSISTANCE, "Getting value asynchronously: " + namespace, t);
+            Threader.GetThreader().submitPersistanceTask("storage." + namespace, new Runnable() {
+
+                public void run() {
+                    final String value = p.getValue(new String[]{"storage", namespace});
+                    StaticLayer.SetFutureRunnable(0, new Runnable() {
+
+                        public void run() {
+                            //The constructs are created here, on the main thread
+                            Construct ret = new CNull(t);
+                            if(value != null){
+                                try {
+                                    Object o = Construct.json_decode(value, t);
+                                    if(o instanceof Construct){
+                                        ret = (Construct)o;
+                                    }
+                                } catch (MarshalException ex) {
+                                    Logger.getLogger(Persistance.class.getName()).log(Level.SEVERE, null, ex);
+                                }
+                            }
+                            callback.execute(new Construct[]{ret});
+                        }
+                    });
+                }
+            });
+            return new CVoid(t);
+        }
+        
+        public Boolean runAsync(){
+            return null;
+        }
+        
+    }
+    
     @api public static class get_values extends AbstractFunction{
 
         public String getName() {
@@ -287,6 +431,29 @@ public class Persistance {
         
     }
     
+    /**
+     * Throws a FormatException if the key isn't valid for storing.
+     * @param key
+     * @param name
+     * @param t 
+     */
+    private static void ValidateKey(String key, String name, Target t){
+        char pc = '.';
+        for(int i = 0; i < key.length(); i++){
+            Character c = key.charAt(i);
+            if(i != 0){
+                pc = key.charAt(i - 1);
+            }
+            if((i == 0 || i == key.length() - 1 || pc == '.') && c == '.'){
+                throw new ConfigRuntimeException("Periods may only be used as seperators between namespaces.", ExceptionType.FormatException, t);
+            }
+            if(c != '_' && c != '.' && !Character.isLetterOrDigit(c)){
+                throw new ConfigRuntimeException("Param 1 in " + name + " must only contain letters, digits, underscores, or dots, (which denote namespaces).",
+                        ExceptionType.FormatException, t);
+            }
+        }
+    }
+    
     /**
      * Generates the namespace for this value, given an array of constructs. 
      * If the entire list of arguments isn't supposed to be part of the namespace,
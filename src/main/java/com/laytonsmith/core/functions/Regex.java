@@ -2,6 +2,7 @@
 
 package com.laytonsmith.core.functions;
 
+import com.laytonsmith.PureUtilities.LRUCache;
 import com.laytonsmith.annotations.api;
 import com.laytonsmith.core.*;
 import com.laytonsmith.core.constructs.*;
@@ -27,7 +28,44 @@ public class Regex {
                 + " Alternatively, using the embedded flag system that Java provides is also valid.";
     }
     
-    @api public static class reg_match extends AbstractFunction{
+    /**
+     * The functions that take a pattern as their first argument. If the pattern was
+     * a literal, it was compiled during optimization, and kept on its node, so it
+     * is used from there. Otherwise, the pattern is compiled (or found in the cache)
+     * at runtime.
+     */
+    public static abstract class PatternFunction extends AbstractFunction {
+
+        public abstract Construct exec(Target t, Env env, Pattern pattern, Construct... args) throws ConfigRuntimeException;
+
+        public Construct exec(Target t, Env env, Construct... args) throws ConfigRuntimeException {
+            return exec(t, env, getPattern(args[0], t), args);
+        }
+
+        @Override
+        public boolean useSpecialExec() {
+            return true;
+        }
+
+        @Override
+        public Construct execs(Target t, Env env, Script parent, GenericTreeNode<Construct>... nodes) {
+            Pattern pattern = null;
+            if(nodes[0].getCompiledData() instanceof Pattern){
+                pattern = (Pattern) nodes[0].getCompiledData();
+            }
+            Construct[] args = new Construct[nodes.length];
+            args[0] = pattern == null ? parent.seval(nodes[0], env) : nodes[0].getData();
+            for(int i = 1; i < nodes.length; i++){
+                args[i] = parent.seval(nodes[i], env);
+            }
+            if(pattern == null){
+                pattern = getPattern(args[0], t);
+            }
+            return exec(t, env, pattern, args);
+        }
+    }
+    
+    @api public static class reg_match extends PatternFunction{
 
         public String getName() {
             return "reg_match";
@@ -61,8 +99,7 @@ public class Regex {
             return null;
         }
 
-        public Construct exec(Target t, Env env, Construct... args) throws ConfigRuntimeException {
-            Pattern pattern = getPattern(args[0], t);
+        public Construct exec(Target t, Env env, Pattern pattern, Construct... args) throws ConfigRuntimeException {
             String subject = args[1].val();
             CArray ret = new CArray(t);
             Matcher m = pattern.matcher(subject);
@@ -97,15 +134,13 @@ public class Regex {
 
         @Override
         public GenericTreeNode<Construct> optimizeDynamic(Target t, List<GenericTreeNode<Construct>> children) throws ConfigCompileException, ConfigRuntimeException {
-            if(!children.get(0).getData().isDynamic()){
-                getPattern(children.get(0).getData(), t);
-            }
+            precompilePattern(children.get(0), t);
             return null;
         } 
         
     }
     
-    @api public static class reg_match_all extends AbstractFunction{
+    @api public static class reg_match_all extends PatternFunction{
 
         public String getName() {
             return "reg_match_all";
@@ -137,8 +172,7 @@ public class Regex {
             return null;
         }
 
-        public Construct exec(Target t, Env env, Construct... args) throws ConfigRuntimeException {
-            Pattern pattern = getPattern(args[0], t);
+        public Construct exec(Target t, Env env, Pattern pattern, Construct... args) throws ConfigRuntimeException {
             String subject = args[1].val();
             CArray fret = new CArray(t);
             Matcher m = pattern.matcher(subject);
@@ -171,15 +205,13 @@ public class Regex {
 
         @Override
         public GenericTreeNode<Construct> optimizeDynamic(Target t, List<GenericTreeNode<Construct>> children) throws ConfigCompileException, ConfigRuntimeException {
-            if(!children.get(0).getData().isDynamic()){
-                getPattern(children.get(0).getData(), t);
-            }
+            precompilePattern(children.get(0), t);
             return null;
         } 
         
     }
     
-    @api public static class reg_replace extends AbstractFunction{
+    @api public static class reg_replace extends PatternFunction{
 
         public String getName() {
             return "reg_replace";
@@ -211,8 +243,7 @@ public class Regex {
             return null;
         }
 
-        public Construct exec(Target t, Env env, Construct... args) throws ConfigRuntimeException {
-            Pattern pattern = getPattern(args[0], t);
+        public Construct exec(Target t, Env env, Pattern pattern, Construct... args) throws ConfigRuntimeException {
             String replacement = args[1].val();
             String subject = args[2].val();
             String ret = "";
@@ -244,15 +275,13 @@ public class Regex {
 
         @Override
         public GenericTreeNode<Construct> optimizeDynamic(Target t, List<GenericTreeNode<Construct>> children) throws ConfigCompileException, ConfigRuntimeException {
-            if(!children.get(0).getData().isDynamic()){
-                getPattern(children.get(0).getData(), t);
-            }
+            precompilePattern(children.get(0), t);
             return null;
         } 
         
     }
     
-    @api public static class reg_split extends AbstractFunction{
+    @api public static class reg_split extends PatternFunction{
 
         public String getName() {
             return "reg_split";
@@ -284,8 +313,7 @@ public class Regex {
             return null;
         }
 
-        public Construct exec(Target t, Env env, Construct... args) throws ConfigRuntimeException {
-            Pattern pattern = getPattern(args[0], t);
+        public Construct exec(Target t, Env env, Pattern pattern, Construct... args) throws ConfigRuntimeException {
             String subject = args[1].val();
             String [] rsplit = pattern.split(subject);
             CArray ret = new CArray(t);
@@ -312,15 +340,13 @@ public class Regex {
 
         @Override
         public GenericTreeNode<Construct> optimizeDynamic(Target t, List<GenericTreeNode<Construct>> children) throws ConfigCompileException, ConfigRuntimeException {
-            if(!children.get(0).getData().isDynamic()){
-                getPattern(children.get(0).getData(), t);
-            }
+            precompilePattern(children.get(0), t);
             return null;
         } 
         
     }  
     
-    @api public static class reg_count extends AbstractFunction{
+    @api public static class reg_count extends PatternFunction{
 
         public String getName() {
             return "reg_count";
@@ -351,8 +377,7 @@ public class Regex {
             return null;
         }
 
-        public Construct exec(Target t, Env env, Construct... args) throws ConfigRuntimeException {
-            Pattern pattern = getPattern(args[0], t);
+        public Construct exec(Target t, Env env, Pattern pattern, Construct... args) throws ConfigRuntimeException {
             String subject = args[1].val();
             long ret = 0;
             Matcher m = pattern.matcher(subject);
@@ -379,9 +404,7 @@ public class Regex {
 
         @Override
         public GenericTreeNode<Construct> optimizeDynamic(Target t, List<GenericTreeNode<Construct>> children) throws ConfigCompileException, ConfigRuntimeException {
-            if(!children.get(0).getData().isDynamic()){
-                getPattern(children.get(0).getData(), t);
-            }
+            precompilePattern(children.get(0), t);
             return null;
         }                
         
@@ -436,14 +459,62 @@ public class Regex {
         
     }
     
+    /**
+     * The default number of dynamic patterns that are kept compiled.
+     */
+    public static final int DEFAULT_PATTERN_CACHE_SIZE = 250;
+    
+    /**
+     * Patterns that are built at runtime are cached here, keyed by the flags and the regex.
+     */
+    private static final LRUCache<String, Pattern> patternCache = new LRUCache<String, Pattern>(DEFAULT_PATTERN_CACHE_SIZE);
+    
+    /**
+     * Returns the runtime pattern cache, so its hit, miss, and eviction counts can be inspected.
+     * @return 
+     */
+    public static LRUCache<String, Pattern> getPatternCache(){
+        return patternCache;
+    }
+    
+    /**
+     * If the pattern node is a literal, compiles it (which also checks it for errors at compile time),
+     * and remembers the compiled pattern for runtime. It is kept with the node only, so literal
+     * patterns don't take up room in the runtime cache, or count towards its hits and misses.
+     * @param node
+     * @param t 
+     */
+    private static void precompilePattern(GenericTreeNode<Construct> node, Target t){
+        Construct c = node.getData();
+        if(!c.isDynamic()){
+            node.setCompiledData(compilePattern(getRegex(c, t), getFlags(c, t), t));
+        }
+    }
+    
     private static Pattern getPattern(Construct c, Target t) throws ConfigRuntimeException{
-        String regex = "";
+        String regex = getRegex(c, t);
+        int flags = getFlags(c, t);
+        String key = Integer.toString(flags) + ":" + regex;
+        Pattern pattern = patternCache.get(key);
+        if(pattern != null){
+            return pattern;
+        }
+        pattern = compilePattern(regex, flags, t);
+        patternCache.put(key, pattern);
+        return pattern;
+    }
+    
+    private static String getRegex(Construct c, Target t){
+        if(c instanceof CArray){
+            return ((CArray)c).get(0, t).val();
+        }
+        return c.val();
+    }
+    
+    private static int getFlags(Construct c, Target t) throws ConfigRuntimeException{
         int flags = 0;
-        String sflags = "";
         if(c instanceof CArray){
-            CArray ca = (CArray)c;
-            regex = ca.get(0, t).val();
-            sflags = ca.get(1, t).val();
+            String sflags = ((CArray)c).get(1, t).val();
             for(int i = 0; i < sflags.length(); i++){
                 if(sflags.toLowerCase().charAt(i) == 'i'){
                     flags |= Pattern.CASE_INSENSITIVE;
@@ -455,9 +526,11 @@ public class Regex {
                     throw new ConfigRuntimeException("Unrecognized flag: " + sflags.toLowerCase().charAt(i), ExceptionType.FormatException, t);
                 }
             }
-        } else {
-            regex = c.val();
         }
+        return flags;
+    }
+    
+    private static Pattern compilePattern(String regex, int flags, Target t) throws ConfigRuntimeException{
         try{
             return Pattern.compile(regex, flags);
         } catch(PatternSyntaxException e){
@@ -4,13 +4,21 @@ import com.laytonsmith.PureUtilities.StringUtils;
 import com.laytonsmith.annotations.datasource;
 import com.laytonsmith.persistance.io.ConnectionMixin;
 import com.laytonsmith.persistance.io.ConnectionMixinFactory;
+import com.laytonsmith.persistance.io.ReadWriteFileConnection;
 import java.io.IOException;
 import java.net.URI;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 /**
  *
@@ -23,6 +31,22 @@ public abstract class AbstractDataSource implements DataSource {
 	private Set<DataSourceModifier> invalidModifiers;
 	private ConnectionMixin connectionMixin;
 	private ConnectionMixinFactory.ConnectionMixinOptions mixinOptions;
+	/**
+	 * The delayed writes for all writebehind data sources are scheduled on this
+	 * thread. The actual io may still happen elsewhere.
+	 */
+	private static ScheduledExecutorService WriteBehindExecutor;
+	/**
+	 * The delayed writes that haven't run yet, so they can be run right away
+	 * when the plugin is disabled or the JVM exits. The executor's thread is a
+	 * daemon thread, so otherwise they would be lost.
+	 */
+	private static final Set<WriteBehind> PendingWriteBehind = new LinkedHashSet<WriteBehind>();
+	/**
+	 * How long to wait for the flushed writes to reach the disk when the JVM
+	 * is exiting.
+	 */
+	private static final long SHUTDOWN_TIMEOUT = 10000;
 			
 
 	protected AbstractDataSource(URI uri, ConnectionMixinFactory.ConnectionMixinOptions mixinOptions) throws DataSourceException {
@@ -71,6 +95,22 @@ public abstract class AbstractDataSource implements DataSource {
 		return list;
 	}
 
+	/**
+	 * The default implementation looks up each of the keys in getNamespace. If an
+	 * implementation can get the values along with the keys, this should be overridden.
+	 *
+	 * @param namespace
+	 * @return
+	 * @throws DataSourceException
+	 */
+	public Map<String[], String> getValues(String[] namespace) throws DataSourceException {
+		Map<String[], String> map = new HashMap<String[], String>();
+		for (String[] key : getNamespace(namespace)) {
+			map.put(key, get(key, false));
+		}
+		return map;
+	}
+
 	private void setInvalidModifiers() {
 		DataSourceModifier[] invalid = this.invalidModifiers();
 		if (invalid == null) {
@@ -113,6 +153,101 @@ public abstract class AbstractDataSource implements DataSource {
 		set(key, null);
 	}
 
+	/**
+	 * By default, there is nothing to write out or release.
+	 * @throws DataSourceException 
+	 */
+	public void disconnect() throws DataSourceException {
+		
+	}
+	
+	/**
+	 * Runs the task once the write behind interval has passed. This is meant for
+	 * data sources with the writebehind modifier, to write out their pending changes.
+	 * @param task 
+	 */
+	protected final void scheduleWriteBehind(Runnable task){
+		WriteBehind wb = new WriteBehind(task);
+		synchronized(AbstractDataSource.class){
+			if(WriteBehindExecutor == null){
+				WriteBehindExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+					public Thread newThread(Runnable r) {
+						Thread t = new Thread(r, "MethodScriptWriteBehind");
+						t.setDaemon(true);
+						return t;
+					}
+				});
+				Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+
+					public void run() {
+						FlushWriteBehind();
+						try {
+							ReadWriteFileConnection.AwaitWrites(SHUTDOWN_TIMEOUT);
+						} catch (InterruptedException ex) {
+							Thread.currentThread().interrupt();
+						}
+					}
+				}, "MethodScriptWriteBehindFlush"));
+			}
+			PendingWriteBehind.add(wb);
+		}
+		WriteBehindExecutor.schedule(wb, mixinOptions.getWriteBehindInterval(), TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Runs all the delayed writes that are still waiting for their interval
+	 * to pass, on this thread. This should be called when the data sources
+	 * are no longer going to be used, such as when the plugin is disabled,
+	 * and is also run automatically when the JVM exits. Writes to local files
+	 * are still finished in the background, see
+	 * {@link ReadWriteFileConnection#AwaitWrites(long)}.
+	 */
+	public static void FlushWriteBehind(){
+		List<WriteBehind> pending;
+		synchronized(AbstractDataSource.class){
+			pending = new ArrayList<WriteBehind>(PendingWriteBehind);
+			PendingWriteBehind.clear();
+		}
+		for(WriteBehind wb : pending){
+			wb.run();
+		}
+	}
+
+	/**
+	 * A delayed write, which only runs once, whether the interval passes
+	 * first or it is flushed first.
+	 */
+	private static final class WriteBehind implements Runnable {
+		private final Runnable task;
+		private boolean done = false;
+
+		private WriteBehind(Runnable task){
+			this.task = task;
+		}
+
+		public void run() {
+			synchronized(this){
+				if(done){
+					return;
+				}
+				done = true;
+			}
+			synchronized(AbstractDataSource.class){
+				PendingWriteBehind.remove(this);
+			}
+			task.run();
+		}
+	}
+	
+	/**
+	 * Returns the options this data source was created with.
+	 * @return 
+	 */
+	protected final ConnectionMixinFactory.ConnectionMixinOptions getMixinOptions(){
+		return mixinOptions;
+	}
+
 	/**
 	 * This method checks for invalid or non-sensical combinations of
 	 * modifiers, and throws an exception if any combinations exist that are
@@ -133,6 +268,10 @@ public abstract class AbstractDataSource implements DataSource {
 			errors.add(uri.toString() + " contains both prettyprint and readonly modifiers, which doesn't make sense, because we cannot write out the file; prettyprint will be ignored.");
 			modifiers.remove(DataSourceModifier.PRETTYPRINT);
 		}
+		if (modifiers.contains(DataSourceModifier.WRITEBEHIND) && (modifiers.contains(DataSourceModifier.TRANSIENT) || modifiers.contains(DataSourceModifier.READONLY))) {
+			errors.add(uri.toString() + " contains the writebehind modifier along with transient or readonly, which doesn't make sense; writebehind will be ignored.");
+			modifiers.remove(DataSourceModifier.WRITEBEHIND);
+		}
 		if ((modifiers.contains(DataSourceModifier.HTTP) || modifiers.contains(DataSourceModifier.HTTPS) && modifiers.contains(DataSourceModifier.SSH))) {
 			errors.add(uri.toString() + " contains both http(s) and ssh modifiers.");
 		}
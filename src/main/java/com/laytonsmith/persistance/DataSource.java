@@ -4,6 +4,7 @@ import com.laytonsmith.core.CHVersion;
 import com.laytonsmith.core.Documentation;
 import java.io.IOException;
 import java.util.List;
+import java.util.Map;
 
 /**
  * All data sources must implement this interface. It provides methods to gather
@@ -41,6 +42,17 @@ public interface DataSource extends Documentation {
 	 */
 	public List<String[]> getNamespace(String[] namespace) throws DataSourceException;
 
+	/**
+	 * Given a namespace, returns all the keys in this data source that are
+	 * in the namespace, along with their values. This returns the same keys
+	 * as getNamespace, but all at once, so data sources that can look up the
+	 * whole namespace in a single pass should do so here.
+	 *
+	 * @param namespace
+	 * @return
+	 */
+	public Map<String[], String> getValues(String[] namespace) throws DataSourceException;
+
 	/**
 	 * Retrieves a value from the data source. If bypassTransient is true,
 	 * then this should not re-populate the data (if transient isn't
@@ -129,6 +141,15 @@ public interface DataSource extends Documentation {
 	 * @throws DataSourceException 
 	 */
 	public void clearKey(String [] key) throws DataSourceException, ReadOnlyException, IOException;
+	
+	/**
+	 * Writes out anything that has been changed but not yet written, and
+	 * releases any resources held by this data source. This should be called
+	 * when the data source is no longer going to be used, for instance on
+	 * shutdown.
+	 * @throws DataSourceException 
+	 */
+	public void disconnect() throws DataSourceException;
 
 	/**
 	 * These are the valid modifiers for a generic connection. Not all data
@@ -159,7 +180,11 @@ public interface DataSource extends Documentation {
 		SSH("Retrieves the file via SSH. This cannot be used in combination with the HTTP or HTTPS flags. The file path must match the syntax used"
 		+ " by SCP connections, for instance: ssh:yml://user@host:/path/to/file/over/ssh.yml. This will only work with public-key authentication"
 		+ " however, since there is no practical way to input your password otherwise. Since this is a remote IO connection, async is implied if this"
-		+ " modifier is set.", CHVersion.V3_3_1);
+		+ " modifier is set.", CHVersion.V3_3_1),
+		WRITEBEHIND("For text based files, changes are kept in memory, and only written out to the file periodically, instead of"
+		+ " rewriting the whole file for every change. For databases, changes are committed together in one transaction periodically. This makes storing many values in a row much faster, at the cost of"
+		+ " possibly losing the most recent changes if the server crashes. Reads always see the latest changes. This cannot be"
+		+ " combined with transient, since the file isn't up to date, and will be ignored if it is.", CHVersion.V3_3_1);
 		private CHVersion since;
 		private String documentation;
 
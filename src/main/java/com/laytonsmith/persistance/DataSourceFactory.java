@@ -71,18 +71,21 @@ public class DataSourceFactory {
         
     }
     
-    private static Map<String, Class> protocolHandlers;
-    private static void init(){
+    private static volatile Map<String, Class> protocolHandlers;
+    private static synchronized void init(){
         if(protocolHandlers == null){
-            protocolHandlers = new HashMap<String, Class>();
+            //Data sources may be created from several threads at once, so the map
+            //can't be visible to them until it's complete.
+            Map<String, Class> handlers = new HashMap<String, Class>();
             Class [] classes = ClassDiscovery.GetClassesWithAnnotation(datasource.class);
             for(Class c : classes){
                 if(DataSource.class.isAssignableFrom(c)){
-                    protocolHandlers.put(((datasource)c.getAnnotation(datasource.class)).value(), c);
+                    handlers.put(((datasource)c.getAnnotation(datasource.class)).value(), c);
                 } else {
                     throw new Error(c.getName() + " does not implement DataSource!");
                 }
             }
+            protocolHandlers = handlers;
         }
     }
 }
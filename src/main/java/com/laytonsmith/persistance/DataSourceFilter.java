@@ -1,6 +1,7 @@
 package com.laytonsmith.persistance;
 
 import com.laytonsmith.PureUtilities.FileUtility;
+import com.laytonsmith.PureUtilities.LRUCache;
 import com.laytonsmith.PureUtilities.StringUtils;
 import com.laytonsmith.core.CHLog;
 import com.laytonsmith.core.constructs.Target;
@@ -11,47 +12,80 @@ import java.io.StringReader;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
-import java.util.TreeMap;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 /**
  * Given a File, creates a data source filter, which can be
+ * <p>
+ * The filters are compiled into a tree, with one level per part of the key, so
+ * finding the filters that match a key only has to look at the filters that share
+ * its prefix. If more than one filter matches, the most specific one wins. Filters
+ * are compared part by part, from the left, and at the first part where they differ,
+ * a plain name beats a part with wild cards and other characters in it (like a*b),
+ * which beats a lone * which beats **. If that doesn't settle it, the filter with
+ * more non wild card characters wins.
  *
  * @author layton
  */
 public class DataSourceFilter {
 
 	/**
-	 * Maps the regex-converted filter to a URI string. This is not stored
-	 * as a URI, because it might have capture usages in it.
+	 * The default number of keys (and separately, namespaces) whose connection is cached.
 	 */
-	private Map<Pattern, String> mappings = new HashMap<Pattern, String>();
+	public static final int DEFAULT_CACHE_SIZE = 10000;
+
+	private static final int LITERAL = 3;
+	private static final int PATTERN = 2;
+	private static final int WILDCARD = 1;
+	private static final int DOUBLE_WILDCARD = 0;
+
 	/**
-	 * This maps the compiled pattern to the original in-config filter.
-	 * So, hi\..*? would map to hi.**
+	 * The root of the filter tree.
 	 */
-	private Map<Pattern, String> original = new HashMap<Pattern, String>();
+	private final Node filters = new Node();
+	/**
+	 * Filters that have ** along with other characters in a single part of the key,
+	 * which can't be put in the tree, and are instead checked against every key,
+	 * with their regex.
+	 */
+	private final List<Filter> unsplittable = new ArrayList<Filter>();
+	/**
+	 * The original in-config filters, to detect duplicates.
+	 */
+	private final Map<String, Filter> original = new HashMap<String, Filter>();
+	/**
+	 * The compiled regex for each part of a filter that has wild cards or captures,
+	 * so namespace lookups don't have to compile them over and over.
+	 */
+	private final Map<String, Pattern> partPatterns = new HashMap<String, Pattern>();
 	/**
 	 * This maps the split key to the URI string, for use in namespace comparisons.
 	 */
 	private Map<String[], String> namespaced = new HashMap<String[], String>();
+	/**
+	 * The settings in the configuration, which are the keys that start with @,
+	 * without the @.
+	 */
+	private final Map<String, String> settings = new HashMap<String, String>();
 	/**
 	 * A cache of the regex needed to find a capture usage in a string.
 	 */
 	private static Pattern captureUsage = Pattern.compile("\\$(\\d+)");
 	/**
-	 * Since data lookups are expensive, cache them.
+	 * Since data lookups are expensive, cache them. Keys often contain player names,
+	 * so this must be bounded.
 	 */
-	private Map<String, URI> cache = new TreeMap<String, URI>();
+	private final LRUCache<String, URI> cache = new LRUCache<String, URI>(DEFAULT_CACHE_SIZE);
 	/**
 	 * Namespace lookups are also expensive, so let's also cache the results.
 	 */
-	private Map<String, List<URI>> namespaceCache = new TreeMap<String, List<URI>>();
+	private final LRUCache<String, List<URI>> namespaceCache = new LRUCache<String, List<URI>>(DEFAULT_CACHE_SIZE);
 
 	/**
 	 * Creates a new data source filter. This is represented by a file that
@@ -117,6 +151,10 @@ public class DataSourceFilter {
 				//It's an alias
 				aliases.put(key, p.getProperty(key));
 			}
+			if (key.startsWith("@")) {
+				//It's a setting for the whole network
+				settings.put(key.substring(1), p.getProperty(key).trim());
+			}
 			if(key.equals("**")){
 				hasDefault = true;
 			}
@@ -125,7 +163,7 @@ public class DataSourceFilter {
 
 		//Ok, now let's load up the actual connections.
 		for (String key : p.stringPropertyNames()) {
-			if (!key.matches("\\$.*")) {
+			if (!key.matches("\\$.*") && !key.startsWith("@")) {
 				if (key.matches("[^a-zA-Z0-9_\\(\\)\\*]")) {
 					//Bad character in the filter. Bail.
 					throw new DataSourceException("Invalid character in filter. Only"
@@ -202,7 +240,7 @@ public class DataSourceFilter {
 				}
 
 				//Is this pattern already in the mapping? If so, we need to throw an error.
-				if (mappings.containsKey(pattern)) {
+				if (original.containsKey(key)) {
 					throw new DataSourceException("Multiple definitions exist for the key: " + key);
 				}
 
@@ -217,19 +255,43 @@ public class DataSourceFilter {
 						+ (isAlias ? "(Defined for alias " + originalValue + ")" : "") + ".");
 				}
 				//Alright. It's cool. Add it to the list.
-				mappings.put(pattern, value);
-				original.put(pattern, key);
+				addFilter(new Filter(key, value, pattern));
 				namespaced.put(key.split("\\."), value);
 			}
-			//else it's an alias, and we've already dealt with it
+			//else it's an alias or a setting, and we've already dealt with it
 		}
 		if(!hasDefault){
-			Pattern m = Pattern.compile(".*?");
-			mappings.put(m, defaultURI.toString());
-			original.put(m, "**");
+			addFilter(new Filter("**", defaultURI.toString(), Pattern.compile(".*?")));
 			namespaced.put(new String[]{"**"}, defaultURI.toString());
 		}
 	}
+
+	private void addFilter(Filter filter){
+		original.put(filter.key, filter);
+		for(String part : filter.key.split("\\.")){
+			if((part.contains("*") || part.contains("(")) && !partPatterns.containsKey(part)){
+				partPatterns.put(part, Pattern.compile(toRegex(part) + "$"));
+			}
+		}
+		if(filter.segments == null){
+			unsplittable.add(filter);
+			return;
+		}
+		Node node = filters;
+		for(Segment segment : filter.segments){
+			node = node.child(segment);
+		}
+		node.filter = filter;
+	}
+
+	private Pattern partPattern(String part){
+		Pattern p = partPatterns.get(part);
+		if(p == null){
+			//Every part of every filter was compiled up front, so this shouldn't happen
+			p = Pattern.compile(toRegex(part) + "$");
+		}
+		return p;
+	}
 	
 	private String toRegex(String key){
 		//We need to change * into [^\.]*? and ** into .*? and . into \.
@@ -257,6 +319,18 @@ public class DataSourceFilter {
 		return b.toString();
 	}
 
+	/**
+	 * Returns the value of a setting in the configuration, or null if it
+	 * isn't set. Settings are given like filters, but with an @ in front of
+	 * the name, for instance {@code @writebehind.interval=10000}.
+	 *
+	 * @param name The name of the setting, without the @
+	 * @return
+	 */
+	public String getSetting(String name) {
+		return settings.get(name);
+	}
+
 	/**
 	 * Given a full key, returns the connection that contains it.
 	 *
@@ -285,8 +359,9 @@ public class DataSourceFilter {
 	 * @return
 	 */
 	public List<URI> getAllConnections(String key) throws UnresolvedCaptureException {
-		if(namespaceCache.containsKey(key)){
-			return new ArrayList<URI>(namespaceCache.get(key));
+		List<URI> cached = namespaceCache.get(key);
+		if(cached != null){
+			return new ArrayList<URI>(cached);
 		}
 		Map<String[], String> matches = new HashMap<String[], String>();
 		String [] split = key.split("\\.");
@@ -303,9 +378,8 @@ public class DataSourceFilter {
 					String requestedPart = split[comparing];
 					String myPart = comparison[comparing];
 					if(myPart.contains("*")){
-						//It's got a wildcard, so we need to convert it to a regex and compare from there
-						String regexPart = toRegex(myPart);
-						if(!requestedPart.matches(regexPart)){							
+						//It's got a wildcard, so we need to compare it with its regex
+						if(!partPattern(myPart).matcher(requestedPart).matches()){
 							continue outer;
 						}
 					} else {
@@ -342,10 +416,10 @@ public class DataSourceFilter {
 			for(int i = 0; i < split.length; i++){
 				if(match.length > i && match[i].contains("(")){
 					//It is a namespace that has a capture, so we need to extract it.
-					//We can piggyback off of the toRegex function to get it. Note
+					//We can piggyback off of the compiled part to get it. Note
 					//that it could potentially have multiple captures, so we have
 					//to walk through it entirely.
-					Matcher m = Pattern.compile(toRegex(match[i]) + "$").matcher(split[i]);
+					Matcher m = partPattern(match[i]).matcher(split[i]);
 					if(m.find()){
 						for(int g = 1; g <= m.groupCount(); g++){
 							uri = uri.replaceAll("\\$" + (g + captureGroup), m.group(g));
@@ -381,73 +455,361 @@ public class DataSourceFilter {
 	 * @return
 	 */
 	public URI getConnection(String key) {
-		//Since looking through these patterns, doing the matches, calculating string distance are all
-		//fairly expensive operations, let's improve the runtime complexity by using a cache
-		if (cache.containsKey(key)) {
-			return cache.get(key);
+		//Even with the tree, this requires splitting the key, possibly several regex
+		//matches, and building a URI, so let's cache the result
+		URI cached = cache.get(key);
+		if (cached != null) {
+			return cached;
 		}
-		List<Pattern> matches = new ArrayList<Pattern>();
-		for (Pattern p : mappings.keySet()) {
-			if (p.matcher(key).matches()) {
-				matches.add(p);
+		URI u = resolve(key, key.split("\\.", -1));
+		if (u != null) {
+			//Store it in our cache
+			cache.put(key, u);
+		}
+		return u;
+	}
+
+	/**
+	 * Given a full key, returns the connection that contains it, like
+	 * {@link #getConnection(String[])}, but without going through the cache. This
+	 * is meant for looking up a lot of keys at once, such as every key in a
+	 * namespace, which would otherwise push the keys that are actually in use
+	 * out of the cache.
+	 *
+	 * @param key
+	 * @return
+	 */
+	public URI lookupConnection(String[] key) {
+		return resolve(StringUtils.Join(key, "."), key);
+	}
+
+	/**
+	 * Returns true if {@link #getAllConnections(String)} is exact, that is, if a key in
+	 * the namespace is always mapped to one of the connections it returns. This isn't
+	 * the case if a filter has ** along with other characters in a single part, since
+	 * that can span several parts of the key.
+	 *
+	 * @return
+	 */
+	public boolean isNamespaceExact() {
+		return unsplittable.isEmpty();
+	}
+
+	private URI resolve(String key, String[] split) {
+		List<Filter> matches = new ArrayList<Filter>();
+		match(filters, split, 0, matches);
+		for (Filter f : unsplittable) {
+			if (f.pattern.matcher(key).matches() && !matches.contains(f)) {
+				matches.add(f);
 			}
 		}
 		//Ok, we have a list of the actual matches, we have to narrow it down to the closest
 		//match.
-		Pattern closest = null;
-		if (matches.isEmpty()) {
-			//Trivial case
-			return null;
-		} else if (matches.size() == 1) {
-			//Yay! Also a trivial case!            
-			closest = matches.get(0);
-		} else {
-			int lowest = Integer.MAX_VALUE;
-			for (Pattern p : matches) {
-				//The closest match is defined as a filter that, minus wild cards, matches more characters.
-				//So, for instance, if the key is a.b.c.d, then this matches a.*.c.d better than a.*.*.d
-				//The easiest way to detect this is to simply remove *() characters, and do a Levenshtein distance on the strings, and
-				//whichever one is lowest, is the closest.
-				String originalKey = original.get(p);
-				int dist = StringUtils.LevenshteinDistance(key, originalKey.replaceAll("\\*", "").replaceAll("[\\(\\)]", ""));
-				//TODO: Unfortunately, the properties file doesn't keep crap in order for us, so right now,
-				//if there is a tie, it is undefined what will happen. Instead of letting this happen
-				//without a warning, we want to issue a warning, though we will arbitrarily select one.
-				if (dist == lowest) {
-					CHLog.Log(CHLog.Tags.PERSISTANCE, "Two keys equally match for the key \"" + key
-						+ "\". Both " + original.get(closest) + " and " + original.get(p)
-						+ " match just as well. For the time being, this is an undefined result, but"
-						+ " for this time, " + original.get(closest) + " is being selected.", Target.UNKNOWN);
-				}
-				if (dist < lowest) {
-					closest = p;
-					lowest = dist;
-				}
+		Filter closest = null;
+		for (Filter f : matches) {
+			if (closest == null) {
+				closest = f;
+				continue;
+			}
+			int c = f.compareTo(closest);
+			if (c == 0) {
+				//We can't tell them apart, so to at least be consistent, pick the first in alphabetical order,
+				//but since this probably isn't what was intended, issue a warning.
+				Filter first = f.key.compareTo(closest.key) < 0 ? f : closest;
+				CHLog.Log(CHLog.Tags.PERSISTANCE, "Two keys equally match for the key \"" + key
+					+ "\". Both " + closest.key + " and " + f.key
+					+ " match just as well. For the time being, this is an undefined result, but"
+					+ " for this time, " + first.key + " is being selected.", Target.UNKNOWN);
+				closest = first;
+			} else if (c > 0) {
+				closest = f;
 			}
 		}
+		if (closest == null) {
+			return null;
+		}
 
 		try {
-			if (closest == null) {
-				return null;
-			}
-			String uri = mappings.get(closest);
-			Matcher m = closest.matcher(key);
-			while (m.find()) {
-				//We need to replace the captures
-				for (int i = 1; i <= m.groupCount(); i++) {
-					uri = uri.replaceAll("\\$" + i, m.group(i));
-				}
+			List<String> captures = closest.captures(key, split);
+			String uri = closest.uri;
+			//Go backwards, so $1 doesn't replace the start of $10
+			for (int i = captures.size(); i >= 1; i--) {
+				uri = uri.replace("$" + i, captures.get(i - 1));
 			}
-			URI u = new URI(uri);
-			//Store it in our cache
-			cache.put(key, u);
-			return u;
+			return new URI(uri);
 		} catch (URISyntaxException ex) {
 			//We already verified that this won't happen, so yeah.
 			return null;
 		}
 	}
 
+	/**
+	 * Adds all the filters that match the rest of the key, starting at the given part,
+	 * from this node down, to the list.
+	 */
+	private static void match(Node node, String[] key, int i, List<Filter> matches) {
+		if (i == key.length) {
+			if (node.filter != null && !matches.contains(node.filter)) {
+				matches.add(node.filter);
+			}
+			return;
+		}
+		if (node.literals != null) {
+			Node child = node.literals.get(key[i]);
+			if (child != null) {
+				match(child, key, i + 1, matches);
+			}
+		}
+		if (node.patterns != null) {
+			for (Node child : node.patterns.values()) {
+				if (child.segment.type == DOUBLE_WILDCARD) {
+					//** takes up one or more parts
+					for (int j = i + 1; j <= key.length; j++) {
+						match(child, key, j, matches);
+					}
+				} else if (child.segment.pattern.matcher(key[i]).matches()) {
+					match(child, key, i + 1, matches);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns the cache of key to connection, so its hit, miss and eviction counts
+	 * can be inspected.
+	 *
+	 * @return
+	 */
+	public LRUCache<String, URI> getConnectionCache() {
+		return cache;
+	}
+
+	/**
+	 * Returns the cache of namespace to connections, so its hit, miss and eviction
+	 * counts can be inspected.
+	 *
+	 * @return
+	 */
+	public LRUCache<String, List<URI>> getNamespaceCache() {
+		return namespaceCache;
+	}
+
+	/**
+	 * A level in the filter tree.
+	 */
+	private static final class Node {
+
+		/**
+		 * The segment this node matches, or null for the root.
+		 */
+		private Segment segment;
+		/**
+		 * The filter that ends here, if any.
+		 */
+		private Filter filter;
+		/**
+		 * Children that match a single exact part, by that part.
+		 */
+		private Map<String, Node> literals;
+		/**
+		 * All the other children, by their part in the filter.
+		 */
+		private Map<String, Node> patterns;
+
+		private Node child(Segment segment) {
+			Map<String, Node> map;
+			if (segment.type == LITERAL && segment.pattern == null) {
+				if (literals == null) {
+					literals = new HashMap<String, Node>();
+				}
+				map = literals;
+			} else {
+				if (patterns == null) {
+					patterns = new HashMap<String, Node>();
+				}
+				map = patterns;
+			}
+			Node child = map.get(segment.text);
+			if (child == null) {
+				child = new Node();
+				child.segment = segment;
+				map.put(segment.text, child);
+			}
+			return child;
+		}
+	}
+
+	/**
+	 * One part of a filter.
+	 */
+	private final class Segment {
+
+		private final String text;
+		private final int type;
+		/**
+		 * The regex for this part, if it has wild cards or captures, otherwise null.
+		 */
+		private final Pattern pattern;
+		/**
+		 * For **, whether it is captured.
+		 */
+		private final boolean capture;
+
+		private Segment(String text) {
+			this.text = text;
+			if (text.equals("**") || text.equals("(**)")) {
+				type = DOUBLE_WILDCARD;
+				capture = text.startsWith("(");
+				pattern = null;
+				return;
+			}
+			capture = false;
+			String bare = text.replaceAll("[\\(\\)]", "");
+			if (!bare.contains("*")) {
+				type = LITERAL;
+			} else if (bare.replace("*", "").length() == 0) {
+				type = WILDCARD;
+			} else {
+				type = PATTERN;
+			}
+			if (text.contains("*") || text.contains("(")) {
+				pattern = Pattern.compile(toRegex(text) + "$");
+			} else {
+				pattern = null;
+			}
+		}
+	}
+
+	/**
+	 * A single filter from the configuration.
+	 */
+	private final class Filter implements Comparable<Filter> {
+
+		private final String key;
+		/**
+		 * The connection, which may contain capture usages.
+		 */
+		private final String uri;
+		/**
+		 * The regex for the whole filter.
+		 */
+		private final Pattern pattern;
+		/**
+		 * The parts of the filter, or null if it couldn't be split up.
+		 */
+		private final Segment[] segments;
+		private final int[] rank;
+		private final int literalCharacters;
+
+		private Filter(String key, String uri, Pattern pattern) {
+			this.key = key;
+			this.uri = uri;
+			this.pattern = pattern;
+			String[] parts = key.split("\\.", -1);
+			Segment[] segs = new Segment[parts.length];
+			rank = new int[parts.length];
+			for (int i = 0; i < parts.length; i++) {
+				if (parts[i].contains("**") && !parts[i].equals("**") && !parts[i].equals("(**)")) {
+					//Can't be split
+					segs = null;
+					rank[i] = DOUBLE_WILDCARD;
+					continue;
+				}
+				if (segs != null) {
+					segs[i] = new Segment(parts[i]);
+					rank[i] = segs[i].type;
+				} else {
+					rank[i] = new Segment(parts[i]).type;
+				}
+			}
+			this.segments = segs;
+			this.literalCharacters = key.replaceAll("[\\*\\(\\)\\.]", "").length();
+		}
+
+		/**
+		 * Returns a positive number if this filter is more specific than the other one,
+		 * a negative number if it's less specific, and 0 if there's no telling.
+		 */
+		public int compareTo(Filter o) {
+			for (int i = 0; i < Math.max(rank.length, o.rank.length); i++) {
+				int mine = i < rank.length ? rank[i] : -1;
+				int theirs = i < o.rank.length ? o.rank[i] : -1;
+				if (mine != theirs) {
+					return mine - theirs;
+				}
+			}
+			return literalCharacters - o.literalCharacters;
+		}
+
+		/**
+		 * Returns the values of the captures in this filter for this key, which
+		 * must match this filter.
+		 */
+		private List<String> captures(String key, String[] split) {
+			List<String> captures = new ArrayList<String>();
+			if (segments == null) {
+				Matcher m = pattern.matcher(key);
+				if (m.matches()) {
+					for (int i = 1; i <= m.groupCount(); i++) {
+						captures.add(m.group(i));
+					}
+				}
+			} else {
+				bind(0, split, 0, captures);
+			}
+			return captures;
+		}
+
+		/**
+		 * Matches the segments from s on against the key from i on, adding the captures
+		 * along the way. ** is lazy, so it takes up as few parts as it can.
+		 */
+		private boolean bind(int s, String[] split, int i, List<String> captures) {
+			if (s == segments.length) {
+				return i == split.length;
+			}
+			if (i == split.length) {
+				return false;
+			}
+			Segment seg = segments[s];
+			int mark = captures.size();
+			if (seg.type == DOUBLE_WILDCARD) {
+				for (int j = i + 1; j <= split.length; j++) {
+					if (seg.capture) {
+						captures.add(StringUtils.Join(Arrays.asList(split).subList(i, j), "."));
+					}
+					if (bind(s + 1, split, j, captures)) {
+						return true;
+					}
+					truncate(captures, mark);
+				}
+				return false;
+			}
+			if (seg.pattern != null) {
+				Matcher m = seg.pattern.matcher(split[i]);
+				if (!m.matches()) {
+					return false;
+				}
+				for (int g = 1; g <= m.groupCount(); g++) {
+					captures.add(m.group(g));
+				}
+			} else if (!seg.text.equals(split[i])) {
+				return false;
+			}
+			if (bind(s + 1, split, i + 1, captures)) {
+				return true;
+			}
+			truncate(captures, mark);
+			return false;
+		}
+
+		private void truncate(List<String> list, int size) {
+			while (list.size() > size) {
+				list.remove(list.size() - 1);
+			}
+		}
+	}
+
 	private boolean hasCapture(String connection) {
 		return connection.matches("\\$\\d+");
 	}
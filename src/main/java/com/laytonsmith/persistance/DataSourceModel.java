@@ -1,10 +1,9 @@
 package com.laytonsmith.persistance;
 
 import com.laytonsmith.PureUtilities.Pair;
-import com.laytonsmith.core.GenericTreeNode;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -17,21 +16,25 @@ import java.util.Map;
  * it may choose to not use this class. Note: Not all data sources
  * can store a key in both namespace.value and namespace.value.other, in that case,
  * to make namespace.value's actual value, it should be stored as namespace.value.~
+ * <p>
+ * Each level of the tree keeps its children in a hash map, so finding a key is one
+ * lookup per part of the key, no matter how many siblings it has. The children are
+ * kept in insertion order, so keySet returns the keys in the order they were added.
  * @author lsmith
  */
 public final class DataSourceModel {
-    private GenericTreeNode<Pair<String, String>> tree = new GenericTreeNode<Pair<String, String>>();   
-        
+    private final Node tree = new Node();
+
     public DataSourceModel(Map<String, Object> model){
         //We have to do a depth first traversal here to get all the keys
         if(model != null){
             build(model, tree);
         }
     }
-    
+
     /**
      * This constructor assumes that the key is fully specified in dot notation.
-     * @param list 
+     * @param list
      */
     public DataSourceModel(List<Pair<String, String>> list){
         for(Pair<String, String> pair : list){
@@ -39,145 +42,157 @@ public final class DataSourceModel {
             set(key, pair.getValue());
         }
     }
-    
-    private void build(Object node, GenericTreeNode<Pair<String, String>> treeNode){
+
+    private void build(Object node, Node treeNode){
         if(node instanceof Map){
             //We need to iterate through all the keys, creating children as we go
-            for(String key : ((Map<String, Object>)node).keySet()){
-                if(key.equals("_")){
+            for(Map.Entry<String, Object> entry : ((Map<String, Object>)node).entrySet()){
+                if(entry.getKey().equals("_")){
                     //Special case, this is a reserved key
-                    build(((Map<String, Object>)node).get(key), treeNode);
+                    build(entry.getValue(), treeNode);
                 } else {
-                    GenericTreeNode<Pair<String, String>> newNode = 
-                            new GenericTreeNode<Pair<String, String>>(new Pair<String, String>(key, null));
-                    treeNode.addChild(newNode);
-                    build(((Map<String, Object>)node).get(key), newNode);
+                    build(entry.getValue(), treeNode.addChild(entry.getKey()));
                 }
             }
         } else {
             //This is the node we want to put the data in
-            treeNode.data.setValue(node.toString());
+            treeNode.value = node.toString();
         }
     }
-    
+
     public Map<String, Object> toMap(){
         Map<String, Object> map = new HashMap<String, Object>();
-        for(GenericTreeNode<Pair<String, String>> child : tree.getChildren()){
-            decompose(map, child);
+        if(tree.hasChildren()){
+            for(Map.Entry<String, Node> child : tree.children.entrySet()){
+                decompose(map, child.getKey(), child.getValue());
+            }
         }
         return map;
     }
-    
+
     public List<Pair<String[], String>> toList(){
         List<Pair<String[], String>> list = new ArrayList<Pair<String[], String>>();
         //TODO
         return list;
     }
-    
-    private void decompose(Map<String, Object> node, GenericTreeNode<Pair<String, String>> treeNode){
+
+    private void decompose(Map<String, Object> node, String key, Node treeNode){
         if(treeNode.hasChildren()){
-            //If it's not a leaf node, we need to add a new child to the map. 
+            //If it's not a leaf node, we need to add a new child to the map.
             //However, if the data isn't null, we need to add the data now as a _ key
             Map<String, Object> map = new HashMap<String, Object>();
-            if(treeNode.getData().getValue() != null){
-                map.put("_", treeNode.getData().getValue());
+            if(treeNode.value != null){
+                map.put("_", treeNode.value);
             }
-            node.put(treeNode.getData().getKey(), map);
-            for(GenericTreeNode<Pair<String, String>> child : treeNode.getChildren()){
-                decompose(map, child);
+            node.put(key, map);
+            for(Map.Entry<String, Node> child : treeNode.children.entrySet()){
+                decompose(map, child.getKey(), child.getValue());
             }
         } else {
             //It's a leaf node, so we just put the data in the map and call it a day
-            node.put(treeNode.getData().getKey(), treeNode.getData().getValue());
+            node.put(key, treeNode.value);
         }
     }
-    
+
     public String get(String [] key){
-        return getValue(new ArrayList<String>(Arrays.asList(key)), tree);
+        Node node = tree;
+        for(int i = 0; i < key.length; i++){
+            node = node.getChild(key[i]);
+            if(node == null){
+                return null;
+            }
+        }
+        return node.value;
     }
-    
+
     public void set(String [] key, String value){
-        setValue(new ArrayList<String>(Arrays.asList(key)), tree, value);
-    }
-    
-    public void clearKey(String [] key){
-	    set(key, null);
-    }
-    
-    private String getValue(List<String> keys, GenericTreeNode<Pair<String, String>> treeNode){
-        String value = null;
-        if(!keys.isEmpty()){
-            String key = keys.get(0);
-            keys.remove(0);
-            for(GenericTreeNode<Pair<String, String>> child : treeNode.getChildren()){
-                if(child.getData().getKey().equals(key)){
-                    return getValue(keys, child);
-                }
+        Node node = tree;
+        int last = key.length - 1;
+        for(int i = 0; i < last; i++){
+            Node child = node.getChild(key[i]);
+            if(child == null){
+                //Note that this happens even if value is null, so clearing a key that
+                //doesn't exist leaves its parents behind, as empty keys.
+                child = node.addChild(key[i]);
             }
-        } else {
-            value = treeNode.getData().getValue();
+            node = child;
         }
-        return value;
-    }
-    
-    private void setValue(List<String> keys, GenericTreeNode<Pair<String, String>> treeNode, String value){
-        if(keys.isEmpty()){
-            treeNode.getData().setValue(value);
+        if(last < 0){
+            node.value = value;
+        } else if(value == null){
+            //We need to remove this node.
+            node.removeChild(key[last]);
         } else {
-            GenericTreeNode<Pair<String, String>> found = null;
-            String key = keys.get(0);
-            keys.remove(0);
-            for(GenericTreeNode<Pair<String, String>> child : treeNode.getChildren()){
-                if(child.getData().getKey().equals(key)){
-                    found = child;
-                    break;
-                }
-            }
-            if(found == null){
-                found = new GenericTreeNode<Pair<String, String>>(new Pair<String, String>(key, null));
-                treeNode.addChild(found);
+            Node child = node.getChild(key[last]);
+            if(child == null){
+                child = node.addChild(key[last]);
             }
-	    if(value == null){
-		    if(keys.isEmpty()){
-			    //We need to remove this node.
-			    for(int i = 0; i < treeNode.getNumberOfChildren(); i++){
-				    GenericTreeNode<Pair<String, String>> node = treeNode.getChildAt(i);
-				    if(node.getData().getKey().equals(key)){
-					    treeNode.removeChildAt(i);
-					    break;
-				    }
-			    }
-			    return;
-		    }
-	    }
-            setValue(keys, found, value);
+            child.value = value;
         }
     }
 
+    public void clearKey(String [] key){
+	    set(key, null);
+    }
+
     public List<String[]> keySet() {
         List<String[]> keys = new ArrayList<String[]>();
-        for(GenericTreeNode child : tree.getChildren()){
-            traverse(child, new ArrayList<String>(), keys);
+        if(tree.hasChildren()){
+            List<String> ongoingKey = new ArrayList<String>();
+            for(Map.Entry<String, Node> child : tree.children.entrySet()){
+                traverse(child.getKey(), child.getValue(), ongoingKey, keys);
+            }
         }
         return keys;
     }
-    
-    private void traverse(GenericTreeNode<Pair<String, String>> treeNode, List<String> ongoingKey, List<String[]> keys){        
+
+    private void traverse(String key, Node treeNode, List<String> ongoingKey, List<String[]> keys){
+        ongoingKey.add(key);
         if(treeNode.hasChildren()){
-            ongoingKey.add(treeNode.getData().getKey());
-            if(treeNode.getData().getValue() != null){
+            if(treeNode.value != null){
                 //Data and children
                 keys.add(ongoingKey.toArray(new String[ongoingKey.size()]));
             }
-            for(GenericTreeNode<Pair<String, String>> child : treeNode.getChildren()){
+            for(Map.Entry<String, Node> child : treeNode.children.entrySet()){
                 //recurse down now
-                traverse(child, ongoingKey, keys);
+                traverse(child.getKey(), child.getValue(), ongoingKey, keys);
             }
         } else {
-            //This is it, we're done here, so we can put the key in the list now, then pop off the last element in the ongoingKey
-            ongoingKey.add(treeNode.getData().getKey());
+            //This is it, we're done here, so we can put the key in the list now
             keys.add(ongoingKey.toArray(new String[ongoingKey.size()]));
-            ongoingKey.remove(ongoingKey.size() - 1);
+        }
+        ongoingKey.remove(ongoingKey.size() - 1);
+    }
+
+    /**
+     * A single level in the model. The children map is only created once the node
+     * has a child, since most nodes are leaves.
+     */
+    private static final class Node {
+        private String value;
+        private LinkedHashMap<String, Node> children;
+
+        private boolean hasChildren(){
+            return children != null && !children.isEmpty();
+        }
+
+        private Node getChild(String key){
+            return children == null ? null : children.get(key);
+        }
+
+        private Node addChild(String key){
+            if(children == null){
+                children = new LinkedHashMap<String, Node>();
+            }
+            Node child = new Node();
+            children.put(key, child);
+            return child;
+        }
+
+        private void removeChild(String key){
+            if(children != null){
+                children.remove(key);
+            }
         }
     }
 }
@@ -6,11 +6,16 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.net.URI;
-import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
  * A persistance network is a group of data sources that can act transparently
@@ -21,13 +26,26 @@ import java.util.TreeMap;
  * network are setting values, getting values, and getting multiple values at once, based on a
  * namespace match. All other aspects of how the data is stored and retrieved are abstracted,
  * so you needn't worry about any of those details.
+ * <p>
+ * A network is safe to use from multiple threads. Each data source has its own
+ * read/write lock, so a slow data source (one over ssh, for instance) only holds up
+ * the keys that are stored in it. Data sources are created the first time they are
+ * needed, and if several threads need the same one at once, only one of them creates it,
+ * and the others wait for it.
  * @author lsmith
  */
 public class PersistanceNetwork {
     
-    private DataSourceFilter filter;
-    private Map<URI, DataSource> dsCache;
-    private ConnectionMixinFactory.ConnectionMixinOptions options;
+    /**
+     * The name of the setting in the configuration that overrides the
+     * write behind interval in the options, in ms. For instance,
+     * {@code @writebehind.interval=10000}.
+     */
+    public static final String WRITE_BEHIND_INTERVAL = "writebehind.interval";
+    
+    private final DataSourceFilter filter;
+    private final ConcurrentMap<URI, FutureTask<Connection>> dsCache;
+    private final ConnectionMixinFactory.ConnectionMixinOptions options;
     /**
      * Given a configuration and a default URI, constructs a new
      * persistance network. The defaultURI is used in the event that the
@@ -43,28 +61,71 @@ public class PersistanceNetwork {
      * Given a configuration and a default URI, constructs a new
      * persistance network. The defaultURI is used in the event that the
      * configuration does not specify a "**" key, to ensure that all keys
-     * will be matched.
+     * will be matched. Settings in the configuration, such as
+     * {@link #WRITE_BEHIND_INTERVAL}, take precedence over the options.
      * @param configuration 
      * @param defaultURI 
      */
     public PersistanceNetwork(String configuration, URI defaultURI, ConnectionMixinFactory.ConnectionMixinOptions options) throws DataSourceException{
         filter = new DataSourceFilter(configuration, defaultURI);
-        dsCache = new TreeMap<URI, DataSource>();
-	this.options = options;
+        dsCache = new ConcurrentHashMap<URI, FutureTask<Connection>>();
+        String interval = filter.getSetting(WRITE_BEHIND_INTERVAL);
+        if(interval != null){
+            //Don't change the caller's options
+            options = new ConnectionMixinFactory.ConnectionMixinOptions(options);
+            try{
+                options.setWriteBehindInterval(Long.parseLong(interval));
+            } catch(NumberFormatException e){
+                throw new DataSourceException("@" + WRITE_BEHIND_INTERVAL + " must be a number of ms, but was " + interval);
+            }
+        }
+        this.options = options;
         //Data sources are lazily loaded, so we don't need to do anything right now to load them.
     }
     
     /**
-     * Returns the data source object for this URI.
+     * Returns the data source object for this URI, creating it if this is the first
+     * time it is used.
      * @param uri
      * @return
      * @throws DataSourceException 
      */
-    private DataSource getDataSource(URI uri) throws DataSourceException{        
-        if(!dsCache.containsKey(uri)){
-            dsCache.put(uri, DataSourceFactory.GetDataSource(uri, options));
+    private Connection getDataSource(final URI uri) throws DataSourceException{
+        FutureTask<Connection> future = dsCache.get(uri);
+        if(future == null){
+            FutureTask<Connection> task = new FutureTask<Connection>(new Callable<Connection>() {
+
+                public Connection call() throws Exception {
+                    return new Connection(DataSourceFactory.GetDataSource(uri, options));
+                }
+            });
+            future = dsCache.putIfAbsent(uri, task);
+            if(future == null){
+                //We won, so we create it. Anyone else asking for it in the meantime waits below.
+                future = task;
+                task.run();
+            }
+        }
+        return await(uri, future);
+    }
+    
+    /**
+     * Waits for the data source to finish loading, and returns it.
+     */
+    private Connection await(URI uri, FutureTask<Connection> future) throws DataSourceException{
+        try{
+            return future.get();
+        } catch(InterruptedException ex){
+            Thread.currentThread().interrupt();
+            throw new DataSourceException("Interrupted while waiting for " + uri + " to be loaded", ex);
+        } catch(ExecutionException ex){
+            //Don't cache the failure, so the next call tries again
+            dsCache.remove(uri, future);
+            if(ex.getCause() instanceof DataSourceException){
+                throw (DataSourceException)ex.getCause();
+            }
+            throw new DataSourceException("Could not load " + uri, ex.getCause());
         }
-        return dsCache.get(uri);
     }
     
     /**
@@ -73,9 +134,14 @@ public class PersistanceNetwork {
      * @return
      * @throws DataSourceException 
      */
-    public synchronized String get(String [] key) throws DataSourceException{        
-        DataSource ds = getDataSource(filter.getConnection(key));
-        return ds.get(key, false);
+    public String get(String [] key) throws DataSourceException{        
+        Connection c = getDataSource(filter.getConnection(key));
+        c.lockRead();
+        try{
+            return c.ds.get(key, false);
+        } finally {
+            c.unlockRead();
+        }
     }
     
     /**
@@ -88,9 +154,14 @@ public class PersistanceNetwork {
      * @throws ReadOnlyException
      * @throws IOException 
      */
-    public synchronized boolean set(String [] key, String value) throws DataSourceException, ReadOnlyException, IOException{
-        DataSource ds = getDataSource(filter.getConnection(key));
-        return ds.set(key, value);
+    public boolean set(String [] key, String value) throws DataSourceException, ReadOnlyException, IOException{
+        Connection c = getDataSource(filter.getConnection(key));
+        c.lockWrite();
+        try{
+            return c.ds.set(key, value);
+        } finally {
+            c.unlockWrite();
+        }
     }
     
     /**
@@ -100,9 +171,14 @@ public class PersistanceNetwork {
      * @return
      * @throws DataSourceException 
      */
-    public synchronized boolean hasKey(String[] key) throws DataSourceException{
-	    DataSource ds = getDataSource(filter.getConnection(key));
-	    return ds.hasKey(key);
+    public boolean hasKey(String[] key) throws DataSourceException{
+        Connection c = getDataSource(filter.getConnection(key));
+        c.lockRead();
+        try{
+            return c.ds.hasKey(key);
+        } finally {
+            c.unlockRead();
+        }
     }
     
     /**
@@ -111,9 +187,46 @@ public class PersistanceNetwork {
      * @return
      * @throws DataSourceException 
      */
-    public synchronized void clearKey(String[] key) throws DataSourceException, ReadOnlyException, IOException{
-	    DataSource ds = getDataSource(filter.getConnection(key));
-	    ds.clearKey(key);
+    public void clearKey(String[] key) throws DataSourceException, ReadOnlyException, IOException{
+        Connection c = getDataSource(filter.getConnection(key));
+        c.lockWrite();
+        try{
+            c.ds.clearKey(key);
+        } finally {
+            c.unlockWrite();
+        }
+    }
+    
+    /**
+     * Disconnects all the data sources that have been used so far, which writes
+     * out any changes that are still pending, such as for writebehind connections.
+     * This should be called when the network is no longer going to be used,
+     * although pending writebehind changes are also written out when the plugin
+     * is disabled, or the JVM exits (see {@link AbstractDataSource#FlushWriteBehind()}). If
+     * any of the data sources fail, the rest are still disconnected, and the first
+     * exception is thrown.
+     * @throws DataSourceException 
+     */
+    public void disconnect() throws DataSourceException{
+        DataSourceException first = null;
+        for(Map.Entry<URI, FutureTask<Connection>> entry : dsCache.entrySet()){
+            try{
+                Connection c = await(entry.getKey(), entry.getValue());
+                c.lockWrite();
+                try{
+                    c.ds.disconnect();
+                } finally {
+                    c.unlockWrite();
+                }
+            } catch(DataSourceException e){
+                if(first == null){
+                    first = e;
+                }
+            }
+        }
+        if(first != null){
+            throw first;
+        }
     }
     
     /**
@@ -122,21 +235,79 @@ public class PersistanceNetwork {
      * @param namespace
      * @return 
      */
-    public synchronized Map<String[], String> getNamespace(String [] namespace) throws DataSourceException, UnresolvedCaptureException{
+    public Map<String[], String> getNamespace(String [] namespace) throws DataSourceException, UnresolvedCaptureException{
         List<URI> uris = filter.getAllConnections(namespace);
-        //First we have to get the namespaces. We can get a list of all the connections
-        //we need to search, then grab all the data in them, but then we need to use
-        //just a plain get() to grab the data, based on each key, because we don't
-        //want to accidentally grab a "hidden" value in another data source.
-        List<String[]> keysToGrab = new ArrayList<String[]>();
-        for(URI uri : uris){
-            keysToGrab.addAll(getDataSource(uri).getNamespace(namespace));
-        }
-        //Ok, now the keys to grab are all populated, so let's walk through them and build our map
+        //We get the whole namespace from each of the connections we need to search,
+        //but a data source may have keys that are actually mapped to another data
+        //source (if the filters were changed, for instance). Those are "hidden", so
+        //we only keep the values from the data source the key is really mapped to.
         Map<String[], String> map = new HashMap<String[], String>();
-        for(String[] key : keysToGrab){
-            map.put(key, get(key));
+        for(URI uri : uris){
+            Connection c = getDataSource(uri);
+            Map<String[], String> values;
+            c.lockRead();
+            try{
+                values = c.ds.getValues(namespace);
+            } finally {
+                c.unlockRead();
+            }
+            if(uris.size() == 1 && filter.isNamespaceExact()){
+                //Every key in the namespace maps to this data source, so none of them can be hidden
+                map.putAll(values);
+                continue;
+            }
+            for(Map.Entry<String[], String> entry : values.entrySet()){
+                if(uri.equals(filter.lookupConnection(entry.getKey()))){
+                    map.put(entry.getKey(), entry.getValue());
+                }
+            }
         }
         return map;
     }
+    
+    /**
+     * A data source, along with the lock that guards it.
+     */
+    private static final class Connection {
+        private final DataSource ds;
+        /**
+         * Read only data sources are never written to, so they don't need a lock,
+         * and this is null.
+         */
+        private final ReadWriteLock lock;
+        
+        private Connection(DataSource ds){
+            this.ds = ds;
+            List<DataSource.DataSourceModifier> modifiers = ds.getModifiers();
+            if(modifiers.contains(DataSource.DataSourceModifier.READONLY)){
+                lock = null;
+            } else {
+                lock = new ReentrantReadWriteLock();
+            }
+        }
+        
+        private void lockRead(){
+            if(lock != null){
+                lock.readLock().lock();
+            }
+        }
+        
+        private void unlockRead(){
+            if(lock != null){
+                lock.readLock().unlock();
+            }
+        }
+        
+        private void lockWrite(){
+            if(lock != null){
+                lock.writeLock().lock();
+            }
+        }
+        
+        private void unlockWrite(){
+            if(lock != null){
+                lock.writeLock().unlock();
+            }
+        }
+    }
 }
@@ -1,35 +1,287 @@
 package com.laytonsmith.persistance;
 
+import com.laytonsmith.PureUtilities.StringUtils;
+import com.laytonsmith.annotations.datasource;
 import com.laytonsmith.core.CHVersion;
 import com.laytonsmith.persistance.io.ConnectionMixinFactory;
+import java.io.File;
 import java.io.IOException;
 import java.net.URI;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 /**
+ * Stores the data in a single key/value table in a SQLite database. The keys are
+ * stored in dot notation, and are the primary key of the table, so a namespace
+ * lookup is a range scan over the index, instead of a scan over all the keys.
+ * The connection is opened once, and the statements are prepared once, when the
+ * data source is populated. The database is put in WAL mode, so commits don't
+ * need to rewrite the database file.
+ * <p>
+ * Normally every change is committed right away, but with the writebehind modifier,
+ * changes are made in an open transaction, which is committed once the write behind
+ * interval has passed, or once {@link #BATCH_SIZE} changes are pending. The same
+ * connection is used for reads, so reads always see the pending changes.
  *
  * @author lsmith
  */
-//@datasource("sqlite")
+@datasource("sqlite")
 public class SQLiteDataSource extends AbstractDataSource{
+	/**
+	 * With writebehind, a transaction is committed early once this many changes are pending.
+	 */
+	public static final int BATCH_SIZE = 10000;
+	private static final String TABLE = "persistance";
+
+	private final File file;
+	private Connection connection;
+	private PreparedStatement getStatement;
+	private PreparedStatement setStatement;
+	private PreparedStatement deleteStatement;
+	private PreparedStatement keysStatement;
+	private PreparedStatement namespaceStatement;
+	private PreparedStatement valuesStatement;
+	/**
+	 * The number of changes in the open transaction.
+	 */
+	private int pending = 0;
+
 	public SQLiteDataSource(URI uri, ConnectionMixinFactory.ConnectionMixinOptions options) throws DataSourceException{
 		super(uri, options);
+		file = new File(options.getWorkingDirectory(), (uri.getHost() == null ? "" : uri.getHost()) + uri.getPath());
+	}
+
+	/**
+	 * Opens the connection and prepares the statements, if that hasn't been done yet.
+	 * @throws DataSourceException
+	 */
+	private void connect() throws DataSourceException {
+		if(connection != null){
+			return;
+		}
+		try {
+			Class.forName("org.sqlite.JDBC");
+		} catch (ClassNotFoundException ex) {
+			throw new DataSourceException("The SQLite driver is not available", ex);
+		}
+		try {
+			if(file.getParentFile() != null){
+				file.getParentFile().mkdirs();
+			}
+			connection = DriverManager.getConnection("jdbc:sqlite:" + file.getAbsolutePath());
+			Statement s = connection.createStatement();
+			try {
+				s.execute("PRAGMA journal_mode=WAL");
+				//With WAL, this is still safe against corruption, only the last commits
+				//may be lost if the whole system (not just the server) crashes.
+				s.execute("PRAGMA synchronous=NORMAL");
+				if(!hasModifier(DataSourceModifier.READONLY)){
+					s.execute("CREATE TABLE IF NOT EXISTS " + TABLE + " (key TEXT PRIMARY KEY NOT NULL, value TEXT NOT NULL)");
+				}
+			} finally {
+				s.close();
+			}
+			getStatement = connection.prepareStatement("SELECT value FROM " + TABLE + " WHERE key=?");
+			setStatement = connection.prepareStatement("INSERT OR REPLACE INTO " + TABLE + " (key, value) VALUES (?, ?)");
+			deleteStatement = connection.prepareStatement("DELETE FROM " + TABLE + " WHERE key=?");
+			keysStatement = connection.prepareStatement("SELECT key FROM " + TABLE);
+			//'/' is the character after '.', so this is every key that starts with "namespace."
+			namespaceStatement = connection.prepareStatement("SELECT key FROM " + TABLE + " WHERE key=? OR (key>=? AND key<?)");
+			valuesStatement = connection.prepareStatement("SELECT key, value FROM " + TABLE + " WHERE key=? OR (key>=? AND key<?)");
+		} catch (SQLException ex) {
+			close();
+			throw new DataSourceException("Could not open " + file, ex);
+		}
+	}
+
+	public synchronized List<String[]> keySet() {
+		List<String[]> list = new ArrayList<String[]>();
+		for(String key : stringKeySet()){
+			list.add(key.split("\\."));
+		}
+		return list;
+	}
+
+	@Override
+	public synchronized List<String> stringKeySet() {
+		List<String> list = new ArrayList<String>();
+		try {
+			connect();
+			ResultSet rs = keysStatement.executeQuery();
+			try {
+				while(rs.next()){
+					list.add(rs.getString(1));
+				}
+			} finally {
+				rs.close();
+			}
+		} catch (SQLException ex) {
+			Logger.getLogger(SQLiteDataSource.class.getName()).log(Level.SEVERE, null, ex);
+		} catch (DataSourceException ex) {
+			Logger.getLogger(SQLiteDataSource.class.getName()).log(Level.SEVERE, null, ex);
+		}
+		return list;
+	}
+
+	@Override
+	public synchronized List<String[]> getNamespace(String[] namespace) throws DataSourceException {
+		connect();
+		String ns = StringUtils.Join(namespace, ".");
+		List<String[]> list = new ArrayList<String[]>();
+		try {
+			namespaceStatement.setString(1, ns);
+			namespaceStatement.setString(2, ns + ".");
+			namespaceStatement.setString(3, ns + "/");
+			ResultSet rs = namespaceStatement.executeQuery();
+			try {
+				while(rs.next()){
+					list.add(rs.getString(1).split("\\."));
+				}
+			} finally {
+				rs.close();
+			}
+		} catch (SQLException ex) {
+			throw new DataSourceException("Could not read from " + file, ex);
+		}
+		return list;
 	}
 
-	public List<String[]> keySet() {
-		throw new UnsupportedOperationException("Not supported yet.");
+	@Override
+	public synchronized Map<String[], String> getValues(String[] namespace) throws DataSourceException {
+		connect();
+		String ns = StringUtils.Join(namespace, ".");
+		Map<String[], String> map = new HashMap<String[], String>();
+		try {
+			valuesStatement.setString(1, ns);
+			valuesStatement.setString(2, ns + ".");
+			valuesStatement.setString(3, ns + "/");
+			ResultSet rs = valuesStatement.executeQuery();
+			try {
+				while(rs.next()){
+					map.put(rs.getString(1).split("\\."), rs.getString(2));
+				}
+			} finally {
+				rs.close();
+			}
+		} catch (SQLException ex) {
+			throw new DataSourceException("Could not read from " + file, ex);
+		}
+		return map;
 	}
 
-	public String get(String[] key, boolean bypassTransient) throws DataSourceException {
-		throw new UnsupportedOperationException("Not supported yet.");
+	public synchronized String get(String[] key, boolean bypassTransient) throws DataSourceException {
+		connect();
+		try {
+			getStatement.setString(1, StringUtils.Join(key, "."));
+			ResultSet rs = getStatement.executeQuery();
+			try {
+				if(rs.next()){
+					return rs.getString(1);
+				} else {
+					return null;
+				}
+			} finally {
+				rs.close();
+			}
+		} catch (SQLException ex) {
+			throw new DataSourceException("Could not read from " + file, ex);
+		}
 	}
 
-	public boolean set(String[] key, String value) throws ReadOnlyException, DataSourceException, IOException {
-		throw new UnsupportedOperationException("Not supported yet.");
+	public synchronized boolean set(String[] key, String value) throws ReadOnlyException, DataSourceException, IOException {
+		checkSet();
+		connect();
+		String old = get(key, true);
+		if((old == null && value == null) || (old != null && old.equals(value))){
+			return false;
+		}
+		String k = StringUtils.Join(key, ".");
+		try {
+			if(pending == 0 && hasModifier(DataSourceModifier.WRITEBEHIND)){
+				//Start a new batch
+				connection.setAutoCommit(false);
+				scheduleWriteBehind(new Runnable() {
+
+					public void run() {
+						try {
+							commit();
+						} catch (DataSourceException ex) {
+							Logger.getLogger(SQLiteDataSource.class.getName()).log(Level.SEVERE, null, ex);
+						}
+					}
+				});
+			}
+			if(value == null){
+				deleteStatement.setString(1, k);
+				deleteStatement.executeUpdate();
+			} else {
+				setStatement.setString(1, k);
+				setStatement.setString(2, value);
+				setStatement.executeUpdate();
+			}
+			if(hasModifier(DataSourceModifier.WRITEBEHIND)){
+				pending++;
+				if(pending >= BATCH_SIZE){
+					commit();
+				}
+			}
+		} catch (SQLException ex) {
+			throw new DataSourceException("Could not write to " + file, ex);
+		}
+		return true;
 	}
 
-	public void populate() throws DataSourceException {
-		throw new UnsupportedOperationException("Not supported yet.");
+	/**
+	 * Commits the open transaction, if there is one.
+	 * @throws DataSourceException
+	 */
+	private synchronized void commit() throws DataSourceException {
+		if(pending == 0 || connection == null){
+			return;
+		}
+		try {
+			connection.commit();
+			connection.setAutoCommit(true);
+			pending = 0;
+		} catch (SQLException ex) {
+			throw new DataSourceException("Could not write to " + file, ex);
+		}
+	}
+
+	public synchronized void populate() throws DataSourceException {
+		//The data isn't cached, so all we need is the connection
+		connect();
+	}
+
+	@Override
+	public synchronized void disconnect() throws DataSourceException {
+		try {
+			commit();
+		} finally {
+			close();
+		}
+	}
+
+	private void close() {
+		if(connection != null){
+			try {
+				connection.close();
+			} catch (SQLException ex) {
+				Logger.getLogger(SQLiteDataSource.class.getName()).log(Level.SEVERE, null, ex);
+			}
+		}
+		connection = null;
+		pending = 0;
 	}
 
 	public DataSourceModifier[] implicitModifiers() {
@@ -37,15 +289,21 @@ public class SQLiteDataSource extends AbstractDataSource{
 	}
 
 	public DataSourceModifier[] invalidModifiers() {
-		return null;
+		//The data is never cached, so transient is implied
+		return new DataSourceModifier[]{DataSourceModifier.HTTP, DataSourceModifier.HTTPS, DataSourceModifier.SSH,
+			DataSourceModifier.PRETTYPRINT, DataSourceModifier.TRANSIENT};
 	}
 
 	public String docs() {
-		return "SQLite {sqlite:// TODO} This type store data in a SQLite database."
-			+ " All the pros and cons of MySQL apply here.";
+		return "SQLite {sqlite:///path/to/database.db} This type stores data in a SQLite database,"
+			+ " in a single key/value table named " + TABLE + ". Unlike the other file based"
+			+ " data sources, the data isn't loaded into memory, and changes don't require"
+			+ " rewriting the whole file, so this scales to a large number of keys. Namespace"
+			+ " lookups use the index on the keys, so they are efficient as well. With the"
+			+ " writebehind modifier, changes are committed in batches.";
 	}
 
 	public CHVersion since() {
-		return CHVersion.V0_0_0;
+		return CHVersion.V3_3_1;
 	}
 }
@@ -10,11 +10,24 @@ import java.net.URI;
 import java.util.*;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.zip.CRC32;
 
 /**
  * This file allows for simple data storage across many different data sources.
  * In general, the most common methods used are getValue and setValue. Note that
- * getValue, setValue, save, and load are synchronized.
+ * getValue, setValue, save, and load are thread safe. The snapshot is never written
+ * while holding the lock on this object.
+ * <p>
+ * Rewriting the whole map on every change gets very slow once the database is large,
+ * so changes are instead appended to a journal file next to the database (the same
+ * name, with .journal appended), and the database itself (the snapshot) is only
+ * rewritten once the journal has grown larger than the snapshot. That compaction
+ * happens on a background thread: the journal is first renamed to .compacting, so new
+ * changes go to a fresh journal while the snapshot is being written. The .compacting file
+ * is only removed once the new snapshot has been synced to disk. When loading,
+ * the snapshot, then the .compacting file, then the journal are read in, and a partially
+ * written record at the end of a journal (from a crash while writing) is discarded. If the
+ * snapshot can't be read, it is set aside, and the journals are still replayed.
  *
  * @author layton
  */
@@ -27,6 +40,13 @@ public class SerializedPersistance extends AbstractDataSource implements Persist
      * this ever, or it will break all current serialized databases.
      */
     private HashMap<String, String> data = new HashMap<String, String>();
+    /**
+     * All the keys in data, sorted, along with the key split into its parts. Since a
+     * namespace a.b is exactly the keys from "a.b." up to (not including) "a.b/", namespace
+     * lookups are a range query, and keys are only split once. This is built when first
+     * needed, and thrown away whenever data may have been changed behind our back.
+     */
+    private TreeMap<String, String[]> index = null;
     private boolean isLoaded = false;
     private boolean finishedInitializing = false;
     /**
@@ -34,24 +54,86 @@ public class SerializedPersistance extends AbstractDataSource implements Persist
      */
     private File storageLocation;
 
+    private static final byte RECORD_REMOVE = 0;
+    private static final byte RECORD_SET = 1;
+    /**
+     * The journal is never compacted before it reaches this size, no matter how
+     * small the snapshot is.
+     */
+    private static final long MIN_COMPACTION_SIZE = 1024 * 1024;
+
+    private File journalLocation;
+    private File compactingLocation;
+    private File tempLocation;
+    /**
+     * The open journal, or null if it hasn't been opened yet.
+     */
+    private OutputStream journal = null;
+    private long journalSize = 0;
+    private long snapshotSize = 0;
+    private long compactionThreshold = MIN_COMPACTION_SIZE;
+    private boolean journaled = true;
+    /**
+     * The number of records that were thrown away while loading, because they were
+     * incomplete or corrupt.
+     */
+    private int discardedRecords = 0;
+    /**
+     * Only one compaction can write the snapshot at a time. This is always acquired
+     * before the lock on this object, never after.
+     */
+    private final Object compactionLock = new Object();
+    private Thread compactionThread = null;
+
     public SerializedPersistance(File database) throws DataSourceException {
         super(database.toURI(), new ConnectionMixinFactory.ConnectionMixinOptions());
-        storageLocation = database;
+        setStorageLocation(database);
     }
     
     public SerializedPersistance(URI uri, ConnectionMixinFactory.ConnectionMixinOptions options) throws DataSourceException{
         super(uri, options);
         String file = (uri.getHost() == null ? "" : uri.getHost()) + uri.getPath();
-        storageLocation = new File(file);
+        setStorageLocation(new File(file));
         finishedInitializing = true;
     }
 
+    private void setStorageLocation(File database) {
+        storageLocation = database;
+        journalLocation = new File(database.getPath() + ".journal");
+        compactingLocation = new File(database.getPath() + ".compacting");
+        tempLocation = new File(database.getPath() + ".tmp");
+    }
+
+    /**
+     * If false, every change rewrites the whole database, and no journal is kept.
+     * This is true by default.
+     *
+     * @param journaled
+     */
+    public synchronized void setJournaled(boolean journaled) {
+        this.journaled = journaled;
+    }
+
+    /**
+     * Sets the smallest size in bytes the journal has to reach before it is compacted
+     * into the snapshot. The journal is also allowed to grow as large as the snapshot
+     * before it is compacted, so that compaction takes about as long as writing the
+     * journal did.
+     *
+     * @param bytes
+     */
+    public synchronized void setCompactionThreshold(long bytes) {
+        this.compactionThreshold = bytes;
+    }
+
     /**
      * Unless you're the data manager, don't use this method.
      *
      * @return
      */
-    public Map<String, String> rawData() {
+    public synchronized Map<String, String> rawData() {
+        //The caller may change it
+        index = null;
         return data;
     }
 
@@ -60,8 +142,11 @@ public class SerializedPersistance extends AbstractDataSource implements Persist
      * the entire database, don't use this method. You must manually call save
      * after this, if you wish the changes to be written out to disk.
      */
-    public void clearAllData() {
+    public synchronized void clearAllData() {
         data = new HashMap<String, String>();
+        index = null;
+        //Don't let a later load bring the old data back
+        isLoaded = true;
     }
 
     /**
@@ -71,77 +156,418 @@ public class SerializedPersistance extends AbstractDataSource implements Persist
      * @throws Exception
      */
     public synchronized void load() throws Exception {
-        try {
-            if (!isLoaded) {
-                FileInputStream fis = null;
-                ObjectInputStream in = null;
-                fis = new FileInputStream(storageLocation);
-                in = new ObjectInputStream(fis);
-                data = (HashMap<String, String>) in.readObject();
-                in.close();
-                isLoaded = true;
+        if (isLoaded) {
+            return;
+        }
+        if (!storageLocation.exists() && tempLocation.exists()) {
+            //We crashed either between removing the old snapshot and renaming the new one
+            //into place, or while the very first snapshot was being written. Only a temp
+            //file that can be read in full is a finished snapshot, and until the snapshot
+            //is finished, its records are all still in the .compacting file.
+            boolean complete = false;
+            try {
+                readSnapshot(tempLocation);
+                complete = true;
+            }
+            catch (Exception ex) {
+                Logger.getLogger(SerializedPersistance.class.getName()).log(Level.WARNING,
+                        "{0} was only partially written, and is being discarded.", tempLocation);
+            }
+            if (complete) {
+                tempLocation.renameTo(storageLocation);
+            } else {
+                tempLocation.delete();
             }
         }
+        try {
+            data = readSnapshot(storageLocation);
+            index = null;
+            snapshotSize = storageLocation.length();
+        }
         catch (FileNotFoundException ex) {
             //ignore this one
         }
         catch (Exception ex) {
-            throw ex;
+            //The snapshot is damaged. Move it out of the way, so the next compaction doesn't
+            //overwrite it, and recover what we can from the journals.
+            File corrupt = new File(storageLocation.getPath() + ".corrupt." + System.currentTimeMillis());
+            storageLocation.renameTo(corrupt);
+            Logger.getLogger(SerializedPersistance.class.getName()).log(Level.SEVERE,
+                    "Could not read " + storageLocation + ", it has been moved to " + corrupt
+                    + ". Only the changes still in the journal can be recovered.", ex);
         }
+        if (compactingLocation.exists()) {
+            //A compaction didn't finish. The records in it may or may not already be in the
+            //snapshot, but they are all older than the journal, so replaying them is harmless.
+            replay(compactingLocation);
+        }
+        if (journalLocation.exists()) {
+            journalSize = replay(journalLocation);
+        }
+        isLoaded = true;
     }
 
     /**
-     * Causes the database to be saved to disk
+     * Reads in a snapshot written by compact().
+     */
+    private static HashMap<String, String> readSnapshot(File file) throws IOException, ClassNotFoundException {
+        ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            return (HashMap<String, String>) in.readObject();
+        }
+        finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Applies the records in the journal file to the data, and returns the size of the
+     * valid part of the file. Anything after the last complete record is cut off, so
+     * new records are not appended after garbage.
+     */
+    private long replay(File file) throws IOException {
+        long valid = 0;
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            CRC32 crc = new CRC32();
+            while (true) {
+                int length;
+                long checksum;
+                byte[] record;
+                try {
+                    length = in.readInt();
+                    checksum = in.readInt() & 0xFFFFFFFFL;
+                    if (length < 5 || length > file.length() - valid - 8) {
+                        discardedRecords++;
+                        break;
+                    }
+                    record = new byte[length];
+                    in.readFully(record);
+                }
+                catch (EOFException ex) {
+                    if (valid != file.length()) {
+                        discardedRecords++;
+                    }
+                    break;
+                }
+                crc.reset();
+                crc.update(record);
+                if (crc.getValue() != checksum) {
+                    discardedRecords++;
+                    break;
+                }
+                applyRecord(record);
+                valid += 8 + length;
+            }
+        }
+        finally {
+            in.close();
+        }
+        if (valid != file.length()) {
+            Logger.getLogger(SerializedPersistance.class.getName()).log(Level.WARNING,
+                    "{0} ends with an incomplete record, which was probably being written during a crash."
+                    + " The last {1} bytes are being discarded.", new Object[]{file, file.length() - valid});
+            RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            try {
+                raf.setLength(valid);
+            }
+            finally {
+                raf.close();
+            }
+        }
+        return valid;
+    }
+
+    private void applyRecord(byte[] record) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(record));
+        byte type = in.readByte();
+        byte[] key = new byte[in.readInt()];
+        in.readFully(key);
+        if (type == RECORD_SET) {
+            byte[] value = new byte[in.readInt()];
+            in.readFully(value);
+            put(new String(key, "UTF-8"), new String(value, "UTF-8"));
+        } else {
+            put(new String(key, "UTF-8"), null);
+        }
+    }
+
+    /**
+     * Appends a single change to the journal. The record is written with a single
+     * write call, and is prefixed with its length and checksum, so that if it is only
+     * partially written, that can be detected when loading.
+     */
+    private synchronized void appendRecord(String key, String value) throws IOException {
+        byte[] k = key.getBytes("UTF-8");
+        byte[] v = value == null ? null : value.getBytes("UTF-8");
+        int length = 1 + 4 + k.length + (v == null ? 0 : 4 + v.length);
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(8 + length);
+        DataOutputStream out = new DataOutputStream(baos);
+        out.writeInt(length);
+        out.writeInt(0); //checksum, filled in below
+        out.writeByte(v == null ? RECORD_REMOVE : RECORD_SET);
+        out.writeInt(k.length);
+        out.write(k);
+        if (v != null) {
+            out.writeInt(v.length);
+            out.write(v);
+        }
+        byte[] record = baos.toByteArray();
+        CRC32 crc = new CRC32();
+        crc.update(record, 8, length);
+        int checksum = (int) crc.getValue();
+        record[4] = (byte) (checksum >>> 24);
+        record[5] = (byte) (checksum >>> 16);
+        record[6] = (byte) (checksum >>> 8);
+        record[7] = (byte) checksum;
+        if (journal == null) {
+            if (storageLocation.getParentFile() != null) {
+                storageLocation.getParentFile().mkdirs();
+            }
+            journal = new FileOutputStream(journalLocation, true);
+        }
+        journal.write(record);
+        journalSize += record.length;
+        if (journalSize > Math.max(compactionThreshold, snapshotSize) && compactionThread == null) {
+            compactionThread = new Thread(new Runnable() {
+
+                public void run() {
+                    try {
+                        compact();
+                    }
+                    catch (IOException ex) {
+                        Logger.getLogger(SerializedPersistance.class.getName()).log(Level.SEVERE,
+                                "Could not compact " + storageLocation + ", the journal will keep growing", ex);
+                    }
+                    finally {
+                        synchronized (SerializedPersistance.this) {
+                            compactionThread = null;
+                        }
+                    }
+                }
+            }, "persistance-compaction");
+            compactionThread.setDaemon(true);
+            compactionThread.start();
+        }
+    }
+
+    /**
+     * Causes the database to be saved to disk. This writes out a new snapshot,
+     * and empties the journal.
      *
      * @throws IOException
      */
-    public synchronized void save() throws IOException {
-        try {
-            FileOutputStream fos = null;
-            ObjectOutputStream out = null;
-            if(storageLocation.getParentFile() != null){
+    public void save() throws IOException {
+        compact();
+    }
+
+    /**
+     * Writes the current data out as the new snapshot. Changes made while the snapshot
+     * is being written go to a new journal, so this only holds the lock on this object
+     * long enough to copy the data.
+     */
+    private void compact() throws IOException {
+        synchronized (compactionLock) {
+            HashMap<String, String> snapshot;
+            synchronized (this) {
+                if (!isLoaded) {
+                    try {
+                        load();
+                    }
+                    catch (IOException ex) {
+                        throw ex;
+                    }
+                    catch (Exception ex) {
+                        throw new IOException(ex.getMessage(), ex);
+                    }
+                }
+                snapshot = new HashMap<String, String>(data);
+                if (journal != null) {
+                    journal.close();
+                    journal = null;
+                }
+                if (journalLocation.exists()) {
+                    if (compactingLocation.exists()) {
+                        //Left over from a crash, so add on to it rather than replacing it
+                        InputStream in = new FileInputStream(journalLocation);
+                        OutputStream out = new FileOutputStream(compactingLocation, true);
+                        try {
+                            byte[] buffer = new byte[8192];
+                            int read;
+                            while ((read = in.read(buffer)) != -1) {
+                                out.write(buffer, 0, read);
+                            }
+                        }
+                        finally {
+                            in.close();
+                            out.close();
+                        }
+                        journalLocation.delete();
+                    } else if (!journalLocation.renameTo(compactingLocation)) {
+                        throw new IOException("Could not rename " + journalLocation + " to " + compactingLocation);
+                    }
+                }
+                journalSize = 0;
+            }
+            if (storageLocation.getParentFile() != null) {
                 storageLocation.getParentFile().mkdirs();
             }
-            if (!storageLocation.exists()) {
-                storageLocation.createNewFile();
+            FileOutputStream fos = new FileOutputStream(tempLocation);
+            ObjectOutputStream out = new ObjectOutputStream(new BufferedOutputStream(fos));
+            try {
+                out.writeObject(snapshot);
+                out.flush();
+                //The old snapshot is about to be removed, so the new one has to actually be
+                //on the disk first, not just handed to the OS
+                fos.getFD().sync();
+            }
+            finally {
+                out.close();
+            }
+            //renameTo won't replace an existing file on all platforms. If we crash in between,
+            //load() will find the temp file and finish the job.
+            storageLocation.delete();
+            if (!tempLocation.renameTo(storageLocation)) {
+                throw new IOException("Could not rename " + tempLocation + " to " + storageLocation);
+            }
+            //The snapshot was synced before it was renamed into place, so the records in
+            //.compacting are now safely in it
+            compactingLocation.delete();
+            synchronized (this) {
+                snapshotSize = storageLocation.length();
             }
-            fos = new FileOutputStream(storageLocation);
-            out = new ObjectOutputStream(fos);
-            out.writeObject(data);
-            out.close();
         }
-        catch (IOException ex) {
-            throw ex;
+    }
+
+    /**
+     * Waits for any running compaction to finish, then compacts the journal into the
+     * snapshot, so the next load doesn't have to replay it. This should be called on
+     * shutdown, but if it isn't, nothing is lost, since the journal is replayed on load.
+     *
+     * @throws IOException
+     */
+    public void close() throws IOException {
+        Thread t;
+        synchronized (this) {
+            t = compactionThread;
+        }
+        if (t != null) {
+            try {
+                t.join();
+            }
+            catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        boolean dirty;
+        synchronized (this) {
+            dirty = journalSize > 0 || journalLocation.exists() || compactingLocation.exists();
+        }
+        if (dirty) {
+            compact();
         }
     }
 
+    synchronized int getDiscardedRecords() {
+        return discardedRecords;
+    }
+
     /**
      * You should not usually use this method. Please see
      * <code>setValue(String[] key, Serializable value)</code>
+     *
+     * @param rethrow If true, the change isn't made if the database couldn't be loaded, and
+     * failing to write the change out is thrown. Otherwise, those errors are only logged, and the
+     * change is still made in memory.
      */
-    private synchronized String setValue(String key, String value) {
-        //defer loading until we actually try and use the data structure
-        if (isLoaded == false) {
+    private String setValue(String key, String value, boolean rethrow) throws IOException {
+        String oldVal;
+        boolean rewrite;
+        synchronized (this) {
+            //defer loading until we actually try and use the data structure
+            if (isLoaded == false) {
+                try {
+                    load();
+                }
+                catch (Exception ex) {
+                    if (rethrow) {
+                        throw ex instanceof IOException ? (IOException) ex : new IOException(ex.getMessage(), ex);
+                    }
+                    Logger.getLogger("Minecraft").log(Level.SEVERE, null, ex);
+                }
+            }
+            oldVal = put(key, value);
+            rewrite = !journaled;
+            if (journaled) {
+                try {
+                    appendRecord(key, value);
+                }
+                catch (IOException ex) {
+                    if (rethrow) {
+                        throw ex;
+                    }
+                    Logger.getLogger(SerializedPersistance.class.getName()).log(Level.SEVERE, null, ex);
+                }
+            }
+        }
+        if (rewrite) {
+            //This must not be called while holding the lock on this object, since
+            //compaction takes the compaction lock first.
             try {
-                load();
+                save();
             }
-            catch (Exception ex) {
-                Logger.getLogger("Minecraft").log(Level.SEVERE, null, ex);
+            catch (IOException ex) {
+                if (rethrow) {
+                    throw ex;
+                }
+                Logger.getLogger(SerializedPersistance.class.getName()).log(Level.SEVERE, null, ex);
             }
         }
-        String oldVal = data.get(key);
+        return oldVal;
+    }
+
+    /**
+     * Sets or (if value is null) removes the key in the data and index, and returns
+     * the old value.
+     */
+    private String put(String key, String value) {
         if (value == null) {
-            data.remove(key);
-        } else {
-            data.put(key, value);
+            if (index != null) {
+                index.remove(key);
+            }
+            return data.remove(key);
         }
-        try {
-            save();
+        String old = data.put(key, value);
+        if (old == null && index != null) {
+            index.put(key, key.split("\\."));
         }
-        catch (Exception ex) {
-            Logger.getLogger(SerializedPersistance.class.getName()).log(Level.SEVERE, null, ex);
+        return old;
+    }
+
+    private TreeMap<String, String[]> getIndex() {
+        if (index == null) {
+            index = new TreeMap<String, String[]>();
+            for (String key : data.keySet()) {
+                index.put(key, key.split("\\."));
+            }
         }
-        return oldVal;
+        return index;
+    }
+
+    /**
+     * Returns the keys that are in the namespace, that is, the key itself, and all the
+     * keys that start with the namespace followed by a dot. The map is a view of the index,
+     * so it must only be used while holding the lock.
+     */
+    private SortedMap<String, String[]> namespace(String ns) {
+        //'/' is the character after '.'
+        SortedMap<String, String[]> range = getIndex().subMap(ns + ".", ns + "/");
+        if (!data.containsKey(ns)) {
+            return range;
+        }
+        TreeMap<String, String[]> withSelf = new TreeMap<String, String[]>(range);
+        withSelf.put(ns, getIndex().get(ns));
+        return withSelf;
     }
 
     private synchronized String getValue(String key, boolean bypassTransient) {
@@ -182,8 +608,14 @@ public class SerializedPersistance extends AbstractDataSource implements Persist
      * @return The object that was in this key, or null if the value did not
      * exist.
      */
-    public synchronized String setValue(String[] key, String value) {
-        return setValue(getNamespace0(key), (String) value);
+    public String setValue(String[] key, String value) {
+        try {
+            return setValue(getNamespace0(key), (String) value, false);
+        }
+        catch (IOException ex) {
+            //Can't happen, the errors are only logged
+            throw new Error(ex);
+        }
     }
 
     /**
@@ -220,28 +652,7 @@ public class SerializedPersistance extends AbstractDataSource implements Persist
      * @return
      */
     public synchronized boolean isNamespaceSet(String[] partialKey) {
-        String m = getNamespace0(partialKey);
-        partialKey = m.split("\\.");
-        Iterator i = data.entrySet().iterator();
-        while (i.hasNext()) {
-            String key = ( (Map.Entry) i.next() ).getKey().toString();
-            String[] namespace = key.split("\\.");
-            boolean match = true;
-            for (int k = 0; k < partialKey.length; k++) {
-                if (namespace.length < k) {
-                    match = false;
-                    continue;
-                }
-                if (!namespace[k].equals(partialKey[k])) {
-                    match = false;
-                    continue;
-                }
-            }
-            if (match) {
-                return true;
-            }
-        }
-        return false;
+        return !namespace(getNamespace0(partialKey)).isEmpty();
     }
 
     /**
@@ -251,10 +662,6 @@ public class SerializedPersistance extends AbstractDataSource implements Persist
      * @return An ArrayList of Map.Entries.
      */
     public synchronized List<Map.Entry<String, Object>> getNamespaceValues(String[] partialKey) {
-
-        List<Map.Entry<String, Object>> matches = new ArrayList<Map.Entry<String, Object>>();
-        String m = getNamespace0(partialKey);
-        partialKey = m.split("\\.");
         if (!isLoaded) {
             try {
                 load();
@@ -263,25 +670,9 @@ public class SerializedPersistance extends AbstractDataSource implements Persist
                 Logger.getLogger(SerializedPersistance.class.getName()).log(Level.SEVERE, null, ex);
             }
         }
-        Iterator i = data.entrySet().iterator();
-        while (i.hasNext()) {
-            Map.Entry entry = (Map.Entry) i.next();
-            String key = entry.getKey().toString();
-            String[] namespace = key.split("\\.");
-            boolean match = true;
-            for (int k = 0; k < partialKey.length; k++) {
-                if (namespace.length < partialKey.length) {
-                    match = false;
-                    continue;
-                }
-                if (!namespace[k].equals(partialKey[k])) {
-                    match = false;
-                    continue;
-                }
-            }
-            if (match) {
-                matches.add(entry);
-            }
+        List<Map.Entry<String, Object>> matches = new ArrayList<Map.Entry<String, Object>>();
+        for (String key : namespace(getNamespace0(partialKey)).keySet()) {
+            matches.add(new AbstractMap.SimpleEntry<String, Object>(key, data.get(key)));
         }
         return matches;
     }
@@ -334,22 +725,50 @@ public class SerializedPersistance extends AbstractDataSource implements Persist
         p.save();
     }
 
-    public List<String[]> keySet() {
-        List<String[]> list = new ArrayList<String[]>();
-        for (String key : data.keySet()) {
-            list.add(key.split("\\."));
+    /**
+     * Returns the keys, in sorted order. The arrays are shared, so they must not be changed.
+     */
+    public synchronized List<String[]> keySet() {
+        return new ArrayList<String[]>(getIndex().values());
+    }
+
+    @Override
+    public synchronized List<String> stringKeySet() {
+        return new ArrayList<String>(getIndex().keySet());
+    }
+
+    @Override
+    public synchronized List<String[]> getNamespace(String[] namespace) {
+        return new ArrayList<String[]>(namespace(StringUtils.Join(namespace, ".")).values());
+    }
+
+    @Override
+    public synchronized Map<String[], String> getValues(String[] namespace) {
+        if (!isLoaded) {
+            try {
+                load();
+            }
+            catch (Exception ex) {
+                Logger.getLogger(SerializedPersistance.class.getName()).log(Level.SEVERE, null, ex);
+            }
         }
-        return list;
+        Map<String[], String> map = new HashMap<String[], String>();
+        for (Map.Entry<String, String[]> entry : namespace(StringUtils.Join(namespace, ".")).entrySet()) {
+            map.put(entry.getValue(), data.get(entry.getKey()));
+        }
+        return map;
     }
 
     public String get(String[] key, boolean bypassTransient) {
         return getValue(StringUtils.Join(key, "."), bypassTransient);
     }
 
+    /**
+     * Unlike setValue, this throws an IOException if the change couldn't be written out.
+     */
     public boolean set(String[] key, String value) throws ReadOnlyException, IOException {
         checkSet();
-        setValue(key, value);
-        save();
+        setValue(getNamespace0(key), value, true);
         return true;
     }
 
@@ -364,12 +783,22 @@ public class SerializedPersistance extends AbstractDataSource implements Persist
         }
     }
 
+    @Override
+    public void disconnect() throws DataSourceException {
+        try {
+            close();
+        } catch (IOException ex) {
+            throw new DataSourceException("Could not compact " + storageLocation, ex);
+        }
+    }
+
     public DataSourceModifier[] implicitModifiers() {
         return null;
     }
 
     public DataSourceModifier[] invalidModifiers() {
-        return new DataSourceModifier[]{DataSourceModifier.HTTP, DataSourceModifier.HTTPS, DataSourceModifier.PRETTYPRINT};
+        //Writes are already cheap, since they are journaled
+        return new DataSourceModifier[]{DataSourceModifier.HTTP, DataSourceModifier.HTTPS, DataSourceModifier.PRETTYPRINT, DataSourceModifier.WRITEBEHIND};
     }
 
     public String docs() {
@@ -377,7 +806,9 @@ public class SerializedPersistance extends AbstractDataSource implements Persist
                 + " this simply uses java serialization to store data. Extremely simple"
                 + " to use, it is less scalable than database driven solutions, but for"
                 + " a file based solution, is relatively efficient, since it is stored as"
-                + " binary data. This means that it cannot be easily edited however.";
+                + " binary data. This means that it cannot be easily edited however. Changes are"
+                + " appended to a journal file next to the database, which is periodically merged"
+                + " back into the database in the background.";
     }
 
     public CHVersion since() {
@@ -3,11 +3,21 @@ package com.laytonsmith.persistance;
 import com.laytonsmith.persistance.io.ConnectionMixinFactory;
 import java.io.IOException;
 import java.net.URI;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 /**
  * For data sources that can input and output strings, this class should be
  * extended.
+ * <p>
+ * Since the whole model has to be serialized to write out any change, data sources
+ * with the writebehind modifier only mark the model as dirty when it changes, and
+ * write it out once, after the write behind interval has passed, or when the
+ * data source is disconnected. The model is always up to date, so reads are
+ * unaffected.
  *
  * @author lsmith
  */
@@ -16,6 +26,10 @@ public abstract class StringDataSource extends AbstractDataSource {
 	 * A reference to the DataSourceModel used by the set and get methods.
 	 */
 	protected DataSourceModel model;
+	/**
+	 * True if the model has changes that have not been written out yet.
+	 */
+	private boolean dirty = false;
 
 	protected StringDataSource(URI uri, ConnectionMixinFactory.ConnectionMixinOptions options) throws DataSourceException {
 		super(uri, options);
@@ -34,13 +48,74 @@ public abstract class StringDataSource extends AbstractDataSource {
 		getConnectionMixin().writeData(data);
 	}
 
+	/**
+	 * Writes the model out, or if this is a write behind data source, schedules
+	 * it to be written out, if it isn't already.
+	 */
+	private void modelChanged() throws IOException, ReadOnlyException, DataSourceException {
+		if (!hasModifier(DataSourceModifier.WRITEBEHIND)) {
+			writeData(serializeModel());
+			return;
+		}
+		if (dirty) {
+			//Already scheduled, this change will go out with it
+			return;
+		}
+		dirty = true;
+		scheduleWriteBehind(new Runnable() {
+
+			public void run() {
+				try {
+					flush();
+				} catch (Exception ex) {
+					Logger.getLogger(StringDataSource.class.getName()).log(Level.SEVERE, "Could not write out " + uri, ex);
+				}
+			}
+		});
+	}
+
+	/**
+	 * If there are changes that haven't been written out yet, writes them
+	 * out now.
+	 *
+	 * @throws IOException
+	 * @throws ReadOnlyException
+	 * @throws DataSourceException
+	 */
+	public synchronized void flush() throws IOException, ReadOnlyException, DataSourceException {
+		if (dirty) {
+			dirty = false;
+			writeData(serializeModel());
+		}
+	}
+
 	@Override
-	public void clearKey(String[] key) throws DataSourceException, ReadOnlyException, IOException {
+	public synchronized void disconnect() throws DataSourceException {
+		try {
+			flush();
+		} catch (IOException ex) {
+			throw new DataSourceException("Could not write out " + uri, ex);
+		} catch (ReadOnlyException ex) {
+			throw new DataSourceException("Could not write out " + uri, ex);
+		}
+	}
+
+	@Override
+	public synchronized void clearKey(String[] key) throws DataSourceException, ReadOnlyException, IOException {
 		model.clearKey(key);
-		writeData(serializeModel());
+		modelChanged();
 	}
 
-	public void populate() throws DataSourceException {
+	public synchronized void populate() throws DataSourceException {
+		//Don't throw away changes that haven't been written yet. Reads and
+		//writes are done in order, so the read will see this write.
+		try {
+			flush();
+		} catch (IOException ex) {
+			throw new DataSourceException("Could not write out " + uri, ex);
+		} catch (ReadOnlyException ex) {
+			throw new DataSourceException("Could not write out " + uri, ex);
+		}
 		String data;
 		try {
 			data = getConnectionMixin().getData();
@@ -50,18 +125,32 @@ public abstract class StringDataSource extends AbstractDataSource {
 		populateModel(data);
 	}
 
-	public List<String[]> keySet() {
+	public synchronized List<String[]> keySet() {
 		return model.keySet();
 	}
 
-	public String get(String[] key, boolean bypassTransient) throws DataSourceException {
+	/**
+	 * The whole namespace is read from the same copy of the model, so a transient
+	 * data source is only re-populated once.
+	 */
+	@Override
+	public synchronized Map<String[], String> getValues(String[] namespace) throws DataSourceException {
+		checkGet();
+		Map<String[], String> map = new HashMap<String[], String>();
+		for (String[] key : getNamespace(namespace)) {
+			map.put(key, model.get(key));
+		}
+		return map;
+	}
+
+	public synchronized String get(String[] key, boolean bypassTransient) throws DataSourceException {
 		if (!bypassTransient) {
 			checkGet();
 		}
 		return model.get(key);
 	}
 
-	public boolean set(String[] key, String value) throws ReadOnlyException, IOException, DataSourceException {
+	public synchronized boolean set(String[] key, String value) throws ReadOnlyException, IOException, DataSourceException {
 		checkSet();
 		String old = get(key, false);
 		if ((old == null && value == null) || (old != null && old.equals(value))) {
@@ -69,7 +158,7 @@ public abstract class StringDataSource extends AbstractDataSource {
 		}
 		model.set(key, value);
 		//We need to output the model now
-		writeData(serializeModel());
+		modelChanged();
 		return true;
 	}
 
@@ -19,6 +19,21 @@ public class ConnectionMixinFactory {
 	
 	public static class ConnectionMixinOptions{
 		File workingDirectory = null;
+		long writeBehindInterval = 5000;
+
+		public ConnectionMixinOptions(){
+			
+		}
+
+		/**
+		 * Creates a copy of the given options.
+		 * @param copy 
+		 */
+		public ConnectionMixinOptions(ConnectionMixinOptions copy){
+			this.workingDirectory = copy.workingDirectory;
+			this.writeBehindInterval = copy.writeBehindInterval;
+		}
+
 		/**
 		 * In the case of file based connections, this is the working
 		 * directory, that is, the "." directory used to resolve
@@ -29,6 +44,25 @@ public class ConnectionMixinFactory {
 			this.workingDirectory = workingDirectory;
 		}		
 		
+		public File getWorkingDirectory(){
+			return workingDirectory;
+		}
+		
+		/**
+		 * For connections with the writebehind modifier, this is how many
+		 * ms after the first unwritten change the data is written out.
+		 * Changes made in the meantime are written out along with it. The
+		 * default is 5 seconds.
+		 * @param ms 
+		 */
+		public void setWriteBehindInterval(long ms){
+			this.writeBehindInterval = ms;
+		}
+		
+		public long getWriteBehindInterval(){
+			return writeBehindInterval;
+		}
+		
 	}
 	
 	/**
@@ -6,20 +6,32 @@ import com.laytonsmith.persistance.ReadOnlyException;
 import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.net.URI;
-import java.nio.ByteBuffer;
-import java.nio.channels.FileLock;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.Map;
 import java.util.concurrent.Callable;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
+ * Reads and writes a local file. Each file has its own queue, so reads and writes
+ * of the same file happen in order, but a large file doesn't hold up the others. The
+ * queues share a small pool of threads. Writes go to a temporary file first, which
+ * is then renamed over the real one, so a crash in the middle of a write leaves the
+ * old version of the file in place, rather than a partial one. On platforms that
+ * won't rename over an existing file, the old version is moved aside to a backup
+ * first, and that backup is put back if the file is found to be missing later.
  *
  * @author lsmith
  */
@@ -29,30 +41,38 @@ public class ReadWriteFileConnection implements ConnectionMixin{
 	protected final ZipReader reader;
 	protected final String blankDataModel;
 	/**
-	 * The executor service allows for reads and writes to be synchronized. Writes
-	 * needn't be synchronous, just merely synchronized with reads and other writes.
-	 * Reads of course need to be synchronous, at least as far as the thread
-	 * that runs the getData function is concerned, but we still need to actually
-	 * run the task on the executor service thread, so it will be synced with the
-	 * writes. All file based persistance systems should use this executor to do
-	 * the reads and writes.
+	 * The number of threads that do file io.
 	 */
-	protected static ExecutorService Executor;	
+	private static final int THREADS = 4;
+	/**
+	 * The shared pool that runs the file queues. The threads aren't daemon threads,
+	 * so pending writes are finished before the JVM exits, but they time out when
+	 * there's nothing to do.
+	 */
+	private static Executor Pool;
+	/**
+	 * The queue for each file that has work waiting, by absolute path. A queue
+	 * is removed once it runs out of work, and a new one is made the next time
+	 * the file is used.
+	 */
+	private static final Map<String, FileQueue> Queues = new HashMap<String, FileQueue>();
+	private static final AtomicLong CoalescedWrites = new AtomicLong();
+	private static final AtomicLong Writes = new AtomicLong();
+	private static int threadCount = 0;
+	private final String path;
+	private final AtomicLong writes = new AtomicLong();
+	private final AtomicLong coalescedWrites = new AtomicLong();
+
 	public ReadWriteFileConnection(URI uri, File workingDirectory, String blankDataModel) throws IOException{
+		file = new File(workingDirectory, (uri.getHost() == null ? "" : uri.getHost()) + uri.getPath());
 		synchronized(ReadWriteFileConnection.class){
-			if(Executor == null){
-				//We needn't set this up until we are used at least once
-				Executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
-
-					public Thread newThread(Runnable r) {
-						Thread t = new Thread(r, "MethodScriptFileQueue");
-						t.setDaemon(false);
-						return t;
-					}
-				});
+			path = file.getAbsolutePath();
+			if(!Queues.containsKey(path)){
+				//If there's a queue, it may be in the middle of a write, and it
+				//will recover the file itself before the next read.
+				Recover(file);
 			}
 		}
-		file = new File(workingDirectory, (uri.getHost() == null ? "" : uri.getHost()) + uri.getPath());
 		reader = new ZipReader(file);
 		if(!reader.isZipped()){
 			if(reader.getTopLevelFile().getParentFile() != null){
@@ -60,9 +80,9 @@ public class ReadWriteFileConnection implements ConnectionMixin{
 			}
 		}
 		if(!reader.exists()){
-			reader.getTopLevelFile().createNewFile();			
+			reader.getTopLevelFile().createNewFile();
 		}
-		this.blankDataModel = blankDataModel;		
+		this.blankDataModel = blankDataModel;
 	}
 
 	public String getData() throws IOException {
@@ -73,27 +93,28 @@ public class ReadWriteFileConnection implements ConnectionMixin{
 			//without worrying about corruption from a write operation.
 			return reader.getFileContents();
 		}
-		Future<String> future = Executor.submit(new Callable<String>(){
+		//Reads still go through the queue, so they see the writes that were
+		//requested before them.
+		FutureTask<String> future = new FutureTask<String>(new Callable<String>(){
 
 			public String call() throws Exception {
-				RandomAccessFile raf = new RandomAccessFile(file, "rw");
-				FileLock lock = null;
+				Recover(file);
+				RandomAccessFile raf;
 				try {
-					lock = raf.getChannel().lock();			
-					ByteBuffer buffer = ByteBuffer.allocate((int)raf.length());
-					raf.getChannel().read(buffer);
-					String s = StreamUtils.GetString(new ByteArrayInputStream(buffer.array()), "UTF-8");
-					return s;
+					raf = new RandomAccessFile(file, "r");
 				} catch (FileNotFoundException e) {
 					return blankDataModel;
+				}
+				try {
+					byte[] buffer = new byte[(int)raf.length()];
+					raf.readFully(buffer);
+					return StreamUtils.GetString(new ByteArrayInputStream(buffer), "UTF-8");
 				} finally {
-					if(lock != null) {
-						lock.release();
-					}
 					raf.close();
-				}				
+				}
 			}
 		});
+		Submit(path, future);
 		try {
 			return future.get();
 		} catch (Exception ex) {
@@ -101,7 +122,7 @@ public class ReadWriteFileConnection implements ConnectionMixin{
 		}
 	}
 
-	public void writeData(final String data) throws  ReadOnlyException, IOException, UnsupportedOperationException {		
+	public void writeData(final String data) throws  ReadOnlyException, IOException, UnsupportedOperationException {
 		File outputFile = reader.getFile();
 		if(reader.isZipped()){
 			throw new ReadOnlyException("Cannot write to a zipped file.");
@@ -112,29 +133,326 @@ public class ReadWriteFileConnection implements ConnectionMixin{
 		if(!file.exists()){
 			throw new FileNotFoundException(file.getAbsolutePath() + " does not exist!");
 		}
-		Executor.submit(new Callable() {
-
-			public Object call() {
-				try{
-					RandomAccessFile raf = new RandomAccessFile(file, "rw");
-					FileLock lock = null;
-					try{
-						lock = raf.getChannel().lock();
-						//Clear out the file
-						raf.getChannel().truncate(0);
-						//Write out the data
-						raf.getChannel().write(ByteBuffer.wrap(data.getBytes("UTF-8")));
-					} finally {
-						if(lock != null){
-							lock.release();
+		Write(this, data);
+	}
+
+	/**
+	 * Sets the executor that runs the file queues. This is meant for testing,
+	 * so that the queues can be run at a known time. If null, the default pool
+	 * is used again.
+	 * @param executor
+	 */
+	public static synchronized void SetExecutor(Executor executor){
+		Pool = executor;
+	}
+
+	/**
+	 * If a write was interrupted after the old version of the file was moved
+	 * aside, but before the new one was moved into place, this puts the old
+	 * version back.
+	 * @param file
+	 */
+	private static void Recover(File file){
+		File backup = new File(file.getPath() + ".bak");
+		if(!file.exists() && backup.exists()){
+			backup.renameTo(file);
+		}
+	}
+
+	/**
+	 * Writes the data to a temporary file next to the real one, and then renames
+	 * it over the real one.
+	 */
+	private void write(String data) throws IOException {
+		File temp = new File(file.getPath() + ".tmp");
+		FileOutputStream out = new FileOutputStream(temp);
+		try {
+			out.write(data.getBytes("UTF-8"));
+			//Make sure it's actually on the disk before it replaces the old version
+			out.getFD().sync();
+		} finally {
+			out.close();
+		}
+		if(!temp.renameTo(file)){
+			//Some platforms won't rename over an existing file, so the old one is
+			//moved aside until the new one is in place. If we crash in between,
+			//Recover puts it back.
+			File backup = new File(file.getPath() + ".bak");
+			backup.delete();
+			if(!file.renameTo(backup)){
+				throw new IOException("Could not move " + file.getAbsolutePath() + " to " + backup.getAbsolutePath());
+			}
+			if(!temp.renameTo(file)){
+				backup.renameTo(file);
+				throw new IOException("Could not move " + temp.getAbsolutePath() + " to " + file.getAbsolutePath());
+			}
+			backup.delete();
+		}
+		writes.incrementAndGet();
+		Writes.incrementAndGet();
+	}
+
+	/**
+	 * Returns the number of reads and writes that are waiting to be run for
+	 * this file, including one that is currently running.
+	 * @return
+	 */
+	public int getQueueDepth(){
+		FileQueue q;
+		synchronized(ReadWriteFileConnection.class){
+			q = Queues.get(path);
+		}
+		return q == null ? 0 : q.depth();
+	}
+
+	/**
+	 * Returns the number of times this connection has actually written the file.
+	 * @return
+	 */
+	public long getWrites(){
+		return writes.get();
+	}
+
+	/**
+	 * Returns the number of writes through this connection that were skipped,
+	 * because a newer write came in before they were run.
+	 * @return
+	 */
+	public long getCoalescedWrites(){
+		return coalescedWrites.get();
+	}
+
+	/**
+	 * Returns the number of reads and writes that are waiting to be run, for
+	 * all the files.
+	 * @return
+	 */
+	public static int GetQueueDepth(){
+		int depth = 0;
+		synchronized(ReadWriteFileConnection.class){
+			for(FileQueue q : Queues.values()){
+				depth += q.depth();
+			}
+		}
+		return depth;
+	}
+
+	/**
+	 * Waits for all the queued reads and writes to finish, or for the timeout
+	 * to pass, and returns true if they finished.
+	 * @param timeout The longest to wait, in ms
+	 * @return
+	 * @throws InterruptedException
+	 */
+	public static boolean AwaitWrites(long timeout) throws InterruptedException{
+		long deadline = System.currentTimeMillis() + timeout;
+		synchronized(ReadWriteFileConnection.class){
+			while(!Queues.isEmpty()){
+				long remaining = deadline - System.currentTimeMillis();
+				if(remaining <= 0){
+					return false;
+				}
+				ReadWriteFileConnection.class.wait(remaining);
+			}
+			return true;
+		}
+	}
+
+	/**
+	 * Returns the number of writes that were skipped, because a newer write
+	 * to the same file came in before they were run.
+	 * @return
+	 */
+	public static long GetCoalescedWrites(){
+		return CoalescedWrites.get();
+	}
+
+	/**
+	 * Returns the number of times a file has actually been written.
+	 * @return
+	 */
+	public static long GetWrites(){
+		return Writes.get();
+	}
+
+	/**
+	 * Returns the queue for the given file, making it if need be. This must
+	 * be called while holding the class lock, and the queue can't be removed
+	 * until that lock is released.
+	 */
+	private static FileQueue GetQueue(String path){
+		FileQueue q = Queues.get(path);
+		if(q == null){
+			q = new FileQueue(path);
+			Queues.put(path, q);
+		}
+		return q;
+	}
+
+	private static void Submit(String path, Runnable task){
+		FileQueue q;
+		boolean start;
+		synchronized(ReadWriteFileConnection.class){
+			q = GetQueue(path);
+			start = q.add(task);
+		}
+		if(start){
+			Execute(q);
+		}
+	}
+
+	private static void Write(ReadWriteFileConnection connection, String data){
+		FileQueue q;
+		boolean start;
+		synchronized(ReadWriteFileConnection.class){
+			q = GetQueue(connection.path);
+			if(q.coalesce(data)){
+				connection.coalescedWrites.incrementAndGet();
+				CoalescedWrites.incrementAndGet();
+				return;
+			}
+			start = q.add(new WriteTask(q, connection, data));
+		}
+		if(start){
+			Execute(q);
+		}
+	}
+
+	private static void Execute(FileQueue q){
+		Executor executor;
+		synchronized(ReadWriteFileConnection.class){
+			if(Pool == null){
+				//We needn't set this up until we are used at least once
+				ThreadPoolExecutor pool = new ThreadPoolExecutor(THREADS, THREADS, 5, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+
+					public Thread newThread(Runnable r) {
+						Thread t = new Thread(r, "MethodScriptFileQueue-" + (++threadCount));
+						t.setDaemon(false);
+						return t;
+					}
+				});
+				pool.allowCoreThreadTimeOut(true);
+				Pool = pool;
+			}
+			executor = Pool;
+		}
+		executor.execute(q);
+	}
+
+	/**
+	 * The tasks for a single file. Only one of them runs at a time, in the order
+	 * they were submitted. The class lock is always taken before the lock on a
+	 * queue, never after.
+	 */
+	private static final class FileQueue implements Runnable {
+		private final String path;
+		private final LinkedList<Runnable> tasks = new LinkedList<Runnable>();
+		/**
+		 * If the last task in the queue is a write that hasn't started yet,
+		 * this is it, otherwise null.
+		 */
+		private WriteTask lastWrite;
+		/**
+		 * True if the queue has been handed to the pool.
+		 */
+		private boolean running;
+		/**
+		 * True while a task is actually being run.
+		 */
+		private boolean active;
+
+		private FileQueue(String path){
+			this.path = path;
+		}
+
+		/**
+		 * Adds the task to the queue, and returns true if the queue needs to
+		 * be handed to the pool.
+		 */
+		private synchronized boolean add(Runnable task){
+			tasks.add(task);
+			lastWrite = task instanceof WriteTask ? (WriteTask)task : null;
+			if(running){
+				return false;
+			}
+			running = true;
+			return true;
+		}
+
+		/**
+		 * If nothing has happened since the last write was requested, there's
+		 * no point in writing that version of the file, so the data of that
+		 * write is replaced, and true is returned.
+		 */
+		private synchronized boolean coalesce(String data){
+			if(lastWrite == null){
+				return false;
+			}
+			lastWrite.data = data;
+			return true;
+		}
+
+		private synchronized int depth(){
+			return tasks.size() + (active ? 1 : 0);
+		}
+
+		public void run() {
+			while(true){
+				Runnable task;
+				synchronized(ReadWriteFileConnection.class){
+					synchronized(this){
+						task = tasks.poll();
+						if(task == null){
+							running = false;
+							//Nothing can be added while we hold the class lock, so
+							//it's safe to forget about this queue now.
+							if(Queues.get(path) == this){
+								Queues.remove(path);
+								ReadWriteFileConnection.class.notifyAll();
+							}
+							return;
 						}
-						raf.close();
-					}				
-				} catch (Exception ex) {
-					Logger.getLogger(ReadWriteFileConnection.class.getName()).log(Level.SEVERE, null, ex);
+						if(task == lastWrite){
+							lastWrite = null;
+						}
+						active = true;
+					}
+				}
+				try {
+					task.run();
+				} finally {
+					synchronized(this){
+						active = false;
+					}
 				}
-				return null;
 			}
-		});
+		}
+	}
+
+	private static final class WriteTask implements Runnable {
+		private final FileQueue queue;
+		private final ReadWriteFileConnection connection;
+		/**
+		 * Guarded by the queue, and may be replaced until the task is started.
+		 */
+		private String data;
+
+		private WriteTask(FileQueue queue, ReadWriteFileConnection connection, String data) {
+			this.queue = queue;
+			this.connection = connection;
+			this.data = data;
+		}
+
+		public void run() {
+			String d;
+			synchronized(queue){
+				d = data;
+			}
+			try {
+				connection.write(d);
+			} catch (Exception ex) {
+				Logger.getLogger(ReadWriteFileConnection.class.getName()).log(Level.SEVERE, null, ex);
+			}
+		}
 	}
 }
@@ -21,14 +21,21 @@ import com.laytonsmith.core.MethodScriptComplete;
 import com.laytonsmith.core.Static;
 import com.laytonsmith.core.Threader;
 import com.laytonsmith.core.constructs.CArray;
+import com.laytonsmith.core.constructs.Construct;
 import com.laytonsmith.core.constructs.CString;
 import com.laytonsmith.core.constructs.IVariable;
 import com.laytonsmith.core.constructs.Target;
 import com.laytonsmith.core.constructs.Token;
 import com.laytonsmith.core.constructs.Variable;
+import com.laytonsmith.core.events.AbstractEvent;
+import com.laytonsmith.core.events.BindableEvent;
+import com.laytonsmith.core.events.EventMixinInterface;
+import com.laytonsmith.core.events.EventRecorder;
+import com.laytonsmith.core.events.EventReplayer;
 import com.laytonsmith.core.exceptions.CancelCommandException;
 import com.laytonsmith.core.exceptions.ConfigCompileException;
 import com.laytonsmith.core.exceptions.ConfigRuntimeException;
+import com.laytonsmith.core.exceptions.EventException;
 import com.laytonsmith.persistance.DataSourceException;
 import com.laytonsmith.persistance.SerializedPersistance;
 import java.io.File;
@@ -36,7 +43,9 @@ import java.io.IOException;
 import java.net.URISyntaxException;
 import java.net.URL;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Scanner;
 import java.util.logging.Level;
@@ -227,6 +236,52 @@ public class Interpreter {
 		}
 	}
 
+	/**
+	 * Runs the scripts, which should bind the events to test, then replays the
+	 * event recording against them, and prints the timings.
+	 * @param args The recording, followed by the scripts
+	 * @param speed See {@link EventReplayer#Replay}
+	 */
+	public static void replay(List<String> args, double speed) {
+		if (args.size() < 2) {
+			System.err.println("Usage: --replay-events path/to/recording path/to/script.ms [more scripts...]");
+			return;
+		}
+		Implementation.setServerType(Implementation.Type.SHELL);
+		try {
+			Static.persist = new SerializedPersistance(new File("CommandHelper/persistance.ser"));
+		} catch (DataSourceException ex) {
+			Logger.getLogger(Interpreter.class.getName()).log(Level.SEVERE, null, ex);
+		}
+		List<EventRecorder.RecordedEvent> events;
+		try {
+			events = EventRecorder.Read(new File(args.get(0)));
+		} catch (IOException ex) {
+			System.err.println(RED + "Could not read the recording: " + ex.getMessage() + reset());
+			return;
+		}
+		for (String script : args.subList(1, args.size())) {
+			File file = new File(script);
+			try {
+				Env env = new Env();
+				env.SetLabel("*");
+				env.SetCustom("cmdline", true);
+				MethodScriptCompiler.execute(MethodScriptCompiler.compile(MethodScriptCompiler.lex(FileUtility.read(file), file)), env, null, null);
+			} catch (ConfigCompileException ex) {
+				ConfigRuntimeException.DoReport(ex, null, null);
+				return;
+			} catch (ConfigRuntimeException ex) {
+				ConfigRuntimeException.DoReport(ex);
+				return;
+			} catch (IOException ex) {
+				System.err.println(RED + "Could not read " + script + ": " + ex.getMessage() + reset());
+				return;
+			}
+		}
+		System.out.print(EventReplayer.Replay(events, speed));
+		System.out.print(TermColors.reset());
+	}
+
 	public static void install() {
 		if (TermColors.SYSTEM == TermColors.SYS.UNIX) {
 			try {
@@ -285,7 +340,7 @@ public class Interpreter {
 		}
 
 		public Class GetServerEventMixin() {
-			throw new UnsupportedOperationException("This method is not supported from a shell.");
+			return ShellEventMixin.class;
 		}
 
 		public MCEnchantment[] GetEnchantmentValues() {
@@ -382,4 +437,43 @@ public class Interpreter {
 		}
 		
 	}
+	
+	/**
+	 * There is no server to listen to from the shell, so events only run when they
+	 * are triggered manually, or replayed.
+	 */
+	public static class ShellEventMixin implements EventMixinInterface {
+
+		public ShellEventMixin(AbstractEvent mySuper) {
+			
+		}
+
+		public void cancel(BindableEvent e, boolean state) {
+			
+		}
+
+		public boolean isCancellable(BindableEvent o) {
+			return false;
+		}
+
+		public Map<String, Construct> evaluate_helper(BindableEvent e) throws EventException {
+			return new HashMap<String, Construct>();
+		}
+
+		public void manualTrigger(BindableEvent e) {
+			throw new UnsupportedOperationException("This method is not supported from a shell.");
+		}
+
+		public boolean isCancelled(BindableEvent o) {
+			return false;
+		}
+
+		public void bind() {
+			
+		}
+
+		public void unbind() {
+			
+		}
+	}
 }
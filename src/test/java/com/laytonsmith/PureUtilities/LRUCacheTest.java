@@ -0,0 +1,27 @@
+package com.laytonsmith.PureUtilities;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author layton
+ */
+public class LRUCacheTest {
+
+    @Test
+    public void testEvictsLeastRecentlyUsed() {
+        LRUCache<String, Integer> cache = new LRUCache<String, Integer>(2);
+        cache.put("a", 1);
+        cache.put("b", 2);
+        assertEquals(Integer.valueOf(1), cache.get("a"));
+        cache.put("c", 3);
+        assertNull(cache.get("b"));
+        assertEquals(Integer.valueOf(1), cache.get("a"));
+        assertEquals(Integer.valueOf(3), cache.get("c"));
+        assertEquals(2, cache.size());
+        assertEquals(1, cache.getEvictions());
+        assertEquals(3, cache.getHits());
+        assertEquals(1, cache.getMisses());
+    }
+}
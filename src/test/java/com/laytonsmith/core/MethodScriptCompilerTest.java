@@ -563,7 +563,21 @@ public class MethodScriptCompilerTest {
         assertFalse(s.match("/test"));
         s.run(Arrays.asList(new Variable[]{new Variable("$var", "2", true, false, Target.UNKNOWN)}), env, null);
     }
-    
+
+    @Test
+    public void testDollarVarsDoNotLeakBetweenRuns() throws ConfigCompileException{
+        String config = "/test $var = >>>\n"
+                + "msg($var)"
+                + "<<<";
+        Script s = MethodScriptCompiler.preprocess(MethodScriptCompiler.lex(config, null), env).get(0);
+        s.compile();
+        env.SetPlayer(fakePlayer);
+        s.run(Arrays.asList(new Variable[]{new Variable("$var", "first", true, false, Target.UNKNOWN)}), env, null);
+        s.run(Arrays.asList(new Variable[]{new Variable("$var", "second", true, false, Target.UNKNOWN)}), env, null);
+        verify(fakePlayer).sendMessage("first");
+        verify(fakePlayer).sendMessage("second");
+    }
+
     //TODO: Make this test possible
 //    @Test public void testCompile11() throws ConfigCompileException{
 //        
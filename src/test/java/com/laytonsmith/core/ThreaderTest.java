@@ -0,0 +1,89 @@
+package com.laytonsmith.core;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ *
+ * @author layton
+ */
+public class ThreaderTest {
+
+	@Test
+	public void testPersistanceTasksRunInOrderPerKey() throws Exception {
+		final List<Integer> a = Collections.synchronizedList(new ArrayList<Integer>());
+		final List<Integer> b = Collections.synchronizedList(new ArrayList<Integer>());
+		for (int i = 0; i < 1000; i++) {
+			final int n = i;
+			Threader.GetThreader().submitPersistanceTask("test.a", new Runnable() {
+
+				public void run() {
+					a.add(n);
+				}
+			});
+			Threader.GetThreader().submitPersistanceTask("test.b", new Runnable() {
+
+				public void run() {
+					b.add(n);
+				}
+			});
+		}
+		assertTrue(Threader.GetThreader().awaitPersistanceTasks(10000));
+		assertEquals(1000, a.size());
+		assertEquals(1000, b.size());
+		for (int i = 0; i < 1000; i++) {
+			assertEquals(i, (int) a.get(i));
+			assertEquals(i, (int) b.get(i));
+		}
+	}
+
+	@Test
+	public void testPersistanceKeysDontBlockEachOther() throws Exception {
+		final CountDownLatch release = new CountDownLatch(1);
+		final CountDownLatch ran = new CountDownLatch(1);
+		Threader.GetThreader().submitPersistanceTask("test.slow", new Runnable() {
+
+			public void run() {
+				try {
+					release.await();
+				} catch (InterruptedException ex) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		});
+		Threader.GetThreader().submitPersistanceTask("test.fast", new Runnable() {
+
+			public void run() {
+				ran.countDown();
+			}
+		});
+		assertTrue(ran.await(10, TimeUnit.SECONDS));
+		assertFalse(Threader.GetThreader().awaitPersistanceTasks(10));
+		release.countDown();
+		assertTrue(Threader.GetThreader().awaitPersistanceTasks(10000));
+	}
+
+	@Test
+	public void testFailedPersistanceTaskDoesntStopTheKey() throws Exception {
+		final CountDownLatch ran = new CountDownLatch(1);
+		Threader.GetThreader().submitPersistanceTask("test.fail", new Runnable() {
+
+			public void run() {
+				throw new RuntimeException("Expected");
+			}
+		});
+		Threader.GetThreader().submitPersistanceTask("test.fail", new Runnable() {
+
+			public void run() {
+				ran.countDown();
+			}
+		});
+		assertTrue(ran.await(10, TimeUnit.SECONDS));
+		assertTrue(Threader.GetThreader().awaitPersistanceTasks(10000));
+	}
+}
@@ -0,0 +1,106 @@
+package com.laytonsmith.core.events;
+
+import com.laytonsmith.abstraction.MCPlayer;
+import com.laytonsmith.abstraction.events.MCPlayerJoinEvent;
+import com.laytonsmith.core.Globals;
+import com.laytonsmith.core.Static;
+import com.laytonsmith.core.exceptions.ConfigCompileException;
+import com.laytonsmith.testing.StaticTest;
+import static com.laytonsmith.testing.StaticTest.SRun;
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import org.junit.*;
+import static org.junit.Assert.*;
+import org.junit.runner.RunWith;
+import static org.mockito.Mockito.mock;
+import static org.powermock.api.mockito.PowerMockito.when;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+/**
+ *
+ * @author layton
+ */
+@RunWith(PowerMockRunner.class)
+@PrepareForTest(Static.class)
+public class EventRecorderTest {
+    MCPlayer fakePlayer;
+    File recording;
+
+    @Before
+    public void setUp() throws Exception {
+        fakePlayer = StaticTest.GetOnlinePlayer();
+        StaticTest.InstallFakeConvertor(fakePlayer);
+        Static.InjectPlayer(fakePlayer);
+        recording = File.createTempFile("events", ".rec.gz");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        EventRecorder.Stop();
+        EventUtils.UnregisterAll();
+        Globals.clear();
+        recording.delete();
+    }
+
+    @Test
+    public void testRecordAndReplay() throws ConfigCompileException, IOException {
+        SRun("bind(player_join, array(id: 'joins'), array(player: '" + fakePlayer.getName() + "'), @event,"
+                + " export('lastjoin', @event['join_message']))\n"
+                + "bind(player_join, array(id: 'nobody'), array(player: 'nobody'), @event, export('nobody', true))", null);
+        MCPlayerJoinEvent mcpje = mock(MCPlayerJoinEvent.class);
+        when(mcpje.getPlayer()).thenReturn(fakePlayer);
+        when(mcpje.getJoinMessage()).thenReturn("hello");
+
+        EventRecorder.Start(recording);
+        EventUtils.TriggerListener(Driver.PLAYER_JOIN, "player_join", mcpje);
+        EventUtils.TriggerListener(Driver.PLAYER_JOIN, "player_join", mcpje);
+        EventRecorder.Stop();
+        assertEquals(2, EventRecorder.GetRecordedCount());
+
+        List<EventRecorder.RecordedEvent> events = EventRecorder.Read(recording);
+        assertEquals(2, events.size());
+        assertEquals("player_join", events.get(0).getEventName());
+        assertEquals("hello", events.get(0).getObject().get("join_message").val());
+
+        Globals.clear();
+        EventReplayer.Report report = EventReplayer.Replay(events, 0);
+        assertEquals(2, report.getEvents());
+        assertEquals(0, report.getSkipped());
+        assertEquals(2, report.getHandlers().get("joins").getCount());
+        assertEquals(0, report.getHandlers().get("joins").getErrors());
+        assertFalse(report.getHandlers().containsKey("nobody"));
+        assertEquals("hello", Globals.GetGlobalConstruct("lastjoin").val());
+    }
+
+    @Test
+    public void testReplayIsDispatchedLikeAServerEvent() throws ConfigCompileException, IOException {
+        SRun("bind(player_join, array(id: 'first', priority: 'highest'), null, @event, consume())\n"
+                + "bind(player_join, array(id: 'second'), null, @event, export('second', true))\n"
+                + "bind(player_join, array(id: 'monitor', priority: 'monitor'), array(join_message: '/^h/'), @event,"
+                + " export('monitor', @event['join_message']))", null);
+        MCPlayerJoinEvent mcpje = mock(MCPlayerJoinEvent.class);
+        when(mcpje.getPlayer()).thenReturn(fakePlayer);
+        when(mcpje.getJoinMessage()).thenReturn("hello");
+
+        EventRecorder.Start(recording);
+        EventUtils.TriggerListener(Driver.PLAYER_JOIN, "player_join", mcpje);
+        EventRecorder.Stop();
+
+        Globals.clear();
+        EventReplayer.Report report = EventReplayer.Replay(EventRecorder.Read(recording), 0);
+        assertEquals(1, report.getHandlers().get("first").getCount());
+        //Consumed by the highest priority handler, but the monitor still sees it
+        assertFalse(report.getHandlers().containsKey("second"));
+        assertEquals(1, report.getHandlers().get("monitor").getCount());
+        assertEquals("hello", Globals.GetGlobalConstruct("monitor").val());
+    }
+
+    @Test
+    public void testEmptyReplay() {
+        EventReplayer.Report report = EventReplayer.Replay(java.util.Collections.<EventRecorder.RecordedEvent>emptyList(), 0);
+        assertEquals(0, report.getEvents());
+        assertTrue(report.getHandlers().isEmpty());
+    }
+}
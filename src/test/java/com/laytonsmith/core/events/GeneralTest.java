@@ -2,17 +2,36 @@ package com.laytonsmith.core.events;
 
 
 import com.laytonsmith.abstraction.MCPlayer;
+import com.laytonsmith.abstraction.events.MCPlayerCommandEvent;
 import com.laytonsmith.abstraction.events.MCPlayerJoinEvent;
+import com.laytonsmith.core.Env;
+import com.laytonsmith.core.GenericTreeNode;
+import com.laytonsmith.core.Globals;
+import com.laytonsmith.core.MethodScriptCompiler;
+import com.laytonsmith.core.Script;
 import com.laytonsmith.core.Static;
+import com.laytonsmith.core.constructs.CArray;
+import com.laytonsmith.core.constructs.CNull;
+import com.laytonsmith.core.constructs.CString;
+import com.laytonsmith.core.constructs.Construct;
+import com.laytonsmith.core.constructs.IVariable;
+import com.laytonsmith.core.constructs.Target;
+import com.laytonsmith.core.constructs.Variable;
 import com.laytonsmith.core.exceptions.ConfigCompileException;
+import com.laytonsmith.core.exceptions.ConfigRuntimeException;
+import com.laytonsmith.core.functions.Exceptions;
 import com.laytonsmith.persistance.DataSourceException;
 import com.laytonsmith.persistance.SerializedPersistance;
 import com.laytonsmith.testing.StaticTest;
 import static com.laytonsmith.testing.StaticTest.SRun;
 import java.io.File;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import org.junit.*;
+import static org.junit.Assert.*;
 import org.junit.runner.RunWith;
 import org.mockito.InOrder;
 import org.mockito.Mockito;
@@ -72,7 +91,281 @@ public class GeneralTest {
         //Verify that it ran correctly
         verify(fakePlayer).sendMessage("success");
     }
-    
+
+    @Test
+    public void testUnbindById() throws ConfigCompileException{
+        SRun("bind(player_join, array(id: 'first'), null, @event, msg('first'))\n"
+                + "bind(player_join, array(id: 'second', priority: 'high'), null, @event, msg('second'))\n"
+                + "unbind('first')", null);
+
+        MCPlayerJoinEvent mcpje = mock(MCPlayerJoinEvent.class);
+        when(mcpje.getPlayer()).thenReturn(fakePlayer);
+        EventUtils.TriggerListener(Driver.PLAYER_JOIN, "player_join", mcpje);
+
+        verify(fakePlayer).sendMessage("second");
+        verify(fakePlayer, Mockito.never()).sendMessage("first");
+    }
+
+    @Test
+    public void testHandlersRunInPriorityOrder() throws ConfigCompileException{
+        SRun("bind(player_join, array(priority: 'low'), null, @event, msg('low'))\n"
+                + "bind(player_join, array(priority: 'highest'), null, @event, msg('highest'))\n"
+                + "bind(player_join, null, null, @event, msg('normal'))", null);
+
+        MCPlayerJoinEvent mcpje = mock(MCPlayerJoinEvent.class);
+        when(mcpje.getPlayer()).thenReturn(fakePlayer);
+        EventUtils.TriggerListener(Driver.PLAYER_JOIN, "player_join", mcpje);
+
+        InOrder inOrder = Mockito.inOrder(fakePlayer);
+        inOrder.verify(fakePlayer).sendMessage("highest");
+        inOrder.verify(fakePlayer).sendMessage("normal");
+        inOrder.verify(fakePlayer).sendMessage("low");
+    }
+
+    @Test
+    public void testHandlersGetTheirOwnEventObject() throws ConfigCompileException{
+        SRun("bind(player_join, array(priority: 'high'), null, @event, g(array_set(@event, 'player', 'changed'), msg(@event['player'])))\n"
+                + "bind(player_join, null, null, @event, msg(@event['player']))", null);
+
+        MCPlayerJoinEvent mcpje = mock(MCPlayerJoinEvent.class);
+        when(mcpje.getPlayer()).thenReturn(fakePlayer);
+        EventUtils.TriggerListener(Driver.PLAYER_JOIN, "player_join", mcpje);
+
+        InOrder inOrder = Mockito.inOrder(fakePlayer);
+        inOrder.verify(fakePlayer).sendMessage("changed");
+        inOrder.verify(fakePlayer).sendMessage(fakePlayer.getName());
+    }
+
+    @Test
+    public void testHandlerChangesDontCarryOverToTheNextTrigger() throws ConfigCompileException{
+        SRun("assign(@x, 'orig')\n"
+                + "bind(player_join, null, null, @event, @x, g(msg(@x), assign(@x, 'changed')))", null);
+
+        MCPlayerJoinEvent mcpje = mock(MCPlayerJoinEvent.class);
+        when(mcpje.getPlayer()).thenReturn(fakePlayer);
+        EventUtils.TriggerListener(Driver.PLAYER_JOIN, "player_join", mcpje);
+        EventUtils.TriggerListener(Driver.PLAYER_JOIN, "player_join", mcpje);
+
+        verify(fakePlayer, Mockito.times(2)).sendMessage("orig");
+        verify(fakePlayer, Mockito.never()).sendMessage("changed");
+    }
+
+    @Test
+    public void testHandlerUsesTheEnvFromBindTime() throws ConfigCompileException{
+        SRun("assign(@x, 'orig')\n"
+                + "bind(player_join, null, null, @event, msg(@x))\n"
+                + "assign(@x, 'later')", null);
+
+        MCPlayerJoinEvent mcpje = mock(MCPlayerJoinEvent.class);
+        when(mcpje.getPlayer()).thenReturn(fakePlayer);
+        EventUtils.TriggerListener(Driver.PLAYER_JOIN, "player_join", mcpje);
+
+        verify(fakePlayer).sendMessage("orig");
+    }
+
+    @Test
+    public void testDerivedEnvDoesntChangeItsParent(){
+        Env parent = new Env();
+        Target bound = new Target(1, null, 1);
+        IVariable x = new IVariable("@x", new CString("orig", bound), bound);
+        parent.GetVarList().set(x);
+        parent.SetCustom("key", "orig");
+
+        Env child = parent.derive();
+        assertEquals("orig", child.GetVarList().get("@x", new Target(2, null, 2)).val());
+        //Other handlers may be reading the parent's variable at the same time
+        assertSame(bound, x.getTarget());
+        child.SetCustom("key", "changed");
+        assertEquals("orig", parent.GetCustom("key"));
+        assertEquals("changed", child.GetCustom("key"));
+    }
+
+    @Test
+    public void testBindInAliasKeepsDollarVars() throws ConfigCompileException{
+        Env env = new Env();
+        env.SetPlayer(fakePlayer);
+        Script s = MethodScriptCompiler.preprocess(MethodScriptCompiler.lex("/test $var = >>>\n"
+                + "bind(player_join, null, null, @event, msg($var))\n"
+                + "<<<", null), env).get(0);
+        s.compile();
+        s.run(Arrays.asList(new Variable[]{new Variable("$var", "passed", true, false, Target.UNKNOWN)}), env, null);
+
+        //The alias has returned, so its $vars are gone from its env, but the handler still has them
+        MCPlayerJoinEvent mcpje = mock(MCPlayerJoinEvent.class);
+        when(mcpje.getPlayer()).thenReturn(fakePlayer);
+        EventUtils.TriggerListener(Driver.PLAYER_JOIN, "player_join", mcpje);
+
+        verify(fakePlayer).sendMessage("passed");
+    }
+
+    @Test
+    public void testIndexedPrefilters() throws ConfigCompileException{
+        SRun("bind(player_command, null, array(command: '/a'), @event, msg('a'))\n"
+                + "bind(player_command, null, array(command: '/b'), @event, msg('b'))\n"
+                + "bind(player_command, array(priority: 'highest'), null, @event, msg('any'))\n"
+                + "bind(player_command, array(priority: 'low'), array(command: '/a'), @event, msg('a low'))", null);
+
+        MCPlayerCommandEvent mcpce = mock(MCPlayerCommandEvent.class);
+        when(mcpce.getPlayer()).thenReturn(fakePlayer);
+        when(mcpce.getCommand()).thenReturn("/a");
+        EventUtils.TriggerListener(Driver.PLAYER_COMMAND, "player_command", mcpce);
+
+        InOrder inOrder = Mockito.inOrder(fakePlayer);
+        inOrder.verify(fakePlayer).sendMessage("any");
+        inOrder.verify(fakePlayer).sendMessage("a");
+        inOrder.verify(fakePlayer).sendMessage("a low");
+        verify(fakePlayer, Mockito.never()).sendMessage("b");
+    }
+
+    @Test
+    public void testMalformedPrefiltersAreRejectedByBind() throws ConfigCompileException{
+        String[] binds = new String[]{
+            "bind(player_join, null, array(join_message: '/[/'), @event, msg('a'))",
+            "bind(player_spawn, null, array(x: '(x > )'), @event, msg('a'))",
+            "bind(player_chat, null, array(player: '/[/'), @event, msg('a'))",
+        };
+        for(String bind : binds){
+            try{
+                SRun(bind, null);
+                fail("Expected " + bind + " to be rejected");
+            } catch(ConfigRuntimeException e){
+                assertEquals(bind, Exceptions.ExceptionType.BindException, e.getExceptionType());
+            }
+        }
+    }
+
+    @Test
+    public void testDriverListensOnlyWhileBound() throws ConfigCompileException{
+        assertFalse(StaticTest.FakeServerMixin.listening.contains(Driver.PLAYER_JOIN));
+        SRun("bind(player_join, array(id: 'a'), null, @event, msg('a'))\n"
+                + "bind(player_join, array(id: 'b'), null, @event, msg('b'))", null);
+        assertTrue(StaticTest.FakeServerMixin.listening.contains(Driver.PLAYER_JOIN));
+        SRun("unbind('a')", null);
+        assertTrue(StaticTest.FakeServerMixin.listening.contains(Driver.PLAYER_JOIN));
+        SRun("unbind('b')", null);
+        assertFalse(StaticTest.FakeServerMixin.listening.contains(Driver.PLAYER_JOIN));
+    }
+
+    @Test(timeout=10000)
+    public void testDebounceCoalescedByParameter() throws Exception{
+        SRun("bind(player_command, array(id: 'debounced', debounce: 200, 'coalesce-by': 'command'), null, @event, msg(@event['command']))", null);
+
+        MCPlayerCommandEvent a = mock(MCPlayerCommandEvent.class);
+        when(a.getPlayer()).thenReturn(fakePlayer);
+        when(a.getCommand()).thenReturn("/a");
+        MCPlayerCommandEvent b = mock(MCPlayerCommandEvent.class);
+        when(b.getPlayer()).thenReturn(fakePlayer);
+        when(b.getCommand()).thenReturn("/b");
+        EventUtils.TriggerListener(Driver.PLAYER_COMMAND, "player_command", a);
+        EventUtils.TriggerListener(Driver.PLAYER_COMMAND, "player_command", a);
+        EventUtils.TriggerListener(Driver.PLAYER_COMMAND, "player_command", b);
+        EventUtils.TriggerListener(Driver.PLAYER_COMMAND, "player_command", a);
+
+        //Nothing runs until the burst is over
+        verify(fakePlayer, Mockito.never()).sendMessage("/a");
+        verify(fakePlayer, Mockito.timeout(5000).times(1)).sendMessage("/a");
+        verify(fakePlayer, Mockito.timeout(5000).times(1)).sendMessage("/b");
+        assertEquals(2, EventUtils.GetBoundEvent("debounced").getSuppressedCount());
+    }
+
+    @Test(timeout=10000)
+    public void testDebounceWaitsForTheStreamToStop() throws Exception{
+        SRun("bind(player_command, array(id: 'debounced', debounce: 200), null, @event, msg(@event['command']))", null);
+
+        MCPlayerCommandEvent a = mock(MCPlayerCommandEvent.class);
+        when(a.getPlayer()).thenReturn(fakePlayer);
+        when(a.getCommand()).thenReturn("/a");
+        MCPlayerCommandEvent last = mock(MCPlayerCommandEvent.class);
+        when(last.getPlayer()).thenReturn(fakePlayer);
+        when(last.getCommand()).thenReturn("/last");
+        //A steady stream, which is never quiet for long enough
+        for(int i = 0; i < 10; i++){
+            EventUtils.TriggerListener(Driver.PLAYER_COMMAND, "player_command", a);
+            Thread.sleep(50);
+        }
+        EventUtils.TriggerListener(Driver.PLAYER_COMMAND, "player_command", last);
+        verify(fakePlayer, Mockito.never()).sendMessage("/a");
+        //Once it stops, the handler runs once, with the last event
+        verify(fakePlayer, Mockito.timeout(5000).times(1)).sendMessage("/last");
+        verify(fakePlayer, Mockito.never()).sendMessage("/a");
+        assertEquals(10, EventUtils.GetBoundEvent("debounced").getSuppressedCount());
+    }
+
+    @Test(expected=ConfigRuntimeException.class)
+    public void testInvalidDebounce() throws ConfigCompileException{
+        SRun("bind(player_join, array(debounce: 'soon'), null, @event, msg('a'))", null);
+    }
+
+    @Test(timeout=10000)
+    public void testAsyncMonitorHandler() throws Exception{
+        Globals.clear();
+        SRun("bind(player_join, array(priority: 'monitor', async: true), null, @event, export('asyncjoin', @event['player']))", null);
+        MCPlayerJoinEvent mcpje = mock(MCPlayerJoinEvent.class);
+        when(mcpje.getPlayer()).thenReturn(fakePlayer);
+        EventUtils.TriggerListener(Driver.PLAYER_JOIN, "player_join", mcpje);
+        while(Globals.GetGlobalConstruct("asyncjoin") instanceof CNull){
+            Thread.sleep(10);
+        }
+        assertEquals(fakePlayer.getName(), Globals.GetGlobalConstruct("asyncjoin").val());
+    }
+
+    @Test(expected=ConfigRuntimeException.class)
+    public void testAsyncRequiresMonitor() throws ConfigCompileException{
+        SRun("bind(player_join, array(async: true), null, @event, export('a', 1))", null);
+    }
+
+    @Test(expected=ConfigRuntimeException.class)
+    public void testAsyncRejectsMainThreadFunctions() throws ConfigCompileException{
+        SRun("bind(player_join, array(priority: 'monitor', async: true), null, @event, msg('a'))", null);
+    }
+
+    @Test(timeout=60000)
+    public void testConcurrentBindDuringDispatch() throws Exception{
+        SRun("bind(player_join, array(id: 'stable'), null, @event, msg('stable'))", null);
+        final GenericTreeNode<Construct> noop = MethodScriptCompiler.compile(MethodScriptCompiler.lex("null", null));
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        final AtomicBoolean running = new AtomicBoolean(true);
+        Thread[] binders = new Thread[4];
+        for(int i = 0; i < binders.length; i++){
+            final int n = i;
+            binders[i] = new Thread(new Runnable() {
+                public void run() {
+                    try{
+                        int j = 0;
+                        while(running.get()){
+                            CArray options = new CArray(Target.UNKNOWN);
+                            options.set("id", "stress" + n + "_" + j, Target.UNKNOWN);
+                            EventUtils.RegisterEvent(new BoundEvent("player_join", options, null, "@event", new Env(), noop, Target.UNKNOWN));
+                            EventUtils.UnregisterEvent("stress" + n + "_" + j);
+                            j++;
+                        }
+                    } catch(Throwable t){
+                        failure.set(t);
+                    }
+                }
+            });
+            binders[i].start();
+        }
+        MCPlayerJoinEvent mcpje = mock(MCPlayerJoinEvent.class);
+        when(mcpje.getPlayer()).thenReturn(fakePlayer);
+        int fired = 500;
+        try{
+            for(int i = 0; i < fired; i++){
+                EventUtils.TriggerListener(Driver.PLAYER_JOIN, "player_join", mcpje);
+            }
+        } finally {
+            running.set(false);
+            for(Thread t : binders){
+                t.join();
+            }
+        }
+        if(failure.get() != null){
+            throw new AssertionError(failure.get());
+        }
+        verify(fakePlayer, Mockito.times(fired)).sendMessage("stable");
+        assertEquals(1, EventUtils.GetHandlers("player_join").length);
+    }
+
     //This is an invalid test. It's working as expected, because the proc is not in scope
     //When the event is run.
 //    @Test 
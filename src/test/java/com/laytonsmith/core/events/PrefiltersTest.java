@@ -4,11 +4,14 @@ package com.laytonsmith.core.events;
 
 import com.laytonsmith.core.constructs.Construct;
 import com.laytonsmith.core.events.Prefilters.PrefilterType;
+import com.laytonsmith.core.exceptions.ConfigRuntimeException;
+import com.laytonsmith.core.exceptions.EventException;
 import com.laytonsmith.core.exceptions.PrefilterNonMatchException;
 import com.laytonsmith.testing.C;
 import java.util.HashMap;
 import java.util.Map;
 import org.junit.*;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 /**
@@ -146,4 +149,102 @@ public class PrefiltersTest {
         } catch (PrefilterNonMatchException e) {
         }
     }
+    
+    private static Map<String, PrefilterType> Types(String key, PrefilterType type){
+        Map<String, PrefilterType> types = new HashMap<String, PrefilterType>();
+        types.put(key, type);
+        return types;
+    }
+    
+    @Test public void testCompiledExpressionMatch() throws EventException{
+        Map<String, Construct> map = new HashMap<String, Construct>();
+        map.put("x", C.String("(x > 4)"));
+        map = Prefilters.compile(map, Types("x", PrefilterType.EXPRESSION));
+        for(int i = 0; i < 2; i++){
+            try {
+                Prefilters.match(map, "x", "5", PrefilterType.EXPRESSION);
+            } catch (PrefilterNonMatchException e) {
+                fail("Expected a match here");
+            }
+            try {
+                Prefilters.match(map, "x", "4", PrefilterType.EXPRESSION);
+                fail("Did not expect a match here");
+            } catch (PrefilterNonMatchException e) {
+            }
+        }
+    }
+    
+    @Test public void testInvalidPrefiltersAreRejectedWhenCompiled(){
+        Map<String, Construct> map = new HashMap<String, Construct>();
+        map.put("x", C.String("/[/"));
+        map.put("y", C.String("(y > )"));
+        map.put("z", C.String("plain"));
+        try {
+            Prefilters.compile(map, Types("x", PrefilterType.REGEX));
+            fail("Expected the invalid regex to be rejected");
+        } catch (EventException e) {
+        }
+        try {
+            Prefilters.compile(map, Types("y", PrefilterType.EXPRESSION));
+            fail("Expected the invalid expression to be rejected");
+        } catch (EventException e) {
+        }
+        try {
+            Prefilters.compile(map, Types("x", PrefilterType.MACRO));
+            fail("Expected the invalid regex to be rejected as a macro");
+        } catch (EventException e) {
+        }
+        try {
+            Prefilters.compile(map, Types("y", PrefilterType.MACRO));
+            fail("Expected the invalid expression to be rejected as a macro");
+        } catch (EventException e) {
+        }
+        try {
+            Prefilters.compile(map, Types("z", PrefilterType.REGEX));
+            fail("Expected a value that isn't in regex format to be rejected");
+        } catch (EventException e) {
+        }
+    }
+    
+    @Test public void testUndeclaredPrefiltersAreRejectedWhenMatched() throws PrefilterNonMatchException, EventException{
+        Map<String, Construct> map = new HashMap<String, Construct>();
+        map.put("x", C.String("/[/"));
+        map.put("y", C.String("(y > )"));
+        map = Prefilters.compile(map, new HashMap<String, PrefilterType>());
+        try {
+            Prefilters.match(map, "x", "[", PrefilterType.REGEX);
+            fail("Expected the invalid regex to be rejected");
+        } catch (ConfigRuntimeException e) {
+        }
+        try {
+            Prefilters.match(map, "y", "5", PrefilterType.EXPRESSION);
+            fail("Expected the invalid expression to be rejected");
+        } catch (ConfigRuntimeException e) {
+        }
+    }
+    
+    @Test public void testValuesAreOnlyCompiledForTheirType() throws PrefilterNonMatchException, EventException{
+        Map<String, Construct> map = new HashMap<String, Construct>();
+        map.put("message", C.String("(the end)"));
+        map.put("open", C.String("(x"));
+        map.put("sign", C.String("(Shop)"));
+        //Looks like an expression, but it's only used as a string
+        map = Prefilters.compile(map, Types("message", PrefilterType.STRING_MATCH));
+        Prefilters.match(map, "message", "(the end)", PrefilterType.STRING_MATCH);
+        //Not in expression format, so it's a string
+        Prefilters.match(map, "open", "(x", PrefilterType.MACRO);
+        //In expression format, so a macro treats it as one, and it isn't valid
+        try {
+            Prefilters.match(map, "message", "(the end)", PrefilterType.MACRO);
+            fail("Expected the invalid expression to be rejected");
+        } catch (ConfigRuntimeException e) {
+        }
+        //Not in regex format, so it's a regex error, not an expression error
+        try {
+            Prefilters.match(map, "sign", "Shop", PrefilterType.REGEX);
+            fail("Expected the value to be rejected");
+        } catch (ConfigRuntimeException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("regex"));
+        }
+    }
 }
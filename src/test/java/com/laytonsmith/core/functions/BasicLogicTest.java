@@ -368,6 +368,49 @@ public class BasicLogicTest {
                 + "5, wrong)", null));
     }
 
+    @Test(timeout = 10000)
+    public void testSwitchLiteralTable() throws ConfigCompileException {
+        assertEquals("correct", SRun("switch('1.0',"
+                + "'a', wrong,"
+                + "1, correct,"
+                + "'1.0', wrong)", null));
+        assertEquals("correct", SRun("switch(true,"
+                + "0, wrong,"
+                + "'', wrong,"
+                + "'text', correct,"
+                + "true, wrong)", null));
+        assertEquals("correct", SRun("switch('x',"
+                + "false, wrong,"
+                + "true, correct,"
+                + "'x', wrong)", null));
+        assertEquals("correct", SRun("switch(0,"
+                + "null, correct,"
+                + "0, wrong)", null));
+        assertEquals("correct", SRun("switch(7,"
+                + "array(1, 2), wrong,"
+                + "array('7', 8), correct,"
+                + "7, wrong)", null));
+    }
+
+    @Test(timeout = 10000)
+    public void testSwitchMixedDynamicCases() throws ConfigCompileException {
+        assertEquals("correct", SRun("assign(@a, 3)"
+                + "switch(3,"
+                + "1, wrong,"
+                + "@a, correct,"
+                + "3, wrong)", null));
+        assertEquals("correct", SRun("assign(@a, 5)"
+                + "switch(3,"
+                + "@a, wrong,"
+                + "3, correct,"
+                + "add(1, 2), wrong)", null));
+        assertEquals("correct", SRun("assign(@a, 4)"
+                + "switch(4,"
+                + "1, wrong,"
+                + "2, wrong,"
+                + "array(@a), correct)", null));
+    }
+
     @Test(timeout = 10000)
     public void testSequals() throws ConfigCompileException {
         assertEquals("true", SRun("sequals(1, 1)", null));
@@ -0,0 +1,145 @@
+package com.laytonsmith.core.functions;
+
+import com.laytonsmith.PureUtilities.FileUtility;
+import com.laytonsmith.core.GenericTreeNode;
+import com.laytonsmith.core.constructs.Construct;
+import com.laytonsmith.core.constructs.Target;
+import java.io.File;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import static org.junit.Assert.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ *
+ * @author Layton
+ */
+public class IncludeCacheTest {
+
+    File folder;
+
+    @Before
+    public void setUp() throws Exception {
+        //Includes have to be under the base dir, which defaults to the working directory
+        folder = new File("include-cache-test");
+        folder.mkdirs();
+        IncludeCache.configure(0, 0);
+        IncludeCache.clearCache();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        IncludeCache.configure(0, 0);
+        IncludeCache.clearCache();
+        FileUtility.recursiveDelete(folder);
+    }
+
+    private File write(String name, String script) throws Exception {
+        File f = new File(folder, name);
+        FileUtility.write(script, f);
+        return f;
+    }
+
+    private static GenericTreeNode<Construct> get(File f) {
+        return IncludeCache.get(f, Target.UNKNOWN);
+    }
+
+    @Test(timeout = 10000)
+    public void testCacheHit() throws Exception {
+        File f = write("hit.ms", "msg('a')");
+        GenericTreeNode<Construct> first = get(f);
+        assertSame(first, get(f));
+        //A different path to the same file is the same entry
+        assertSame(first, get(new File(folder.getAbsoluteFile(), "hit.ms")));
+    }
+
+    @Test(timeout = 10000)
+    public void testChangedSizeIsRecompiled() throws Exception {
+        File f = write("size.ms", "msg('a')");
+        long lastModified = f.lastModified();
+        GenericTreeNode<Construct> first = get(f);
+        write("size.ms", "msg('abc')");
+        //Only the size changes
+        f.setLastModified(lastModified);
+        GenericTreeNode<Construct> second = get(f);
+        assertNotSame(first, second);
+        assertSame(second, get(f));
+    }
+
+    @Test(timeout = 10000)
+    public void testChangedModificationTimeIsRecompiled() throws Exception {
+        File f = write("mtime.ms", "msg('a')");
+        GenericTreeNode<Construct> first = get(f);
+        write("mtime.ms", "msg('b')");
+        //Only the modification time changes
+        f.setLastModified(f.lastModified() + 10000);
+        GenericTreeNode<Construct> second = get(f);
+        assertNotSame(first, second);
+        assertSame(second, get(f));
+    }
+
+    @Test(timeout = 30000)
+    public void testConcurrentFirstLoadIsCompiledOnce() throws Exception {
+        StringBuilder script = new StringBuilder();
+        for (int i = 0; i < 500; i++) {
+            script.append("assign(@a").append(i).append(", ").append(i).append(")\n");
+        }
+        final File f = write("concurrent.ms", script.toString());
+        int threads = 8;
+        final CountDownLatch start = new CountDownLatch(1);
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            Future<?>[] results = new Future<?>[threads];
+            for (int i = 0; i < threads; i++) {
+                results[i] = pool.submit(new Callable<GenericTreeNode<Construct>>() {
+
+                    public GenericTreeNode<Construct> call() throws Exception {
+                        start.await();
+                        return get(f);
+                    }
+                });
+            }
+            start.countDown();
+            Object first = results[0].get();
+            assertNotNull(first);
+            for (Future<?> result : results) {
+                //If any thread had compiled it separately, it would have a different tree
+                assertSame(first, result.get());
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void testLeastRecentlyUsedIsEvicted() throws Exception {
+        IncludeCache.configure(2, 0);
+        File a = write("a.ms", "msg('a')");
+        File b = write("b.ms", "msg('b')");
+        File c = write("c.ms", "msg('c')");
+        GenericTreeNode<Construct> treeA = get(a);
+        GenericTreeNode<Construct> treeB = get(b);
+        //a is now the most recently used, so b is evicted to make room for c
+        assertSame(treeA, get(a));
+        GenericTreeNode<Construct> treeC = get(c);
+        assertSame(treeA, get(a));
+        assertSame(treeC, get(c));
+        assertNotSame(treeB, get(b));
+    }
+
+    @Test(timeout = 10000)
+    public void testConfigureTrimsTheCache() throws Exception {
+        File a = write("a.ms", "msg('a')");
+        File b = write("b.ms", "msg('b')");
+        GenericTreeNode<Construct> treeA = get(a);
+        GenericTreeNode<Construct> treeB = get(b);
+        IncludeCache.configure(1, 0);
+        assertSame(treeB, get(b));
+        assertNotSame(treeA, get(a));
+    }
+}
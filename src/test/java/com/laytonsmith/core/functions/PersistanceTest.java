@@ -0,0 +1,107 @@
+package com.laytonsmith.core.functions;
+
+import com.laytonsmith.PureUtilities.FileUtility;
+import com.laytonsmith.abstraction.MCPlayer;
+import com.laytonsmith.core.Globals;
+import com.laytonsmith.core.Static;
+import com.laytonsmith.core.Threader;
+import com.laytonsmith.core.constructs.CArray;
+import com.laytonsmith.core.constructs.CNull;
+import com.laytonsmith.core.constructs.Construct;
+import com.laytonsmith.persistance.SerializedPersistance;
+import com.laytonsmith.testing.StaticTest;
+import static com.laytonsmith.testing.StaticTest.SRun;
+import java.io.File;
+import static org.junit.Assert.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+/**
+ *
+ * @author layton
+ */
+@RunWith(PowerMockRunner.class)
+@PrepareForTest(Static.class)
+public class PersistanceTest {
+
+    MCPlayer fakePlayer;
+    SerializedPersistance oldPersist;
+    File folder;
+    File db;
+    File journal;
+
+    @Before
+    public void setUp() throws Exception {
+        fakePlayer = StaticTest.GetOnlinePlayer();
+        StaticTest.InstallFakeConvertor(fakePlayer);
+        folder = File.createTempFile("persistance", "");
+        folder.delete();
+        folder.mkdirs();
+        db = new File(folder, "persistance.ser");
+        journal = new File(folder, "persistance.ser.journal");
+        oldPersist = Static.persist;
+        Static.persist = new SerializedPersistance(db);
+        Static.persist.setCompactionThreshold(Long.MAX_VALUE);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        Static.persist.close();
+        Static.persist = oldPersist;
+        Globals.clear();
+        FileUtility.recursiveDelete(folder);
+    }
+
+    @Test(timeout = 10000)
+    public void testStoreValueDoesntRewriteSnapshot() throws Exception {
+        Static.persist.setValue(new String[]{"storage", "other"}, "\"value\"");
+        Static.persist.save();
+        long snapshot = db.length();
+        long modified = db.lastModified();
+        long journalSize = journal.length();
+        SRun("store_value('test.key', 'value')", fakePlayer);
+        assertEquals(snapshot, db.length());
+        assertEquals(modified, db.lastModified());
+        assertTrue(journal.length() > journalSize);
+        assertEquals("value", SRun("get_value('test.key')", fakePlayer));
+    }
+
+    @Test(timeout = 10000)
+    public void testAsyncStoreThenGet() throws Exception {
+        SRun("store_value_async('test.key', 'old')\n"
+                + "store_value_async('test.key', 'new', closure(@ex, export('stored', is_null(@ex))))\n"
+                + "get_value_async('test.key', closure(@value, export('got', @value)))", fakePlayer);
+        assertTrue(Threader.GetThreader().awaitPersistanceTasks(5000));
+        //The get was queued behind the stores of the same key, so it sees the last one
+        assertEquals("true", Await("stored").val());
+        assertEquals("new", Await("got").val());
+        assertEquals("new", SRun("get_value('test.key')", fakePlayer));
+    }
+
+    @Test(timeout = 10000)
+    public void testAsyncStoreFailureReachesTheCallback() throws Exception {
+        //Loads the database, so the journal isn't read below
+        assertNull(Static.persist.getValue(new String[]{"storage", "test.key"}));
+        //Nothing can be appended to a directory
+        assertTrue(journal.mkdirs());
+        SRun("store_value_async('test.key', 'value', closure(@ex, export('error', @ex)))", fakePlayer);
+        assertTrue(Threader.GetThreader().awaitPersistanceTasks(5000));
+        Construct error = Await("error");
+        assertTrue(error instanceof CArray);
+        assertEquals("IOException", ((CArray) error).get(0).val());
+    }
+
+    /**
+     * The callbacks are run later, on another thread, so this waits until the value has been exported.
+     */
+    private static Construct Await(String name) throws InterruptedException {
+        while (Globals.GetGlobalConstruct(name) instanceof CNull) {
+            Thread.sleep(10);
+        }
+        return Globals.GetGlobalConstruct(name);
+    }
+}
@@ -2,12 +2,16 @@
 
 package com.laytonsmith.core.functions;
 
+import com.laytonsmith.core.Env;
+import com.laytonsmith.core.GenericTreeNode;
 import com.laytonsmith.core.MethodScriptCompiler;
+import com.laytonsmith.core.constructs.Construct;
 import com.laytonsmith.core.exceptions.ConfigCompileException;
 import com.laytonsmith.core.exceptions.ConfigRuntimeException;
 import static com.laytonsmith.testing.StaticTest.SRun;
 import org.junit.*;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.fail;
 
 /**
@@ -84,4 +88,30 @@ public class RegexTest {
     public void testRegFailureDynamic() throws ConfigCompileException{
         SRun("assign(@a, '(?i)asd(') reg_match(@a, 'irrelevant')", null);        
     }
+    
+    @Test(timeout = 10000)
+    public void testDynamicPatternIsCached() throws ConfigCompileException{
+        long misses = Regex.getPatternCache().getMisses();
+        long hits = Regex.getPatternCache().getHits();
+        assertEquals("{ab}", SRun("assign(@a, 'a(?=b)b') reg_match(@a, 'xxab')", null));
+        assertEquals("{ab}", SRun("assign(@a, 'a(?=b)b') reg_match(@a, 'yyab')", null));
+        assertEquals(misses + 1, Regex.getPatternCache().getMisses());
+        assertEquals(hits + 1, Regex.getPatternCache().getHits());
+    }
+    
+    @Test(timeout = 10000)
+    public void testLiteralPatternIsKeptWithTheTree() throws ConfigCompileException{
+        long misses = Regex.getPatternCache().getMisses();
+        long hits = Regex.getPatternCache().getHits();
+        int size = Regex.getPatternCache().size();
+        //Compiling the literal doesn't go through the cache either
+        GenericTreeNode<Construct> tree = MethodScriptCompiler.compile(
+                MethodScriptCompiler.lex("assign(@s, 'xxac') reg_match('a(?=c)c', @s)", null));
+        MethodScriptCompiler.execute(tree, new Env(), null, null);
+        MethodScriptCompiler.execute(tree, new Env(), null, null);
+        assertEquals(misses, Regex.getPatternCache().getMisses());
+        assertEquals(hits, Regex.getPatternCache().getHits());
+        assertEquals(size, Regex.getPatternCache().size());
+        assertFalse(Regex.getPatternCache().containsKey("0:a(?=c)c"));
+    }
 }
@@ -0,0 +1,86 @@
+package com.laytonsmith.persistance;
+
+import com.laytonsmith.PureUtilities.Pair;
+import com.laytonsmith.PureUtilities.StringUtils;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ *
+ * @author lsmith
+ */
+public class DataSourceModelTest {
+
+	private static List<String> Keys(DataSourceModel model) {
+		List<String> keys = new ArrayList<String>();
+		for (String[] key : model.keySet()) {
+			keys.add(StringUtils.Join(key, "."));
+		}
+		return keys;
+	}
+
+	@Test
+	public void testBuildFromMap() {
+		Map<String, Object> b = new LinkedHashMap<String, Object>();
+		b.put("c1", "value2");
+		b.put("_", "value1");
+		b.put("c2", "value3");
+		Map<String, Object> a = new LinkedHashMap<String, Object>();
+		a.put("b", b);
+		a.put("d", "value4");
+		Map<String, Object> root = new LinkedHashMap<String, Object>();
+		root.put("a", a);
+		DataSourceModel model = new DataSourceModel(root);
+		assertEquals("value1", model.get(new String[]{"a", "b"}));
+		assertEquals("value3", model.get(new String[]{"a", "b", "c2"}));
+		assertNull(model.get(new String[]{"a"}));
+		assertNull(model.get(new String[]{"a", "x", "y"}));
+		assertEquals(Arrays.asList("a.b", "a.b.c1", "a.b.c2", "a.d"), Keys(model));
+		assertEquals(root, model.toMap());
+	}
+
+	@Test
+	public void testSetAndClear() {
+		List<Pair<String, String>> list = new ArrayList<Pair<String, String>>();
+		list.add(new Pair<String, String>("x.y", "1"));
+		list.add(new Pair<String, String>("x.z", "2"));
+		DataSourceModel model = new DataSourceModel(list);
+		model.set(new String[]{"x", "y"}, "3");
+		model.set(new String[]{"w"}, "4");
+		assertEquals(Arrays.asList("x.y", "x.z", "w"), Keys(model));
+
+		model.clearKey(new String[]{"x", "y"});
+		assertNull(model.get(new String[]{"x", "y"}));
+		assertEquals(Arrays.asList("x.z", "w"), Keys(model));
+
+		//Clearing a parent removes its children too
+		model.clearKey(new String[]{"x"});
+		assertEquals(Arrays.asList("w"), Keys(model));
+		Map<String, Object> expected = new HashMap<String, Object>();
+		expected.put("w", "4");
+		assertEquals(expected, model.toMap());
+	}
+
+	@Test
+	public void testWideNamespace() {
+		DataSourceModel model = new DataSourceModel((Map<String, Object>) null);
+		for (int i = 0; i < 100000; i++) {
+			model.set(new String[]{"players", "player" + i, "name"}, "player" + i);
+		}
+		long start = System.currentTimeMillis();
+		for (int i = 0; i < 100000; i++) {
+			assertEquals("player" + i, model.get(new String[]{"players", "player" + i, "name"}));
+		}
+		long elapsed = System.currentTimeMillis() - start;
+		//A linear scan of the siblings would take minutes
+		assertTrue("100000 gets took " + elapsed + " ms", elapsed < 10000);
+		assertEquals(100000, model.keySet().size());
+		assertEquals("players.player99999.name", StringUtils.Join(model.keySet().get(99999), "."));
+	}
+}
@@ -0,0 +1,342 @@
+package com.laytonsmith.persistance;
+
+import com.laytonsmith.PureUtilities.FileUtility;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import org.junit.After;
+import static org.junit.Assert.*;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ *
+ * @author layton
+ */
+public class SerializedPersistanceTest {
+
+	File folder;
+	File db;
+	File journal;
+
+	@Before
+	public void setUp() throws Exception {
+		folder = File.createTempFile("persistance", "");
+		folder.delete();
+		folder.mkdirs();
+		db = new File(folder, "persistance.ser");
+		journal = new File(folder, "persistance.ser.journal");
+	}
+
+	@After
+	public void tearDown() {
+		FileUtility.recursiveDelete(folder);
+	}
+
+	@Test
+	public void testWritesOnlyAppendToJournal() throws Exception {
+		SerializedPersistance p = new SerializedPersistance(db);
+		p.setValue(new String[]{"a", "b"}, "value");
+		p.save();
+		long snapshot = db.length();
+		long modified = db.lastModified();
+		p.setCompactionThreshold(Long.MAX_VALUE);
+		long start = System.currentTimeMillis();
+		for (int i = 0; i < 10000; i++) {
+			p.setValue(new String[]{"player", "player" + i, "name"}, "player" + i);
+		}
+		long elapsed = System.currentTimeMillis() - start;
+		//Rewriting the whole file each time would take minutes, appending takes well under a second
+		assertTrue("10000 writes took " + elapsed + " ms", elapsed < 10000);
+		assertEquals(snapshot, db.length());
+		assertEquals(modified, db.lastModified());
+		assertTrue(journal.length() > 0);
+
+		SerializedPersistance reopened = new SerializedPersistance(db);
+		assertEquals("value", reopened.getValue(new String[]{"a", "b"}));
+		assertEquals("player9999", reopened.getValue(new String[]{"player", "player9999", "name"}));
+		assertEquals(10001, reopened.rawData().size());
+	}
+
+	@Test
+	public void testRemoveIsJournaled() throws Exception {
+		SerializedPersistance p = new SerializedPersistance(db);
+		p.setValue(new String[]{"a"}, "1");
+		p.save();
+		p.setValue(new String[]{"a"}, null);
+		p.setValue(new String[]{"b"}, "2");
+
+		SerializedPersistance reopened = new SerializedPersistance(db);
+		assertNull(reopened.getValue(new String[]{"a"}));
+		assertEquals("2", reopened.getValue(new String[]{"b"}));
+	}
+
+	@Test
+	public void testSaveEmptiesJournal() throws Exception {
+		SerializedPersistance p = new SerializedPersistance(db);
+		p.setValue(new String[]{"a"}, "1");
+		p.setValue(new String[]{"b"}, "2");
+		p.close();
+		assertFalse(journal.exists());
+		assertFalse(new File(folder, "persistance.ser.compacting").exists());
+
+		SerializedPersistance reopened = new SerializedPersistance(db);
+		assertEquals("1", reopened.getValue(new String[]{"a"}));
+		assertEquals("2", reopened.getValue(new String[]{"b"}));
+	}
+
+	@Test
+	public void testBackgroundCompaction() throws Exception {
+		SerializedPersistance p = new SerializedPersistance(db);
+		p.setCompactionThreshold(4096);
+		for (int i = 0; i < 1000; i++) {
+			p.setValue(new String[]{"key" + i}, "value" + i);
+		}
+		p.close();
+		assertTrue(db.exists());
+		assertFalse(journal.exists());
+		SerializedPersistance reopened = new SerializedPersistance(db);
+		for (int i = 0; i < 1000; i++) {
+			assertEquals("value" + i, reopened.getValue(new String[]{"key" + i}));
+		}
+	}
+
+	@Test
+	public void testRecoversFromTornTail() throws Exception {
+		SerializedPersistance p = new SerializedPersistance(db);
+		p.setValue(new String[]{"a"}, "1");
+		p.setValue(new String[]{"b"}, "2");
+		long good = journal.length();
+		p.setValue(new String[]{"c"}, "3");
+		//Simulate a crash in the middle of writing the last record
+		RandomAccessFile raf = new RandomAccessFile(journal, "rw");
+		raf.setLength(journal.length() - 3);
+		raf.close();
+
+		SerializedPersistance reopened = new SerializedPersistance(db);
+		assertEquals("1", reopened.getValue(new String[]{"a"}));
+		assertEquals("2", reopened.getValue(new String[]{"b"}));
+		assertNull(reopened.getValue(new String[]{"c"}));
+		assertEquals(1, reopened.getDiscardedRecords());
+		assertEquals(good, journal.length());
+
+		//New records must not end up behind the garbage
+		reopened.setValue(new String[]{"d"}, "4");
+		SerializedPersistance again = new SerializedPersistance(db);
+		assertEquals("4", again.getValue(new String[]{"d"}));
+		assertEquals(0, again.getDiscardedRecords());
+	}
+
+	@Test
+	public void testRecoversFromCorruptRecord() throws Exception {
+		SerializedPersistance p = new SerializedPersistance(db);
+		p.setValue(new String[]{"a"}, "1");
+		long good = journal.length();
+		p.setValue(new String[]{"b"}, "2");
+		RandomAccessFile raf = new RandomAccessFile(journal, "rw");
+		raf.seek(journal.length() - 1);
+		raf.write('x');
+		raf.close();
+
+		SerializedPersistance reopened = new SerializedPersistance(db);
+		assertEquals("1", reopened.getValue(new String[]{"a"}));
+		assertNull(reopened.getValue(new String[]{"b"}));
+		assertEquals(good, journal.length());
+	}
+
+	@Test
+	public void testRecoversFromInterruptedCompaction() throws Exception {
+		SerializedPersistance p = new SerializedPersistance(db);
+		p.setValue(new String[]{"a"}, "1");
+		p.save();
+		p.setValue(new String[]{"a"}, "2");
+		p.setValue(new String[]{"b"}, "2");
+		//As if the compaction had moved the journal aside, and then crashed
+		assertTrue(journal.renameTo(new File(folder, "persistance.ser.compacting")));
+		p = new SerializedPersistance(db);
+		p.setValue(new String[]{"b"}, "3");
+
+		SerializedPersistance reopened = new SerializedPersistance(db);
+		assertEquals("2", reopened.getValue(new String[]{"a"}));
+		assertEquals("3", reopened.getValue(new String[]{"b"}));
+		reopened.close();
+		assertFalse(new File(folder, "persistance.ser.compacting").exists());
+		assertEquals("3", new SerializedPersistance(db).getValue(new String[]{"b"}));
+	}
+
+	@Test
+	public void testFinishedTempSnapshotIsPromoted() throws Exception {
+		SerializedPersistance p = new SerializedPersistance(db);
+		p.setValue(new String[]{"a"}, "1");
+		p.save();
+		//As if we crashed after removing the old snapshot, but before renaming the new one
+		File temp = new File(folder, "persistance.ser.tmp");
+		assertTrue(db.renameTo(temp));
+
+		assertEquals("1", new SerializedPersistance(db).getValue(new String[]{"a"}));
+		assertTrue(db.exists());
+		assertFalse(temp.exists());
+	}
+
+	@Test
+	public void testTornTempSnapshotIsNotPromoted() throws Exception {
+		SerializedPersistance p = new SerializedPersistance(db);
+		p.setValue(new String[]{"a"}, "1");
+		p.setValue(new String[]{"b"}, "2");
+		//As if we crashed while writing the very first snapshot
+		assertTrue(journal.renameTo(new File(folder, "persistance.ser.compacting")));
+		SerializedPersistance other = new SerializedPersistance(new File(folder, "other.ser"));
+		other.setValue(new String[]{"a"}, "stale");
+		other.save();
+		File temp = new File(folder, "persistance.ser.tmp");
+		assertTrue(new File(folder, "other.ser").renameTo(temp));
+		RandomAccessFile raf = new RandomAccessFile(temp, "rw");
+		raf.setLength(temp.length() - 3);
+		raf.close();
+
+		SerializedPersistance reopened = new SerializedPersistance(db);
+		assertEquals("1", reopened.getValue(new String[]{"a"}));
+		assertEquals("2", reopened.getValue(new String[]{"b"}));
+		assertFalse(temp.exists());
+		assertFalse(db.exists());
+	}
+
+	@Test
+	public void testUnreadableSnapshotFallsBackToTheJournals() throws Exception {
+		SerializedPersistance p = new SerializedPersistance(db);
+		p.setValue(new String[]{"a"}, "1");
+		p.save();
+		p.setValue(new String[]{"b"}, "2");
+		p.setValue(new String[]{"c"}, "3");
+		assertTrue(journal.renameTo(new File(folder, "persistance.ser.compacting")));
+		p = new SerializedPersistance(db);
+		p.setValue(new String[]{"c"}, "4");
+		RandomAccessFile raf = new RandomAccessFile(db, "rw");
+		raf.setLength(db.length() / 2);
+		raf.close();
+
+		SerializedPersistance reopened = new SerializedPersistance(db);
+		assertNull(reopened.getValue(new String[]{"a"}));
+		assertEquals("2", reopened.getValue(new String[]{"b"}));
+		assertEquals("4", reopened.getValue(new String[]{"c"}));
+		//The damaged snapshot is kept, rather than being overwritten by the next compaction
+		assertFalse(db.exists());
+		assertEquals(1, folder.listFiles(new FilenameFilter() {
+
+			public boolean accept(File dir, String name) {
+				return name.startsWith("persistance.ser.corrupt.");
+			}
+		}).length);
+	}
+
+	@Test
+	public void testSetThrowsWhenTheChangeCantBeWritten() throws Exception {
+		SerializedPersistance p = new SerializedPersistance(db);
+		assertNull(p.getValue(new String[]{"a"}));
+		//Nothing can be appended to a directory
+		assertTrue(journal.mkdirs());
+		try {
+			p.set(new String[]{"a"}, "1");
+			fail("Expected an IOException");
+		} catch (IOException ex) {
+			//Expected
+		}
+		//setValue only logs it
+		p.setValue(new String[]{"b"}, "2");
+		assertEquals("2", p.getValue(new String[]{"b"}));
+	}
+
+	@Test
+	public void testReadsOldDatabases() throws Exception {
+		SerializedPersistance p = new SerializedPersistance(db);
+		p.setJournaled(false);
+		p.setValue(new String[]{"a"}, "1");
+		assertFalse(journal.exists());
+		new FileOutputStream(journal).close();
+		assertEquals("1", new SerializedPersistance(db).getValue(new String[]{"a"}));
+	}
+
+	@Test(timeout = 30000)
+	public void testUnjournaledWritesDuringCompaction() throws Exception {
+		final SerializedPersistance p = new SerializedPersistance(db);
+		p.setJournaled(false);
+		p.setValue(new String[]{"a"}, "0");
+		final Exception[] error = new Exception[1];
+		Thread compactor = new Thread() {
+
+			@Override
+			public void run() {
+				try {
+					for (int i = 0; i < 200; i++) {
+						p.save();
+					}
+				} catch (Exception ex) {
+					error[0] = ex;
+				}
+			}
+		};
+		compactor.start();
+		//Each of these rewrites the snapshot, while the other thread is doing the same
+		for (int i = 0; i < 200; i++) {
+			p.setValue(new String[]{"a"}, Integer.toString(i));
+		}
+		compactor.join();
+		assertNull(error[0]);
+		assertEquals("199", new SerializedPersistance(db).getValue(new String[]{"a"}));
+	}
+
+	@Test
+	public void testNamespaceQueries() throws Exception {
+		SerializedPersistance p = new SerializedPersistance(db);
+		p.setValue(new String[]{"a", "b"}, "1");
+		p.setValue(new String[]{"a", "b", "c"}, "2");
+		p.setValue(new String[]{"a", "b", "d", "e"}, "3");
+		p.setValue(new String[]{"a", "bc"}, "4");
+		p.setValue(new String[]{"b"}, "5");
+		List<Map.Entry<String, Object>> values = p.getNamespaceValues(new String[]{"a", "b"});
+		assertEquals(3, values.size());
+		assertEquals("a.b", values.get(0).getKey());
+		assertEquals("1", values.get(0).getValue());
+		assertEquals("a.b.c", values.get(1).getKey());
+		assertEquals("a.b.d.e", values.get(2).getKey());
+		assertEquals(1, p.getNamespace(new String[]{"a", "b", "d"}).size());
+		assertEquals(Arrays.asList("a", "b", "d", "e"), Arrays.asList(p.getNamespace(new String[]{"a", "b", "d"}).get(0)));
+		assertTrue(p.isNamespaceSet(new String[]{"a", "b", "d"}));
+		assertFalse(p.isNamespaceSet(new String[]{"a", "b", "x"}));
+		assertEquals(5, p.keySet().size());
+		Map<String[], String> bulk = p.getValues(new String[]{"a", "b"});
+		assertEquals(3, bulk.size());
+		for (Map.Entry<String[], String> e : bulk.entrySet()) {
+			assertEquals(p.getValue(e.getKey()), e.getValue());
+		}
+
+		p.setValue(new String[]{"a", "b", "c"}, null);
+		assertEquals(2, p.getNamespaceValues(new String[]{"a", "b"}).size());
+		p.rawData().put("a.b.z", "6");
+		assertEquals(3, p.getNamespaceValues(new String[]{"a", "b"}).size());
+		p.clearAllData();
+		assertFalse(p.isNamespaceSet(new String[]{"a"}));
+		assertTrue(p.keySet().isEmpty());
+	}
+
+	@Test
+	public void testNamespaceQueriesAreRangeScans() throws Exception {
+		SerializedPersistance p = new SerializedPersistance(db);
+		p.setCompactionThreshold(Long.MAX_VALUE);
+		for (int i = 0; i < 100000; i++) {
+			p.setValue(new String[]{"player", "player" + i, "name"}, "player" + i);
+		}
+		long start = System.currentTimeMillis();
+		for (int i = 0; i < 10000; i++) {
+			assertEquals(1, p.getNamespaceValues(new String[]{"player", "player" + i}).size());
+		}
+		long elapsed = System.currentTimeMillis() - start;
+		//A full scan per query would take minutes
+		assertTrue("10000 namespace queries took " + elapsed + " ms", elapsed < 10000);
+	}
+}
@@ -8,15 +8,18 @@ import com.laytonsmith.persistance.io.ConnectionMixinFactory;
 import com.laytonsmith.persistance.io.ReadWriteFileConnection;
 import static com.laytonsmith.testing.StaticTest.*;
 import java.io.File;
+import java.io.IOException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.SortedSet;
 import java.util.TreeSet;
+import java.util.concurrent.Executor;
 import org.junit.After;
 import static org.junit.Assert.*;
 import org.junit.Before;
@@ -162,6 +165,45 @@ public class TestPersistance {
 		assertEquals("yml://yes.yml", getConnection("a.b.yes", "a.b.(*)=yml://$1.yml"));
 	}
 
+	@Test
+	public void testMatchSpecificity() throws Exception {
+		//The leftmost difference decides
+		assertEquals("yml://yes.yml", getConnection("a.b.c", "a.*.c=yml://no.yml", "a.b.*=yml://yes.yml"));
+		assertEquals("yml://yes.yml", getConnection("a.bc", "a.*=yml://no.yml", "a.b*=yml://yes.yml"));
+		assertEquals("yml://yes.yml", getConnection("a.b.c", "a.**=yml://no.yml", "a.*.c=yml://yes.yml"));
+		assertEquals("yml://yes.yml", getConnection("a.b.c", "**.c=yml://no.yml", "a.**=yml://yes.yml"));
+		//Longer keys only match if the filter allows for it
+		assertEquals("yml://yes.yml", getConnection("a.b.c", "a.b=yml://no.yml", "a.b.c.**=yml://no.yml", "**=yml://yes.yml"));
+	}
+
+	@Test
+	public void testMatchCapture2() throws Exception {
+		assertEquals("yml://b.c.yml", getConnection("a.b.c", "a.(**)=yml://$1.yml"));
+		assertEquals("yml://c-b.yml", getConnection("a.b.x.c", "a.(*).**.(c)=yml://$2-$1.yml"));
+		assertEquals("yml://1-2.yml", getConnection("a.x1y.x2y", "a.x(*)y.x(*)y=yml://$1-$2.yml"));
+	}
+
+	@Test
+	public void testFilterCacheIsBounded() throws Exception {
+		DataSourceFilter dsf = new DataSourceFilter("players.(*).**=yml://$1.yml", new URI("default"));
+		for (int i = 0; i < DataSourceFilter.DEFAULT_CACHE_SIZE + 100; i++) {
+			assertEquals(new URI("yml://player" + i + ".yml"), dsf.getConnection("players.player" + i + ".name"));
+		}
+		assertEquals(DataSourceFilter.DEFAULT_CACHE_SIZE, dsf.getConnectionCache().size());
+		assertEquals(100, dsf.getConnectionCache().getEvictions());
+		dsf.getConnection("players.player" + DataSourceFilter.DEFAULT_CACHE_SIZE + ".name");
+		assertEquals(1, dsf.getConnectionCache().getHits());
+	}
+
+	@Test
+	public void testLookupConnectionBypassesCache() throws Exception {
+		DataSourceFilter dsf = new DataSourceFilter("**=yml://default.yml\na.**=yml://a.yml", new URI("default"));
+		assertEquals(new URI("yml://a.yml"), dsf.lookupConnection(new String[]{"a", "b"}));
+		assertEquals(new URI("yml://default.yml"), dsf.lookupConnection(new String[]{"b", "c"}));
+		assertEquals(0, dsf.getConnectionCache().size());
+		assertEquals(dsf.getConnection("a.b"), dsf.lookupConnection(new String[]{"a", "b"}));
+	}
+
 	@Test
 	public void testMultimatch1() throws Exception {
 		assertEquals(getSet("default", "yml://yes.yml"), getConnections("a.b.c", "a.**=yml://yes.yml"));
@@ -193,6 +235,102 @@ public class TestPersistance {
 		deleteFiles("folder/");
 	}
 
+	@Test
+	public void testGetNamespaceSkipsHiddenValues() throws Exception {
+		PersistanceNetwork before = new PersistanceNetwork("**=ini://folder/hidden.ini", new URI(""), options);
+		before.set(new String[]{"a", "x"}, "hidden");
+		before.set(new String[]{"b", "x"}, "value");
+		//Now a.** is moved to its own file, so a.x in hidden.ini is no longer reachable
+		PersistanceNetwork network = new PersistanceNetwork("**=ini://folder/hidden.ini\na.**=ini://folder/hidden_a.ini", new URI(""), options);
+		network.set(new String[]{"a", "y"}, "value");
+		Map<String[], String> namespace = new HashMap<String[], String>();
+		namespace.put(new String[]{"a", "y"}, "value");
+		assertEquals(stringifyMap(namespace), stringifyMap(network.getNamespace(new String[]{"a"})));
+		assertEquals("hidden", before.get(new String[]{"a", "x"}));
+		deleteFiles("folder/");
+	}
+
+	@Test
+	public void testFileWritesAreCoalesced() throws Exception {
+		final List<Runnable> pending = new ArrayList<Runnable>();
+		//Nothing runs until we say so
+		ReadWriteFileConnection.SetExecutor(new Executor() {
+
+			public void execute(Runnable command) {
+				pending.add(command);
+			}
+		});
+		try {
+			ReadWriteFileConnection c = new ReadWriteFileConnection(new URI("yml://folder/coalesce.yml"), new File("."), "");
+			for (int i = 0; i < 100; i++) {
+				c.writeData("value" + i);
+			}
+			assertEquals(1, pending.size());
+			assertEquals(1, c.getQueueDepth());
+			assertEquals(99, c.getCoalescedWrites());
+			assertEquals(0, c.getWrites());
+			pending.remove(0).run();
+			assertEquals(1, c.getWrites());
+			assertEquals(0, c.getQueueDepth());
+			assertTrue(pending.isEmpty());
+			assertEquals("value99", FileUtility.read(new File("folder/coalesce.yml")));
+			assertFalse(new File("folder/coalesce.yml.tmp").exists());
+
+			//Once the queue is empty, it is forgotten, and the next write starts a new one
+			c.writeData("value100");
+			assertEquals(1, pending.size());
+			pending.remove(0).run();
+			assertEquals(2, c.getWrites());
+			assertEquals("value100", FileUtility.read(new File("folder/coalesce.yml")));
+		} finally {
+			ReadWriteFileConnection.SetExecutor(null);
+		}
+		deleteFiles("folder/");
+	}
+
+	@Test
+	public void testFileIsRecoveredFromBackup() throws Exception {
+		//As if a write had moved the old file aside, and then crashed
+		new File("folder").mkdirs();
+		FileUtility.write("value", new File("folder/recover.yml.bak"));
+		ReadWriteFileConnection c = new ReadWriteFileConnection(new URI("yml://folder/recover.yml"), new File("."), "");
+		assertEquals("value", c.getData());
+		assertFalse(new File("folder/recover.yml.bak").exists());
+		deleteFiles("folder/");
+	}
+
+	@Test
+	public void testConcurrentAccess() throws Exception {
+		final PersistanceNetwork network = new PersistanceNetwork("**=ini://folder/default.ini\na.**=ini://folder/a.ini", new URI(""), options);
+		final List<Throwable> errors = Collections.synchronizedList(new ArrayList<Throwable>());
+		Thread[] threads = new Thread[8];
+		for (int i = 0; i < threads.length; i++) {
+			final int t = i;
+			threads[i] = new Thread(new Runnable() {
+
+				public void run() {
+					try {
+						for (int j = 0; j < 50; j++) {
+							String[] key = new String[]{t % 2 == 0 ? "a" : "b", "t" + t, "k" + j};
+							network.set(key, "v" + j);
+							assertEquals("v" + j, network.get(key));
+						}
+					} catch (Throwable e) {
+						errors.add(e);
+					}
+				}
+			});
+			threads[i].start();
+		}
+		for (Thread t : threads) {
+			t.join();
+		}
+		assertTrue(errors.toString(), errors.isEmpty());
+		assertEquals(200, network.getNamespace(new String[]{"a"}).size());
+		assertEquals(200, network.getNamespace(new String[]{"b"}).size());
+		deleteFiles("folder/");
+	}
+
 	@Test
 	public void testHasValue() throws Exception {
 		PersistanceNetwork network = new PersistanceNetwork("**=json://folder/default.json", new URI("default"), options);
@@ -214,6 +352,158 @@ public class TestPersistance {
 		deleteFiles("folder/");
 	}
 
+	@Test
+	public void testWriteBehindCoalescesWrites() throws Exception {
+		options.setWriteBehindInterval(60000);
+		final int[] writes = new int[1];
+		StringDataSource ds = new JSONDataSource(new URI("json://folder/writebehind.json"), options) {
+			@Override
+			protected void writeData(String data) throws IOException, ReadOnlyException, DataSourceException {
+				writes[0]++;
+				super.writeData(data);
+			}
+		};
+		ds.addModifier(DataSource.DataSourceModifier.WRITEBEHIND);
+		ds.populate();
+		for (int i = 0; i < 1000; i++) {
+			ds.set(new String[]{"key" + i}, "value" + i);
+		}
+		assertEquals(0, writes[0]);
+		assertEquals("value999", ds.get(new String[]{"key999"}, false));
+		ds.disconnect();
+		assertEquals(1, writes[0]);
+		ds.disconnect();
+		assertEquals(1, writes[0]);
+		DataSource reread = DataSourceFactory.GetDataSource("json://folder/writebehind.json", options);
+		assertEquals("value0", reread.get(new String[]{"key0"}, false));
+		assertEquals("value999", reread.get(new String[]{"key999"}, false));
+		deleteFiles("folder/");
+	}
+
+	@Test
+	public void testWriteBehindFlushesAfterInterval() throws Exception {
+		options.setWriteBehindInterval(50);
+		final int[] writes = new int[1];
+		StringDataSource ds = new JSONDataSource(new URI("json://folder/writebehind.json"), options) {
+			@Override
+			protected void writeData(String data) throws IOException, ReadOnlyException, DataSourceException {
+				synchronized (writes) {
+					writes[0]++;
+				}
+				super.writeData(data);
+			}
+		};
+		ds.addModifier(DataSource.DataSourceModifier.WRITEBEHIND);
+		ds.populate();
+		ds.set(new String[]{"a"}, "1");
+		ds.set(new String[]{"b"}, "2");
+		for (int i = 0; i < 100; i++) {
+			synchronized (writes) {
+				if (writes[0] > 0) {
+					break;
+				}
+			}
+			Thread.sleep(50);
+		}
+		synchronized (writes) {
+			assertEquals(1, writes[0]);
+		}
+		DataSource reread = DataSourceFactory.GetDataSource("json://folder/writebehind.json", options);
+		assertEquals("2", reread.get(new String[]{"b"}, false));
+		deleteFiles("folder/");
+	}
+
+	@Test
+	public void testFlushWriteBehind() throws Exception {
+		options.setWriteBehindInterval(60000);
+		final int[] writes = new int[1];
+		StringDataSource ds = new INIDataSource(new URI("ini://folder/writebehind.ini"), options) {
+			@Override
+			protected void writeData(String data) throws IOException, ReadOnlyException, DataSourceException {
+				writes[0]++;
+				super.writeData(data);
+			}
+		};
+		ds.addModifier(DataSource.DataSourceModifier.WRITEBEHIND);
+		ds.populate();
+		ds.set(new String[]{"key"}, "value");
+		assertEquals(0, writes[0]);
+		AbstractDataSource.FlushWriteBehind();
+		assertEquals(1, writes[0]);
+		ds.disconnect();
+		assertEquals(1, writes[0]);
+		assertTrue(ReadWriteFileConnection.AwaitWrites(10000));
+		DataSource reread = DataSourceFactory.GetDataSource("ini://folder/writebehind.ini", options);
+		assertEquals("value", reread.get(new String[]{"key"}, false));
+		deleteFiles("folder/");
+	}
+
+	@Test
+	public void testWriteBehindIntervalSetting() throws Exception {
+		options.setWriteBehindInterval(60000);
+		PersistanceNetwork network = new PersistanceNetwork("@writebehind.interval=50\n"
+				+ "**=writebehind:ini://folder/writebehind.ini", new URI("default"), options);
+		assertEquals(60000, options.getWriteBehindInterval());
+		network.set(new String[]{"key"}, "value");
+		DataSource reread = null;
+		for (int i = 0; i < 100; i++) {
+			Thread.sleep(50);
+			reread = DataSourceFactory.GetDataSource("ini://folder/writebehind.ini", options);
+			if (reread.get(new String[]{"key"}, false) != null) {
+				break;
+			}
+		}
+		assertEquals("value", reread.get(new String[]{"key"}, false));
+		network.disconnect();
+		deleteFiles("folder/");
+	}
+
+	@Test(expected = DataSourceException.class)
+	public void testInvalidWriteBehindIntervalSetting() throws Exception {
+		new PersistanceNetwork("@writebehind.interval=soon\n**=ini://folder/default.ini", new URI("default"), options);
+	}
+
+	@Test
+	public void testSQLite() throws Exception {
+		PersistanceNetwork network = new PersistanceNetwork("**=sqlite://folder/default.db", new URI("default"), options);
+		for (String[] key : testData.keySet()) {
+			assertTrue(network.set(key, testData.get(key)));
+		}
+		assertFalse(network.set(new String[]{"a", "b"}, "value1"));
+		network.set(new String[]{"a", "bc"}, "other");
+		assertEquals("value2", network.get(new String[]{"a", "b", "c1"}));
+		assertTrue(network.hasKey(new String[]{"a", "b", "c2"}));
+		assertEquals(stringifyMap(testData), stringifyMap(network.getNamespace(new String[]{"a", "b"})));
+		network.clearKey(new String[]{"a", "b", "c2"});
+		assertFalse(network.hasKey(new String[]{"a", "b", "c2"}));
+		network.disconnect();
+
+		PersistanceNetwork reopened = new PersistanceNetwork("**=sqlite://folder/default.db", new URI("default"), options);
+		assertEquals("value1", reopened.get(new String[]{"a", "b"}));
+		assertNull(reopened.get(new String[]{"a", "b", "c2"}));
+		reopened.disconnect();
+		deleteFiles("folder/");
+	}
+
+	@Test
+	public void testSQLiteWriteBehind() throws Exception {
+		options.setWriteBehindInterval(60000);
+		DataSource ds = DataSourceFactory.GetDataSource("writebehind:sqlite://folder/batched.db", options);
+		for (int i = 0; i < 1000; i++) {
+			ds.set(new String[]{"players", "player" + i}, "value" + i);
+		}
+		//Not committed yet, but visible on this connection
+		assertEquals("value999", ds.get(new String[]{"players", "player999"}, false));
+		assertEquals(1000, ds.getNamespace(new String[]{"players"}).size());
+		ds.disconnect();
+
+		DataSource reopened = DataSourceFactory.GetDataSource("sqlite://folder/batched.db", options);
+		assertEquals("value0", reopened.get(new String[]{"players", "player0"}, false));
+		assertEquals(1000, reopened.keySet().size());
+		reopened.disconnect();
+		deleteFiles("folder/");
+	}
+
 	public String doOutput(String uri, Map<String[], String> data) {
 		try {
 			DataSource ds = DataSourceFactory.GetDataSource(uri, options);
@@ -4,6 +4,8 @@ package com.laytonsmith.testing;
 
 import com.laytonsmith.abstraction.MCPlayer;
 import com.laytonsmith.core.Static;
+import com.laytonsmith.core.constructs.CArray;
+import com.laytonsmith.core.constructs.Target;
 import com.laytonsmith.core.exceptions.ConfigCompileException;
 import com.laytonsmith.core.exceptions.ConfigRuntimeException;
 import com.laytonsmith.persistance.DataSourceException;
@@ -13,6 +15,9 @@ import java.io.File;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 import org.junit.Before;
 import org.junit.BeforeClass;
 import org.junit.Test;
@@ -375,5 +380,50 @@ public class ArrayTest {
         SRun("msg(array(0, 1, 2)[0])", fakePlayer);
         verify(fakePlayer).sendMessage("0");
     }
+    
+    @Test public void testCopyOnWrite(){
+        CArray location = new CArray(Target.UNKNOWN);
+        location.set("x", C.Int(1));
+        CArray original = new CArray(Target.UNKNOWN);
+        original.set("player", C.String("wraithguard01"));
+        original.set("location", location);
+        CArray first = original.copyOnWrite();
+        CArray second = original.copyOnWrite();
+        first.set("player", C.String("someone"));
+        ((CArray)first.get("location")).set("x", C.Int(2));
+        assertEquals("{location: {x: 2}, player: someone}", first.val());
+        assertEquals("{location: {x: 1}, player: wraithguard01}", second.val());
+        assertEquals("{location: {x: 1}, player: wraithguard01}", original.val());
+        //The original is copied before it is changed, too
+        original.remove(C.String("player"));
+        ((CArray)original.get("location")).set("y", C.Int(3));
+        assertEquals("{location: {x: 1, y: 3}}", original.val());
+        assertEquals("{location: {x: 1}, player: wraithguard01}", second.val());
+        assertEquals(1, location.size());
+    }
+    
+    @Test public void testReadingACopyOnWriteArrayDoesntCopyIt(){
+        CArray location = new CArray(Target.UNKNOWN);
+        location.set("x", C.Int(1));
+        CArray original = new CArray(Target.UNKNOWN);
+        original.set("player", C.String("wraithguard01"));
+        original.set("location", location);
+        CArray first = original.copyOnWrite();
+        CArray second = original.copyOnWrite();
+        assertEquals("wraithguard01", first.get("player").val());
+        CArray nested = (CArray)first.get("location");
+        assertEquals("1", nested.get("x").val());
+        assertSame(nested, first.get("location"));
+        assertTrue(first.isShared());
+        assertTrue(nested.isShared());
+        //Changing the nested array only copies the nested array
+        nested.set("x", C.Int(2));
+        assertFalse(nested.isShared());
+        assertTrue(first.isShared());
+        assertEquals("2", ((CArray)first.get("location")).get("x").val());
+        assertEquals("{location: {x: 2}, player: wraithguard01}", first.val());
+        assertEquals("{location: {x: 1}, player: wraithguard01}", second.val());
+        assertEquals("1", location.get("x").val());
+    }
 
 }
@@ -7,6 +7,8 @@ import com.laytonsmith.abstraction.*;
 import com.laytonsmith.abstraction.bukkit.BukkitConvertor;
 import com.laytonsmith.abstraction.bukkit.BukkitMCLocation;
 import com.laytonsmith.abstraction.bukkit.BukkitMCWorld;
+import com.laytonsmith.abstraction.events.MCPlayerJoinEvent;
+import com.laytonsmith.annotations.abstraction;
 import com.laytonsmith.annotations.convert;
 import com.laytonsmith.annotations.noboilerplate;
 import com.laytonsmith.commandhelper.CommandHelperPlugin;
@@ -14,6 +16,7 @@ import com.laytonsmith.core.*;
 import com.laytonsmith.core.constructs.*;
 import com.laytonsmith.core.events.AbstractEvent;
 import com.laytonsmith.core.events.BindableEvent;
+import com.laytonsmith.core.events.Driver;
 import com.laytonsmith.core.events.EventMixinInterface;
 import com.laytonsmith.core.exceptions.*;
 import com.laytonsmith.core.functions.BasicLogic.equals;
@@ -606,13 +609,60 @@ public class StaticTest {
         
     }
     
+    /**
+     * The test server's player join event, so the player_join driver can build one from
+     * an array, the same as it does on a real server.
+     */
+    @abstraction(type=Implementation.Type.TEST)
+    public static class FakePlayerJoinEvent implements MCPlayerJoinEvent{
+        
+        private final MCPlayer player;
+        private String message;
+        
+        public FakePlayerJoinEvent(FakePlayerJoinEvent e){
+            this.player = e.player;
+            this.message = e.message;
+        }
+        
+        private FakePlayerJoinEvent(MCPlayer player, String message){
+            this.player = player;
+            this.message = message;
+        }
+        
+        public static FakePlayerJoinEvent _instantiate(MCPlayer player, String message){
+            return new FakePlayerJoinEvent(player, message);
+        }
+
+        public MCPlayer getPlayer() {
+            return player;
+        }
+
+        public String getJoinMessage() {
+            return message;
+        }
+
+        public void setJoinMessage(String message) {
+            this.message = message;
+        }
+
+        public Object _GetObject() {
+            return this;
+        }
+        
+    }
+    
     public static class FakeServerMixin implements EventMixinInterface{
         
         public static MCPlayer fakePlayer;
+        /**
+         * The drivers the fake server is currently "listening" to.
+         */
+        public static final Set<Driver> listening = EnumSet.noneOf(Driver.class);
         public boolean cancelled = false;
+        AbstractEvent mySuper;
         
         public FakeServerMixin(AbstractEvent e){
-            
+            mySuper = e;
         }
 
         public void cancel(BindableEvent e, boolean state) {
@@ -638,6 +688,14 @@ public class StaticTest {
         public boolean isCancelled(BindableEvent o) {
             return cancelled;
         }
+
+        public void bind() {
+            listening.add(mySuper.driver());
+        }
+
+        public void unbind() {
+            listening.remove(mySuper.driver());
+        }
         
     }
     